@@ -0,0 +1,113 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja.benchmark;
+
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Synthetic inputs shared by the benchmarks, shaped like the results of
+ * /tree/{stationtype}/{datatype}/{from}/{to} requests.
+ */
+final class BenchmarkData {
+
+	static final String[] COLUMNS = {
+		"_stationtype", "_stationcode", "_datatypename", "sname", "tname",
+		"mvalidtime", "mtransactiontime", "mperiod", "mvalue"
+	};
+
+	private static final int STATIONS = 100;
+	private static final int DATATYPES = 10;
+
+	private BenchmarkData() {
+		// This is just an utility class
+	}
+
+	/**
+	 * Rows ordered by station and data type, as the database returns them
+	 * for tree representations: 100 stations with 10 data types each, and
+	 * rows / 1000 measurements per data type.
+	 */
+	static List<Map<String, Object>> measurementRows(int rows) {
+		List<Map<String, Object>> result = new ArrayList<>(rows);
+		int perType = Math.max(1, rows / (STATIONS * DATATYPES));
+		for (int i = 0; i < rows; i++) {
+			int station = i / (perType * DATATYPES);
+			int type = (i / perType) % DATATYPES;
+			Map<String, Object> row = new LinkedHashMap<>();
+			Object[] values = rowValues(station, type, i % perType);
+			for (int c = 0; c < COLUMNS.length; c++) {
+				row.put(COLUMNS[c], values[c]);
+			}
+			result.add(row);
+		}
+		return result;
+	}
+
+	static Object[] rowValues(int station, int type, int measurement) {
+		return new Object[] {
+			"ParkingStation",
+			"station-" + station,
+			"occupied-" + type,
+			"Parking station " + station,
+			"occupied-" + type,
+			"2023-01-01 00:" + (measurement % 60) + ":00.000+0000",
+			"2023-01-01 00:" + (measurement % 60) + ":05.000+0000",
+			300,
+			(double) measurement
+		};
+	}
+
+	/**
+	 * A JDBC result set positioned on a single row, implemented with a dynamic
+	 * proxy. It supports what our row mapper needs: metadata, column labels
+	 * and getObject.
+	 */
+	static ResultSet singleRowResultSet() {
+		Object[] values = rowValues(1, 1, 1);
+		values[5] = Timestamp.from(Instant.parse("2023-01-01T00:01:00Z"));
+		values[6] = Timestamp.from(Instant.parse("2023-01-01T00:01:05Z"));
+
+		ResultSetMetaData metaData = (ResultSetMetaData) Proxy.newProxyInstance(
+			BenchmarkData.class.getClassLoader(),
+			new Class<?>[] {ResultSetMetaData.class},
+			(proxy, method, args) -> {
+				switch (method.getName()) {
+					case "getColumnCount":
+						return COLUMNS.length;
+					case "getColumnLabel":
+					case "getColumnName":
+						return COLUMNS[(Integer) args[0] - 1];
+					default:
+						throw new UnsupportedOperationException(method.getName());
+				}
+			}
+		);
+
+		return (ResultSet) Proxy.newProxyInstance(
+			BenchmarkData.class.getClassLoader(),
+			new Class<?>[] {ResultSet.class},
+			(proxy, method, args) -> {
+				switch (method.getName()) {
+					case "getMetaData":
+						return metaData;
+					case "getObject":
+						return values[(Integer) args[0] - 1];
+					case "wasNull":
+						return false;
+					default:
+						throw new UnsupportedOperationException(method.getName());
+				}
+			}
+		);
+	}
+}
@@ -0,0 +1,106 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jsoniter.output.JsonStream;
+
+import it.bz.idm.bdp.ninja.config.SelectExpansionConfig;
+import it.bz.idm.bdp.ninja.utils.resultbuilder.ResultBuilderConfig;
+import it.bz.idm.bdp.ninja.utils.resultbuilder.StreamedTree;
+
+/**
+ * Writing the tree representation with {@link StreamedTree}, which builds it
+ * in partitions on pools with 1 to 8 threads. A pool with a single thread
+ * builds serially, so it is the baseline. The speedup is bounded by the
+ * cores of the machine, and by the serial writing of the JSON.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class ParallelTreeBenchmark {
+
+	@Param({"100000", "1000000"})
+	private int rows;
+
+	@Param({"1", "2", "4", "8"})
+	private int parallelism;
+
+	private List<Map<String, Object>> queryResult;
+	private ResultBuilderConfig config;
+	private ForkJoinPool pool;
+
+	@Setup
+	public void setup() {
+		queryResult = BenchmarkData.measurementRows(rows);
+		config = new ResultBuilderConfig()
+			.setShowNull(false)
+			.addExitPoint("metadatahistory", false)
+			.setEntryPoint("stationtype")
+			.setSchema(new SelectExpansionConfig().getSelectExpansion().getSchema())
+			.setMaxAllowedSizeInMB(0)
+			.setParallelThreshold(1);
+		pool = new ForkJoinPool(parallelism);
+	}
+
+	@TearDown
+	public void tearDown() {
+		pool.shutdown();
+	}
+
+	@Benchmark
+	public long writeTree() {
+		return pool.submit(() -> {
+			CountingStream out = new CountingStream();
+			try {
+				JsonStream stream = new JsonStream(out, 8192);
+				/* Not an ArrayList, so the rows do not get released and can be written again */
+				new StreamedTree(config, Collections.unmodifiableList(queryResult)).write(stream);
+				stream.flush();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return out.count;
+		}).join();
+	}
+
+	private static class CountingStream extends OutputStream {
+		long count;
+
+		@Override
+		public void write(int b) {
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+	}
+}
@@ -0,0 +1,97 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja.benchmark;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import it.bz.idm.bdp.ninja.config.SelectExpansionConfig;
+import it.bz.idm.bdp.ninja.utils.miniparser.Token;
+import it.bz.idm.bdp.ninja.utils.querybuilder.QueryBuilder;
+import it.bz.idm.bdp.ninja.utils.querybuilder.SelectExpansion;
+import it.bz.idm.bdp.ninja.utils.querybuilder.WhereClauseParser;
+
+/**
+ * Parsing select and where parameters, and assembling the SQL of a request
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class QueryBuildingBenchmark {
+
+	private static final String SELECT = "sname,scode,mvalue,mvalidtime,smetadata.capacity,tname";
+	private static final String WHERE = "and(sorigin.eq.FAMAS,or(scode.ire.\\(TRENTO|rovereto\\)\\.*,mvalue.gt.100),"
+		+ "sactive.eq.true,scoordinate.bbi.(11.05,46.45,11.35,46.55,4326),smetadata.municipality.in.(Bolzano,Merano))";
+	private static final String STATION_SELECT = "sname,scode,sorigin,scoordinate,smetadata.capacity";
+	private static final String STATION_WHERE = "and(sorigin.eq.FAMAS,or(scode.ire.\\(TRENTO|rovereto\\)\\.*,sname.ire.bozen),"
+		+ "sactive.eq.true,scoordinate.bbi.(11.05,46.45,11.35,46.55,4326),smetadata.municipality.in.(Bolzano,Merano))";
+
+	private SelectExpansion se;
+	private Set<String> stationTypes;
+
+	@Setup
+	public void setup() {
+		se = new SelectExpansionConfig().getSelectExpansion();
+		stationTypes = QueryBuilder.csvToSet("ParkingStation,EChargingStation,BikesharingStation");
+	}
+
+	@Benchmark
+	public SelectExpansion expandAll() {
+		se.setWhereClause(null);
+		se.expand("*", "station", "parent", "measurementdouble", "measurement", "datatype", "provenance");
+		return se;
+	}
+
+	@Benchmark
+	public SelectExpansion expandSelectAndWhere() {
+		se.setWhereClause(WHERE);
+		se.expand(SELECT, "station", "parent", "measurementdouble", "measurement", "datatype", "provenance");
+		return se;
+	}
+
+	@Benchmark
+	public Token parseWhere() {
+		return new WhereClauseParser(WHERE).parse();
+	}
+
+	/**
+	 * The same query as in DataFetcher.fetchStations
+	 */
+	@Benchmark
+	public String buildStationQuery() {
+		return QueryBuilder
+			.init(se, STATION_SELECT, STATION_WHERE, true, "station", "parent")
+			.addSql("select")
+			.addSql("distinct")
+			.addSql("s.stationtype as _stationtype, s.stationcode as _stationcode")
+			.expandSelectPrefix(", ", true)
+			.addSql("from station s")
+			.addSqlIfAlias("left join metadata m on m.id = s.meta_data_id", "smetadata")
+			.addSqlIfDefinition("left join station p on s.parent_id = p.id", "parent")
+			.addSqlIfAlias("left join metadata pm on pm.id = p.meta_data_id", "pmetadata")
+			.addSql("where s.available = true")
+			.addSqlIfDefinition("and (p.id is null or p.available = true)", "parent")
+			.setArrayParameterIfNotEmptyAnd("stationtypes", stationTypes, "AND s.stationtype = any(:stationtypes)", true)
+			.expandWhere()
+			.addSql("order by _stationtype, _stationcode")
+			.addLimit(200)
+			.addOffset(0)
+			.getSql();
+	}
+}
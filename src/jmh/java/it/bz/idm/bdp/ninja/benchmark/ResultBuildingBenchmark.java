@@ -0,0 +1,74 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja.benchmark;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jsoniter.output.JsonStream;
+
+import it.bz.idm.bdp.ninja.config.SelectExpansionConfig;
+import it.bz.idm.bdp.ninja.utils.resultbuilder.ResultBuilder;
+import it.bz.idm.bdp.ninja.utils.resultbuilder.ResultBuilderConfig;
+
+/**
+ * Building the tree representation out of flat rows, and serializing both
+ * representations to JSON
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class ResultBuildingBenchmark {
+
+	@Param({"10000", "100000", "1000000"})
+	private int rows;
+
+	private List<Map<String, Object>> queryResult;
+	private ResultBuilderConfig config;
+	private Map<String, Object> tree;
+
+	@Setup
+	public void setup() {
+		queryResult = BenchmarkData.measurementRows(rows);
+		config = new ResultBuilderConfig()
+			.setShowNull(false)
+			.addExitPoint("metadatahistory", false)
+			.setEntryPoint("stationtype")
+			.setSchema(new SelectExpansionConfig().getSelectExpansion().getSchema())
+			.setMaxAllowedSizeInMB(0);
+		tree = ResultBuilder.build(config, queryResult);
+	}
+
+	@Benchmark
+	public Map<String, Object> buildTree() {
+		return ResultBuilder.build(config, queryResult);
+	}
+
+	@Benchmark
+	public String serializeTree() {
+		return JsonStream.serialize(tree);
+	}
+
+	@Benchmark
+	public String serializeFlat() {
+		return JsonStream.serialize(queryResult);
+	}
+}
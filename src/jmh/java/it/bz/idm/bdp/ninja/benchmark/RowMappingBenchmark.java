@@ -0,0 +1,54 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja.benchmark;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import it.bz.idm.bdp.ninja.config.SelectExpansionConfig;
+import it.bz.idm.bdp.ninja.utils.queryexecutor.ColumnMapRowMapper;
+
+/**
+ * Mapping a single JDBC row into a column map. The result set is a dynamic
+ * proxy, which adds a small constant overhead per column.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RowMappingBenchmark {
+
+	private ColumnMapRowMapper mapper;
+	private ResultSet resultSet;
+
+	@Setup
+	public void setup() {
+		ColumnMapRowMapper.setTargetDefNameToAliasMap(
+			new SelectExpansionConfig().getSelectExpansion().getSchema().getTargetDefNameToAliasMap());
+		mapper = new ColumnMapRowMapper();
+		mapper.setTimeZone("Europe/Rome");
+		resultSet = BenchmarkData.singleRowResultSet();
+	}
+
+	@Benchmark
+	public Map<String, Object> mapRow() throws SQLException {
+		return mapper.mapRow(resultSet, 0);
+	}
+}
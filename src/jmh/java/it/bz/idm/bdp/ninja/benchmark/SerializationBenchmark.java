@@ -0,0 +1,99 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.postgis.Point;
+import org.springframework.util.LinkedCaseInsensitiveMap;
+
+import com.jsoniter.output.JsonStream;
+import com.jsoniter.spi.JsoniterSpi;
+
+import it.bz.idm.bdp.ninja.config.SelectExpansionConfig;
+import it.bz.idm.bdp.ninja.utils.jsonserializer.NodeEncoder;
+import it.bz.idm.bdp.ninja.utils.jsonserializer.PointEncoder;
+import it.bz.idm.bdp.ninja.utils.jsonserializer.RawJson;
+import it.bz.idm.bdp.ninja.utils.jsonserializer.RawJsonEncoder;
+import it.bz.idm.bdp.ninja.utils.resultbuilder.ResultBuilder;
+import it.bz.idm.bdp.ninja.utils.resultbuilder.ResultBuilderConfig;
+
+/**
+ * Serializing trees and station lists: jsoniter's reflection encoders for
+ * maps and lists against our {@link NodeEncoder}. Each encoder runs in its
+ * own fork, since encoders are registered globally.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class SerializationBenchmark {
+
+	@Param({"reflection", "node"})
+	private String encoder;
+
+	private Map<String, Object> tree;
+	private List<Map<String, Object>> stations;
+
+	@Setup
+	public void setup() {
+		if (encoder.equals("node")) {
+			NodeEncoder.register();
+		} else {
+			/* jsoniter cannot write points by reflection */
+			JsoniterSpi.registerTypeEncoder(Point.class, new PointEncoder());
+			JsoniterSpi.registerTypeEncoder(RawJson.class, new RawJsonEncoder());
+		}
+
+		ResultBuilderConfig config = new ResultBuilderConfig()
+			.setShowNull(false)
+			.addExitPoint("metadatahistory", false)
+			.setEntryPoint("stationtype")
+			.setSchema(new SelectExpansionConfig().getSelectExpansion().getSchema())
+			.setMaxAllowedSizeInMB(0);
+		tree = ResultBuilder.build(config, BenchmarkData.measurementRows(100_000));
+
+		stations = new ArrayList<>(10_000);
+		for (int i = 0; i < 10_000; i++) {
+			Point coordinate = new Point(11.0 + i / 10_000.0, 46.0 + i / 20_000.0);
+			coordinate.setSrid(4326);
+			Map<String, Object> station = new LinkedCaseInsensitiveMap<>();
+			station.put("stype", "ParkingStation");
+			station.put("scode", "station-" + i);
+			station.put("sname", "Parking station " + i);
+			station.put("sactive", i % 10 != 0);
+			station.put("savailable", true);
+			station.put("scoordinate", coordinate);
+			station.put("smetadata", RawJson.of("{\"capacity\": " + i % 500 + ", \"municipality\": \"Bolzano - Bozen\"}"));
+			stations.add(station);
+		}
+	}
+
+	@Benchmark
+	public String serializeTree() {
+		return JsonStream.serialize(tree);
+	}
+
+	@Benchmark
+	public String serializeStations() {
+		return JsonStream.serialize(stations);
+	}
+}
@@ -0,0 +1,76 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja.benchmark;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import it.bz.idm.bdp.ninja.utils.queryexecutor.TimestampFormatter;
+
+/**
+ * Formatting a history of timestamps, 10 minutes apart, in a zone with
+ * daylight saving time: the cached formatter against java.time
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TimestampFormattingBenchmark {
+
+	private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSSZ");
+	private static final long START_MICROS = Instant.parse("2023-01-01T00:00:00Z").getEpochSecond() * 1_000_000L;
+	private static final long STEP_MICROS = 600 * 1_000_000L + 123_000L;
+	private static final int HISTORY = 100_000;
+
+	private ZoneId zoneId;
+	private TimestampFormatter formatter;
+	private byte[] buffer;
+	private int i;
+
+	@Setup
+	public void setup() {
+		zoneId = ZoneId.of("Europe/Rome");
+		formatter = new TimestampFormatter(zoneId);
+		buffer = new byte[TimestampFormatter.MAX_LENGTH];
+	}
+
+	private long next() {
+		i = (i + 1) % HISTORY;
+		return START_MICROS + i * STEP_MICROS;
+	}
+
+	@Benchmark
+	public String javaTime() {
+		long micros = next();
+		Instant instant = Instant.ofEpochSecond(micros / 1_000_000L, micros % 1_000_000L * 1000L);
+		return DATE_FORMAT.format(instant.atZone(zoneId));
+	}
+
+	@Benchmark
+	public String formatter() {
+		return formatter.format(next());
+	}
+
+	@Benchmark
+	public byte[] formatterBytes() {
+		formatter.format(next(), buffer, 0);
+		return buffer;
+	}
+}
@@ -0,0 +1,139 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja.loadtest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+
+import com.jsoniter.output.JsonStream;
+
+/**
+ * End-to-end load test of the DataController against a PostGIS container
+ * filled with {@link SyntheticData}. Measures latency percentiles and
+ * throughput per endpoint, prints them, and writes them to
+ * target/loadtest-report.json, to compare runs.
+ *
+ * Run it with: mvn -Ploadtest verify
+ * It gets skipped, if there is no Docker daemon.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+@SpringBootTest(
+	webEnvironment = WebEnvironment.RANDOM_PORT,
+	properties = {
+		"ninja.quota.guest=1000000",
+		"ninja.slow-queries.explain-sample-rate=0",
+		"logging.level.root=WARN",
+		"logging.level.it.bz.idm.bdp.ninja=WARN"
+	}
+)
+public class DataControllerLoadIT {
+
+	private static final DockerImageName POSTGIS = DockerImageName
+		.parse(System.getProperty("loadtest.image", "postgis/postgis:15-3.4"))
+		.asCompatibleSubstituteFor("postgres");
+
+	@Container
+	private static final PostgreSQLContainer<?> DATABASE = new PostgreSQLContainer<>(POSTGIS)
+		.withDatabaseName("bdp")
+		.withUsername("bdp")
+		.withPassword("bdp");
+
+	private static SyntheticData data;
+
+	@LocalServerPort
+	private int port;
+
+	@DynamicPropertySource
+	static void datasource(DynamicPropertyRegistry registry) {
+		registry.add("spring.datasource.url", () -> {
+			String url = DATABASE.getJdbcUrl();
+			return url + (url.contains("?") ? "&" : "?") + "currentSchema=intimev2,public";
+		});
+		registry.add("spring.datasource.username", DATABASE::getUsername);
+		registry.add("spring.datasource.password", DATABASE::getPassword);
+	}
+
+	@BeforeAll
+	static void generateData() {
+		data = SyntheticData.fromSystemProperties();
+		SingleConnectionDataSource dataSource = new SingleConnectionDataSource(
+			DATABASE.getJdbcUrl(), DATABASE.getUsername(), DATABASE.getPassword(), true);
+		try {
+			long start = System.nanoTime();
+			data.generate(dataSource);
+			System.out.printf("Generated %d stations, %d history rows per measurement table in %.1f s%n",
+				data.getStations(), data.getHistoryRows(), (System.nanoTime() - start) / 1e9);
+		} finally {
+			dataSource.destroy();
+		}
+	}
+
+	@Test
+	public void measureEndpoints() throws IOException {
+		DateTimeFormatter format = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
+		String to = format.format(data.getEnd().plusSeconds(1));
+		String fromDay = format.format(data.getEnd().minusDays(1));
+
+		Map<String, String> endpoints = new LinkedHashMap<>();
+		endpoints.put("stationtypes", "/flat");
+		endpoints.put("stations flat", "/flat/ParkingStation");
+		endpoints.put("stations tree", "/tree/ParkingStation");
+		endpoints.put("all stations", "/flat/*?limit=-1");
+		endpoints.put("datatypes flat", "/flat/ParkingStation/*");
+		endpoints.put("latest flat", "/flat/ParkingStation/*/latest?limit=-1");
+		endpoints.put("latest tree", "/tree/ParkingStation/*/latest?limit=-1");
+		endpoints.put("latest filtered", "/flat/*/type-1/latest?where=mvalue.gt.500&limit=-1");
+		endpoints.put("history flat", "/flat/ParkingStation/type-1/" + fromDay + "/" + to + "?limit=-1");
+		endpoints.put("history tree", "/tree/ParkingStation/type-1/" + fromDay + "/" + to + "?limit=-1");
+		endpoints.put("history string", "/flat/EChargingStation/status/" + fromDay + "/" + to + "?limit=-1");
+		endpoints.put("history json", "/flat/EChargingStation/details/" + fromDay + "/" + to + "?limit=-1");
+		endpoints.put("edges", "/flat,edge/LinkStation?limit=-1");
+		endpoints.put("events", "/flat,event/PROVINCE_BZ?limit=-1");
+		endpoints.put("events latest", "/tree,event/PROVINCE_BZ/latest?limit=-1");
+
+		LoadScenario scenario = LoadScenario.fromSystemProperties("http://localhost:" + port);
+		List<Map<String, Object>> report = new ArrayList<>();
+		List<LoadScenario.Result> results = new ArrayList<>();
+		for (Map.Entry<String, String> endpoint : endpoints.entrySet()) {
+			LoadScenario.Result result = scenario.run(endpoint.getKey(), endpoint.getValue());
+			System.out.println(result);
+			results.add(result);
+			report.add(result.toMap());
+		}
+
+		Path file = Paths.get("target", "loadtest-report.json");
+		Files.createDirectories(file.getParent());
+		Files.write(file, JsonStream.serialize(report).getBytes(StandardCharsets.UTF_8));
+
+		for (LoadScenario.Result result : results) {
+			assertEquals(0, result.getErrors(), "Failed requests on " + result.getName());
+			assertTrue(result.getRequests() > 0, "No requests on " + result.getName());
+		}
+	}
+}
@@ -0,0 +1,92 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja.loadtest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+
+import it.bz.idm.bdp.ninja.quota.BucketStore.Key;
+import it.bz.idm.bdp.ninja.quota.JdbcTokenLedger;
+import it.bz.idm.bdp.ninja.quota.PricingPlan.Policy;
+
+/**
+ * {@link JdbcTokenLedger} against PostgreSQL: reservations per window, and
+ * the purge of rows of past windows.
+ *
+ * Run it with: mvn -Ploadtest verify
+ * It gets skipped, if there is no Docker daemon.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+public class JdbcTokenLedgerIT {
+
+	private static final DockerImageName POSTGIS = DockerImageName
+		.parse(System.getProperty("loadtest.image", "postgis/postgis:15-3.4"))
+		.asCompatibleSubstituteFor("postgres");
+
+	@Container
+	private static final PostgreSQLContainer<?> DATABASE = new PostgreSQLContainer<>(POSTGIS)
+		.withDatabaseName("bdp")
+		.withUsername("bdp")
+		.withPassword("bdp");
+
+	private static SingleConnectionDataSource dataSource;
+	private static NamedParameterJdbcTemplate jdbc;
+
+	@BeforeAll
+	static void connect() {
+		dataSource = new SingleConnectionDataSource(
+			DATABASE.getJdbcUrl(), DATABASE.getUsername(), DATABASE.getPassword(), true);
+		jdbc = new NamedParameterJdbcTemplate(dataSource);
+	}
+
+	@AfterAll
+	static void disconnect() {
+		dataSource.destroy();
+	}
+
+	@Test
+	public void reserveAndPurge() {
+		AtomicLong millis = new AtomicLong(1_000_000);
+		JdbcTokenLedger ledger = new JdbcTokenLedger(jdbc, true, Duration.ofSeconds(60), millis::get);
+		Key key = Key.of(Policy.ANONYMOUS, "ip", "/a");
+
+		/* The first reservation purges already, which has nothing to delete yet */
+		assertEquals(10, ledger.reserve(key, 1000, 1_001_000, 10, 25));
+		assertEquals(10, ledger.reserve(key, 1000, 1_001_000, 10, 25));
+		assertEquals(5, ledger.reserve(key, 1000, 1_001_000, 10, 25));
+		assertEquals(0, ledger.reserve(key, 1000, 1_001_000, 10, 25));
+		for (int i = 0; i < 100; i++) {
+			ledger.reserve(Key.of(Policy.ANONYMOUS, "ip", "/crawl/" + i), 1000, 1_001_000, 10, 25);
+		}
+		assertEquals(101, rows());
+
+		/* A new window starts over, but the purge is not due yet */
+		millis.set(1_001_000);
+		assertEquals(10, ledger.reserve(key, 1001, 1_002_000, 10, 25));
+		assertEquals(-1, ledger.purgeIfDue());
+		assertEquals(101, rows());
+
+		millis.set(1_061_000);
+		assertEquals(101, ledger.purgeIfDue());
+		assertEquals(0, rows());
+		assertEquals(-1, ledger.purgeIfDue());
+	}
+
+	private static int rows() {
+		return jdbc.getJdbcTemplate().queryForObject("select count(*) from ninja_rate_limit", Integer.class);
+	}
+}
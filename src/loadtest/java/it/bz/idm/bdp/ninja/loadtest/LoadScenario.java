@@ -0,0 +1,220 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja.loadtest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Closed-loop load scenario: a fixed number of clients request a single
+ * endpoint as fast as they can, for a fixed duration. Each client waits for
+ * the whole response body, before it sends the next request.
+ *
+ * A warmup phase runs before each measurement, and gets discarded. It lets the
+ * JIT compile the hot paths, and the database load the pages into its cache.
+ */
+public class LoadScenario {
+
+	private final HttpClient client;
+	private final String baseUrl;
+	private final int concurrency;
+	private final Duration warmup;
+	private final Duration duration;
+
+	/**
+	 * Latencies and throughput of a single endpoint
+	 */
+	public static final class Result {
+		private final String name;
+		private final String path;
+		private final long requests;
+		private final long errors;
+		private final long bytes;
+		private final double seconds;
+		private final long[] sortedNanos;
+
+		Result(String name, String path, long errors, long bytes, double seconds, long[] nanos) {
+			this.name = name;
+			this.path = path;
+			this.requests = nanos.length + errors;
+			this.errors = errors;
+			this.bytes = bytes;
+			this.seconds = seconds;
+			this.sortedNanos = nanos;
+			Arrays.sort(this.sortedNanos);
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getRequests() {
+			return requests;
+		}
+
+		public long getErrors() {
+			return errors;
+		}
+
+		/**
+		 * @return successful requests per second
+		 */
+		public double getThroughput() {
+			return sortedNanos.length / seconds;
+		}
+
+		/**
+		 * Latency percentile of successful requests, nearest-rank method
+		 *
+		 * @param percentile between 0 and 100
+		 */
+		public double getPercentileMillis(double percentile) {
+			if (sortedNanos.length == 0) {
+				return Double.NaN;
+			}
+			int rank = (int) Math.ceil(percentile / 100.0 * sortedNanos.length);
+			return sortedNanos[Math.max(0, Math.min(rank, sortedNanos.length) - 1)] / 1e6;
+		}
+
+		public Map<String, Object> toMap() {
+			Map<String, Object> result = new LinkedHashMap<>();
+			result.put("name", name);
+			result.put("path", path);
+			result.put("requests", requests);
+			result.put("errors", errors);
+			result.put("throughput_rps", round(getThroughput()));
+			result.put("p50_ms", round(getPercentileMillis(50)));
+			result.put("p99_ms", round(getPercentileMillis(99)));
+			result.put("max_ms", round(getPercentileMillis(100)));
+			result.put("avg_response_bytes", sortedNanos.length == 0 ? 0 : bytes / sortedNanos.length);
+			return result;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%-28s %8d req %5d err %9.1f req/s  p50 %9.2f ms  p99 %9.2f ms",
+				name, requests, errors, getThroughput(), getPercentileMillis(50), getPercentileMillis(99));
+		}
+
+		private static double round(double value) {
+			return Double.isNaN(value) ? 0 : Math.round(value * 100) / 100.0;
+		}
+	}
+
+	/**
+	 * @param baseUrl ex. http://localhost:8081, endpoint paths get appended
+	 * @param concurrency number of clients, each one on its own thread
+	 */
+	public LoadScenario(String baseUrl, int concurrency, Duration warmup, Duration duration) {
+		this.client = HttpClient.newBuilder()
+			.connectTimeout(Duration.ofSeconds(10))
+			.build();
+		this.baseUrl = baseUrl;
+		this.concurrency = concurrency;
+		this.warmup = warmup;
+		this.duration = duration;
+	}
+
+	public static LoadScenario fromSystemProperties(String baseUrl) {
+		return new LoadScenario(
+			baseUrl,
+			Integer.getInteger("loadtest.concurrency", 8),
+			Duration.ofSeconds(Integer.getInteger("loadtest.warmup-sec", 5)),
+			Duration.ofSeconds(Integer.getInteger("loadtest.duration-sec", 20))
+		);
+	}
+
+	public Result run(String name, String path) {
+		HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + path))
+			.header("Accept", "application/json")
+			.timeout(Duration.ofMinutes(2))
+			.GET()
+			.build();
+		if (!warmup.isZero()) {
+			measure(name, path, request, warmup);
+		}
+		return measure(name, path, request, duration);
+	}
+
+	private Result measure(String name, String path, HttpRequest request, Duration phase) {
+		ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+		try {
+			long start = System.nanoTime();
+			long deadline = start + phase.toNanos();
+			List<Future<Client>> futures = new ArrayList<>(concurrency);
+			for (int i = 0; i < concurrency; i++) {
+				futures.add(executor.submit(() -> new Client().run(request, deadline)));
+			}
+			long errors = 0;
+			long bytes = 0;
+			long[] nanos = new long[0];
+			for (Future<Client> future : futures) {
+				Client result = future.get();
+				errors += result.errors;
+				bytes += result.bytes;
+				int offset = nanos.length;
+				nanos = Arrays.copyOf(nanos, offset + result.count);
+				System.arraycopy(result.nanos, 0, nanos, offset, result.count);
+			}
+			double seconds = (System.nanoTime() - start) / 1e9;
+			return new Result(name, path, errors, bytes, seconds, nanos);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Load scenario interrupted", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Load scenario failed", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * A single client, with its own growable latency array, so clients do not
+	 * contend on a shared one.
+	 */
+	private final class Client {
+		private long[] nanos = new long[1024];
+		private int count;
+		private long errors;
+		private long bytes;
+
+		Client run(HttpRequest request, long deadline) throws InterruptedException {
+			while (System.nanoTime() < deadline) {
+				long start = System.nanoTime();
+				try {
+					HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+					long elapsed = System.nanoTime() - start;
+					if (response.statusCode() != 200) {
+						errors++;
+						continue;
+					}
+					if (count == nanos.length) {
+						nanos = Arrays.copyOf(nanos, count * 2);
+					}
+					nanos[count++] = elapsed;
+					bytes += response.body().length;
+				} catch (IOException e) {
+					errors++;
+					TimeUnit.MILLISECONDS.sleep(10);
+				}
+			}
+			return this;
+		}
+	}
+}
@@ -0,0 +1,158 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+/**
+ * Creates the intimev2 schema and fills it with synthetic data of a
+ * configurable volume (see loadtest/data.sql). The data gets generated inside
+ * the database with generate_series, so millions of rows take seconds and not
+ * minutes of JDBC roundtrips.
+ *
+ * Volumes are read from system properties, ex. -Dloadtest.stations=1000
+ */
+public class SyntheticData {
+
+	private final int stations;
+	private final int datatypes;
+	private final int historyRecords;
+	private final int intervalSeconds;
+	private final int edges;
+	private final int events;
+	private final LocalDateTime end;
+
+	public SyntheticData(int stations, int datatypes, int historyRecords, int intervalSeconds, int edges, int events) {
+		if (stations < 1 || datatypes < 1 || historyRecords < 1 || intervalSeconds < 1) {
+			throw new IllegalArgumentException("Stations, data types, history records and interval must be positive");
+		}
+		this.stations = stations;
+		this.datatypes = datatypes;
+		this.historyRecords = historyRecords;
+		this.intervalSeconds = intervalSeconds;
+		this.edges = edges;
+		this.events = events;
+		this.end = LocalDateTime.now(ZoneOffset.UTC).truncatedTo(ChronoUnit.HOURS);
+	}
+
+	/**
+	 * Defaults: 300 stations, 10 data types, one week of history every 10 minutes
+	 */
+	public static SyntheticData fromSystemProperties() {
+		return new SyntheticData(
+			Integer.getInteger("loadtest.stations", 300),
+			Integer.getInteger("loadtest.datatypes", 10),
+			Integer.getInteger("loadtest.history-records", 1008),
+			Integer.getInteger("loadtest.interval-sec", 600),
+			Integer.getInteger("loadtest.edges", 200),
+			Integer.getInteger("loadtest.events", 500)
+		);
+	}
+
+	public void generate(DataSource dataSource) {
+		NamedParameterJdbcTemplate npjt = new NamedParameterJdbcTemplate(dataSource);
+		MapSqlParameterSource params = new MapSqlParameterSource()
+			.addValue("stations", stations)
+			.addValue("datatypes", datatypes)
+			.addValue("historyRecords", historyRecords)
+			.addValue("intervalSeconds", intervalSeconds)
+			.addValue("edges", edges)
+			.addValue("events", events)
+			.addValue("end", end);
+		for (String script : new String[] {"loadtest/schema.sql", "loadtest/data.sql"}) {
+			for (String statement : statements(script)) {
+				npjt.update(statement, params);
+			}
+		}
+	}
+
+	/**
+	 * Rows of all double measurement histories, the biggest table
+	 */
+	public long getHistoryRows() {
+		return (long) stations * datatypes * historyRecords;
+	}
+
+	public int getStations() {
+		return stations;
+	}
+
+	public int getDatatypes() {
+		return datatypes;
+	}
+
+	public int getHistoryRecords() {
+		return historyRecords;
+	}
+
+	public int getIntervalSeconds() {
+		return intervalSeconds;
+	}
+
+	public int getEdges() {
+		return edges;
+	}
+
+	public int getEvents() {
+		return events;
+	}
+
+	/**
+	 * @return time of the latest measurement, in UTC
+	 */
+	public LocalDateTime getEnd() {
+		return end;
+	}
+
+	/**
+	 * Split a script into statements, which end with a semicolon at the end of
+	 * a line. Comment lines get dropped.
+	 */
+	static List<String> statements(String resource) {
+		List<String> result = new ArrayList<>();
+		StringBuilder statement = new StringBuilder();
+		for (String line : read(resource).split("\n")) {
+			String trimmed = line.trim();
+			if (trimmed.isEmpty() || trimmed.startsWith("--")) {
+				continue;
+			}
+			if (trimmed.endsWith(";")) {
+				statement.append(trimmed, 0, trimmed.length() - 1);
+				result.add(statement.toString());
+				statement.setLength(0);
+			} else {
+				statement.append(trimmed).append('\n');
+			}
+		}
+		if (statement.length() > 0) {
+			result.add(statement.toString());
+		}
+		return result;
+	}
+
+	private static String read(String resource) {
+		try (InputStream in = SyntheticData.class.getClassLoader().getResourceAsStream(resource)) {
+			if (in == null) {
+				throw new IllegalStateException("Load test resource " + resource + " not found");
+			}
+			return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
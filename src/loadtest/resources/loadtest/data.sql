@@ -0,0 +1,103 @@
+-- SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+--
+-- SPDX-License-Identifier: AGPL-3.0-or-later
+
+-- Synthetic data, generated within the database. All volumes are parameters:
+-- :stations, :datatypes, :historyRecords (per station and data type),
+-- :intervalSeconds (between two history records), :edges, :events, and :end,
+-- the time of the latest measurement. Station types and origins are open
+-- data, so guests see everything and the ACL filters still run.
+-- Statements are separated by a line ending with a semicolon.
+insert into provenance (uuid, data_collector, data_collector_version, lineage)
+values ('loadtest', 'loadtest-generator', '1.0.0', 'synthetic');
+
+insert into type (cname, cunit, description, rtype)
+select 'type-' || t, 'unit', 'Synthetic data type ' || t, case t % 3 when 0 then 'Mean' when 1 then 'Instantaneous' else 'Total' end
+from generate_series(1, :datatypes) t;
+
+insert into type (cname, cunit, description, rtype)
+values ('status', null, 'Synthetic string data type', 'Instantaneous'),
+       ('details', null, 'Synthetic json data type', 'Instantaneous');
+
+insert into station (name, stationtype, stationcode, origin, active, available, pointprojection)
+select
+    'Station ' || s,
+    case s % 3 when 0 then 'ParkingStation' when 1 then 'EChargingStation' else 'MeteoStation' end,
+    'station-' || s,
+    case s % 3 when 0 then 'FAMAS' when 1 then 'ALPERIA' else 'SIAG' end,
+    true,
+    true,
+    ST_SetSRID(ST_MakePoint(10.5 + random() * 1.5, 46.2 + random() * 0.8), 4326)
+from generate_series(1, :stations) s;
+
+insert into metadata (json, created_on, station_id)
+select jsonb_build_object('municipality', 'Municipality ' || (s.id % 100), 'capacity', s.id % 500, 'loadtest', true),
+    :end::timestamp - interval '1 year', s.id
+from station s;
+
+update station s set meta_data_id = m.id
+from metadata m
+where m.station_id = s.id;
+
+insert into measurementhistory (created_on, period, timestamp, double_value, provenance_id, station_id, type_id)
+select ts, 600, ts, round((random() * 1000)::numeric, 2), 1, s.id, t.id
+from station s
+cross join type t
+cross join generate_series(0, :historyRecords - 1) i
+cross join lateral (select :end::timestamp - i * :intervalSeconds * interval '1 second' as ts) x
+where t.cname like 'type-%';
+
+insert into measurement (created_on, period, timestamp, double_value, provenance_id, station_id, type_id)
+select created_on, period, timestamp, double_value, provenance_id, station_id, type_id
+from measurementhistory
+where timestamp = :end::timestamp;
+
+insert into measurementstringhistory (created_on, period, timestamp, string_value, provenance_id, station_id, type_id)
+select ts, 600, ts, (array['free', 'occupied', 'unknown'])[1 + (s.id + i) % 3], 1, s.id, t.id
+from station s
+cross join type t
+cross join generate_series(0, :historyRecords - 1) i
+cross join lateral (select :end::timestamp - i * :intervalSeconds * interval '1 second' as ts) x
+where t.cname = 'status';
+
+insert into measurementstring (created_on, period, timestamp, string_value, provenance_id, station_id, type_id)
+select created_on, period, timestamp, string_value, provenance_id, station_id, type_id
+from measurementstringhistory
+where timestamp = :end::timestamp;
+
+insert into measurementjsonhistory (created_on, period, timestamp, json_value, provenance_id, station_id, type_id)
+select ts, 3600, ts, jsonb_build_object('level', (s.id + i) % 10, 'plugs', jsonb_build_array('type2', 'ccs')), 1, s.id, t.id
+from station s
+cross join type t
+cross join generate_series(0, :historyRecords / 6) i
+cross join lateral (select :end::timestamp - i * 6 * :intervalSeconds * interval '1 second' as ts) x
+where t.cname = 'details';
+
+insert into measurementjson (created_on, period, timestamp, json_value, provenance_id, station_id, type_id)
+select created_on, period, timestamp, json_value, provenance_id, station_id, type_id
+from measurementjsonhistory
+where timestamp = :end::timestamp;
+
+insert into station (name, stationtype, stationcode, origin, active, available)
+select 'Link ' || e, 'LinkStation', 'link-' || e, 'NOI', true, true
+from generate_series(1, :edges) e;
+
+insert into edge (directed, linegeometry, edge_data_id, origin_id, destination_id)
+select true, ST_MakeLine(o.pointprojection, d.pointprojection), l.id, o.id, d.id
+from generate_series(1, :edges) e
+join station l on l.stationcode = 'link-' || e and l.stationtype = 'LinkStation'
+join station o on o.stationcode = 'station-' || (1 + e % :stations)
+join station d on d.stationcode = 'station-' || (1 + (e * 7 + 3) % :stations);
+
+insert into location (description, geometry)
+select 'Location ' || e, ST_SetSRID(ST_MakePoint(10.5 + random() * 1.5, 46.2 + random() * 0.8), 4326)
+from generate_series(1, :events) e;
+
+insert into event (uuid, origin, category, event_series_uuid, name, description, event_interval, created_on, location_id, provenance_id)
+select 'event-' || e, 'PROVINCE_BZ', (array['roadworks', 'accident', 'closure'])[1 + e % 3], 'series-' || (e % greatest(:events / 4, 1)),
+    'Event ' || e, 'Synthetic event ' || e,
+    tsrange(:end::timestamp - e * interval '1 hour', :end::timestamp - e * interval '1 hour' + interval '3 hours'),
+    :end::timestamp - e * interval '1 hour', e, 1
+from generate_series(1, :events) e;
+
+analyze;
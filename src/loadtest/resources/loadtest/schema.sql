@@ -0,0 +1,136 @@
+-- SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+--
+-- SPDX-License-Identifier: AGPL-3.0-or-later
+
+-- Minimal intimev2 schema, with all tables and columns that the DataFetcher
+-- queries. Indexes follow the ones of the production database, since they
+-- decide about the query plans we measure.
+create extension if not exists postgis;
+create schema if not exists intimev2;
+set search_path to intimev2, public;
+
+create table metadata (
+    id bigserial primary key,
+    json jsonb,
+    created_on timestamp not null default now(),
+    station_id bigint
+);
+create index on metadata (station_id, created_on);
+
+create table type_metadata (
+    id bigserial primary key,
+    json jsonb,
+    created_on timestamp not null default now(),
+    type_id bigint
+);
+
+create table provenance (
+    id bigserial primary key,
+    uuid varchar(255),
+    data_collector varchar(255) not null,
+    data_collector_version varchar(255),
+    lineage varchar(255) not null
+);
+
+create table station (
+    id bigserial primary key,
+    name varchar(255) not null,
+    stationtype varchar(255) not null,
+    stationcode varchar(255) not null,
+    origin varchar(255),
+    active boolean,
+    available boolean,
+    pointprojection geometry(Point, 4326),
+    meta_data_id bigint references metadata (id),
+    parent_id bigint references station (id),
+    unique (stationcode, stationtype)
+);
+create index on station (stationtype, origin);
+
+create table type (
+    id bigserial primary key,
+    cname varchar(255) not null unique,
+    cunit varchar(255),
+    description varchar(255),
+    rtype varchar(255),
+    meta_data_id bigint references type_metadata (id)
+);
+
+create table measurement (
+    id bigserial primary key,
+    created_on timestamp not null,
+    period integer not null,
+    timestamp timestamp not null,
+    double_value double precision not null,
+    provenance_id bigint references provenance (id),
+    station_id bigint not null references station (id),
+    type_id bigint not null references type (id),
+    unique (station_id, type_id, period)
+);
+
+create table measurementhistory (like measurement including defaults);
+alter table measurementhistory add primary key (id);
+create unique index on measurementhistory (station_id, type_id, timestamp, period);
+
+create table measurementstring (
+    id bigserial primary key,
+    created_on timestamp not null,
+    period integer not null,
+    timestamp timestamp not null,
+    string_value varchar(255) not null,
+    provenance_id bigint references provenance (id),
+    station_id bigint not null references station (id),
+    type_id bigint not null references type (id),
+    unique (station_id, type_id, period)
+);
+
+create table measurementstringhistory (like measurementstring including defaults);
+alter table measurementstringhistory add primary key (id);
+create unique index on measurementstringhistory (station_id, type_id, timestamp, period);
+
+create table measurementjson (
+    id bigserial primary key,
+    created_on timestamp not null,
+    period integer not null,
+    timestamp timestamp not null,
+    json_value jsonb,
+    provenance_id bigint references provenance (id),
+    station_id bigint not null references station (id),
+    type_id bigint not null references type (id),
+    unique (station_id, type_id, period)
+);
+
+create table measurementjsonhistory (like measurementjson including defaults);
+alter table measurementjsonhistory add primary key (id);
+create unique index on measurementjsonhistory (station_id, type_id, timestamp, period);
+
+create table edge (
+    id bigserial primary key,
+    directed boolean not null default true,
+    linegeometry geometry(LineString, 4326),
+    edge_data_id bigint references station (id),
+    origin_id bigint references station (id),
+    destination_id bigint references station (id)
+);
+
+create table location (
+    id bigserial primary key,
+    description varchar(255),
+    geometry geometry(Geometry, 4326)
+);
+
+create table event (
+    id bigserial primary key,
+    uuid varchar(255) not null unique,
+    origin varchar(255),
+    category varchar(255),
+    event_series_uuid varchar(255),
+    name varchar(255),
+    description text,
+    event_interval tsrange,
+    created_on timestamp not null default now(),
+    location_id bigint references location (id),
+    meta_data_id bigint references metadata (id),
+    provenance_id bigint references provenance (id)
+);
+create index on event (origin, event_series_uuid);
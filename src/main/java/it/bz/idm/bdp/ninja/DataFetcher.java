@@ -4,6 +4,7 @@
 
 package it.bz.idm.bdp.ninja;
 
+import java.math.BigDecimal;
 import java.time.OffsetDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
@@ -12,23 +13,30 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
-import java.util.StringJoiner;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import it.bz.idm.bdp.ninja.acl.AclRules;
+import it.bz.idm.bdp.ninja.acl.AclRules.AclType;
 import it.bz.idm.bdp.ninja.config.SelectExpansionConfig;
-import it.bz.idm.bdp.ninja.utils.FileUtils;
 import it.bz.idm.bdp.ninja.utils.Representation;
-import it.bz.idm.bdp.ninja.utils.Timer;
+import it.bz.idm.bdp.ninja.utils.jsonserializer.RawJson;
+import it.bz.idm.bdp.ninja.utils.metrics.RequestMetrics;
+import it.bz.idm.bdp.ninja.utils.metrics.RequestTrace;
+import it.bz.idm.bdp.ninja.utils.metrics.RequestTrace.Span;
 import it.bz.idm.bdp.ninja.utils.miniparser.Token;
 import it.bz.idm.bdp.ninja.utils.querybuilder.QueryBuilder;
 import it.bz.idm.bdp.ninja.utils.querybuilder.SelectExpansion;
+import it.bz.idm.bdp.ninja.utils.querybuilder.TargetDef;
 import it.bz.idm.bdp.ninja.utils.querybuilder.WhereClauseTarget;
 import it.bz.idm.bdp.ninja.utils.queryexecutor.QueryExecutor;
 import it.bz.idm.bdp.ninja.utils.simpleexception.ErrorCodeInterface;
 import it.bz.idm.bdp.ninja.utils.simpleexception.SimpleException;
+import it.bz.idm.bdp.ninja.utils.spatial.EdgeGeometryCache;
+import it.bz.idm.bdp.ninja.utils.spatial.GeometryFormat;
+import it.bz.idm.bdp.ninja.utils.spatial.SpatialFilter;
+import it.bz.idm.bdp.ninja.utils.spatial.StationIndex;
 
 import static net.logstash.logback.argument.StructuredArguments.v;
 
@@ -40,6 +48,15 @@ public class DataFetcher {
 	private static final int MEASUREMENT_TYPE_JSON = 1 << 2;
 	private static final int MEASUREMENT_TYPE_ALL = (1 << 3) - 1;
 
+	/* Vector tile resolution and the border around it in tile units, the defaults of ST_AsMVTGeom */
+	private static final int TILE_EXTENT = 4096;
+	private static final int TILE_BUFFER = 256;
+	/*
+	 * The tile in the SRID of our geometry columns: comparing the columns as they
+	 * are with && uses their spatial indexes, transforming them would not
+	 */
+	private static final String TILE_ENVELOPE = "st_transform(st_tileenvelope(:z, :x, :y), 4326)";
+
 	public enum ErrorCode implements ErrorCodeInterface {
 		WRONG_TIMEZONE("'%s' is not a valid time zone understandable by java.time.ZoneId."),
 		WHERE_WRONG_DATA_TYPE("'%s' can only be used with NULL, NUMBERS or STRINGS: '%s' given."),
@@ -66,19 +83,25 @@ public class DataFetcher {
 	private boolean distinct;
 	private String timeZone = "UTC";
 	private Map<String, Object> logPayload;
+	private String command;
+	private Representation representation;
+	private StationIndex stationIndex;
+	private EdgeGeometryCache edgeGeometryCache;
+	private double simplify;
+	private GeometryFormat geometryFormat = GeometryFormat.GEOJSON;
+	private Integer geometryPrecision;
 
 	public List<Map<String, Object>> fetchStations(String stationTypeList, final Representation representation) {
 		if (representation.isEdge()) {
 			throw new SimpleException(ErrorCode.METHOD_NOT_ALLOWED, "fetchStations", representation.getTypeAsString());
 		}
 		Set<String> stationTypeSet = QueryBuilder.csvToSet(stationTypeList);
-		Timer timer = new Timer();
-
-		timer.start();
+		RequestTrace trace = RequestTrace.current();
+		trace.start(Span.BUILD);
 		SelectExpansion se = new SelectExpansionConfig().getSelectExpansion();
-		QueryBuilder query = QueryBuilder
-				.init(se, select, where, distinct, "station", "parent")
-				.addSql("select")
+		QueryBuilder query = QueryBuilder.init(se, select, where, distinct, "station", "parent");
+		Long[] stationIds = findStationIds(se, stationTypeSet);
+		query.addSql("select")
 				.addSqlIf("distinct", distinct)
 				.addSqlIf("s.stationtype as _stationtype, s.stationcode as _stationcode", !representation.isFlat())
 				.expandSelectPrefix(", ",!representation.isFlat())
@@ -88,29 +111,27 @@ public class DataFetcher {
 				.addSqlIfAlias("left join metadata pm on pm.id = p.meta_data_id", "pmetadata")
 				.addSql("where s.available = true")
 				.addSqlIfDefinition("and (p.id is null or p.available = true)", "parent")
-				.setParameterIfNotEmptyAnd("stationtypes", stationTypeSet, "AND s.stationtype in (:stationtypes)",
+				.setArrayParameterIfNotEmptyAnd("stationtypes", stationTypeSet, "AND s.stationtype = any(:stationtypes)",
 						!stationTypeSet.contains("*"))
+				.setParameterIf("stationids", stationIds, "and s.id = any(:stationids)", stationIds != null)
 				.expandWhere()
 				.expandGroupByIf("_stationtype, _stationcode", !representation.isFlat())
 				.addSqlIf("order by _stationtype, _stationcode", !representation.isFlat())
 				.addLimit(limit)
 				.addOffset(offset);
-		long timeBuild = timer.stop();
+		trace.stop(Span.BUILD);
 
 		// We need null values while tree building. We remove them during the output
 		// generation
-		timer.start();
 		List<Map<String, Object>> queryResult = QueryExecutor
 				.init()
 				.addParameters(query.getParameters())
 				.build(query.getSql(), ignoreNull && representation.isFlat(), timeZone);
-		long timeExec = timer.stop();
 
 		LOG.debug(queryResult.toString());
 
-		Map<String, Object> logData = new HashMap<>();
-		logData.put("stationTypes", stationTypeSet);
-		setStats("fetchStations", representation, queryResult.size(), timeBuild, timeExec, query.getSql(), logData);
+		setStats("fetchStations", representation, queryResult.size(), query.getSql())
+				.put("stationTypes", stationTypeSet);
 
 		return queryResult;
 	}
@@ -120,9 +141,8 @@ public class DataFetcher {
 			throw new SimpleException(ErrorCode.METHOD_NOT_ALLOWED, "fetchStationsAndMetadata", representation.getTypeAsString());
 		}
 		Set<String> stationTypeSet = QueryBuilder.csvToSet(stationTypeList);
-		Timer timer = new Timer();
-
-		timer.start();
+		RequestTrace trace = RequestTrace.current();
+		trace.start(Span.BUILD);
 		SelectExpansion se = new SelectExpansionConfig().getSelectExpansion();
 		QueryBuilder query = QueryBuilder
 				.init(se, select, where, distinct, "station", "parent", "metadatahistory")
@@ -137,7 +157,7 @@ public class DataFetcher {
 				.addSqlIfAlias("left join metadata pm on pm.id = p.meta_data_id", "pmetadata")
 				.addSql("where s.available = true")
 				.addSqlIfDefinition("and (p.id is null or p.available = true)", "parent")
-				.setParameterIfNotEmptyAnd("stationtypes", stationTypeSet, "AND s.stationtype in (:stationtypes)",
+				.setArrayParameterIfNotEmptyAnd("stationtypes", stationTypeSet, "AND s.stationtype = any(:stationtypes)",
 						!stationTypeSet.contains("*"))
 				.setParameterIfNotNull("from", from, "and mh.created_on >= :from::timestamptz")
 				.setParameterIfNotNull("to", to, "and mh.created_on < :to::timestamptz")
@@ -146,22 +166,19 @@ public class DataFetcher {
 				.addSqlIf("order by _stationtype, _stationcode ", !representation.isFlat())
 				.addLimit(limit)
 				.addOffset(offset);
-		long timeBuild = timer.stop();
+		trace.stop(Span.BUILD);
 
 		// We need null values while tree building. We remove them during the output
 		// generation
-		timer.start();
 		List<Map<String, Object>> queryResult = QueryExecutor
 				.init()
 				.addParameters(query.getParameters())
 				.build(query.getSql(), ignoreNull && representation.isFlat(), timeZone);
-		long timeExec = timer.stop();
 
 		LOG.debug(queryResult.toString());
 
-		Map<String, Object> logData = new HashMap<>();
-		logData.put("stationTypes", stationTypeSet);
-		setStats("fetchStationsAndMetadata", representation, queryResult.size(), timeBuild, timeExec, query.getSql(), logData);
+		setStats("fetchStationsAndMetadata", representation, queryResult.size(), query.getSql())
+				.put("stationTypes", stationTypeSet);
 
 		return queryResult;
 	}
@@ -176,9 +193,8 @@ public class DataFetcher {
 		Set<String> stationTypeSet = QueryBuilder.csvToSet(stationTypeList);
 		Set<String> dataTypeSet = QueryBuilder.csvToSet(dataTypeList);
 
-		Timer timer = new Timer();
-
-		timer.start();
+		RequestTrace trace = RequestTrace.current();
+		trace.start(Span.BUILD);
 		SelectExpansion se = new SelectExpansionConfig().getSelectExpansion();
 		QueryBuilder query = QueryBuilder
 				.init(se, select, where, distinct, "station", "parent", "measurementdouble", "measurement", "datatype",
@@ -186,7 +202,10 @@ public class DataFetcher {
 
 		int measurementType = checkMeasurementType(query);
 
-		String aclWhereClause = getAclWhereClause(AclType.stations, roles);
+		/* Histories filter by time first, the station index only helps with the latest values */
+		Long[] stationIds = from == null && to == null ? findStationIds(se, stationTypeSet) : null;
+
+		String aclWhereClause = AclRules.get().getWhereClause(AclType.stations, roles);
 
 		if (hasFlag(measurementType, MEASUREMENT_TYPE_DOUBLE)) {
 			query.addSql("select")
@@ -210,10 +229,11 @@ public class DataFetcher {
 					.addSqlIfNotNull("and", aclWhereClause)
 					.addSqlIfNotNull(aclWhereClause, aclWhereClause)
 					.addSqlIfDefinition("and (p.id is null or p.available = true)", "parent")
-					.setParameterIfNotEmptyAnd("stationtypes", stationTypeSet, "and s.stationtype in (:stationtypes)",
+					.setArrayParameterIfNotEmptyAnd("stationtypes", stationTypeSet, "and s.stationtype = any(:stationtypes)",
 							!stationTypeSet.contains("*"))
-					.setParameterIfNotEmptyAnd("datatypes", dataTypeSet, "and t.cname in (:datatypes)",
+					.setArrayParameterIfNotEmptyAnd("datatypes", dataTypeSet, "and t.cname = any(:datatypes)",
 							!dataTypeSet.contains("*"))
+					.setParameterIf("stationids", stationIds, "and s.id = any(:stationids)", stationIds != null)
 					.setParameterIfNotNull("from", from, "and timestamp >= :from::timestamptz")
 					.setParameterIfNotNull("to", to, "and timestamp < :to::timestamptz")
 					.expandWhere()
@@ -248,10 +268,11 @@ public class DataFetcher {
 					.addSqlIfNotNull("and", aclWhereClause)
 					.addSqlIfNotNull(aclWhereClause, aclWhereClause)
 					.addSqlIfDefinition("and (p.id is null or p.available = true)", "parent")
-					.setParameterIfNotEmptyAnd("stationtypes", stationTypeSet, "and s.stationtype in (:stationtypes)",
+					.setArrayParameterIfNotEmptyAnd("stationtypes", stationTypeSet, "and s.stationtype = any(:stationtypes)",
 							!stationTypeSet.contains("*"))
-					.setParameterIfNotEmptyAnd("datatypes", dataTypeSet, "and t.cname in (:datatypes)",
+					.setArrayParameterIfNotEmptyAnd("datatypes", dataTypeSet, "and t.cname = any(:datatypes)",
 							!dataTypeSet.contains("*"))
+					.setParameterIf("stationids", stationIds, "and s.id = any(:stationids)", stationIds != null)
 					.setParameterIfNotNull("from", from, "and timestamp >= :from::timestamptz")
 					.setParameterIfNotNull("to", to, "and timestamp < :to::timestamptz")
 					.expandWhere()
@@ -287,10 +308,11 @@ public class DataFetcher {
 					.addSqlIfNotNull("and", aclWhereClause)
 					.addSqlIfNotNull(aclWhereClause, aclWhereClause)
 					.addSqlIfDefinition("and (p.id is null or p.available = true)", "parent")
-					.setParameterIfNotEmptyAnd("stationtypes", stationTypeSet, "and s.stationtype in (:stationtypes)",
+					.setArrayParameterIfNotEmptyAnd("stationtypes", stationTypeSet, "and s.stationtype = any(:stationtypes)",
 							!stationTypeSet.contains("*"))
-					.setParameterIfNotEmptyAnd("datatypes", dataTypeSet, "and t.cname in (:datatypes)",
+					.setArrayParameterIfNotEmptyAnd("datatypes", dataTypeSet, "and t.cname = any(:datatypes)",
 							!dataTypeSet.contains("*"))
+					.setParameterIf("stationids", stationIds, "and s.id = any(:stationids)", stationIds != null)
 					.setParameterIfNotNull("from", from, "and timestamp >= :from::timestamptz")
 					.setParameterIfNotNull("to", to, "and timestamp < :to::timestamptz")
 					.expandWhere()
@@ -301,82 +323,35 @@ public class DataFetcher {
 				.addSqlIf("order by _timestamp asc", representation.isFlat())
 				.addLimit(limit)
 				.addOffset(offset);
-		long timeBuild = timer.stop();
+		trace.stop(Span.BUILD);
 
 		// to print the query string
 		LOG.debug(query.getSql().toString());
 
 		// We need null values while tree building. We remove them during the output
-		// generation
-		timer.start();
-		List<Map<String, Object>> queryResult = QueryExecutor
+		// generation. Flat histories can have millions of rows, so we keep them columnar.
+		QueryExecutor executor = QueryExecutor
 				.init()
-				.addParameters(query.getParameters())
-				.build(query.getSql(), ignoreNull && representation.isFlat(), timeZone);
-		long timeExec = timer.stop();
+				.addParameters(query.getParameters());
+		List<Map<String, Object>> queryResult = representation.isFlat() && (from != null || to != null)
+				? executor.buildBatch(query.getSql(), ignoreNull, timeZone)
+				: executor.build(query.getSql(), ignoreNull && representation.isFlat(), timeZone);
 
-		Map<String, Object> logData = new HashMap<>();
+		String command = from == null && to == null ? "fetchMeasurement" : "fetchMeasurementHistory";
+		Map<String, Object> logData = setStats(command, representation, queryResult.size(), query.getSql());
 		logData.put("stationTypes", stationTypeSet);
 		logData.put("dataTypes", dataTypeSet);
-		String command;
-		if (from == null && to == null) {
-			command = "fetchMeasurement";
-		} else {
-			command = "fetchMeasurementHistory";
+		if (from != null || to != null) {
 			logData.put("historyRangeFrom", Objects.toString(from));
 			logData.put("historyRangeTo", Objects.toString(to));
 			if (from != null && to != null){
 				logData.put("historyRangeDays", from.until(to, ChronoUnit.DAYS));
 			}
 		}
-		setStats(command, representation, queryResult.size(), timeBuild, timeExec, query.getSql(), logData);
 
 		return queryResult;
 	}
 
-	private enum AclType{
-		stations, events;
-
-		public final Map<String, String> rulesCache = new ConcurrentHashMap<>();
-	}
-
-	private String getAclWhereClause(AclType aclType, List<String> roles) {
-		if (aclType.rulesCache.isEmpty()) {
-			LOG.debug("Loading ACL rules: type = {}", aclType.name());
-			String aclRuleFolder = "acl-rules/" + aclType.name() + "/";
-
-			String[] files = FileUtils.loadFile(aclRuleFolder + "rules.txt").split("\n");
-			for (String filename : files) {
-				if (filename.equals("ADMIN.sql")) {
-					continue;
-				}
-
-				if (filename.endsWith(".sql")) {
-					String sql = FileUtils
-							.loadFile(aclRuleFolder + filename)
-							.replaceAll("--.*\n", "\n")
-							.replaceAll("//.*\n", "\n")
-							.replaceAll("^\\s*\n", ""); // remove empty lines
-					String rolename = filename.substring(0, filename.length() - 4).toUpperCase();
-					aclType.rulesCache.put(rolename, sql);
-				}
-			}
-		}
-		LOG.debug("Constructing acl rules for roles {}", roles);
-
-		if (roles.contains("ADMIN")) {
-			return null;
-		}
-
-		StringJoiner sj = new StringJoiner(" or ", "(", ")");
-
-		for (String role : roles) {
-			sj.add(aclType.rulesCache.get(role));
-		}
-
-		return sj.toString();
-	}
-
 	public List<Map<String, Object>> fetchStationsAndTypes(String stationTypeList, String dataTypeList,
 			final Representation representation) {
 
@@ -388,9 +363,8 @@ public class DataFetcher {
 		Set<String> stationTypeSet = QueryBuilder.csvToSet(stationTypeList);
 		Set<String> dataTypeSet = QueryBuilder.csvToSet(dataTypeList);
 
-		Timer timer = new Timer();
-
-		timer.start();
+		RequestTrace trace = RequestTrace.current();
+		trace.start(Span.BUILD);
 		SelectExpansion se = new SelectExpansionConfig().getSelectExpansion();
 		QueryBuilder query = QueryBuilder
 				.init(se, select, where, distinct, "station", "parent", "datatype", "provenance");
@@ -413,9 +387,9 @@ public class DataFetcher {
 					.addSqlIfAlias("left join type_metadata tm on tm.id = t.meta_data_id", "tmetadata")
 					.addSql("where s.available = true")
 					.addSqlIfDefinition("and (p.id is null or p.available = true)", "parent")
-					.setParameterIfNotEmptyAnd("stationtypes", stationTypeSet, "and s.stationtype in (:stationtypes)",
+					.setArrayParameterIfNotEmptyAnd("stationtypes", stationTypeSet, "and s.stationtype = any(:stationtypes)",
 							!stationTypeSet.contains("*"))
-					.setParameterIfNotEmptyAnd("datatypes", dataTypeSet, "and t.cname in (:datatypes)",
+					.setArrayParameterIfNotEmptyAnd("datatypes", dataTypeSet, "and t.cname = any(:datatypes)",
 							!dataTypeSet.contains("*"))
 					.expandWhere()
 					.expandGroupByIf("_stationtype, _stationcode, _datatypename", !representation.isFlat());
@@ -442,9 +416,9 @@ public class DataFetcher {
 					.addSqlIfAlias("left join type_metadata tm on tm.id = t.meta_data_id", "tmetadata")
 					.addSql("where s.available = true")
 					.addSqlIfDefinition("and (p.id is null or p.available = true)", "parent")
-					.setParameterIfNotEmptyAnd("stationtypes", stationTypeSet, "and s.stationtype in (:stationtypes)",
+					.setArrayParameterIfNotEmptyAnd("stationtypes", stationTypeSet, "and s.stationtype = any(:stationtypes)",
 							!stationTypeSet.contains("*"))
-					.setParameterIfNotEmptyAnd("datatypes", dataTypeSet, "and t.cname in (:datatypes)",
+					.setArrayParameterIfNotEmptyAnd("datatypes", dataTypeSet, "and t.cname = any(:datatypes)",
 							!dataTypeSet.contains("*"))
 					.expandWhere()
 					.expandGroupByIf("_stationtype, _stationcode, _datatypename", !representation.isFlat());
@@ -472,9 +446,9 @@ public class DataFetcher {
 					.addSqlIfAlias("left join type_metadata tm on tm.id = t.meta_data_id", "tmetadata")
 					.addSql("where s.available = true")
 					.addSqlIfDefinition("and (p.id is null or p.available = true)", "parent")
-					.setParameterIfNotEmptyAnd("stationtypes", stationTypeSet, "and s.stationtype in (:stationtypes)",
+					.setArrayParameterIfNotEmptyAnd("stationtypes", stationTypeSet, "and s.stationtype = any(:stationtypes)",
 							!stationTypeSet.contains("*"))
-					.setParameterIfNotEmptyAnd("datatypes", dataTypeSet, "and t.cname in (:datatypes)",
+					.setArrayParameterIfNotEmptyAnd("datatypes", dataTypeSet, "and t.cname = any(:datatypes)",
 							!dataTypeSet.contains("*"))
 					.expandWhere()
 					.expandGroupByIf("_stationtype, _stationcode, _datatypename", !representation.isFlat());
@@ -483,22 +457,19 @@ public class DataFetcher {
 		query.addSqlIf("order by _stationtype, _stationcode, _datatypename", !representation.isFlat())
 				.addLimit(limit)
 				.addOffset(offset);
-		long timeBuild = timer.stop();
+		trace.stop(Span.BUILD);
 
 		// We need null values while tree building. We remove them during the output
 		// generation
-		timer.start();
 		List<Map<String, Object>> queryResult = QueryExecutor
 				.init()
 				.addParameters(query.getParameters())
 				.build(query.getSql(), ignoreNull && representation.isFlat(), timeZone);
-		long timeExec = timer.stop();
 
-		Map<String, Object> logData = new HashMap<>();
+		Map<String, Object> logData = setStats("fetchStationsAndTypes", representation, queryResult.size(),
+				query.getSql());
 		logData.put("stationTypes", stationTypeSet);
 		logData.put("dataTypes", dataTypeSet);
-		setStats("fetchStationsAndTypes", representation, queryResult.size(), timeBuild, timeExec, query.getSql(),
-				logData);
 
 		return queryResult;
 	}
@@ -510,16 +481,12 @@ public class DataFetcher {
 					representation.getTypeAsString());
 		}
 
-		Timer timer = new Timer();
-
 		String sql = "select distinct stationtype as id from station s where s.available = true order by 1";
-		timer.start();
 		List<Map<String, Object>> queryResult = QueryExecutor
 				.init()
 				.build(sql, true, timeZone);
-		long timeExec = timer.stop();
 
-		setStats("fetchStationTypes", representation, queryResult.size(), 0, timeExec, sql, null);
+		setStats("fetchStationTypes", representation, queryResult.size(), sql);
 
 		return queryResult;
 	}
@@ -531,16 +498,12 @@ public class DataFetcher {
 					representation.getTypeAsString());
 		}
 
-		Timer timer = new Timer();
-
 		String sql = "select distinct origin as id from event order by 1";
-		timer.start();
 		List<Map<String, Object>> queryResult = QueryExecutor
 				.init()
 				.build(sql, true, timeZone);
-		long timeExec = timer.stop();
 
-		setStats("fetchEventOrigins", representation, queryResult.size(), 0, timeExec, sql, null);
+		setStats("fetchEventOrigins", representation, queryResult.size(), sql);
 
 		return queryResult;
 	}
@@ -554,12 +517,13 @@ public class DataFetcher {
 
 		Set<String> originSet = QueryBuilder.csvToSet(originList);
 
-		String aclWhereClause = getAclWhereClause(AclType.events, roles);
-
-		Timer timer = new Timer();
+		String aclWhereClause = AclRules.get().getWhereClause(AclType.events, roles);
 
-		timer.start();
+		RequestTrace trace = RequestTrace.current();
+		trace.start(Span.BUILD);
 		SelectExpansion se = new SelectExpansionConfig().getSelectExpansion();
+		int precision = getGeometryPrecision();
+		se.getSchema().get("location").get("evlgeometry").setColumnFormat(geometryFormat.getColumnFormat(precision, 0));
 		QueryBuilder query = QueryBuilder
 				.init(se, select, where, distinct, "event", "location", "provenanceevent")
 				.addSqlIf(
@@ -582,7 +546,7 @@ public class DataFetcher {
 				.addSqlIf("and lat.rank = 1", latestOnly)
 				.setParameterIfNotNull("from", from, "and (upper(ev.event_interval) is null or upper(ev.event_interval) > :from::timestamp)")
 				.setParameterIfNotNull("to", to, "and lower(ev.event_interval) <= :to::timestamp")
-				.setParameterIfNotEmptyAnd("origins", originSet, "and ev.origin in (:origins)",
+				.setArrayParameterIfNotEmptyAnd("origins", originSet, "and ev.origin = any(:origins)",
 						!originSet.contains("*"))
 				.expandWhere()
 				.expandGroupByIf("_eventorigin, _eventseriesuuid, _eventuuid",
@@ -595,24 +559,23 @@ public class DataFetcher {
 						!representation.isFlat() && se.getUsedDefNames().contains("location"))
 				.addLimit(limit)
 				.addOffset(offset);
-		long timeBuild = timer.stop();
+		trace.stop(Span.BUILD);
 
 		LOG.debug(query.getSql());
 
 		// We need null values while tree building. We remove them during the output
 		// generation
-		timer.start();
 		List<Map<String, Object>> queryResult = QueryExecutor
 				.init()
 				.addParameters(query.getParameters())
 				.build(query.getSql(), ignoreNull && representation.isFlat(), timeZone);
-		long timeExec = timer.stop();
+
+		geometryFormat.encode(queryResult, "evlgeometry", precision);
 
 		LOG.trace(queryResult.toString());
 
-		Map<String, Object> logData = new HashMap<>();
-		logData.put("origins", originSet);
-		setStats("fetchEvents", representation, queryResult.size(), timeBuild, timeExec, query.getSql(), logData);
+		setStats("fetchEvents", representation, queryResult.size(), query.getSql())
+				.put("origins", originSet);
 
 		return queryResult;
 	}
@@ -623,16 +586,12 @@ public class DataFetcher {
 			throw new SimpleException(ErrorCode.METHOD_NOT_ALLOWED, "fetchEdgeTypes", representation.getTypeAsString());
 		}
 
-		Timer timer = new Timer();
-
 		String sql = "select distinct stationtype as id from edge e join station s on e.edge_data_id = s.id where s.available = true order by 1";
-		timer.start();
 		List<Map<String, Object>> queryResult = QueryExecutor
 				.init()
 				.build(sql, true, timeZone);
-		long timeExec = timer.stop();
 
-		setStats("fetchEdgeTypes", representation, queryResult.size(), 0, timeExec, sql, null);
+		setStats("fetchEdgeTypes", representation, queryResult.size(), sql);
 
 		return queryResult;
 	}
@@ -645,10 +604,20 @@ public class DataFetcher {
 
 		Set<String> stationTypeSet = QueryBuilder.csvToSet(stationTypeList);
 
-		Timer timer = new Timer();
-
-		timer.start();
+		RequestTrace trace = RequestTrace.current();
+		trace.start(Span.BUILD);
 		SelectExpansion se = new SelectExpansionConfig().getSelectExpansion();
+		int precision = getGeometryPrecision();
+		boolean cachedGeometries = edgeGeometryCache != null && geometryFormat == GeometryFormat.GEOJSON
+				&& geometryPrecision == null;
+		TargetDef geometry = se.getSchema().get("edge").get("egeometry");
+		if (cachedGeometries) {
+			/* Select a hash of the geometry, and fill in its cached GeoJSON after the query */
+			geometry.setColumnFormat(EdgeGeometryCache.KEY_COLUMN_FORMAT);
+		} else {
+			double tolerance = EdgeGeometryCache.TOLERANCES[EdgeGeometryCache.variantOf(simplify)];
+			geometry.setColumnFormat(geometryFormat.getColumnFormat(precision, tolerance));
+		}
 		QueryBuilder query = QueryBuilder
 				.init(se, select, where, distinct, "edge", "stationbegin", "stationend")
 				.addSql("select")
@@ -662,42 +631,261 @@ public class DataFetcher {
 				.addSql("where i.available = true")
 				.addSqlIfDefinition("and (o.available is null or o.available = true)", "stationbegin")
 				.addSqlIfDefinition("and (d.available is null or d.available = true)", "stationend")
-				.setParameterIfNotEmptyAnd("stationtypes", stationTypeSet, "AND i.stationtype in (:stationtypes)",
+				.setArrayParameterIfNotEmptyAnd("stationtypes", stationTypeSet, "AND i.stationtype = any(:stationtypes)",
 						!stationTypeSet.contains("*"))
 				.expandWhere()
 				.expandGroupByIf("_edgetype, _edgecode", !representation.isFlat())
 				.addSqlIf("order by _edgetype, _edgecode", !representation.isFlat())
 				.addLimit(limit)
 				.addOffset(offset);
-		long timeBuild = timer.stop();
+		trace.stop(Span.BUILD);
 
 		LOG.debug(query.getSql());
 
 		// We need null values while tree building. We remove them during the output
 		// generation
-		timer.start();
 		List<Map<String, Object>> queryResult = QueryExecutor
 				.init()
 				.addParameters(query.getParameters())
 				.build(query.getSql(), ignoreNull && representation.isFlat(), timeZone);
-		long timeExec = timer.stop();
+
+		if (cachedGeometries) {
+			edgeGeometryCache.fill(queryResult, "egeometry", simplify);
+		} else {
+			geometryFormat.encode(queryResult, "egeometry", precision);
+		}
 
 		LOG.trace(queryResult.toString());
 
-		Map<String, Object> logData = new HashMap<>();
+		Map<String, Object> logData = setStats("fetchEdges", representation, queryResult.size(), query.getSql());
 		logData.put("stationTypes", stationTypeSet);
-		setStats("fetchEdges", representation, queryResult.size(), timeBuild, timeExec, query.getSql(), logData);
+		if (simplify > 0) {
+			logData.put("simplify", simplify);
+		}
 
 		return queryResult;
 	}
 
+	/**
+	 * Fetch a Mapbox Vector Tile of stations, edges or event locations, with
+	 * the selected targets as feature properties. Tile coordinates follow the
+	 * XYZ scheme of Web Mercator (EPSG:3857), see ST_TileEnvelope.
+	 *
+	 * @param typeList station types, edge types or event origins
+	 * @return the tile, empty if no geometry falls into it
+	 */
+	public byte[] fetchTile(String typeList, int z, int x, int y, final Representation representation) {
+		Set<String> typeSet = QueryBuilder.csvToSet(typeList);
+
+		RequestTrace trace = RequestTrace.current();
+		trace.start(Span.BUILD);
+		SelectExpansion se = new SelectExpansionConfig().getSelectExpansion();
+		QueryBuilder query;
+		if (representation.isEdge()) {
+			query = QueryBuilder
+				.init(se, select, where, distinct, "edge", "stationbegin", "stationend")
+				.addSql("select st_asmvt(tile, 'edges', :extent, 'geom') as mvt, count(geom) as features from (select")
+				.addSqlIf("distinct", distinct)
+				.addSql("st_asmvtgeom(st_transform(e.linegeometry, 3857), st_tileenvelope(:z, :x, :y), :extent, :buffer) as geom")
+				.expandSelectPrefix(", ")
+				.addSql("from edge e")
+				.addSql("join station i on e.edge_data_id = i.id")
+				.addSqlIfDefinition("left join station o on e.origin_id = o.id", "stationbegin")
+				.addSqlIfDefinition("left join station d on e.destination_id = d.id", "stationend")
+				.addSql("where i.available = true")
+				.addSqlIfDefinition("and (o.available is null or o.available = true)", "stationbegin")
+				.addSqlIfDefinition("and (d.available is null or d.available = true)", "stationend")
+				.addSql("and e.linegeometry && " + TILE_ENVELOPE)
+				.setArrayParameterIfNotEmptyAnd("types", typeSet, "and i.stationtype = any(:types)",
+						!typeSet.contains("*"));
+		} else if (representation.isEvent()) {
+			String aclWhereClause = AclRules.get().getWhereClause(AclType.events, roles);
+			query = QueryBuilder
+				.init(se, select, where, distinct, "event", "location", "provenanceevent")
+				.addSql("select st_asmvt(tile, 'events', :extent, 'geom') as mvt, count(geom) as features from (select")
+				.addSqlIf("distinct", distinct)
+				.addSql("st_asmvtgeom(st_transform(loc.geometry, 3857), st_tileenvelope(:z, :x, :y), :extent, :buffer) as geom")
+				.expandSelectPrefix(", ")
+				.addSql("from event ev")
+				.addSql("join location loc on ev.location_id = loc.id")
+				.addSqlIfDefinition("left join provenance pr on ev.provenance_id = pr.id", "provenanceevent")
+				.addSqlIfAlias("left join metadata evm on evm.id = ev.meta_data_id", "evmetadata")
+				.addSql("where loc.geometry && " + TILE_ENVELOPE)
+				.addSqlIfNotNull("and", aclWhereClause)
+				.addSqlIfNotNull(aclWhereClause, aclWhereClause)
+				.setArrayParameterIfNotEmptyAnd("types", typeSet, "and ev.origin = any(:types)",
+						!typeSet.contains("*"));
+		} else {
+			/* Like fetchStations: station ACL rules refer to measurements, which are not part of this query */
+			query = QueryBuilder
+				.init(se, select, where, distinct, "station", "parent")
+				.addSql("select st_asmvt(tile, 'stations', :extent, 'geom') as mvt, count(geom) as features from (select")
+				.addSqlIf("distinct", distinct)
+				.addSql("st_asmvtgeom(st_transform(s.pointprojection, 3857), st_tileenvelope(:z, :x, :y), :extent, :buffer) as geom")
+				.expandSelectPrefix(", ")
+				.addSql("from station s")
+				.addSqlIfAlias("left join metadata m on m.id = s.meta_data_id", "smetadata")
+				.addSqlIfDefinition("left join station p on s.parent_id = p.id", "parent")
+				.addSqlIfAlias("left join metadata pm on pm.id = p.meta_data_id", "pmetadata")
+				.addSql("where s.available = true")
+				.addSqlIfDefinition("and (p.id is null or p.available = true)", "parent")
+				.addSql("and s.pointprojection && " + TILE_ENVELOPE)
+				.setArrayParameterIfNotEmptyAnd("types", typeSet, "and s.stationtype = any(:types)",
+						!typeSet.contains("*"));
+		}
+		query.expandWhere()
+			.addSql(") tile")
+			.setParameter("z", z)
+			.setParameter("x", x)
+			.setParameter("y", y)
+			.setParameter("extent", TILE_EXTENT)
+			.setParameter("buffer", TILE_BUFFER);
+		trace.stop(Span.BUILD);
+
+		LOG.debug(query.getSql());
+
+		Map<String, Object> row = QueryExecutor
+				.init()
+				.addParameters(query.getParameters())
+				.build(query.getSql(), false, timeZone)
+				.get(0);
+		byte[] tile = row.get("mvt") == null ? new byte[0] : (byte[]) row.get("mvt");
+
+		Map<String, Object> logData = setStats("fetchTile", representation, ((Number) row.get("features")).longValue(),
+				query.getSql());
+		logData.put("types", typeSet);
+		logData.put("tile_bytes", tile.length);
+
+		return tile;
+	}
+
+	/**
+	 * A cheap fingerprint of the stations, edges or events, that changes when
+	 * rows get added, removed, or switched (un)available
+	 */
+	public String fetchTileWatermark(final Representation representation) {
+		String sql;
+		if (representation.isEdge()) {
+			sql = "select count(*) || ':' || coalesce(max(id), 0) from edge";
+		} else if (representation.isEvent()) {
+			sql = "select count(*) || ':' || coalesce(max(id), 0) || ':' || coalesce(max(location_id), 0) from event";
+		} else {
+			sql = "select count(*) || ':' || count(*) filter (where available) || ':' || coalesce(max(id), 0)"
+				+ " || ':' || coalesce(max(meta_data_id), 0) from station";
+		}
+		return QueryExecutor
+				.init()
+				.buildSingleResultOrNull(sql, String.class);
+	}
+
+	/**
+	 * GeoJSON variants of the edge geometries with the given keys for the
+	 * {@link EdgeGeometryCache}. We look the edges up by the ids in the keys.
+	 * An edge, whose geometry changed since its key got selected, gets its
+	 * current geometry.
+	 */
+	public Map<String, RawJson[]> fetchEdgeGeometries(Set<String> keys) {
+		Map<Long, String> keyOfId = new HashMap<>();
+		for (String key : keys) {
+			keyOfId.put(EdgeGeometryCache.idOf(key), key);
+		}
+
+		StringBuilder sql = new StringBuilder("select id");
+		for (int i = 0; i < EdgeGeometryCache.TOLERANCES.length; i++) {
+			double tolerance = EdgeGeometryCache.TOLERANCES[i];
+			String variant = tolerance == 0
+				? "g"
+				: "st_simplifypreservetopology(g, " + BigDecimal.valueOf(tolerance).stripTrailingZeros().toPlainString() + ")";
+			sql.append(", st_asgeojson(").append(variant).append(", ").append(EdgeGeometryCache.DIGITS[i])
+				.append(", 3)::jsonb as v").append(i);
+		}
+		sql.append(" from (select e.id, st_transform(e.linegeometry, 4326) as g from edge e where e.id = any(:ids)) x");
+
+		Map<String, RawJson[]> result = new HashMap<>();
+		for (Map<String, Object> row : QueryExecutor
+				.init()
+				.addParameters(Map.of("ids", keyOfId.keySet().toArray(new Long[0])))
+				.build(sql.toString(), false, timeZone)) {
+			if (row.get("v0") == null) {
+				continue;
+			}
+			RawJson[] variants = new RawJson[EdgeGeometryCache.TOLERANCES.length];
+			for (int i = 0; i < variants.length; i++) {
+				variants[i] = (RawJson) row.get("v" + i);
+			}
+			result.put(keyOfId.get(((Number) row.get("id")).longValue()), variants);
+		}
+		return result;
+	}
+
+	/**
+	 * Fingerprints of the available stations with coordinates per station
+	 * type for the {@link StationIndex}. Station types with coordinates in
+	 * other reference systems than WGS84 have none.
+	 *
+	 * @param stationTypes to get the fingerprints of, "*" for all
+	 */
+	public Map<String, String> fetchStationIndexFingerprints(Set<String> stationTypes) {
+		String sql = "select stationtype, case when bool_and(st_srid(pointprojection) = 4326)"
+			+ " then count(*) || ':' || sum(hashtext(id || ':' || st_astext(pointprojection))) end as fingerprint"
+			+ " from station where available = true and pointprojection is not null";
+		QueryExecutor executor = QueryExecutor.init();
+		if (!stationTypes.contains("*")) {
+			sql += " and stationtype = any(:stationtypes)";
+			executor.addParameters(Map.of("stationtypes", stationTypes.toArray(new String[0])));
+		}
+		sql += " group by stationtype";
+		Map<String, String> result = new HashMap<>();
+		for (Map<String, Object> row : executor.build(sql, false, timeZone)) {
+			result.put((String) row.get("stationtype"), (String) row.get("fingerprint"));
+		}
+		return result;
+	}
+
+	public List<Map<String, Object>> fetchStationIndexPoints(String stationType) {
+		String sql = "select id, st_x(pointprojection) as x, st_y(pointprojection) as y from station"
+			+ " where available = true and pointprojection is not null and stationtype = :stationtype";
+		return QueryExecutor
+				.init()
+				.addParameters(Map.of("stationtype", stationType))
+				.build(sql, false, timeZone);
+	}
+
+	/**
+	 * Ids of the stations within the spatial filters of the where clause,
+	 * that are not nested inside an or(...), or null if there are none or
+	 * the index cannot answer. The filters stay in the SQL, the ids only
+	 * narrow down the stations, before PostGIS evaluates them.
+	 */
+	private Long[] findStationIds(SelectExpansion se, Set<String> stationTypeSet) {
+		if (stationIndex == null) {
+			return null;
+		}
+		List<SpatialFilter> filters = new ArrayList<>();
+		for (WhereClauseTarget target : se.getRequiredWhereTargets()) {
+			SpatialFilter filter = SpatialFilter.of(target);
+			if (filter != null) {
+				filters.add(filter);
+			}
+		}
+		if (filters.isEmpty()) {
+			return null;
+		}
+		List<Long> ids = stationIndex.search(stationTypeSet, filters);
+		return ids == null ? null : ids.toArray(new Long[0]);
+	}
+
 	public void logStats() {
 		LOG.info("query_execution", v("payload", logPayload));
 		LOG.debug(logPayload.get("sql").toString());
 	}
 
-	private void setStats(final String command, final Representation repr, long resultCount, long buildTime,
-			long executionTime, final String sql, Map<String, Object> extraData) {
+	/**
+	 * Fill the log payload of this query, and return it, such that callers can
+	 * add their own fields
+	 */
+	private Map<String, Object> setStats(final String command, final Representation repr, long resultCount,
+			final String sql) {
 		if (logPayload == null) {
 			logPayload = new HashMap<>();
 		} else {
@@ -705,15 +893,30 @@ public class DataFetcher {
 			logPayload.clear();
 		}
 
+		this.command = command;
+		this.representation = repr;
+		RequestTrace trace = RequestTrace.current();
+		trace.setCommand(command, repr);
+
+		/* Log times in milliseconds as before, execution includes the row mapping */
 		logPayload.put("command", command);
 		logPayload.put("representation", repr);
 		logPayload.put("result_count", resultCount);
-		logPayload.put("build_time", Long.valueOf(buildTime));
-		logPayload.put("execution_time", Long.valueOf(executionTime));
+		logPayload.put("build_time", Long.valueOf(trace.getNanos(Span.BUILD) / 1_000_000));
+		logPayload.put("execution_time",
+				Long.valueOf((trace.getNanos(Span.EXECUTE) + trace.getNanos(Span.MAP)) / 1_000_000));
 		logPayload.put("sql", sql);
-		if (extraData != null) {
-			logPayload.putAll(extraData);
-		}
+
+		RequestMetrics.recordRows(command, repr, resultCount);
+		return logPayload;
+	}
+
+	public String getCommand() {
+		return command;
+	}
+
+	public Representation getRepresentation() {
+		return representation;
 	}
 
 	public Map<String, Object> getStats() {
@@ -728,6 +931,34 @@ public class DataFetcher {
 		this.offset = offset;
 	}
 
+	public void setEdgeGeometryCache(EdgeGeometryCache edgeGeometryCache) {
+		this.edgeGeometryCache = edgeGeometryCache;
+	}
+
+	/**
+	 * @param simplify tolerance in degrees for edge geometries, 0 for none
+	 */
+	public void setSimplify(double simplify) {
+		this.simplify = simplify;
+	}
+
+	/**
+	 * @param geometryFormat of edge and event location geometries
+	 * @param geometryPrecision decimal digits of their coordinates, null for the default of the format
+	 */
+	public void setGeometryFormat(GeometryFormat geometryFormat, Integer geometryPrecision) {
+		this.geometryFormat = geometryFormat;
+		this.geometryPrecision = geometryPrecision;
+	}
+
+	private int getGeometryPrecision() {
+		return geometryPrecision == null ? geometryFormat.getDefaultPrecision() : geometryPrecision;
+	}
+
+	public void setStationIndex(StationIndex stationIndex) {
+		this.stationIndex = stationIndex;
+	}
+
 	public void setRoles(List<String> roles) {
 		if (roles == null) {
 			roles = new ArrayList<>();
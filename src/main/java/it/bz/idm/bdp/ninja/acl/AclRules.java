@@ -0,0 +1,261 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja.acl;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import it.bz.idm.bdp.ninja.utils.FileUtils;
+
+/**
+ * Access control rules as SQL predicates, one file per role and {@link AclType}.
+ *
+ * An instance is an immutable snapshot of all rules, loaded and validated at
+ * once. The combined predicate of a role set is memoized, hence the same roles
+ * result always in the same SQL string, regardless of their order.
+ *
+ * Use {@link #setup} once at startup. If a rules directory on the file system
+ * is given, it replaces the bundled rules and gets reloaded whenever a file
+ * therein changes. An invalid reload is logged, and the previous rules stay
+ * active.
+ */
+public class AclRules {
+
+	private static final Logger LOG = LoggerFactory.getLogger(AclRules.class);
+
+	private static final String CLASSPATH_FOLDER = "acl-rules/";
+	private static final String RULES_INDEX = "rules.txt";
+	private static final String ROLE_ADMIN = "ADMIN";
+
+	public enum AclType {
+		stations,
+		events;
+	}
+
+	private static volatile AclRules current;
+	private static Path rulesDir;
+	private static long reloadIntervalMillis;
+	private static volatile long nextReloadCheck;
+
+	/* role name --> SQL predicate, per ACL type */
+	private final Map<AclType, Map<String, String>> rules;
+
+	/* sorted role set --> combined SQL predicate, per ACL type */
+	private final Map<AclType, Map<Set<String>, String>> whereClauseCache = new EnumMap<>(AclType.class);
+
+	private final long lastModified;
+
+	private AclRules(Map<AclType, Map<String, String>> rules, long lastModified) {
+		this.rules = rules;
+		this.lastModified = lastModified;
+		for (AclType aclType : AclType.values()) {
+			whereClauseCache.put(aclType, new ConcurrentHashMap<>());
+		}
+	}
+
+	/**
+	 * Load and validate all ACL rules, and make them available through
+	 * {@link #get()}.
+	 *
+	 * @param rulesDirectory file system folder with one sub-folder per {@link AclType},
+	 *                       or null/empty to use the rules bundled within the classpath
+	 * @param reloadIntervalSeconds how often to check the rules directory for changes,
+	 *                              0 or less disables reloading
+	 */
+	public static synchronized void setup(String rulesDirectory, long reloadIntervalSeconds) {
+		if (AclRules.current != null) {
+			throw new RuntimeException("AclRules.setup can only be called once");
+		}
+		rulesDir = rulesDirectory == null || rulesDirectory.isBlank() ? null : Paths.get(rulesDirectory);
+		reloadIntervalMillis = rulesDir == null ? 0 : reloadIntervalSeconds * 1000;
+		current = rulesDir == null ? loadFromClasspath() : loadFromDirectory(rulesDir);
+		nextReloadCheck = System.currentTimeMillis() + reloadIntervalMillis;
+		LOG.info("ACL rules loaded from {}: {}", rulesDir == null ? "classpath" : rulesDir, current.rules);
+	}
+
+	public static AclRules get() {
+		if (current == null) {
+			throw new RuntimeException("Missing ACL rules. Run AclRules.setup before usage.");
+		}
+		if (reloadIntervalMillis > 0 && System.currentTimeMillis() >= nextReloadCheck) {
+			reloadIfModified();
+		}
+		return current;
+	}
+
+	private static synchronized void reloadIfModified() {
+		long now = System.currentTimeMillis();
+		if (now < nextReloadCheck) {
+			return;
+		}
+		nextReloadCheck = now + reloadIntervalMillis;
+		try {
+			if (lastModified(rulesDir) == current.lastModified) {
+				return;
+			}
+			current = loadFromDirectory(rulesDir);
+			LOG.info("ACL rules reloaded from {}: {}", rulesDir, current.rules);
+		} catch (RuntimeException e) {
+			LOG.error("ACL rules reload failed, keeping the previous rules", e);
+		}
+	}
+
+	public static AclRules loadFromClasspath() {
+		return load(relativeFilename -> FileUtils.loadFile(CLASSPATH_FOLDER + relativeFilename), 0);
+	}
+
+	public static AclRules loadFromDirectory(Path directory) {
+		return load(relativeFilename -> {
+			try {
+				return Files.readString(directory.resolve(relativeFilename), StandardCharsets.UTF_8);
+			} catch (IOException e) {
+				throw new RuntimeException("Unable to read ACL rule file " + directory.resolve(relativeFilename), e);
+			}
+		}, lastModified(directory));
+	}
+
+	private interface RuleLoader {
+		String load(String relativeFilename);
+	}
+
+	private static AclRules load(RuleLoader loader, long lastModified) {
+		Map<AclType, Map<String, String>> rules = new EnumMap<>(AclType.class);
+		for (AclType aclType : AclType.values()) {
+			Map<String, String> rulesOfType = new TreeMap<>();
+			String[] files = loader.load(aclType.name() + "/" + RULES_INDEX).split("\n");
+			for (String filename : files) {
+				filename = filename.trim();
+				if (!filename.endsWith(".sql")) {
+					continue;
+				}
+				String rolename = filename.substring(0, filename.length() - 4).toUpperCase();
+				if (rolename.equals(ROLE_ADMIN)) {
+					continue;
+				}
+				String sql = cleanup(loader.load(aclType.name() + "/" + filename));
+				validate(aclType, filename, sql);
+				rulesOfType.put(rolename, sql);
+			}
+			rules.put(aclType, Collections.unmodifiableMap(rulesOfType));
+		}
+		return new AclRules(Collections.unmodifiableMap(rules), lastModified);
+	}
+
+	private static String cleanup(String sql) {
+		return (sql + "\n")
+			.replaceAll("--.*\n", "\n")
+			.replaceAll("//.*\n", "\n")
+			.replaceAll("(?m)^\\s*\n", "") // remove empty lines
+			.trim();
+	}
+
+	/**
+	 * Rules get concatenated into other queries, so we reject everything that could
+	 * break out of a single parenthesized predicate.
+	 */
+	private static void validate(AclType aclType, String filename, String sql) {
+		String error = null;
+		if (sql.isEmpty()) {
+			error = "empty predicate";
+		}
+		int depth = 0;
+		boolean quoted = false;
+		for (int i = 0; i < sql.length() && error == null; i++) {
+			char c = sql.charAt(i);
+			if (c == '\'') {
+				quoted = !quoted;
+			} else if (quoted) {
+				continue;
+			} else if (c == '(') {
+				depth++;
+			} else if (c == ')') {
+				depth--;
+				if (depth < 0) {
+					error = "unbalanced parentheses";
+				}
+			} else if (c == ';') {
+				error = "statement separators are not allowed";
+			}
+		}
+		if (error == null && quoted) {
+			error = "unterminated string literal";
+		}
+		if (error == null && depth != 0) {
+			error = "unbalanced parentheses";
+		}
+		if (error != null) {
+			throw new RuntimeException(String.format("ACL rule %s/%s is invalid: %s", aclType.name(), filename, error));
+		}
+	}
+
+	private static long lastModified(Path directory) {
+		long result = 0;
+		for (AclType aclType : AclType.values()) {
+			Path folder = directory.resolve(aclType.name());
+			try (var files = Files.list(folder)) {
+				/* The folder itself changes, if files get added or removed */
+				result = Math.max(result, Files.getLastModifiedTime(folder).toMillis());
+				for (Path file : (Iterable<Path>) files::iterator) {
+					result = Math.max(result, Files.getLastModifiedTime(file).toMillis());
+				}
+			} catch (IOException e) {
+				throw new RuntimeException("Unable to list ACL rule files in " + folder, e);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Get the SQL predicate, that restricts data to what the given roles are allowed to see.
+	 *
+	 * @param aclType stations or events
+	 * @param roles of the current user
+	 * @return an OR-combined predicate, or null if no restriction applies (ADMIN)
+	 */
+	public String getWhereClause(AclType aclType, List<String> roles) {
+		if (roles.contains(ROLE_ADMIN)) {
+			return null;
+		}
+		return whereClauseCache
+			.get(aclType)
+			.computeIfAbsent(new TreeSet<>(roles), sortedRoles -> buildWhereClause(aclType, sortedRoles));
+	}
+
+	private String buildWhereClause(AclType aclType, Set<String> sortedRoles) {
+		StringJoiner sj = new StringJoiner(" or ", "(", ")");
+		/* None of the roles has a rule, so nothing is visible */
+		sj.setEmptyValue("(false)");
+		for (String role : sortedRoles) {
+			String sql = rules.get(aclType).get(role);
+			if (sql == null) {
+				LOG.debug("No ACL rule for role {} and type {}", role, aclType.name());
+				continue;
+			}
+			sj.add(sql);
+		}
+		String result = sj.toString();
+		LOG.debug("Constructed ACL rules for roles {}: {}", sortedRoles, result);
+		return result;
+	}
+
+	public Map<String, String> getRules(AclType aclType) {
+		return rules.get(aclType);
+	}
+}
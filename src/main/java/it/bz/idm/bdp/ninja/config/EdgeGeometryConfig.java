@@ -0,0 +1,34 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import it.bz.idm.bdp.ninja.DataFetcher;
+import it.bz.idm.bdp.ninja.utils.spatial.EdgeGeometryCache;
+
+/**
+ * GeoJSON cache of edge geometries, see ninja.edges.*
+ */
+@Configuration
+public class EdgeGeometryConfig {
+
+	@Value("${ninja.edges.geometry-cache.max-size-mb:64}")
+	private long maxSizeMb;
+
+	@Bean
+	public EdgeGeometryCache edgeGeometryCache() {
+		return new EdgeGeometryCache(maxSizeMb * 1024 * 1024, keys -> new DataFetcher().fetchEdgeGeometries(keys));
+	}
+
+	@Bean
+	public MeterBinder edgeGeometryCacheMetrics(EdgeGeometryCache edgeGeometryCache) {
+		return registry -> CaffeineCacheMetrics.monitor(registry, edgeGeometryCache.getCache(), "edgegeometries");
+	}
+}
@@ -8,6 +8,8 @@ package it.bz.idm.bdp.ninja.config;
 import java.util.Date;
 import java.util.Map;
 
+import javax.servlet.http.HttpServletResponse;
+
 import org.postgresql.util.PSQLException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,13 +37,15 @@ public class ErrorResponseConfig extends ResponseEntityExceptionHandler {
 	private static final Logger log = LoggerFactory.getLogger(ErrorResponseConfig.class);
 
 	@ExceptionHandler
-	public ResponseEntity<Object> handleException(Exception ex) {
+	public ResponseEntity<Object> handleException(Exception ex, HttpServletResponse response) throws Exception {
+		rethrowIfCommitted(ex, response);
 		log.error(ex.getMessage(), ex);
 		return buildResponse(HttpStatus.INTERNAL_SERVER_ERROR, ex);
 	}
 
 	@ExceptionHandler
-	public ResponseEntity<Object> handleException(SimpleException ex) {
+	public ResponseEntity<Object> handleException(SimpleException ex, HttpServletResponse response) {
+		rethrowIfCommitted(ex, response);
 		return buildResponse(HttpStatus.BAD_REQUEST, ex);
 	}
 
@@ -75,6 +79,17 @@ public class ErrorResponseConfig extends ResponseEntityExceptionHandler {
 		return response;
 	}
 
+	/**
+	 * Streamed responses can fail after their first bytes have been sent, ex.
+	 * if they exceed the maximum size. An error response would get appended
+	 * to them, so we leave it to the container, which closes the connection.
+	 */
+	private static <E extends Exception> void rethrowIfCommitted(E ex, HttpServletResponse response) throws E {
+		if (response.isCommitted()) {
+			throw ex;
+		}
+	}
+
 	private ResponseEntity<Object> buildResponse(final HttpStatus httpStatus, final Exception exception) {
 		String message = (exception == null || exception.getMessage() == null) ? exception.getClass().getSimpleName() : exception.getMessage();
 		message = message.replace("\\n", " ").replace("\"", "'");
@@ -0,0 +1,25 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import it.bz.idm.bdp.ninja.utils.SecurityUtils;
+
+/**
+ * Meters that Spring Boot does not bind by itself. Hikari pool metrics
+ * (hikaricp.*) and the request pipeline (ninja.*) get registered elsewhere.
+ */
+@Configuration
+public class MetricsConfig {
+
+	@Bean
+	public MeterBinder tokenRolesCacheMetrics() {
+		return registry -> CaffeineCacheMetrics.monitor(registry, SecurityUtils.getTokenRolesCache(), "token_roles");
+	}
+}
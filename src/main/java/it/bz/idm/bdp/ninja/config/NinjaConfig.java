@@ -13,11 +13,12 @@ import org.springframework.stereotype.Component;
 
 import java.util.TimeZone;
 
-import com.jsoniter.output.JsonStream;
-
+import it.bz.idm.bdp.ninja.acl.AclRules;
+import it.bz.idm.bdp.ninja.utils.jsonserializer.JsonFormat;
 import it.bz.idm.bdp.ninja.utils.jsonserializer.JsonIterPostgresSupport;
 import it.bz.idm.bdp.ninja.utils.queryexecutor.ColumnMapRowMapper;
 import it.bz.idm.bdp.ninja.utils.queryexecutor.QueryExecutor;
+import it.bz.idm.bdp.ninja.utils.queryexecutor.SlowQueryLog;
 
 
 @Component
@@ -26,9 +27,18 @@ public class NinjaConfig implements ApplicationListener<ContextRefreshedEvent> {
 	@Autowired
     NamedParameterJdbcTemplate jdbcTemplate;
 
+	@Autowired
+	SlowQueryLog slowQueryLog;
+
 	@Value("${server.compression.enabled:true}")
 	private boolean enableCompression4JSON;
 
+	@Value("${ninja.acl.rules-dir:}")
+	private String aclRulesDir;
+
+	@Value("${ninja.acl.reload-interval-sec:30}")
+	private long aclReloadIntervalSec;
+
     private boolean alreadySetup = false;
 
 	@Override
@@ -39,14 +49,19 @@ public class NinjaConfig implements ApplicationListener<ContextRefreshedEvent> {
 
 		/* Set the query builder, JDBC template's row mapper and JSON parser up */
 		QueryExecutor.setup(jdbcTemplate);
+		QueryExecutor.setSlowQueryLog(slowQueryLog);
 
 		/* Set the global timezone for this Java application */
 		TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
 
+		/* Load and validate ACL rules now, to fail early on broken rule files */
+		AclRules.setup(aclRulesDir, aclReloadIntervalSec);
+
 		ColumnMapRowMapper.setTargetDefNameToAliasMap(new SelectExpansionConfig().getSelectExpansion().getSchema().getTargetDefNameToAliasMap());
 
+		/* Uncompressed responses are for development, so pretty-print them unless requested otherwise */
 		if (!enableCompression4JSON) {
-			JsonStream.setIndentionStep(4);
+			JsonFormat.setDefault(JsonFormat.PRETTY);
 		}
 		JsonIterPostgresSupport.enable();
 	}
@@ -0,0 +1,63 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja.config;
+
+import java.time.Duration;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import it.bz.idm.bdp.ninja.quota.BucketStore;
+import it.bz.idm.bdp.ninja.quota.JdbcTokenLedger;
+import it.bz.idm.bdp.ninja.quota.LocalBucketStore;
+import it.bz.idm.bdp.ninja.quota.SharedBucketStore;
+
+/**
+ * Selects the rate limit {@link BucketStore} with ninja.quota.store (local or jdbc)
+ */
+@Configuration
+public class QuotaStoreConfig {
+
+	@Value("${ninja.quota.store:local}")
+	private String store;
+
+	@Value("${ninja.quota.buckets.max-size:100000}")
+	private long maxSize;
+
+	@Value("${ninja.quota.buckets.expire-after-idle-sec:60}")
+	private long expireAfterIdleSec;
+
+	@Value("${ninja.quota.store.jdbc.lease-size:10}")
+	private long leaseSize;
+
+	@Value("${ninja.quota.store.jdbc.create-table:false}")
+	private boolean createTable;
+
+	@Value("${ninja.quota.store.jdbc.purge-interval-sec:60}")
+	private long purgeIntervalSec;
+
+	@Bean
+	public BucketStore bucketStore(MeterRegistry registry, ObjectProvider<NamedParameterJdbcTemplate> jdbcTemplate) {
+		switch (store) {
+			case "local":
+				return new LocalBucketStore(Duration.ofSeconds(expireAfterIdleSec), registry);
+			case "jdbc":
+				return new SharedBucketStore(
+					new JdbcTokenLedger(jdbcTemplate.getObject(), createTable, Duration.ofSeconds(purgeIntervalSec)),
+					leaseSize,
+					maxSize,
+					registry
+				);
+			default:
+				throw new IllegalArgumentException(
+					String.format("Unknown ninja.quota.store '%s'. Use local or jdbc.", store)
+				);
+		}
+	}
+}
@@ -286,13 +286,18 @@ public class SelectExpansionConfig {
 		se.addOperator("JSON/STRING", "nre", "%c#>>'{%j}' !~ %v");
 		se.addOperator("JSON/STRING", "nire", "%c#>>'{%j}' !~* %v");
 
-		/* LIST operators */
-		se.addOperator("LIST/NUMBER", "in", "%c in (%v)");
-		se.addOperator("LIST/STRING", "in", "%c in (%v)");
+		/*
+		 * LIST operators
+		 * %a binds the whole list as a single SQL array parameter. The SQL text stays
+		 * the same for any list length, so prepared statements can be reused. Lists
+		 * of NULLs have no array type, so we keep the expanded variant for them.
+		 */
+		se.addOperator("LIST/NUMBER", "in", "%c = any(%a)");
+		se.addOperator("LIST/STRING", "in", "%c = any(%a)");
 		se.addOperator("LIST/NULL", "in", "%c in (%v)");
 
-		se.addOperator("LIST/NUMBER", "nin", "%c not in (%v)");
-		se.addOperator("LIST/STRING", "nin", "%c not in (%v)");
+		se.addOperator("LIST/NUMBER", "nin", "%c <> all(%a)");
+		se.addOperator("LIST/STRING", "nin", "%c <> all(%a)");
 		se.addOperator("LIST/NULL", "nin", "%c not in (%v)");
 
 		Consumer checkMakeEnvelope = new Consumer() {
@@ -315,13 +320,13 @@ public class SelectExpansionConfig {
 		se.addOperator("LIST/NUMBER", "dlt", "ST_Distance(%c::geography, ST_Transform(ST_SetSRID(ST_Point(%v[1:3]), coalesce(%v[3], 4326)),4326)::geography, false) < %v[0]", checkDistance);
 
 		/* JSON/LIST operators */
-		se.addOperator("JSON/LIST/STRING", "in", "%c#>>'{%j}' in (%v)");
-		se.addOperator("JSON/LIST/NUMBER", "in", "(%c#>'{%j}')::double precision in (%v)");
+		se.addOperator("JSON/LIST/STRING", "in", "%c#>>'{%j}' = any(%a)");
+		se.addOperator("JSON/LIST/NUMBER", "in", "(%c#>'{%j}')::double precision = any(%a)");
 		se.addOperator("JSON/LIST/NULL", "in", "%c#>'{%j}' in (%v)");
 		se.addOperator("JSON/LIST/MIXED", "in", "%c#>'{%j}' in (%v)");
 
-		se.addOperator("JSON/LIST/STRING", "nin", "%c#>>'{%j}' not in (%v)");
-		se.addOperator("JSON/LIST/NUMBER", "nin", "(%c#>'{%j}')::double precision not in (%v)");
+		se.addOperator("JSON/LIST/STRING", "nin", "%c#>>'{%j}' <> all(%a)");
+		se.addOperator("JSON/LIST/NUMBER", "nin", "(%c#>'{%j}')::double precision <> all(%a)");
 		se.addOperator("JSON/LIST/NULL", "nin", "%c#>'{%j}' not in (%v)");
 		se.addOperator("JSON/LIST/MIXED", "nin", "%c#>'{%j}' not in (%v)");
 	}
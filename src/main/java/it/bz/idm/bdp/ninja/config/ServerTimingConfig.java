@@ -0,0 +1,61 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja.config;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+import it.bz.idm.bdp.ninja.utils.metrics.RequestTrace;
+
+/**
+ * Adds the phases of the {@link RequestTrace} as Server-Timing header, if
+ * ninja.trace.server-timing is set. Browsers show them in their developer
+ * tools, next to the network timings.
+ *
+ * We need to set the header before the body gets written, hence this advice
+ * and not the request logging filter. Data responses get written by the
+ * controller itself, which calls {@link #addHeader} before committing them.
+ * For streamed responses, that is before the serialization ended.
+ */
+@ControllerAdvice
+public class ServerTimingConfig implements ResponseBodyAdvice<Object> {
+
+	@Value("${ninja.trace.server-timing:false}")
+	private boolean enabled;
+
+	@Override
+	public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+		return enabled;
+	}
+
+	@Override
+	public Object beforeBodyWrite(Object body, MethodParameter returnType, MediaType selectedContentType,
+			Class<? extends HttpMessageConverter<?>> selectedConverterType, ServerHttpRequest request,
+			ServerHttpResponse response) {
+		String serverTiming = RequestTrace.current().toServerTiming();
+		if (!serverTiming.isEmpty()) {
+			response.getHeaders().add("Server-Timing", serverTiming);
+		}
+		return body;
+	}
+
+	public void addHeader(HttpServletResponse response) {
+		if (!enabled) {
+			return;
+		}
+		String serverTiming = RequestTrace.current().toServerTiming();
+		if (!serverTiming.isEmpty()) {
+			response.addHeader("Server-Timing", serverTiming);
+		}
+	}
+}
@@ -0,0 +1,34 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import it.bz.idm.bdp.ninja.utils.queryexecutor.SlowQueryLog;
+
+/**
+ * Slow query log of the {@link it.bz.idm.bdp.ninja.utils.queryexecutor.QueryExecutor},
+ * see ninja.slow-queries.* and the actuator endpoint slowqueries
+ */
+@Configuration
+public class SlowQueryConfig {
+
+	@Value("${ninja.slow-queries.threshold-ms:1000}")
+	private long thresholdMs;
+
+	@Value("${ninja.slow-queries.capacity:100}")
+	private int capacity;
+
+	@Value("${ninja.slow-queries.explain-sample-rate:0}")
+	private double explainSampleRate;
+
+	@Bean
+	public SlowQueryLog slowQueryLog(NamedParameterJdbcTemplate jdbcTemplate) {
+		return new SlowQueryLog(thresholdMs, capacity, explainSampleRate, jdbcTemplate);
+	}
+}
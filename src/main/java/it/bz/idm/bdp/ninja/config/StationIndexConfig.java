@@ -0,0 +1,47 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja.config;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.github.benmanes.caffeine.cache.Ticker;
+
+import it.bz.idm.bdp.ninja.DataFetcher;
+import it.bz.idm.bdp.ninja.utils.spatial.StationIndex;
+
+/**
+ * Spatial index of station coordinates, see ninja.station-index.*
+ */
+@Configuration
+public class StationIndexConfig {
+
+	@Value("${ninja.station-index.refresh-sec:30}")
+	private long refreshSec;
+
+	@Value("${ninja.station-index.max-ids:10000}")
+	private int maxIds;
+
+	@Bean
+	public StationIndex stationIndex() {
+		return new StationIndex(new StationIndex.Loader() {
+			@Override
+			public Map<String, String> fingerprints(Set<String> stationTypes) {
+				return new DataFetcher().fetchStationIndexFingerprints(stationTypes);
+			}
+
+			@Override
+			public List<Map<String, Object>> points(String stationType) {
+				return new DataFetcher().fetchStationIndexPoints(stationType);
+			}
+		}, Duration.ofSeconds(refreshSec), maxIds, Ticker.systemTicker());
+	}
+}
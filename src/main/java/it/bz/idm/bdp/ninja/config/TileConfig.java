@@ -0,0 +1,44 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja.config;
+
+import java.time.Duration;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import it.bz.idm.bdp.ninja.tiles.TileCache;
+
+/**
+ * Tile cache of the /tiles routes, see ninja.tiles.*
+ */
+@Configuration
+public class TileConfig {
+
+	@Value("${ninja.tiles.cache.max-size-mb:64}")
+	private long maxSizeMb;
+
+	@Value("${ninja.tiles.cache.expire-after-write-sec:3600}")
+	private long expireAfterWriteSec;
+
+	@Value("${ninja.tiles.watermark.refresh-sec:30}")
+	private long watermarkRefreshSec;
+
+	@Bean
+	public TileCache tileCache() {
+		return new TileCache(
+			maxSizeMb * 1024 * 1024,
+			Duration.ofSeconds(expireAfterWriteSec),
+			Duration.ofSeconds(watermarkRefreshSec));
+	}
+
+	@Bean
+	public MeterBinder tileCacheMetrics(TileCache tileCache) {
+		return registry -> CaffeineCacheMetrics.monitor(registry, tileCache.getCache(), "tiles");
+	}
+}
@@ -6,6 +6,7 @@
 
 package it.bz.idm.bdp.ninja.controller;
 
+import java.io.IOException;
 import java.time.DateTimeException;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
@@ -19,8 +20,7 @@ import java.util.List;
 import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
-
-import com.jsoniter.output.JsonStream;
+import javax.servlet.http.HttpServletResponse;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
@@ -35,15 +35,24 @@ import org.springframework.web.server.ResponseStatusException;
 
 import it.bz.idm.bdp.ninja.DataFetcher;
 import it.bz.idm.bdp.ninja.config.SelectExpansionConfig;
+import it.bz.idm.bdp.ninja.config.ServerTimingConfig;
 import it.bz.idm.bdp.ninja.quota.HistoryLimit;
 import it.bz.idm.bdp.ninja.utils.FileUtils;
 import it.bz.idm.bdp.ninja.utils.Representation;
 import it.bz.idm.bdp.ninja.utils.SecurityUtils;
-import it.bz.idm.bdp.ninja.utils.Timer;
-import it.bz.idm.bdp.ninja.utils.resultbuilder.ResultBuilder;
+import it.bz.idm.bdp.ninja.utils.jsonserializer.HoldBackOutputStream;
+import it.bz.idm.bdp.ninja.utils.jsonserializer.JsonFormat;
+import it.bz.idm.bdp.ninja.utils.metrics.RequestMetrics;
+import it.bz.idm.bdp.ninja.utils.metrics.RequestTrace;
+import it.bz.idm.bdp.ninja.utils.metrics.RequestTrace.Span;
+import it.bz.idm.bdp.ninja.utils.querybuilder.Schema;
 import it.bz.idm.bdp.ninja.utils.resultbuilder.ResultBuilderConfig;
+import it.bz.idm.bdp.ninja.utils.resultbuilder.StreamedTree;
 import it.bz.idm.bdp.ninja.utils.simpleexception.ErrorCodeInterface;
 import it.bz.idm.bdp.ninja.utils.simpleexception.SimpleException;
+import it.bz.idm.bdp.ninja.utils.spatial.EdgeGeometryCache;
+import it.bz.idm.bdp.ninja.utils.spatial.GeometryFormat;
+import it.bz.idm.bdp.ninja.utils.spatial.StationIndex;
 
 /**
  * @author Peter Moser
@@ -59,6 +68,11 @@ public class DataController {
 	private static final String DEFAULT_SHOWNULL = "false";
 	private static final String DEFAULT_DISTINCT = "true";
 	private static final String DEFAULT_TIMEZONE = "UTC";
+	private static final int MAX_ZOOM = 24;
+	private static final int RESPONSE_HOLD_BACK_BYTES = 1 << 20;
+
+	/* Result building only reads it, and keeps its hierarchy plans between requests */
+	private static final Schema RESULT_SCHEMA = new SelectExpansionConfig().getSelectExpansion().getSchema();
 
 	private static final DateTimeFormatter DATE_FORMAT = new DateTimeFormatterBuilder()
 			.appendPattern(DATETIME_FORMAT_PATTERN)
@@ -77,16 +91,33 @@ public class DataController {
 	@Value("${ninja.response.max-allowed-size-mb}")
 	private int maxAllowedSizeInMB;
 
+	@Value("${ninja.tree.parallel-threshold:50000}")
+	private int treeParallelThreshold;
+
 	private String fileRoot;
 	private String fileSpec;
 
+	@Value("${ninja.station-index.enabled:true}")
+	private boolean stationIndexEnabled;
+
 	@Autowired
 	HistoryLimit historyLimit;
 
+	@Autowired
+	StationIndex stationIndex;
+
+	@Autowired
+	EdgeGeometryCache edgeGeometryCache;
+
+	@Autowired
+	ServerTimingConfig serverTiming;
+
 	public enum ErrorCode implements ErrorCodeInterface {
 		DATE_PARSE_ERROR(
 				"Invalid date given. Format must be %s, where [] denotes optionality. Do not forget, single digits must be leaded by 0. Error message: %s."),
-		METHOD_NOT_ALLOWED("URL scheme not found '%s' not allowed with %s representation.");
+		METHOD_NOT_ALLOWED("URL scheme not found '%s' not allowed with %s representation."),
+		WRONG_SIMPLIFY("Invalid simplification. Simplify must be a tolerance in degrees of at least 0, and zoom a level between 0 and %d."),
+		WRONG_GEOMETRY_FORMAT("Invalid geometry format '%s' with precision %s. Use geojson (precision 0 to 15), polyline (0 to 9) or twkb (-7 to 7).");
 
 		private final String msg;
 
@@ -120,11 +151,12 @@ public class DataController {
 		return fileSpec;
 	}
 
-	@ResponseBody
 	@GetMapping(value = "/{pathvar1}", produces = "application/json;charset=UTF-8")
-	public String requestLevel01(
+	public void requestLevel01(
 			HttpServletRequest request,
-			@PathVariable final String pathvar1) {
+			HttpServletResponse response,
+			@PathVariable final String pathvar1,
+			@RequestParam(value = "pretty", required = false) final Boolean pretty) throws IOException {
 		Representation rep = Representation.get(pathvar1);
 		final List<Map<String, Object>> queryResult;
 		DataFetcher dataFetcher = new DataFetcher();
@@ -171,15 +203,14 @@ public class DataController {
 			}
 
 		}
-		String result = serializeJson(queryResult, dataFetcher.getStats());
 		request.setAttribute("data_fetcher", dataFetcher.getStats());
-		return result;
+		writeJson(response, queryResult, dataFetcher, JsonFormat.of(pretty));
 	}
 
-	@ResponseBody
 	@GetMapping(value = "/{pathvar1}/{pathvar2}", produces = "application/json;charset=UTF-8")
-	public String requestLevel02(
+	public void requestLevel02(
 			HttpServletRequest request,
+			HttpServletResponse response,
 			@PathVariable final String pathvar1,
 			@PathVariable final String pathvar2,
 			@RequestParam(value = "limit", required = false, defaultValue = DEFAULT_LIMIT) final Long limit,
@@ -187,7 +218,12 @@ public class DataController {
 			@RequestParam(value = "select", required = false) final String select,
 			@RequestParam(value = "where", required = false) final String where,
 			@RequestParam(value = "shownull", required = false, defaultValue = DEFAULT_SHOWNULL) final Boolean showNull,
-			@RequestParam(value = "distinct", required = false, defaultValue = DEFAULT_DISTINCT) final Boolean distinct) {
+			@RequestParam(value = "distinct", required = false, defaultValue = DEFAULT_DISTINCT) final Boolean distinct,
+			@RequestParam(value = "simplify", required = false) final Double simplify,
+			@RequestParam(value = "zoom", required = false) final Integer zoom,
+			@RequestParam(value = "geometry", required = false) final String geometry,
+			@RequestParam(value = "precision", required = false) final Integer precision,
+			@RequestParam(value = "pretty", required = false) final Boolean pretty) throws IOException {
 		final Representation repr = Representation.get(pathvar1);
 
 		DataFetcher dataFetcher = new DataFetcher();
@@ -199,6 +235,10 @@ public class DataController {
 		dataFetcher.setSelect(select);
 		dataFetcher.setRoles(getRoles(request));
 		dataFetcher.setDistinct(distinct);
+		dataFetcher.setGeometryFormat(parseGeometryFormat(geometry, precision), precision);
+		dataFetcher.setStationIndex(stationIndexEnabled ? stationIndex : null);
+		dataFetcher.setEdgeGeometryCache(edgeGeometryCache);
+		dataFetcher.setSimplify(parseSimplify(simplify, zoom));
 
 		String entryPoint = null;
 		String exitPoint = null;
@@ -233,12 +273,12 @@ public class DataController {
 		ResultBuilderConfig resultBuilderConfig = createResultBuilderConfigExcludeMetadataHistory(showNull)
 			.setEntryPoint(entryPoint)
 			.addExitPoint(exitPoint, true);
-		String result = serializeJson(
-				buildResult(resultBuilderConfig, queryResult, offset, limit, repr),
-				dataFetcher.getStats());
-
 		request.setAttribute("data_fetcher", dataFetcher.getStats());
-		return result;
+		writeJson(
+				response,
+				buildResult(resultBuilderConfig, queryResult, offset, limit, dataFetcher),
+				dataFetcher,
+				JsonFormat.of(pretty));
 	}
 
 	/**
@@ -247,8 +287,9 @@ public class DataController {
 	 * @param pathvar3 datatypes | "latest" or start-timepoint
 	 */
 	@GetMapping(value = "/{pathvar1}/{pathvar2}/{pathvar3}", produces = "application/json;charset=UTF-8")
-	public @ResponseBody String requestLevel03(
+	public void requestLevel03(
 			HttpServletRequest request,
+			HttpServletResponse response,
 			@PathVariable final String pathvar1,
 			@PathVariable final String pathvar2,
 			@PathVariable final String pathvar3,
@@ -257,7 +298,10 @@ public class DataController {
 			@RequestParam(value = "select", required = false) final String select,
 			@RequestParam(value = "where", required = false) final String where,
 			@RequestParam(value = "shownull", required = false, defaultValue = DEFAULT_SHOWNULL) final Boolean showNull,
-			@RequestParam(value = "distinct", required = false, defaultValue = DEFAULT_DISTINCT) final Boolean distinct) {
+			@RequestParam(value = "distinct", required = false, defaultValue = DEFAULT_DISTINCT) final Boolean distinct,
+			@RequestParam(value = "geometry", required = false) final String geometry,
+			@RequestParam(value = "precision", required = false) final Integer precision,
+			@RequestParam(value = "pretty", required = false) final Boolean pretty) throws IOException {
 
 		final Representation repr = Representation.get(pathvar1);
 
@@ -270,6 +314,7 @@ public class DataController {
 		dataFetcher.setSelect(select);
 		dataFetcher.setRoles(getRoles(request));
 		dataFetcher.setDistinct(distinct);
+		dataFetcher.setGeometryFormat(parseGeometryFormat(geometry, precision), precision);
 
 		String entryPoint = null;
 		String exitPoint = null;
@@ -309,18 +354,18 @@ public class DataController {
 		ResultBuilderConfig resultBuilderConfig = createResultBuilderConfigExcludeMetadataHistory(showNull)
 			.setEntryPoint(entryPoint)
 			.addExitPoint(exitPoint, true);
-		String result = serializeJson(
-				buildResult(resultBuilderConfig, queryResult, offset, limit, repr),
-				dataFetcher.getStats());
-
 		request.setAttribute("data_fetcher", dataFetcher.getStats());
-		return result;
+		writeJson(
+				response,
+				buildResult(resultBuilderConfig, queryResult, offset, limit, dataFetcher),
+				dataFetcher,
+				JsonFormat.of(pretty));
 	}
 
-	@ResponseBody
 	@GetMapping(value = "/{pathvar1}/{pathvar2}/{pathvar3}/{pathvar4}", produces = "application/json;charset=UTF-8")
-	public String requestLevel04(
+	public void requestLevel04(
 			HttpServletRequest request,
+			HttpServletResponse response,
 			@PathVariable final String pathvar1,
 			@PathVariable final String pathvar2,
 			@PathVariable final String pathvar3,
@@ -331,7 +376,10 @@ public class DataController {
 			@RequestParam(value = "where", required = false) final String where,
 			@RequestParam(value = "shownull", required = false, defaultValue = DEFAULT_SHOWNULL) final Boolean showNull,
 			@RequestParam(value = "distinct", required = false, defaultValue = DEFAULT_DISTINCT) final Boolean distinct,
-			@RequestParam(value = "timezone", required = false, defaultValue = DEFAULT_TIMEZONE) final String timeZone) {
+			@RequestParam(value = "timezone", required = false, defaultValue = DEFAULT_TIMEZONE) final String timeZone,
+			@RequestParam(value = "geometry", required = false) final String geometry,
+			@RequestParam(value = "precision", required = false) final Integer precision,
+			@RequestParam(value = "pretty", required = false) final Boolean pretty) throws IOException {
 
 		final Representation repr = Representation.get(pathvar1);
 
@@ -344,7 +392,9 @@ public class DataController {
 		dataFetcher.setSelect(select);
 		dataFetcher.setRoles(getRoles(request));
 		dataFetcher.setDistinct(distinct);
+		dataFetcher.setGeometryFormat(parseGeometryFormat(geometry, precision), precision);
 		dataFetcher.setTimeZone(timeZone);
+		dataFetcher.setStationIndex(stationIndexEnabled ? stationIndex : null);
 
 		String entryPoint = null;
 		String exitPoint = null;
@@ -386,18 +436,18 @@ public class DataController {
 		ResultBuilderConfig resultBuilderConfig = createResultBuilderConfigExcludeMetadataHistory(showNull)
 			.setEntryPoint(entryPoint)
 			.addExitPoint(exitPoint, true);
-		String result = serializeJson(
-				buildResult(resultBuilderConfig, queryResult, offset, limit, repr),
-				dataFetcher.getStats());
-
 		request.setAttribute("data_fetcher", dataFetcher.getStats());
-		return result;
+		writeJson(
+				response,
+				buildResult(resultBuilderConfig, queryResult, offset, limit, dataFetcher),
+				dataFetcher,
+				JsonFormat.of(pretty));
 	}
 
-	@ResponseBody
 	@GetMapping(value = "/{pathvar1}/{pathvar2}/{pathvar3}/{pathvar4}/{pathvar5}", produces = "application/json;charset=UTF-8")
-	public String requestLevel05(
+	public void requestLevel05(
 			HttpServletRequest request,
+			HttpServletResponse response,
 			@PathVariable final String pathvar1,
 			@PathVariable final String pathvar2,
 			@PathVariable final String pathvar3,
@@ -409,7 +459,8 @@ public class DataController {
 			@RequestParam(value = "where", required = false) final String where,
 			@RequestParam(value = "shownull", required = false, defaultValue = DEFAULT_SHOWNULL) final Boolean showNull,
 			@RequestParam(value = "distinct", required = false, defaultValue = DEFAULT_DISTINCT) final Boolean distinct,
-			@RequestParam(value = "timezone", required = false, defaultValue = DEFAULT_TIMEZONE) final String timeZone) {
+			@RequestParam(value = "timezone", required = false, defaultValue = DEFAULT_TIMEZONE) final String timeZone,
+			@RequestParam(value = "pretty", required = false) final Boolean pretty) throws IOException {
 
 		final Representation repr = Representation.get(pathvar1);
 
@@ -464,12 +515,12 @@ public class DataController {
 					"Route does not exist for representation " + repr.getTypeAsString());
 		}
 
-		String result = serializeJson(
-				buildResult(resultBuilderConfig, queryResult, offset, limit, repr),
-				dataFetcher.getStats());
-
 		request.setAttribute("data_fetcher", dataFetcher.getStats());
-		return result;
+		writeJson(
+				response,
+				buildResult(resultBuilderConfig, queryResult, offset, limit, dataFetcher),
+				dataFetcher,
+				JsonFormat.of(pretty));
 	}
 
 	private static ZonedDateTime getDateTime(final String dateString) {
@@ -485,22 +536,50 @@ public class DataController {
 		}
 	}
 
+	/**
+	 * @return tolerance in degrees to simplify edge geometries, simplify wins over zoom
+	 */
+	private static double parseSimplify(final Double simplify, final Integer zoom) {
+		if (simplify != null) {
+			if (!(simplify >= 0)) {
+				throw new SimpleException(ErrorCode.WRONG_SIMPLIFY, MAX_ZOOM);
+			}
+			return simplify;
+		}
+		if (zoom != null) {
+			if (zoom < 0 || zoom > MAX_ZOOM) {
+				throw new SimpleException(ErrorCode.WRONG_SIMPLIFY, MAX_ZOOM);
+			}
+			return EdgeGeometryCache.toleranceOfZoom(zoom);
+		}
+		return 0;
+	}
+
+	private static GeometryFormat parseGeometryFormat(final String geometry, final Integer precision) {
+		GeometryFormat format = geometry == null ? GeometryFormat.GEOJSON : GeometryFormat.of(geometry);
+		if (format == null || (precision != null && !format.isValidPrecision(precision))) {
+			throw new SimpleException(ErrorCode.WRONG_GEOMETRY_FORMAT, geometry, precision);
+		}
+		return format;
+	}
+
 	private ResultBuilderConfig createResultBuilderConfigExcludeMetadataHistory(boolean showNull){
 		return new ResultBuilderConfig()
 				.addExitPoint("metadatahistory", false)
 				.setShowNull(showNull)
 				// FIXME use a static immutable schema everywhere
-				.setSchema(new SelectExpansionConfig().getSelectExpansion().getSchema())
-				.setMaxAllowedSizeInMB(maxAllowedSizeInMB);
+				.setSchema(RESULT_SCHEMA)
+				.setMaxAllowedSizeInMB(maxAllowedSizeInMB)
+				.setParallelThreshold(treeParallelThreshold);
 	}
 
 	private Map<String, Object> buildResult(ResultBuilderConfig builderConfig,
 			final List<Map<String, Object>> queryResult, final long offset,
-			final long limit, final Representation representation) {
+			final long limit, final DataFetcher dataFetcher) {
 		final Map<String, Object> result = new HashMap<>();
 		result.put("offset", offset);
 		result.put("limit", limit);
-		switch (representation) {
+		switch (dataFetcher.getRepresentation()) {
 			case FLAT_EDGE:
 			case FLAT_NODE:
 			case FLAT_EVENT:
@@ -509,21 +588,33 @@ public class DataController {
 			case TREE_NODE:
 			case TREE_EDGE:
 			case TREE_EVENT:
-				result.put("data", ResultBuilder.build(builderConfig, queryResult));
+				// Built while serializing, one station (or edge, event series) at a time
+				result.put("data", new StreamedTree(builderConfig, queryResult));
 				break;
 		}
 		return result;
 	}
 
-	private static String serializeJson(Object whatever, Map<String, Object> logging) {
-		Timer timer = new Timer();
-		timer.start();
-		String serialize = JsonStream.serialize(whatever);
-		logging.put("serialization_time", Long.valueOf(timer.stop()));
-		return serialize;
+	/**
+	 * Write the response while serializing it. The first bytes get held back,
+	 * so that errors up to then still get an error response, see
+	 * {@link HoldBackOutputStream}. Later errors close the connection.
+	 */
+	private void writeJson(HttpServletResponse response, Object whatever, DataFetcher dataFetcher,
+			JsonFormat format) throws IOException {
+		response.setContentType("application/json;charset=UTF-8");
+		HoldBackOutputStream out = new HoldBackOutputStream(response.getOutputStream(), RESPONSE_HOLD_BACK_BYTES,
+				() -> serverTiming.addHeader(response));
+		RequestTrace trace = RequestTrace.current();
+		trace.start(Span.SERIALIZE);
+		format.serialize(whatever, out);
+		long nanos = trace.stop(Span.SERIALIZE);
+		dataFetcher.getStats().put("serialization_time", Long.valueOf(nanos / 1_000_000));
+		out.close();
+		RequestMetrics.recordBytes(dataFetcher.getCommand(), dataFetcher.getRepresentation(), out.getCount());
 	}
 
-	private static List<String> getRoles(HttpServletRequest request) {
+	static List<String> getRoles(HttpServletRequest request) {
 		List<String> roles = SecurityUtils.getRolesFromAuthentication();
 		if (request.getHeader("Authorization") == null && roles.size() > 1)
 			throw new IllegalStateException("No Authorization header, but privileged roles");
@@ -0,0 +1,58 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja.controller;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.web.WebEndpointResponse;
+import org.springframework.boot.actuate.endpoint.web.annotation.WebEndpoint;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import it.bz.idm.bdp.ninja.utils.SecurityUtils;
+import it.bz.idm.bdp.ninja.utils.queryexecutor.SlowQueryLog;
+
+/**
+ * Actuator endpoint /actuator/slowqueries with the recorded slow queries and
+ * their sampled plans. Only for users with the opendata ADMIN role, since
+ * the SQL reveals ACL rules and filters of other users.
+ */
+@Component
+@WebEndpoint(id = "slowqueries")
+public class SlowQueryEndpoint {
+
+	private final SlowQueryLog slowQueryLog;
+
+	public SlowQueryEndpoint(SlowQueryLog slowQueryLog) {
+		this.slowQueryLog = slowQueryLog;
+	}
+
+	@ReadOperation
+	public WebEndpointResponse<Map<String, Object>> slowQueries() {
+		if (!isAdmin()) {
+			return new WebEndpointResponse<>(HttpStatus.FORBIDDEN.value());
+		}
+		Map<String, Object> result = new HashMap<>();
+		result.put("recorded", slowQueryLog.getRecorded());
+		result.put("queries", slowQueryLog.getQueries());
+		return new WebEndpointResponse<>(result);
+	}
+
+	@DeleteOperation
+	public WebEndpointResponse<Void> clear() {
+		if (!isAdmin()) {
+			return new WebEndpointResponse<>(HttpStatus.FORBIDDEN.value());
+		}
+		slowQueryLog.clear();
+		return new WebEndpointResponse<>(WebEndpointResponse.STATUS_NO_CONTENT);
+	}
+
+	private static boolean isAdmin() {
+		return SecurityUtils.getRolesFromAuthentication().contains(SecurityUtils.ROLE_OPENDATA_ADMIN);
+	}
+}
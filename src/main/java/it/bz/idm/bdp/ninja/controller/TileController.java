@@ -0,0 +1,101 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja.controller;
+
+import java.util.List;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import it.bz.idm.bdp.ninja.DataFetcher;
+import it.bz.idm.bdp.ninja.tiles.TileCache;
+import it.bz.idm.bdp.ninja.utils.Representation;
+import it.bz.idm.bdp.ninja.utils.querybuilder.QueryBuilder;
+import it.bz.idm.bdp.ninja.utils.simpleexception.ErrorCodeInterface;
+import it.bz.idm.bdp.ninja.utils.simpleexception.SimpleException;
+
+/**
+ * Mapbox Vector Tiles of stations, edges and event locations, for map
+ * frontends, that would otherwise load all coordinates of a flat response.
+ * Features have the selected targets as properties, the same as a flat
+ * response with the same select and where parameters.
+ */
+@RestController
+public class TileController {
+
+	private static final MediaType MVT = MediaType.parseMediaType("application/vnd.mapbox-vector-tile");
+	private static final int MAX_ZOOM = 24;
+	private static final String DEFAULT_DISTINCT = "true";
+
+	public enum ErrorCode implements ErrorCodeInterface {
+		WRONG_TILE("Tile %d/%d/%d does not exist. Zoom must be between 0 and %d, x and y between 0 and 2^zoom - 1.");
+
+		private final String msg;
+
+		ErrorCode(final String msg) {
+			this.msg = msg;
+		}
+
+		@Override
+		public String getMsg() {
+			return "PARSING ERROR: " + msg;
+		}
+	}
+
+	@Autowired
+	TileCache tileCache;
+
+	/**
+	 * @param representation node, edge or event; flat or tree are allowed, but the same
+	 * @param types station types, edge types or event origins as comma-separated list
+	 */
+	@GetMapping(value = "/tiles/{representation}/{types}/{z}/{x}/{y}.mvt")
+	public ResponseEntity<byte[]> requestTile(
+			HttpServletRequest request,
+			@PathVariable final String representation,
+			@PathVariable final String types,
+			@PathVariable final int z,
+			@PathVariable final int x,
+			@PathVariable final int y,
+			@RequestParam(value = "select", required = false) final String select,
+			@RequestParam(value = "where", required = false) final String where,
+			@RequestParam(value = "distinct", required = false, defaultValue = DEFAULT_DISTINCT) final Boolean distinct) {
+		/* Tiles have no tree form, so we parse it as flat */
+		final Representation repr = Representation.get("flat," + representation);
+		if (z < 0 || z > MAX_ZOOM || x < 0 || y < 0 || x >= 1 << z || y >= 1 << z) {
+			throw new SimpleException(ErrorCode.WRONG_TILE, z, x, y, MAX_ZOOM);
+		}
+
+		List<String> roles = DataController.getRoles(request);
+		DataFetcher dataFetcher = new DataFetcher();
+		dataFetcher.setSelect(select);
+		dataFetcher.setWhere(where);
+		dataFetcher.setDistinct(distinct);
+		dataFetcher.setRoles(roles);
+
+		String dataset = repr.isEdge() ? "edge" : repr.isEvent() ? "event" : "node";
+		String watermark = tileCache.getWatermark(dataset, () -> dataFetcher.fetchTileWatermark(repr));
+		TileCache.Key key = new TileCache.Key(dataset, QueryBuilder.csvToSet(types), Set.copyOf(roles), select, where,
+				distinct, z, x, y, watermark);
+		byte[] tile = tileCache.get(key, k -> dataFetcher.fetchTile(types, z, x, y, repr));
+
+		/* Only set for tiles, that have not been cached */
+		if (dataFetcher.getStats() != null) {
+			request.setAttribute("data_fetcher", dataFetcher.getStats());
+		}
+		return ResponseEntity
+			.ok()
+			.contentType(MVT)
+			.body(tile);
+	}
+}
@@ -0,0 +1,102 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja.quota;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Objects;
+
+import io.github.bucket4j.Bandwidth;
+import io.github.bucket4j.ConsumptionProbe;
+import it.bz.idm.bdp.ninja.quota.PricingPlan.Policy;
+
+/**
+ * Token buckets of the rate limiter, one per {@link Key}. Select the
+ * implementation with ninja.quota.store:
+ *
+ * <ul>
+ * <li>local: {@link LocalBucketStore}, each replica has its own buckets</li>
+ * <li>jdbc: {@link SharedBucketStore} with a {@link JdbcTokenLedger}, all
+ *     replicas share the same limits</li>
+ * </ul>
+ */
+public interface BucketStore {
+
+	/**
+	 * Take a single token from the bucket of the given key.
+	 *
+	 * @param key caller identity
+	 * @param bandwidth limits of the bucket, used if it does not exist yet
+	 * @return the result, with remaining tokens and time to wait for a refill
+	 */
+	ConsumptionProbe tryConsume(Key key, Bandwidth bandwidth);
+
+	/**
+	 * Compact bucket key: The policy, and a 128-bit hash of the caller's
+	 * identity (user, referer, ip, path), instead of the concatenated strings.
+	 */
+	final class Key {
+		/* Per thread, since getInstance looks up the provider each time */
+		private static final ThreadLocal<MessageDigest> MD5 = ThreadLocal.withInitial(() -> {
+			try {
+				return MessageDigest.getInstance("MD5");
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e);
+			}
+		});
+
+		private final Policy policy;
+		private final long hashHigh;
+		private final long hashLow;
+
+		private Key(Policy policy, long hashHigh, long hashLow) {
+			this.policy = policy;
+			this.hashHigh = hashHigh;
+			this.hashLow = hashLow;
+		}
+
+		public static Key of(Policy policy, String... parts) {
+			MessageDigest md = MD5.get();
+			for (String part : parts) {
+				if (part != null) {
+					md.update(part.getBytes(StandardCharsets.UTF_8));
+				}
+				/* Separator, so that ("ab", "c") and ("a", "bc") differ; 0xFF is never part of UTF-8 */
+				md.update((byte) 0xFF);
+			}
+			/* Resets the digest for the next key */
+			ByteBuffer digest = ByteBuffer.wrap(md.digest());
+			return new Key(policy, digest.getLong(), digest.getLong());
+		}
+
+		public Policy getPolicy() {
+			return policy;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return policy == other.policy && hashHigh == other.hashHigh && hashLow == other.hashLow;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(policy, hashHigh, hashLow);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s:%016x%016x", policy, hashHigh, hashLow);
+		}
+	}
+}
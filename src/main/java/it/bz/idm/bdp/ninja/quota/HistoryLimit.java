@@ -6,8 +6,8 @@ package it.bz.idm.bdp.ninja.quota;
 
 import java.time.Duration;
 import java.time.ZonedDateTime;
+import java.util.Collections;
 import java.util.EnumMap;
-import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
@@ -20,8 +20,6 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import it.bz.idm.bdp.ninja.quota.PricingPlan.Policy;
-import it.bz.idm.bdp.ninja.utils.Referer;
-import it.bz.idm.bdp.ninja.utils.SecurityUtils;
 
 /**
  * See issue https://github.com/noi-techpark/bdp-core/issues/261
@@ -54,7 +52,7 @@ public class HistoryLimit {
 
 	@PostConstruct
 	public void initQuotaMap() {
-		quotaMap = new EnumMap<>(PricingPlan.Policy.class);
+		Map<PricingPlan.Policy, Long> quotaMap = new EnumMap<>(PricingPlan.Policy.class);
 
 		quotaMap.put(Policy.ANONYMOUS, quotaGuest);
 		quotaMap.put(Policy.REFERER, quotaReferer);
@@ -62,6 +60,7 @@ public class HistoryLimit {
 		quotaMap.put(Policy.AUTHENTICATED_ADVANCED, quotaAdvanced);
 		quotaMap.put(Policy.AUTHENTICATED_PREMIUM, quotaPremium);
 		quotaMap.put(Policy.NO_RESTRICTION, Long.valueOf(0));
+		this.quotaMap = Collections.unmodifiableMap(quotaMap);
 
 		LOG.debug("Loaded history limit quota map: {}", quotaMap);
 	}
@@ -78,14 +77,15 @@ public class HistoryLimit {
 	 */
 	public Optional<QuotaLimitException> check(HttpServletRequest request, ZonedDateTime from, ZonedDateTime to) {
 		LOG.debug("Checking history quota for request {}?{}", request.getRequestURI(), request.getQueryString());
-		PricingPlan plan = getPricingPlan(request);
+		PricingPlan plan = PricingPlan.resolvePlan(request);
+		long limit = plan.getLimit(quotaMap);
 
-		if (plan.getLimit() <= 0) {
-			LOG.debug("No history quota limit enabled for this role", from, to, plan.getLimit());
+		if (limit <= 0) {
+			LOG.debug("No history quota limit enabled for this role", from, to, limit);
 			return Optional.empty();
 		}
 
-		LOG.debug("Requested date range is {} to {}, limit is {} days", from, to, plan.getLimit());
+		LOG.debug("Requested date range is {} to {}, limit is {} days", from, to, limit);
 
 		if (to == null) {
 			to = ZonedDateTime.now(from.getZone());
@@ -93,25 +93,14 @@ public class HistoryLimit {
 
 		long dateRangeInDays = Duration.between(from.toLocalDate().atStartOfDay(), to.toLocalDate().atStartOfDay()).toDays();
 
-		if (dateRangeInDays > plan.getLimit()) {
+		if (dateRangeInDays > limit) {
 			LOG.info("Caller hit history range limit!");
 			return Optional.of(new QuotaLimitException(
-					String.format("You have exceeded the date range limit of %s days", plan.getLimit()),
+					String.format("You have exceeded the date range limit of %s days", limit),
 					plan.toString(),
 					quotaUrl));
 		} else {
 			return Optional.empty();
 		}
 	}
-
-	private PricingPlan getPricingPlan(HttpServletRequest request) {
-		List<String> roles = SecurityUtils.getRolesFromAuthentication(SecurityUtils.RoleType.QUOTA);
-		String referer = Referer.getReferer(request);
-		String user = SecurityUtils.getSubjectFromAuthentication();
-
-		LOG.debug("History Limiting Roles: {}", roles);
-
-		PricingPlan plan = PricingPlan.resolvePlan(roles, user, referer, quotaMap);
-		return plan;
-	}
 }
@@ -0,0 +1,71 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja.quota;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link TokenLedger} fake, that behaves like {@link JdbcTokenLedger} without a
+ * database. Share one instance among several {@link SharedBucketStore}s to
+ * simulate replicas in tests.
+ */
+public class InMemoryTokenLedger implements TokenLedger {
+
+	/* key --> {window, consumed, expiresAtMillis} */
+	private final Map<BucketStore.Key, long[]> entries = new ConcurrentHashMap<>();
+	private final AtomicLong reservations = new AtomicLong();
+	private volatile boolean available = true;
+
+	@Override
+	public long reserve(BucketStore.Key key, long window, long expiresAtMillis, long requested, long capacity) {
+		reservations.incrementAndGet();
+		if (!available) {
+			throw new IllegalStateException("Token ledger not available");
+		}
+		long[] result = entries.compute(key, (k, entry) -> {
+			if (entry == null || entry[0] != window) {
+				return new long[] {window, requested, expiresAtMillis};
+			}
+			return new long[] {window, entry[1] + requested, expiresAtMillis};
+		});
+		long before = result[1] - requested;
+		return Math.max(0, Math.min(requested, capacity - before));
+	}
+
+	/**
+	 * Delete entries of windows, that ended at the given time or before, like
+	 * {@link JdbcTokenLedger#purgeIfDue}
+	 *
+	 * @return deleted entries
+	 */
+	public int purge(long nowMillis) {
+		int before = entries.size();
+		entries.values().removeIf(entry -> entry[2] <= nowMillis);
+		return before - entries.size();
+	}
+
+	/**
+	 * @return how often {@link #reserve} has been called, that is, database roundtrips
+	 */
+	public long getReservations() {
+		return reservations.get();
+	}
+
+	/**
+	 * @return how many buckets the ledger holds, that is, table rows
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Simulate a database outage, reservations throw while not available
+	 */
+	public void setAvailable(boolean available) {
+		this.available = available;
+	}
+}
@@ -0,0 +1,104 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja.quota;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import it.bz.idm.bdp.ninja.utils.FileUtils;
+
+/**
+ * {@link TokenLedger} in a PostgreSQL table, see quota/rate-limit-schema.sql.
+ *
+ * A single upsert counts the reservation and returns the new total, so
+ * concurrent replicas never hand out more than the capacity per window.
+ * Reservations beyond the capacity get counted as well, but the window
+ * resets them anyway.
+ *
+ * Rows of past windows get deleted at most once per purge interval, by the
+ * first reservation after it elapsed, so the table holds only the buckets,
+ * that were used recently.
+ */
+public class JdbcTokenLedger implements TokenLedger {
+
+	private static final Logger LOG = LoggerFactory.getLogger(JdbcTokenLedger.class);
+
+	private static final String RESERVE_SQL =
+		"insert into ninja_rate_limit (bucket_key, time_window, consumed, expires_at) "
+		+ "values (:key, :window, :requested, :expiresAt) "
+		+ "on conflict (bucket_key) do update set "
+		+ "consumed = case when ninja_rate_limit.time_window = excluded.time_window "
+		+ "then ninja_rate_limit.consumed + excluded.consumed else excluded.consumed end, "
+		+ "time_window = excluded.time_window, "
+		+ "expires_at = excluded.expires_at "
+		+ "returning consumed";
+
+	private static final String PURGE_SQL = "delete from ninja_rate_limit where expires_at <= :now";
+
+	private final NamedParameterJdbcTemplate jdbcTemplate;
+	private final long purgeIntervalMillis;
+	private final LongSupplier clockMillis;
+	private final AtomicLong nextPurge;
+
+	public JdbcTokenLedger(NamedParameterJdbcTemplate jdbcTemplate, boolean createTable, Duration purgeInterval) {
+		this(jdbcTemplate, createTable, purgeInterval, System::currentTimeMillis);
+	}
+
+	/**
+	 * @param purgeInterval how often to delete rows of past windows
+	 * @param clockMillis time source, tests can use a fake one
+	 */
+	public JdbcTokenLedger(NamedParameterJdbcTemplate jdbcTemplate, boolean createTable, Duration purgeInterval, LongSupplier clockMillis) {
+		this.jdbcTemplate = jdbcTemplate;
+		this.purgeIntervalMillis = purgeInterval.toMillis();
+		this.clockMillis = clockMillis;
+		this.nextPurge = new AtomicLong(clockMillis.getAsLong());
+		if (createTable) {
+			jdbcTemplate.getJdbcTemplate().execute(FileUtils.loadFile("quota/rate-limit-schema.sql"));
+		}
+	}
+
+	@Override
+	public long reserve(BucketStore.Key key, long window, long expiresAtMillis, long requested, long capacity) {
+		Long consumed = jdbcTemplate.queryForObject(
+			RESERVE_SQL,
+			Map.of("key", key.toString(), "window", window, "expiresAt", expiresAtMillis, "requested", requested),
+			Long.class
+		);
+		purgeIfDue();
+		long before = consumed - requested;
+		return Math.max(0, Math.min(requested, capacity - before));
+	}
+
+	/**
+	 * Delete rows of past windows, if the purge interval elapsed. Only one
+	 * caller per interval does it, the others go on.
+	 *
+	 * @return deleted rows, or -1 if it was not due
+	 */
+	public int purgeIfDue() {
+		long now = clockMillis.getAsLong();
+		long due = nextPurge.get();
+		if (now < due || !nextPurge.compareAndSet(due, now + purgeIntervalMillis)) {
+			return -1;
+		}
+		try {
+			int deleted = jdbcTemplate.update(PURGE_SQL, Map.of("now", now));
+			LOG.debug("Purged {} expired rate limit buckets", deleted);
+			return deleted;
+		} catch (DataAccessException e) {
+			/* The reservation itself succeeded, we try again in the next interval */
+			LOG.warn("Purging expired rate limit buckets failed: {}", e.getMessage());
+			return -1;
+		}
+	}
+}
@@ -0,0 +1,89 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja.quota;
+
+import java.time.Duration;
+import java.util.concurrent.Executor;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.Ticker;
+
+import io.github.bucket4j.Bandwidth;
+import io.github.bucket4j.Bucket;
+import io.github.bucket4j.ConsumptionProbe;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Token buckets of the rate limiter, one per {@link Key}, within this JVM only.
+ *
+ * Only buckets that have not been used for some time get evicted. A bucket
+ * refills within a second, so an evicted idle bucket would have been full
+ * anyway, and recreating it does not change the limits. There is no bound on
+ * the size, since evicting an active bucket would hand out a fresh quota. So
+ * the store holds the buckets used within the idle time, which is bound by
+ * the request rate.
+ *
+ * Metrics: ninja.quota.buckets (current count) and ninja.quota.buckets.evictions
+ * (tagged with the cause "expired").
+ */
+public class LocalBucketStore implements BucketStore {
+
+	private final Cache<Key, Bucket> buckets;
+	private final Counter expired;
+
+	public LocalBucketStore(Duration expireAfterIdle, MeterRegistry registry) {
+		this(expireAfterIdle, registry, Ticker.systemTicker(), null);
+	}
+
+	/**
+	 * @param expireAfterIdle at least the refill period of the buckets, so
+	 *                        that only full buckets get evicted
+	 * @param ticker time source for expiry, tests can use a fake one
+	 * @param executor for maintenance work, null for the common pool
+	 */
+	public LocalBucketStore(Duration expireAfterIdle, MeterRegistry registry, Ticker ticker, Executor executor) {
+		if (expireAfterIdle.compareTo(Duration.ofSeconds(1)) < 0) {
+			throw new IllegalArgumentException("Buckets must stay at least for one refill period of a second");
+		}
+		this.expired = Counter
+			.builder("ninja.quota.buckets.evictions")
+			.description("Rate limit buckets removed from the store")
+			.tag("cause", "expired")
+			.register(registry);
+		Caffeine<Object, Object> builder = Caffeine
+			.newBuilder()
+			.expireAfterAccess(expireAfterIdle)
+			.ticker(ticker)
+			.removalListener((key, bucket, cause) -> {
+				if (cause == RemovalCause.EXPIRED) {
+					expired.increment();
+				}
+			});
+		if (executor != null) {
+			builder.executor(executor);
+		}
+		this.buckets = builder.build();
+		Gauge
+			.builder("ninja.quota.buckets", buckets, Cache::estimatedSize)
+			.description("Rate limit buckets in the store")
+			.register(registry);
+	}
+
+	@Override
+	public ConsumptionProbe tryConsume(Key key, Bandwidth bandwidth) {
+		return buckets
+			.get(key, k -> Bucket.builder().addLimit(bandwidth).build())
+			.tryConsumeAndReturnRemaining(1);
+	}
+
+	public long size() {
+		buckets.cleanUp();
+		return buckets.estimatedSize();
+	}
+}
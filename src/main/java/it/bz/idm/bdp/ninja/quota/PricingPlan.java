@@ -8,6 +8,9 @@ import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
 
+import javax.servlet.http.HttpServletRequest;
+
+import it.bz.idm.bdp.ninja.utils.Referer;
 import it.bz.idm.bdp.ninja.utils.SecurityUtils;
 
 public class PricingPlan {
@@ -31,19 +34,50 @@ public class PricingPlan {
 		}
 	}
 
-	private Policy policy;
-	private Map<Policy, Long> limitMap;
+	/**
+	 * Request attribute, that holds the plan once resolved for the current request
+	 */
+	public static final String REQUEST_ATTRIBUTE = PricingPlan.class.getName();
+
+	private static final Map<Policy, PricingPlan> PLANS = new EnumMap<>(Policy.class);
+	static {
+		for (Policy policy : Policy.values()) {
+			PLANS.put(policy, new PricingPlan(policy));
+		}
+	}
+
+	private final Policy policy;
 
-	public PricingPlan(Policy policy, Map<Policy, Long> quotaMap) {
+	private PricingPlan(Policy policy) {
 		this.policy = policy;
-		this.limitMap = new EnumMap<>(quotaMap);
+	}
+
+	public static PricingPlan of(Policy policy) {
+		return PLANS.get(policy);
+	}
+
+	/**
+	 * Resolve the plan of the current request only once, and share it with
+	 * everyone else who asks later through a request attribute.
+	 */
+	public static PricingPlan resolvePlan(HttpServletRequest request) {
+		Object cached = request.getAttribute(REQUEST_ATTRIBUTE);
+		if (cached instanceof PricingPlan) {
+			return (PricingPlan) cached;
+		}
+		PricingPlan plan = resolvePlan(
+			SecurityUtils.getRolesFromAuthentication(SecurityUtils.RoleType.QUOTA),
+			SecurityUtils.getSubjectFromAuthentication(),
+			Referer.getReferer(request)
+		);
+		request.setAttribute(REQUEST_ATTRIBUTE, plan);
+		return plan;
 	}
 
 	public static PricingPlan resolvePlan(
 		List<String> roles,
 		String user,
-		String referer,
-		Map<Policy, Long> quotaMap
+		String referer
 	) {
 		if (roles == null) {
 			throw new IllegalArgumentException(
@@ -54,22 +88,22 @@ public class PricingPlan {
 		// Validation of roles and users have already been done outside, so no need to check against
 		// an authentication server anymore...
 		if (roles.contains(SecurityUtils.ROLE_QUOTA_ADMIN)) {
-			return new PricingPlan(Policy.NO_RESTRICTION, quotaMap);
+			return of(Policy.NO_RESTRICTION);
 		}
 
 		if (user != null && !user.isEmpty()) {
 			if (roles.contains(SecurityUtils.ROLE_QUOTA_PREMIUM))
-				return new PricingPlan(Policy.AUTHENTICATED_PREMIUM, quotaMap);
+				return of(Policy.AUTHENTICATED_PREMIUM);
 			if (roles.contains(SecurityUtils.ROLE_QUOTA_ADVANCED))
-				return new PricingPlan(Policy.AUTHENTICATED_ADVANCED, quotaMap);
-			return new PricingPlan(Policy.AUTHENTICATED_BASIC, quotaMap);
+				return of(Policy.AUTHENTICATED_ADVANCED);
+			return of(Policy.AUTHENTICATED_BASIC);
 		}
 
 		if (roles.size() == 1 && roles.contains(SecurityUtils.ROLE_QUOTA_GUEST)) {
 			if (referer != null && !referer.isEmpty()) {
-				return new PricingPlan(Policy.REFERER, quotaMap);
+				return of(Policy.REFERER);
 			}
-			return new PricingPlan(Policy.ANONYMOUS, quotaMap);
+			return of(Policy.ANONYMOUS);
 		}
 
 		throw new IllegalArgumentException(
@@ -77,8 +111,8 @@ public class PricingPlan {
 		);
 	}
 
-	public long getLimit (){
-		long limit = limitMap.getOrDefault(policy, Long.valueOf(-1));
+	public long getLimit(Map<Policy, Long> quotaMap) {
+		long limit = quotaMap.getOrDefault(policy, Long.valueOf(-1));
 		if (limit < 0) {
 			throw new IllegalArgumentException (
 				String.format(
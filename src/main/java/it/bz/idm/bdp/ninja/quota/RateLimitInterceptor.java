@@ -5,20 +5,17 @@
 package it.bz.idm.bdp.ninja.quota;
 
 import java.time.Duration;
+import java.util.Collections;
 import java.util.EnumMap;
-import java.util.List;
 import java.util.Map;
-import java.util.StringJoiner;
-import java.util.concurrent.ConcurrentHashMap;
 
+import javax.annotation.PostConstruct;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import com.jsoniter.output.JsonStream;
-
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.security.core.context.SecurityContextHolder;
@@ -26,12 +23,12 @@ import org.springframework.stereotype.Component;
 import org.springframework.web.servlet.HandlerInterceptor;
 
 import io.github.bucket4j.Bandwidth;
-import io.github.bucket4j.Bucket;
 import io.github.bucket4j.ConsumptionProbe;
 import io.github.bucket4j.Refill;
 import it.bz.idm.bdp.ninja.utils.Referer;
 import it.bz.idm.bdp.ninja.utils.SecurityUtils;
 import it.bz.idm.bdp.ninja.utils.conditionals.ConditionalMap;
+import it.bz.idm.bdp.ninja.utils.jsonserializer.JsonFormat;
 
 import static it.bz.idm.bdp.ninja.quota.PricingPlan.Policy;
 
@@ -58,57 +55,59 @@ public class RateLimitInterceptor implements HandlerInterceptor {
 	@Value("${ninja.quota.url}")
     private String quotaUrl;
 
-	private static final Map<String, Bucket> cache = new ConcurrentHashMap<>();
+	@Autowired
+	private BucketStore bucketStore;
+
+	/* Bandwidths are immutable, so we build them once per limited policy */
+	private Map<Policy, Bandwidth> bandwidths;
+
+	@PostConstruct
+	public void initBandwidths() {
+		Map<Policy, Long> quotaMap = new EnumMap<>(Policy.class);
+		quotaMap.put(Policy.ANONYMOUS, quotaGuest);
+		quotaMap.put(Policy.REFERER, quotaReferer);
+		quotaMap.put(Policy.AUTHENTICATED_BASIC, quotaBasic);
+		quotaMap.put(Policy.AUTHENTICATED_ADVANCED, quotaAdvanced);
+		quotaMap.put(Policy.AUTHENTICATED_PREMIUM, quotaPremium);
+
+		Map<Policy, Bandwidth> bandwidths = new EnumMap<>(Policy.class);
+		for (Map.Entry<Policy, Long> entry : quotaMap.entrySet()) {
+			bandwidths.put(entry.getKey(), getBandwidth(PricingPlan.of(entry.getKey()).getLimit(quotaMap)));
+		}
+		this.bandwidths = Collections.unmodifiableMap(bandwidths);
+		LOG.debug("Loaded rate limit quota map: {}", quotaMap);
+	}
+
+	/**
+	 * Bucket key of the caller of this request. We use the client address, and
+	 * not the address of this replica, otherwise the replicas would not share
+	 * the same buckets. Behind a trusted proxy, the servlet container takes the
+	 * client address from X-Forwarded-For (see server.forward-headers-strategy).
+	 */
+	public static BucketStore.Key resolveBucketKey(PricingPlan limitation, HttpServletRequest request) {
+		return resolveBucketKey(
+			limitation,
+			SecurityUtils.getSubjectFromAuthentication(),
+			Referer.getReferer(request),
+			request.getRemoteAddr(),
+			request.getRequestURI()
+		);
+	}
 
-    public static Bucket resolveBucket(PricingPlan limitation, String user, String referer, String ip, String path) {
-		StringJoiner cacheKey = new StringJoiner("+++");
+	public static BucketStore.Key resolveBucketKey(PricingPlan limitation, String user, String referer, String ip, String path) {
 		switch (limitation.getPolicy()) {
 			case NO_RESTRICTION:
-				cacheKey.add("ADN");
-				break;
+				return BucketStore.Key.of(Policy.NO_RESTRICTION);
 			case AUTHENTICATED_BASIC:
-				cacheKey.add("BSC");
-				cacheKey.add(user);
-				cacheKey.add(referer);
-				cacheKey.add(ip);
-				cacheKey.add(path);
-				break;
 			case AUTHENTICATED_ADVANCED:
-				cacheKey.add("ADV");
-				cacheKey.add(user);
-				cacheKey.add(referer);
-				cacheKey.add(ip);
-				cacheKey.add(path);
-				break;
 			case AUTHENTICATED_PREMIUM:
-				cacheKey.add("PRM");
-				cacheKey.add(user);
-				cacheKey.add(referer);
-				cacheKey.add(ip);
-				cacheKey.add(path);
-				break;
+				return BucketStore.Key.of(limitation.getPolicy(), user, referer, ip, path);
 			case REFERER:
-				cacheKey.add("REF");
-				cacheKey.add(referer);
-				cacheKey.add(ip);
-				cacheKey.add(path);
-				break;
+				return BucketStore.Key.of(Policy.REFERER, referer, ip, path);
 			default:
 			case ANONYMOUS:
-				cacheKey.add("GST");
-				cacheKey.add(ip);
-				cacheKey.add(path);
-				break;
+				return BucketStore.Key.of(Policy.ANONYMOUS, ip, path);
 		}
-		return cache.computeIfAbsent(
-			cacheKey.toString(),
-			k -> {
-				return Bucket
-					.builder()
-					.addLimit(getBandwidth(limitation))
-					.build();
-			}
-		);
 	}
 
     @Override
@@ -120,35 +119,22 @@ public class RateLimitInterceptor implements HandlerInterceptor {
 		if (request.getHeader("Authorization") == null)
 			SecurityContextHolder.clearContext();
 
-		List<String> roles = SecurityUtils.getRolesFromAuthentication(SecurityUtils.RoleType.QUOTA);
-		String referer = Referer.getReferer(request);
-		String ip = request.getLocalAddr();
-		String path = request.getRequestURI();
-		String user = SecurityUtils.getSubjectFromAuthentication();
-
-		LOG.debug("Rate Limiting Roles: {}", roles);
-
-		Map<PricingPlan.Policy, Long> quotaMap = new EnumMap<>(PricingPlan.Policy.class);
-		quotaMap.put(Policy.ANONYMOUS, quotaGuest);
-		quotaMap.put(Policy.REFERER, quotaReferer);
-		quotaMap.put(Policy.AUTHENTICATED_BASIC, quotaBasic);
-		quotaMap.put(Policy.AUTHENTICATED_ADVANCED, quotaAdvanced);
-		quotaMap.put(Policy.AUTHENTICATED_PREMIUM, quotaPremium);
-		quotaMap.put(Policy.NO_RESTRICTION, Long.valueOf(-1));
-
-		PricingPlan plan = PricingPlan.resolvePlan(roles, user, referer, quotaMap);
+		PricingPlan plan = PricingPlan.resolvePlan(request);
 		response.addHeader("X-Rate-Limit-Policy", plan.toString());
 		request.setAttribute("X-Rate-Limit-Policy", plan.toString());
 		if (plan.is(Policy.NO_RESTRICTION)) {
 			return true;
 		}
 
-        Bucket tokenBucket = resolveBucket(plan, user, referer, ip, path);
-        ConsumptionProbe probe = tokenBucket.tryConsumeAndReturnRemaining(1);
+		Bandwidth bandwidth = bandwidths.get(plan.getPolicy());
+
+		LOG.debug("Rate Limiting Plan: {}", plan);
+
+        ConsumptionProbe probe = bucketStore.tryConsume(resolveBucketKey(plan, request), bandwidth);
 
 		long waitForRefill = probe.getNanosToWaitForRefill() / 1_000_000_000;
 		response.addHeader("X-Rate-Limit-Reset", String.valueOf(waitForRefill));
-		response.addHeader("X-Rate-Limit-Limit", String.valueOf(getBandwidth(plan).getCapacity()));
+		response.addHeader("X-Rate-Limit-Limit", String.valueOf(bandwidth.getCapacity()));
 
 		if (probe.isConsumed()) {
             response.addHeader("X-Rate-Limit-Remaining", String.valueOf(probe.getRemainingTokens()));
@@ -157,9 +143,8 @@ public class RateLimitInterceptor implements HandlerInterceptor {
 
 		response.addHeader("X-Rate-Limit-Remaining", "0");
 		response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
-		JsonStream.setIndentionStep(2);
 		response.getWriter().write(
-			JsonStream.serialize(
+			JsonFormat.PRETTY.serialize(
 				ConditionalMap
 					.init()
 					.put("message", "You have exhausted your API Request Quota")
@@ -172,8 +157,7 @@ public class RateLimitInterceptor implements HandlerInterceptor {
 		return false;
     }
 
-	private static Bandwidth getBandwidth(PricingPlan plan) {
-		long quota = plan.getLimit();
+	private static Bandwidth getBandwidth(long quota) {
 		return Bandwidth.classic(
 			quota,
 			Refill.intervally(
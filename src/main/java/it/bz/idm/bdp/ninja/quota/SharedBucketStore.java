@@ -0,0 +1,147 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja.quota;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.github.bucket4j.Bandwidth;
+import io.github.bucket4j.ConsumptionProbe;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Token buckets shared among all replicas through a {@link TokenLedger}.
+ *
+ * Each replica leases a batch of tokens for the current refill window, and
+ * hands them out locally. Only if the lease is used up, we ask the ledger
+ * again. If the ledger has nothing left, we stop asking until the next window
+ * starts. Tokens leased but not used by a replica are lost at the end of the
+ * window, so the effective limit can be lower than the capacity, but never
+ * higher.
+ *
+ * This does not remove the roundtrips, it only bounds them: Each key still
+ * costs at least one reservation per window, in which it is used, and the
+ * keys contain the request path, so each new URL of a caller costs one. With
+ * a capacity below the lease size, a lease would not save anything, so such
+ * buckets (ex. the guest plan) are not shared, and each replica limits them
+ * on its own.
+ *
+ * The remaining tokens reported to the caller are the ones of the local lease.
+ *
+ * If the ledger is not reachable, we do not ask it again until the current
+ * window ends, and each lease gets the full capacity locally instead. That
+ * is, during an outage each replica limits on its own, since a broken rate
+ * limiter should not take the whole API down.
+ *
+ * Metrics: ninja.quota.buckets (current count of local leases) and
+ * ninja.quota.leases (reservations sent to the ledger).
+ */
+public class SharedBucketStore implements BucketStore {
+
+	private static final Logger LOG = LoggerFactory.getLogger(SharedBucketStore.class);
+
+	private final TokenLedger ledger;
+	private final long leaseSize;
+	private final LongSupplier clockMillis;
+	private final Cache<Key, Lease> leases;
+	private final Counter reservations;
+
+	/* End of the window, in which the ledger failed; we do not ask it before */
+	private final AtomicLong unavailableUntil = new AtomicLong(Long.MIN_VALUE);
+
+	private static final class Lease {
+		long window = -1;
+		long remaining;
+		boolean exhausted;
+	}
+
+	public SharedBucketStore(TokenLedger ledger, long leaseSize, long maxSize, MeterRegistry registry) {
+		this(ledger, leaseSize, maxSize, registry, System::currentTimeMillis);
+	}
+
+	/**
+	 * @param leaseSize how many tokens to reserve at once; buckets with a lower
+	 *                  capacity stay local to this replica
+	 * @param clockMillis time source, tests can use a fake one
+	 */
+	public SharedBucketStore(TokenLedger ledger, long leaseSize, long maxSize, MeterRegistry registry, LongSupplier clockMillis) {
+		if (leaseSize < 1) {
+			throw new IllegalArgumentException("The lease size must be at least 1");
+		}
+		this.ledger = ledger;
+		this.leaseSize = leaseSize;
+		this.clockMillis = clockMillis;
+
+		/* Leases are only valid within their window, hence short idle times suffice */
+		this.leases = Caffeine
+			.newBuilder()
+			.maximumSize(maxSize)
+			.expireAfterAccess(Duration.ofMinutes(1))
+			.build();
+		this.reservations = Counter
+			.builder("ninja.quota.leases")
+			.description("Token reservations sent to the shared rate limit ledger")
+			.register(registry);
+		Gauge
+			.builder("ninja.quota.buckets", leases, Cache::estimatedSize)
+			.description("Rate limit buckets in the store")
+			.register(registry);
+	}
+
+	@Override
+	public ConsumptionProbe tryConsume(Key key, Bandwidth bandwidth) {
+		long capacity = bandwidth.getCapacity();
+		long periodMillis = Math.max(1, bandwidth.getRefillPeriodNanos() / 1_000_000);
+		long now = clockMillis.getAsLong();
+		long window = now / periodMillis;
+		long windowEnd = (window + 1) * periodMillis;
+		long nanosToNextWindow = (windowEnd - now) * 1_000_000;
+
+		Lease lease = leases.get(key, k -> new Lease());
+		synchronized (lease) {
+			if (lease.window != window) {
+				lease.window = window;
+				lease.remaining = 0;
+				lease.exhausted = false;
+			}
+			if (lease.remaining == 0 && !lease.exhausted) {
+				if (capacity < leaseSize || now < unavailableUntil.get()) {
+					leaseLocally(lease, capacity);
+				} else {
+					try {
+						reservations.increment();
+						lease.remaining = ledger.reserve(key, window, windowEnd, leaseSize, capacity);
+						lease.exhausted = lease.remaining == 0;
+					} catch (RuntimeException e) {
+						if (unavailableUntil.getAndAccumulate(windowEnd, Math::max) <= now) {
+							LOG.warn("Rate limit ledger not available, limiting per replica until the next window: {}", e.toString());
+						}
+						leaseLocally(lease, capacity);
+					}
+				}
+			}
+			if (lease.remaining > 0) {
+				lease.remaining--;
+				return ConsumptionProbe.consumed(lease.remaining, nanosToNextWindow);
+			}
+			return ConsumptionProbe.rejected(0, nanosToNextWindow, nanosToNextWindow);
+		}
+	}
+
+	/* The full capacity for the rest of the window, without asking the ledger again */
+	private static void leaseLocally(Lease lease, long capacity) {
+		lease.remaining = capacity;
+		lease.exhausted = true;
+	}
+}
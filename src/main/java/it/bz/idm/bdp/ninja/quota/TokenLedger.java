@@ -0,0 +1,28 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja.quota;
+
+/**
+ * Shared book keeping of consumed tokens, per bucket key and time window.
+ * All replicas reserve tokens here, before handing them out locally.
+ *
+ * Bucket keys contain the request path, so there is an entry per caller and
+ * URL. Implementations must forget entries of past windows, ex. with
+ * the expiry given on each reservation.
+ */
+public interface TokenLedger {
+
+	/**
+	 * Reserve up to "requested" tokens of a bucket within the given window.
+	 *
+	 * @param key bucket key
+	 * @param window index of the current refill window, that is, time divided by the refill period
+	 * @param expiresAtMillis end of the current window in epoch milliseconds, the entry is useless afterwards
+	 * @param requested how many tokens we want to lease
+	 * @param capacity how many tokens the bucket has per window
+	 * @return how many tokens we got, between 0 and requested
+	 */
+	long reserve(BucketStore.Key key, long window, long expiresAtMillis, long requested, long capacity);
+}
@@ -0,0 +1,121 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja.tiles;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Ticker;
+
+/**
+ * Vector tiles of the /tiles routes, bounded by their total size in bytes.
+ * Least recently used tiles get evicted first.
+ *
+ * A tile depends on the data set, the types, the roles of the user, the
+ * select and where parameters, and the data itself. The data is represented
+ * by a watermark per data set, ex. a count and the highest id, which gets
+ * queried at most once per refresh interval. When it changes, all tiles of
+ * that data set get new keys, and the old ones age out. Changes that the
+ * watermark does not see, ex. moved stations, show up after expireAfterWrite.
+ */
+public class TileCache {
+
+	/**
+	 * @param dataset node, edge or event
+	 * @param types station types, edge types or event origins, sorted
+	 * @param roles of the user, sorted
+	 */
+	public record Key(String dataset, Set<String> types, Set<String> roles, String select, String where,
+			boolean distinct, int z, int x, int y, String watermark) {
+
+		public Key {
+			types = sorted(types);
+			roles = sorted(roles);
+		}
+
+		private static Set<String> sorted(Set<String> values) {
+			return Collections.unmodifiableSet(new TreeSet<>(values));
+		}
+	}
+
+	/* Keys and entries of Caffeine */
+	private static final int ENTRY_OVERHEAD_BYTES = 256;
+
+	private final Cache<Key, byte[]> tiles;
+	private final Ticker ticker;
+	private final long watermarkRefreshNanos;
+	private final Map<String, Watermark> watermarks = new ConcurrentHashMap<>();
+
+	private static final class Watermark {
+		private final String value;
+		private final long nextRefresh;
+
+		private Watermark(String value, long nextRefresh) {
+			this.value = value;
+			this.nextRefresh = nextRefresh;
+		}
+	}
+
+	public TileCache(long maxSizeBytes, Duration expireAfterWrite, Duration watermarkRefresh) {
+		this(maxSizeBytes, expireAfterWrite, watermarkRefresh, Ticker.systemTicker(), null);
+	}
+
+	/**
+	 * @param ticker time source for expiry and watermarks, tests can use a fake one
+	 * @param executor for maintenance work, null for the common pool
+	 */
+	public TileCache(long maxSizeBytes, Duration expireAfterWrite, Duration watermarkRefresh, Ticker ticker,
+			Executor executor) {
+		Caffeine<Object, Object> builder = Caffeine
+			.newBuilder()
+			.maximumWeight(maxSizeBytes)
+			.expireAfterWrite(expireAfterWrite)
+			.ticker(ticker)
+			.recordStats();
+		if (executor != null) {
+			builder.executor(executor);
+		}
+		this.tiles = builder
+			.<Key, byte[]>weigher((key, tile) -> tile.length + ENTRY_OVERHEAD_BYTES)
+			.build();
+		this.ticker = ticker;
+		this.watermarkRefreshNanos = watermarkRefresh.toNanos();
+	}
+
+	/**
+	 * @param loader queries the current watermark, if the last one is older than the refresh interval
+	 */
+	public String getWatermark(String dataset, Supplier<String> loader) {
+		long now = ticker.read();
+		Watermark watermark = watermarks.get(dataset);
+		if (watermark == null || now - watermark.nextRefresh >= 0) {
+			/* Concurrent requests might query it twice, which is cheaper than waiting for each other */
+			watermark = new Watermark(String.valueOf(loader.get()), now + watermarkRefreshNanos);
+			watermarks.put(dataset, watermark);
+		}
+		return watermark.value;
+	}
+
+	/**
+	 * @param loader builds the tile, if it is not cached. Concurrent requests
+	 *               for the same key wait for it, instead of building it again.
+	 */
+	public byte[] get(Key key, Function<Key, byte[]> loader) {
+		return tiles.get(key, loader);
+	}
+
+	public Cache<Key, byte[]> getCache() {
+		return tiles;
+	}
+}
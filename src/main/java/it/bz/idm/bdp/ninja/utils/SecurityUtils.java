@@ -5,14 +5,22 @@
 package it.bz.idm.bdp.ninja.utils;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
+import org.keycloak.KeycloakSecurityContext;
 import org.keycloak.adapters.springsecurity.KeycloakAuthenticationException;
 import org.keycloak.adapters.springsecurity.account.SimpleKeycloakAccount;
 import org.keycloak.adapters.springsecurity.token.KeycloakAuthenticationToken;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+
 public class SecurityUtils {
 
 	public static final String ROLE_QUOTA_PREFIX = "ODH_ROLE_";
@@ -32,10 +40,45 @@ public class SecurityUtils {
 		OPENDATA
 	}
 
+	/*
+	 * Roles extracted from an access token, valid as long as the token. The token
+	 * id (jti) is the key, so we do not keep the token strings, and a refreshed
+	 * token gets looked up again.
+	 */
+	private static final Cache<TokenRolesKey, List<String>> TOKEN_ROLES_CACHE = Caffeine
+		.newBuilder()
+		.maximumSize(10_000)
+		.recordStats()
+		.expireAfter(new Expiry<TokenRolesKey, List<String>>() {
+			@Override
+			public long expireAfterCreate(TokenRolesKey key, List<String> value, long currentTime) {
+				long millis = Math.max(0, key.expiresAtMillis - System.currentTimeMillis());
+				return TimeUnit.MILLISECONDS.toNanos(millis);
+			}
+
+			@Override
+			public long expireAfterUpdate(TokenRolesKey key, List<String> value, long currentTime, long currentDuration) {
+				return currentDuration;
+			}
+
+			@Override
+			public long expireAfterRead(TokenRolesKey key, List<String> value, long currentTime, long currentDuration) {
+				return currentDuration;
+			}
+		})
+		.build();
+
+	private static final List<String> GUEST_ONLY_QUOTA = List.of(ROLE_QUOTA_GUEST);
+	private static final List<String> GUEST_ONLY_OPENDATA = List.of(ROLE_OPENDATA_GUEST);
+
 	private SecurityUtils() {
 		// This is just an utility class
 	}
 
+	public static Cache<?, ?> getTokenRolesCache() {
+		return TOKEN_ROLES_CACHE;
+	}
+
 	public static List<String> getRolesFromAuthentication() {
 		return getRolesFromAuthentication(RoleType.OPENDATA);
 	}
@@ -48,7 +91,28 @@ public class SecurityUtils {
 		);
 	}
 
+	/**
+	 * Get the roles of the given type, without prefix. Always contains GUEST, or
+	 * is just ADMIN. The result is immutable, and cached until the access token
+	 * expires.
+	 */
 	public static List<String> getRolesFromAuthentication(Authentication auth, RoleType roleType) {
+		if (!(auth instanceof KeycloakAuthenticationToken)) {
+			return roleType == RoleType.QUOTA ? GUEST_ONLY_QUOTA : GUEST_ONLY_OPENDATA;
+		}
+		KeycloakSecurityContext context = ((SimpleKeycloakAccount) auth.getDetails()).getKeycloakSecurityContext();
+		if (context == null || context.getToken() == null || context.getToken().getId() == null) {
+			return extractRoles(auth, roleType);
+		}
+		TokenRolesKey key = new TokenRolesKey(
+			context.getToken().getId(),
+			roleType,
+			TimeUnit.SECONDS.toMillis(context.getToken().getExp() == null ? 0 : context.getToken().getExp())
+		);
+		return TOKEN_ROLES_CACHE.get(key, k -> extractRoles(auth, roleType));
+	}
+
+	private static List<String> extractRoles(Authentication auth, RoleType roleType) {
 		String prefix = null;
 		String admin = null;
 		String guest = null;
@@ -73,9 +137,7 @@ public class SecurityUtils {
 				if (role.startsWith(prefix)) {
 					String cleanName = role.replaceFirst(prefix, "");
 					if (cleanName.equals(admin)) {
-						result.clear();
-						result.add(admin);
-						return result;
+						return List.of(admin);
 					} else {
 						result.add(cleanName);
 					}
@@ -86,7 +148,7 @@ public class SecurityUtils {
 		if (result.isEmpty() || !result.contains(guest)) {
 			result.add(guest);
 		}
-		return result;
+		return Collections.unmodifiableList(result);
 	}
 
 	public static String getSubjectFromAuthentication() {
@@ -113,4 +175,29 @@ public class SecurityUtils {
 		return getKeycloakAccountFromAuthentication(SecurityContextHolder.getContext().getAuthentication());
 	}
 
+	private static final class TokenRolesKey {
+		private final String tokenId;
+		private final RoleType roleType;
+		private final long expiresAtMillis;
+
+		TokenRolesKey(String tokenId, RoleType roleType, long expiresAtMillis) {
+			this.tokenId = tokenId;
+			this.roleType = roleType;
+			this.expiresAtMillis = expiresAtMillis;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof TokenRolesKey)) {
+				return false;
+			}
+			TokenRolesKey other = (TokenRolesKey) obj;
+			return roleType == other.roleType && tokenId.equals(other.tokenId);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(tokenId, roleType);
+		}
+	}
 }
@@ -0,0 +1,109 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja.utils.jsonserializer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Counts the bytes written to a response, and holds back the first of them.
+ *
+ * As long as nothing got passed on, the response is not committed, and an
+ * error can still replace it with an error response. So, responses up to
+ * holdBack bytes get written as a whole, larger ones get streamed after
+ * their first holdBack bytes. Flushes before that point are ignored.
+ *
+ * Not thread-safe, and it does not close the underlying stream.
+ */
+public class HoldBackOutputStream extends OutputStream {
+
+	private final OutputStream out;
+	private final int holdBack;
+	private final Runnable beforeCommit;
+
+	private byte[] buf = new byte[256];
+	private int held;
+	private long count;
+	private boolean committed;
+
+	/**
+	 * @param beforeCommit runs right before the first byte gets passed on, ex.
+	 *                     to add headers
+	 */
+	public HoldBackOutputStream(OutputStream out, int holdBack, Runnable beforeCommit) {
+		this.out = out;
+		this.holdBack = holdBack;
+		this.beforeCommit = beforeCommit;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] {(byte) b}, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		count += len;
+		if (committed) {
+			out.write(b, off, len);
+			return;
+		}
+		if (held + len <= holdBack) {
+			if (held + len > buf.length) {
+				buf = Arrays.copyOf(buf, Math.min(holdBack, Math.max(held + len, buf.length * 2)));
+			}
+			System.arraycopy(b, off, buf, held, len);
+			held += len;
+			return;
+		}
+		commit();
+		out.write(b, off, len);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		if (committed) {
+			out.flush();
+		}
+	}
+
+	/**
+	 * Pass on the held back bytes, and all further bytes right away
+	 */
+	public void commit() throws IOException {
+		if (committed) {
+			return;
+		}
+		committed = true;
+		beforeCommit.run();
+		out.write(buf, 0, held);
+		buf = null;
+		held = 0;
+	}
+
+	/**
+	 * Commit and flush
+	 */
+	@Override
+	public void close() throws IOException {
+		commit();
+		out.flush();
+	}
+
+	/**
+	 * @return true, if some bytes have been passed on already
+	 */
+	public boolean isCommitted() {
+		return committed;
+	}
+
+	/**
+	 * @return number of bytes written so far, held back or not
+	 */
+	public long getCount() {
+		return count;
+	}
+}
@@ -0,0 +1,87 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja.utils.jsonserializer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.jsoniter.output.JsonStream;
+import com.jsoniter.spi.Config;
+import com.jsoniter.spi.JsoniterSpi;
+
+/**
+ * Output formats of our JSON responses, each with its own jsoniter config.
+ *
+ * Never change the global jsoniter config with JsonStream.setIndentionStep at
+ * runtime: it applies to all further responses of all threads. Pick a format
+ * per response instead.
+ *
+ * Null values are not part of the format. With shownull=false, they get
+ * dropped already while mapping the rows (see ColumnMapRowMapper), and the
+ * tree builder decides on them, ex. whether an empty object is kept. Rows
+ * without any value get dropped, and the size estimate counts what is left.
+ * A format, that only omits nulls while writing, would keep those rows and
+ * objects, so the output would change.
+ */
+public enum JsonFormat {
+	COMPACT(0),
+	PRETTY(4);
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private static JsonFormat defaultFormat = COMPACT;
+
+	private final Config config;
+
+	JsonFormat(int indentionStep) {
+		this.config = new Config.Builder()
+			.indentionStep(indentionStep)
+			.build();
+	}
+
+	public Config getConfig() {
+		return config;
+	}
+
+	public String serialize(Object obj) {
+		return JsonStream.serialize(config, obj);
+	}
+
+	/**
+	 * Write obj to out and flush it. Unlike JsonStream.serialize, this does not
+	 * close out, also not on errors, where out may have got a part of obj.
+	 */
+	public void serialize(Object obj, OutputStream out) throws IOException {
+		JsoniterSpi.setCurrentConfig(config);
+		try {
+			JsonStream stream = new JsonStream(out, BUFFER_SIZE);
+			stream.writeVal(obj);
+			stream.flush();
+		} finally {
+			JsoniterSpi.clearCurrentConfig();
+		}
+	}
+
+	/**
+	 * @param pretty requested by the user, or null for the default format
+	 */
+	public static JsonFormat of(Boolean pretty) {
+		if (pretty == null) {
+			return getDefault();
+		}
+		return pretty ? PRETTY : COMPACT;
+	}
+
+	public static synchronized JsonFormat getDefault() {
+		return defaultFormat;
+	}
+
+	/**
+	 * Format for responses, that do not request one
+	 */
+	public static synchronized void setDefault(JsonFormat format) {
+		defaultFormat = format;
+	}
+}
@@ -6,16 +6,11 @@ package it.bz.idm.bdp.ninja.utils.jsonserializer;
 
 import java.io.IOException;
 import java.sql.SQLException;
-import java.util.HashMap;
-import java.util.Map;
 
 import org.postgis.Point;
 
 import com.jsoniter.JsonIterator;
-import com.jsoniter.any.Any;
-import com.jsoniter.output.JsonStream;
 import com.jsoniter.spi.Decoder;
-import com.jsoniter.spi.Encoder;
 import com.jsoniter.spi.JsonException;
 import com.jsoniter.spi.JsoniterSpi;
 
@@ -32,22 +27,16 @@ public class JsonIterPostgresSupport {
 			throw new JsonException("JsonIterPostgresSupport.enable can only be called once");
 		}
 		enabled = true;
-		JsoniterSpi.registerTypeEncoder(Point.class, new Encoder.ReflectionEncoder() {
-			@Override
-			public void encode(Object obj, JsonStream stream) throws IOException {
-				Point point = (Point) obj;
-				Map<String, Object> result = new HashMap<>();
-				result.put("srid", point.getSrid());
-				result.put("x", point.getX());
-				result.put("y", point.getY());
-				stream.writeVal(result);
-			}
-
-			@Override
-			public Any wrap(Object obj) {
-				return Any.wrap(enabled);
-			}
-		});
+		NodeEncoder.register();
+		/*
+		 * jsoniter copies registered encoders only into the config of the
+		 * current thread, and into configs created afterwards
+		 */
+		for (JsonFormat format : JsonFormat.values()) {
+			JsoniterSpi.setCurrentConfig(format.getConfig());
+			NodeEncoder.register();
+		}
+		JsoniterSpi.clearCurrentConfig();
 		JsoniterSpi.registerTypeDecoder(Point.class, new Decoder() {
 			@Override
 			public Object decode(JsonIterator iter) throws IOException {
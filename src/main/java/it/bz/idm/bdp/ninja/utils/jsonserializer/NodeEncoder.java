@@ -0,0 +1,210 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja.utils.jsonserializer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.postgis.Point;
+import org.springframework.util.LinkedCaseInsensitiveMap;
+
+import com.jsoniter.any.Any;
+import com.jsoniter.output.JsonStream;
+import com.jsoniter.spi.Encoder;
+import com.jsoniter.spi.JsoniterSpi;
+
+import it.bz.idm.bdp.ninja.utils.queryexecutor.ColumnarRowBatch;
+import it.bz.idm.bdp.ninja.utils.resultbuilder.StreamedTree;
+import it.bz.idm.bdp.ninja.utils.resultbuilder.TreeNode;
+
+/**
+ * Writes the maps and lists of our results, that is, tree nodes and row
+ * maps, and the values inside them. Tree nodes get written slot by slot.
+ *
+ * jsoniter looks up an encoder by the runtime class of each value, and
+ * writes each key through its string escaping. Our values have only a few
+ * types, so we check them directly, and write keys from cached byte arrays.
+ * Anything else still goes through jsoniter. The output is the same as with
+ * ReflectionMapEncoder and ReflectionListEncoder, including indentation.
+ */
+public class NodeEncoder implements Encoder.ReflectionEncoder {
+
+	/* Keys are mostly target names, but also station codes or data type names */
+	private static final int MAX_CACHED_KEYS = 8192;
+	private static final Map<String, byte[]> KEYS = new ConcurrentHashMap<>();
+
+	/**
+	 * Register this and all other encoders for the value types of our results
+	 */
+	public static void register() {
+		NodeEncoder nodeEncoder = new NodeEncoder();
+		JsoniterSpi.registerTypeEncoder(TreeNode.class, nodeEncoder);
+		JsoniterSpi.registerTypeEncoder(TreeMap.class, nodeEncoder);
+		JsoniterSpi.registerTypeEncoder(HashMap.class, nodeEncoder);
+		JsoniterSpi.registerTypeEncoder(LinkedHashMap.class, nodeEncoder);
+		JsoniterSpi.registerTypeEncoder(LinkedCaseInsensitiveMap.class, nodeEncoder);
+		JsoniterSpi.registerTypeEncoder(ArrayList.class, nodeEncoder);
+		JsoniterSpi.registerTypeEncoder(Point.class, new PointEncoder());
+		JsoniterSpi.registerTypeEncoder(RawJson.class, new RawJsonEncoder());
+		JsoniterSpi.registerTypeEncoder(ColumnarRowBatch.class, new RowCursorEncoder());
+		JsoniterSpi.registerTypeEncoder(StreamedTree.class, new StreamedTreeEncoder());
+	}
+
+	@Override
+	public void encode(Object obj, JsonStream stream) throws IOException {
+		writeValue(obj, stream, stream.currentConfig().indentionStep() > 0);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public Any wrap(Object obj) {
+		if (obj instanceof Map) {
+			return Any.wrap((Map<String, Object>) obj);
+		}
+		return Any.wrap((List<Object>) obj);
+	}
+
+	/**
+	 * @param indented true, if the stream has an indentation step
+	 */
+	@SuppressWarnings("unchecked")
+	public static void writeValue(Object value, JsonStream stream, boolean indented) throws IOException {
+		if (value == null) {
+			stream.writeNull();
+			return;
+		}
+		Class<?> type = value.getClass();
+		if (type == String.class) {
+			stream.writeVal((String) value);
+		} else if (type == Double.class) {
+			stream.writeVal(((Double) value).doubleValue());
+		} else if (type == Long.class) {
+			stream.writeVal(((Long) value).longValue());
+		} else if (type == Integer.class) {
+			stream.writeVal(((Integer) value).intValue());
+		} else if (type == Boolean.class) {
+			stream.writeVal(((Boolean) value).booleanValue());
+		} else if (type == TreeNode.class) {
+			writeNode((TreeNode) value, stream, indented);
+		} else if (type == TreeMap.class || type == LinkedCaseInsensitiveMap.class || type == HashMap.class
+				|| type == LinkedHashMap.class) {
+			writeMap((Map<Object, Object>) value, stream, indented);
+		} else if (type == ArrayList.class) {
+			writeList((List<Object>) value, stream, indented);
+		} else if (type == RawJson.class) {
+			RawJsonEncoder.write((RawJson) value, stream);
+		} else if (type == Point.class) {
+			PointEncoder.write((Point) value, stream);
+		} else {
+			stream.writeVal(value);
+		}
+	}
+
+	private static void writeMap(Map<Object, Object> map, JsonStream stream, boolean indented) throws IOException {
+		if (map.isEmpty()) {
+			stream.write((byte) '{', (byte) '}');
+			return;
+		}
+		stream.writeObjectStart();
+		boolean notFirst = false;
+		for (Map.Entry<Object, Object> entry : map.entrySet()) {
+			if (notFirst) {
+				stream.writeMore();
+			} else {
+				stream.writeIndention();
+				notFirst = true;
+			}
+			writeKey(entry.getKey(), stream, indented);
+			writeValue(entry.getValue(), stream, indented);
+		}
+		stream.writeObjectEnd();
+	}
+
+	private static void writeNode(TreeNode node, JsonStream stream, boolean indented) throws IOException {
+		if (node.isEmpty()) {
+			stream.write((byte) '{', (byte) '}');
+			return;
+		}
+		TreeNode.Shape shape = node.getShape();
+		stream.writeObjectStart();
+		boolean notFirst = false;
+		for (int slot = 0; slot < shape.size(); slot++) {
+			if (!node.isSet(slot)) {
+				continue;
+			}
+			if (notFirst) {
+				stream.writeMore();
+			} else {
+				stream.writeIndention();
+				notFirst = true;
+			}
+			writeKey(shape.getKey(slot), stream, indented);
+			writeValue(node.getAt(slot), stream, indented);
+		}
+		stream.writeObjectEnd();
+	}
+
+	private static void writeList(List<Object> list, JsonStream stream, boolean indented) throws IOException {
+		if (list.isEmpty()) {
+			stream.writeEmptyArray();
+			return;
+		}
+		stream.writeArrayStart();
+		stream.writeIndention();
+		writeValue(list.get(0), stream, indented);
+		for (int i = 1; i < list.size(); i++) {
+			stream.writeMore();
+			writeValue(list.get(i), stream, indented);
+		}
+		stream.writeArrayEnd();
+	}
+
+	/**
+	 * Write an object field name, including the colon
+	 */
+	public static void writeKey(Object key, JsonStream stream, boolean indented) throws IOException {
+		String name = String.valueOf(key);
+		byte[] bytes = KEYS.get(name);
+		if (bytes == null) {
+			bytes = quote(name);
+			if (bytes != null && KEYS.size() < MAX_CACHED_KEYS) {
+				KEYS.putIfAbsent(name, bytes);
+			}
+		}
+		if (bytes == null) {
+			stream.writeObjectField(name);
+			return;
+		}
+		stream.write(bytes, 0, bytes.length);
+		if (indented) {
+			stream.write((byte) ':', (byte) ' ');
+		} else {
+			stream.write(':');
+		}
+	}
+
+	/**
+	 * @return the quoted key, or null if it needs escaping
+	 */
+	private static byte[] quote(String key) {
+		byte[] bytes = new byte[key.length() + 2];
+		bytes[0] = '"';
+		for (int i = 0; i < key.length(); i++) {
+			char c = key.charAt(i);
+			if (c < 0x20 || c >= 0x7F || c == '"' || c == '\\') {
+				return null;
+			}
+			bytes[i + 1] = (byte) c;
+		}
+		bytes[bytes.length - 1] = '"';
+		return bytes;
+	}
+}
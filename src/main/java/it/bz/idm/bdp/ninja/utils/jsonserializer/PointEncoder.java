@@ -0,0 +1,52 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja.utils.jsonserializer;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.postgis.Point;
+
+import com.jsoniter.any.Any;
+import com.jsoniter.output.JsonStream;
+import com.jsoniter.spi.Encoder;
+
+/**
+ * Writes a PostGIS {@link Point} as object with x, y and srid. The output is
+ * the same as jsoniter writes for a HashMap with these keys, but without
+ * creating one per coordinate.
+ */
+public class PointEncoder implements Encoder.ReflectionEncoder {
+
+	@Override
+	public void encode(Object obj, JsonStream stream) throws IOException {
+		write((Point) obj, stream);
+	}
+
+	public static void write(Point point, JsonStream stream) throws IOException {
+		stream.writeObjectStart();
+		stream.writeIndention();
+		stream.writeObjectField("x");
+		stream.writeVal(point.getX());
+		stream.writeMore();
+		stream.writeObjectField("y");
+		stream.writeVal(point.getY());
+		stream.writeMore();
+		stream.writeObjectField("srid");
+		stream.writeVal(point.getSrid());
+		stream.writeObjectEnd();
+	}
+
+	@Override
+	public Any wrap(Object obj) {
+		Point point = (Point) obj;
+		Map<String, Object> result = new HashMap<>();
+		result.put("srid", point.getSrid());
+		result.put("x", point.getX());
+		result.put("y", point.getY());
+		return Any.wrap(result);
+	}
+}
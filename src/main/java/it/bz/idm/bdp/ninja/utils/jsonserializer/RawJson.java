@@ -0,0 +1,68 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja.utils.jsonserializer;
+
+import com.jsoniter.JsonIterator;
+import com.jsoniter.any.Any;
+
+/**
+ * A JSON value as text, exactly as PostgreSQL returned it for a jsonb column,
+ * ex. station metadata or a GeoJSON geometry.
+ *
+ * The serializer writes it verbatim (see {@link RawJsonEncoder}), so we
+ * neither parse nor copy it, unless someone needs to look inside with
+ * {@link #parse()}.
+ */
+public final class RawJson {
+
+	private final String json;
+	private Any parsed;
+
+	private RawJson(String json) {
+		this.json = json;
+	}
+
+	/**
+	 * @param json valid JSON text, not null
+	 */
+	public static RawJson of(String json) {
+		if (json == null) {
+			throw new IllegalArgumentException("RawJson needs a JSON text, not null");
+		}
+		return new RawJson(json);
+	}
+
+	/**
+	 * @return the JSON text
+	 */
+	public String getJson() {
+		return json;
+	}
+
+	/**
+	 * Parse the JSON text on first use
+	 */
+	public Any parse() {
+		if (parsed == null) {
+			parsed = JsonIterator.deserialize(json);
+		}
+		return parsed;
+	}
+
+	@Override
+	public String toString() {
+		return json;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof RawJson && json.equals(((RawJson) obj).json);
+	}
+
+	@Override
+	public int hashCode() {
+		return json.hashCode();
+	}
+}
@@ -0,0 +1,133 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja.utils.jsonserializer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import com.jsoniter.any.Any;
+import com.jsoniter.output.JsonStream;
+import com.jsoniter.spi.Encoder;
+
+/**
+ * Writes {@link RawJson} verbatim. JsonStream.writeRaw copies chars as
+ * single bytes, so only ASCII text can take that shortcut; everything else
+ * gets encoded as UTF-8 first.
+ *
+ * With an indention step, ex. for {@link JsonFormat#PRETTY}, the JSON text
+ * gets re-indented like the rest of the response instead. Strings and
+ * numbers stay as they are.
+ */
+public class RawJsonEncoder implements Encoder.ReflectionEncoder {
+
+	@Override
+	public void encode(Object obj, JsonStream stream) throws IOException {
+		write((RawJson) obj, stream);
+	}
+
+	public static void write(RawJson value, JsonStream stream) throws IOException {
+		String json = value.getJson();
+		if (stream.currentConfig().indentionStep() > 0) {
+			writeIndented(json.getBytes(StandardCharsets.UTF_8), stream);
+		} else if (isAscii(json)) {
+			stream.writeRaw(json);
+		} else {
+			byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+			stream.write(bytes, 0, bytes.length);
+		}
+	}
+
+	/**
+	 * Write valid JSON text with the indention of the stream. All structural
+	 * characters are ASCII, and bytes of multi-byte UTF-8 characters never
+	 * are, so we can copy strings and numbers byte by byte.
+	 */
+	private static void writeIndented(byte[] json, JsonStream stream) throws IOException {
+		int i = 0;
+		while (i < json.length) {
+			byte b = json[i];
+			switch (b) {
+				case ' ':
+				case '\t':
+				case '\n':
+				case '\r':
+					i++;
+					break;
+				case '{':
+				case '[':
+					int next = skipWhitespace(json, i + 1);
+					if (next < json.length && json[next] == (b == '{' ? '}' : ']')) {
+						stream.write(b, json[next]);
+						i = next + 1;
+						break;
+					}
+					if (b == '{') {
+						stream.writeObjectStart();
+					} else {
+						stream.writeArrayStart();
+					}
+					stream.writeIndention();
+					i++;
+					break;
+				case '}':
+					stream.writeObjectEnd();
+					i++;
+					break;
+				case ']':
+					stream.writeArrayEnd();
+					i++;
+					break;
+				case ',':
+					stream.writeMore();
+					i++;
+					break;
+				case ':':
+					stream.write((byte) ':', (byte) ' ');
+					i++;
+					break;
+				case '"':
+					int end = i + 1;
+					while (json[end] != '"') {
+						end += json[end] == '\\' ? 2 : 1;
+					}
+					stream.write(json, i, end + 1 - i);
+					i = end + 1;
+					break;
+				default:
+					/* Numbers, true, false and null */
+					int start = i;
+					while (i < json.length && isScalar(json[i])) {
+						i++;
+					}
+					stream.write(json, start, i - start);
+			}
+		}
+	}
+
+	private static int skipWhitespace(byte[] json, int i) {
+		while (i < json.length && (json[i] == ' ' || json[i] == '\t' || json[i] == '\n' || json[i] == '\r')) {
+			i++;
+		}
+		return i;
+	}
+
+	private static boolean isScalar(byte b) {
+		return b != ' ' && b != '\t' && b != '\n' && b != '\r' && b != ',' && b != ':' && b != '}' && b != ']';
+	}
+
+	@Override
+	public Any wrap(Object obj) {
+		return ((RawJson) obj).parse();
+	}
+
+	private static boolean isAscii(String s) {
+		for (int i = 0; i < s.length(); i++) {
+			if (s.charAt(i) >= 0x80) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
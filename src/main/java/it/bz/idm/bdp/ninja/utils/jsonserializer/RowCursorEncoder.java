@@ -0,0 +1,95 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja.utils.jsonserializer;
+
+import java.io.IOException;
+
+import com.jsoniter.any.Any;
+import com.jsoniter.output.JsonStream;
+import com.jsoniter.spi.Encoder;
+
+import it.bz.idm.bdp.ninja.utils.queryexecutor.ColumnarRowBatch;
+import it.bz.idm.bdp.ninja.utils.queryexecutor.RowCursor;
+import it.bz.idm.bdp.ninja.utils.queryexecutor.TimestampFormatter;
+
+/**
+ * Writes a {@link ColumnarRowBatch} as JSON array of objects through its
+ * {@link RowCursor}, without creating a map or boxing a number per row.
+ *
+ * The output is the same as jsoniter writes for a list of row maps, including
+ * indentation, see ReflectionCollectionEncoder and ReflectionMapEncoder.
+ */
+public class RowCursorEncoder implements Encoder.ReflectionEncoder {
+
+	@Override
+	public void encode(Object obj, JsonStream stream) throws IOException {
+		write(((ColumnarRowBatch) obj).cursor(), stream);
+	}
+
+	@Override
+	public Any wrap(Object obj) {
+		return Any.wrap((ColumnarRowBatch) obj);
+	}
+
+	public static void write(RowCursor cursor, JsonStream stream) throws IOException {
+		if (!cursor.next()) {
+			stream.writeEmptyArray();
+			return;
+		}
+		byte[] timestamp = new byte[TimestampFormatter.MAX_LENGTH];
+		stream.writeArrayStart();
+		stream.writeIndention();
+		writeRow(cursor, stream, timestamp);
+		while (cursor.next()) {
+			stream.writeMore();
+			writeRow(cursor, stream, timestamp);
+		}
+		stream.writeArrayEnd();
+	}
+
+	private static void writeRow(RowCursor cursor, JsonStream stream, byte[] timestamp) throws IOException {
+		boolean notFirst = false;
+		for (int column = 0; column < cursor.getColumnCount(); column++) {
+			if (cursor.isAbsent(column)) {
+				continue;
+			}
+			if (notFirst) {
+				stream.writeMore();
+			} else {
+				stream.writeObjectStart();
+				stream.writeIndention();
+				notFirst = true;
+			}
+			stream.writeObjectField(cursor.getColumnName(column));
+			if (cursor.isNull(column)) {
+				stream.writeNull();
+				continue;
+			}
+			switch (cursor.getKind(column)) {
+				case DOUBLE:
+					stream.writeVal(cursor.getDouble(column));
+					break;
+				case INT:
+				case LONG:
+					stream.writeVal(cursor.getLong(column));
+					break;
+				case TIMESTAMP:
+					/* Formatted timestamps are plain ASCII, nothing to escape */
+					stream.write('"');
+					stream.write(timestamp, 0, cursor.formatTimestamp(column, timestamp));
+					stream.write('"');
+					break;
+				default:
+					stream.writeVal(cursor.getValue(column));
+					break;
+			}
+		}
+		if (notFirst) {
+			stream.writeObjectEnd();
+		} else {
+			stream.writeEmptyObject();
+		}
+	}
+}
@@ -0,0 +1,29 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja.utils.jsonserializer;
+
+import java.io.IOException;
+
+import com.jsoniter.any.Any;
+import com.jsoniter.output.JsonStream;
+import com.jsoniter.spi.Encoder;
+
+import it.bz.idm.bdp.ninja.utils.resultbuilder.StreamedTree;
+
+/**
+ * Builds and writes a {@link StreamedTree} subtree by subtree
+ */
+public class StreamedTreeEncoder implements Encoder.ReflectionEncoder {
+
+	@Override
+	public void encode(Object obj, JsonStream stream) throws IOException {
+		((StreamedTree) obj).write(stream);
+	}
+
+	@Override
+	public Any wrap(Object obj) {
+		return Any.wrap(((StreamedTree) obj).build());
+	}
+}
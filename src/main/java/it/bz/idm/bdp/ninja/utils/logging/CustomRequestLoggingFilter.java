@@ -11,6 +11,8 @@ import org.springframework.web.filter.AbstractRequestLoggingFilter;
 
 import it.bz.idm.bdp.ninja.utils.Referer;
 import it.bz.idm.bdp.ninja.utils.SecurityUtils;
+import it.bz.idm.bdp.ninja.utils.metrics.RequestMetrics;
+import it.bz.idm.bdp.ninja.utils.metrics.RequestTrace;
 
 import javax.servlet.FilterChain;
 import javax.servlet.ServletException;
@@ -39,10 +41,13 @@ public class CustomRequestLoggingFilter extends AbstractRequestLoggingFilter {
 				// or if it is invalid...
 			}
 			request.setAttribute("timer_start", System.nanoTime());
+			RequestTrace.begin();
 			filterChain.doFilter(request, response);
 		} finally {
 			if (!this.isAsyncStarted(request)) {
-				logger.info("Request finished", entries(logData(request, response)));
+				RequestTrace trace = RequestTrace.current();
+				RequestMetrics.record(trace);
+				logger.info("Request finished", entries(logData(request, response, trace)));
 			}
 		}
 	}
@@ -54,7 +59,7 @@ public class CustomRequestLoggingFilter extends AbstractRequestLoggingFilter {
 		return request.getHeader("x-forwarded-for");
 	}
 
-	private Map<String, Object> logData(HttpServletRequest request, HttpServletResponse response) {
+	private Map<String, Object> logData(HttpServletRequest request, HttpServletResponse response, RequestTrace trace) {
 		final HashMap<String, Object> result = new HashMap<>();
 		result.put("uri", request.getRequestURI());
 		result.put("query_string", request.getQueryString());
@@ -69,6 +74,7 @@ public class CustomRequestLoggingFilter extends AbstractRequestLoggingFilter {
 		result.put("origin", request.getParameter("origin"));
 		result.put("referer", Referer.getReferer(request));
 		result.put("data_fetcher", request.getAttribute("data_fetcher"));
+		result.put("trace_nanos", trace.toMap());
 		result.put("response_time", (System.nanoTime() - (long) request.getAttribute("timer_start")) / 1000000);
 		return result;
 	}
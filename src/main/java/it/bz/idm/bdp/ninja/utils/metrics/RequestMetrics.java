@@ -0,0 +1,118 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja.utils.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import it.bz.idm.bdp.ninja.utils.Representation;
+import it.bz.idm.bdp.ninja.utils.metrics.RequestTrace.Span;
+
+/**
+ * Micrometer meters of the request pipeline, tagged by command (ex.
+ * fetchStations) and representation (ex. tree,node).
+ *
+ * We register on the global registry, since the pipeline classes are not
+ * Spring beans. Spring Boot adds its registries, ex. Prometheus, to the
+ * global one.
+ *
+ * <ul>
+ * <li>ninja.request.phase: timer per {@link Span} of the {@link RequestTrace}</li>
+ * <li>ninja.query.rows: rows returned by the database</li>
+ * <li>ninja.response.bytes: size of the serialized JSON response (UTF-8, uncompressed)</li>
+ * </ul>
+ */
+public class RequestMetrics {
+
+	private static MeterRegistry registry = Metrics.globalRegistry;
+
+	private RequestMetrics() {
+		// This is just an utility class
+	}
+
+	/**
+	 * Use another registry than the global one, ex. within tests
+	 */
+	public static void setRegistry(MeterRegistry registry) {
+		RequestMetrics.registry = registry == null ? Metrics.globalRegistry : registry;
+	}
+
+	/**
+	 * Record all spans of a finished trace, if it belongs to a data request
+	 */
+	public static void record(RequestTrace trace) {
+		if (trace.getCommand() == null) {
+			return;
+		}
+		for (Span span : Span.values()) {
+			if (trace.getCount(span) > 0) {
+				recordPhase(span, trace.getCommand(), trace.getRepresentation(), trace.getNanos(span));
+			}
+		}
+	}
+
+	public static void recordPhase(Span span, String command, Representation representation, long nanos) {
+		Timer
+			.builder("ninja.request.phase")
+			.description("Duration of a single phase of a data request")
+			.tag("phase", span.getPath())
+			.tag("command", String.valueOf(command))
+			.tag("representation", String.valueOf(representation))
+			.publishPercentileHistogram()
+			.register(registry)
+			.record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	public static void recordRows(String command, Representation representation, long rows) {
+		DistributionSummary
+			.builder("ninja.query.rows")
+			.description("Rows returned by the database per data request")
+			.tag("command", String.valueOf(command))
+			.tag("representation", String.valueOf(representation))
+			.publishPercentileHistogram()
+			.register(registry)
+			.record(rows);
+	}
+
+	public static void recordBytes(String command, Representation representation, String json) {
+		recordBytes(command, representation, utf8Length(json));
+	}
+
+	public static void recordBytes(String command, Representation representation, long bytes) {
+		DistributionSummary
+			.builder("ninja.response.bytes")
+			.description("Size of the serialized JSON response before compression")
+			.baseUnit("bytes")
+			.tag("command", String.valueOf(command))
+			.tag("representation", String.valueOf(representation))
+			.publishPercentileHistogram()
+			.register(registry)
+			.record(bytes);
+	}
+
+	/**
+	 * Number of bytes of the UTF-8 encoded string, without encoding it
+	 */
+	public static long utf8Length(CharSequence s) {
+		long result = 0;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c < 0x80) {
+				result++;
+			} else if (c < 0x800) {
+				result += 2;
+			} else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+				result += 4;
+				i++;
+			} else {
+				result += 3;
+			}
+		}
+		return result;
+	}
+}
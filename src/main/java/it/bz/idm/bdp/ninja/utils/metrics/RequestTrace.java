@@ -0,0 +1,194 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja.utils.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import it.bz.idm.bdp.ninja.utils.Representation;
+
+/**
+ * Nanosecond phase tracer of a single request.
+ *
+ * Each {@link Span} has a fixed slot in primitive arrays, so starting and
+ * stopping a span does not allocate anything. Spans can be nested, since
+ * each one has its own start time, and can be entered more than once per
+ * request (ex. a select expansion per union part). Their durations add up.
+ *
+ * A request runs on a single servlet thread, so we keep one trace per thread
+ * and reset it with {@link #begin()}, whenever a new request starts.
+ *
+ * Reports are produced only once at the end of a request: a map for the
+ * structured request log, and a Server-Timing header value.
+ */
+public final class RequestTrace {
+
+	public enum Span {
+		BUILD("build", null),              // parse select/where, and build the SQL query
+		EXPAND("expand", BUILD),           // select expansion
+		WHERE("where", EXPAND),            // where clause parsing and SQL generation
+		EXECUTE("execute", null),          // database roundtrip, until all rows are available
+		FIRST_ROW("first-row", null),      // from sending the query until the first row arrives
+		MAP("map", null),                  // map JDBC rows into Java maps
+		TREE("tree", null),                // build the tree representation, while serializing it
+		SERIALIZE("serialize", null);      // serialize the response to JSON
+
+		private static final Span[] VALUES = values();
+
+		private final String tag;
+		private final String path;
+
+		Span(String tag, Span parent) {
+			this.tag = tag;
+			this.path = parent == null ? tag : parent.path + "." + tag;
+		}
+
+		/**
+		 * @return name of the span alone, ex. where
+		 */
+		public String getTag() {
+			return tag;
+		}
+
+		/**
+		 * @return name of the span including its parents, ex. build.expand.where
+		 */
+		public String getPath() {
+			return path;
+		}
+	}
+
+	private static final ThreadLocal<RequestTrace> CURRENT = ThreadLocal.withInitial(RequestTrace::new);
+
+	private final long[] starts = new long[Span.VALUES.length];
+	private final long[] totals = new long[Span.VALUES.length];
+	private final int[] counts = new int[Span.VALUES.length];
+	private String command;
+	private Representation representation;
+
+	RequestTrace() {
+		// Use begin() or current()
+	}
+
+	/**
+	 * Reset the trace of the current thread, and return it
+	 */
+	public static RequestTrace begin() {
+		RequestTrace trace = CURRENT.get();
+		trace.reset();
+		return trace;
+	}
+
+	/**
+	 * @return trace of the current thread
+	 */
+	public static RequestTrace current() {
+		return CURRENT.get();
+	}
+
+	public void reset() {
+		for (int i = 0; i < totals.length; i++) {
+			starts[i] = 0;
+			totals[i] = 0;
+			counts[i] = 0;
+		}
+		command = null;
+		representation = null;
+	}
+
+	public void start(Span span) {
+		starts[span.ordinal()] = System.nanoTime();
+	}
+
+	/**
+	 * Stop a span started with {@link #start(Span)}
+	 *
+	 * @return nanoseconds since the start of this span
+	 */
+	public long stop(Span span) {
+		long nanos = System.nanoTime() - starts[span.ordinal()];
+		add(span, nanos);
+		return nanos;
+	}
+
+	/**
+	 * Add a duration measured elsewhere to a span
+	 */
+	public void add(Span span, long nanos) {
+		totals[span.ordinal()] += nanos;
+		counts[span.ordinal()]++;
+	}
+
+	/**
+	 * @return nanoseconds spent within span during this request
+	 */
+	public long getNanos(Span span) {
+		return totals[span.ordinal()];
+	}
+
+	/**
+	 * @return how many times span was recorded during this request
+	 */
+	public int getCount(Span span) {
+		return counts[span.ordinal()];
+	}
+
+	public void setCommand(String command, Representation representation) {
+		this.command = command;
+		this.representation = representation;
+	}
+
+	public String getCommand() {
+		return command;
+	}
+
+	public Representation getRepresentation() {
+		return representation;
+	}
+
+	/**
+	 * Recorded spans for structured logs, ex. {"build.expand.where": 120345}
+	 */
+	public Map<String, Long> toMap() {
+		Map<String, Long> result = new LinkedHashMap<>();
+		for (Span span : Span.VALUES) {
+			if (counts[span.ordinal()] > 0) {
+				result.put(span.getPath(), totals[span.ordinal()]);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Recorded spans as Server-Timing header value, with durations in
+	 * milliseconds, ex. build;dur=1.204, build.expand;dur=0.315
+	 */
+	public String toServerTiming() {
+		StringBuilder sb = new StringBuilder(256);
+		for (Span span : Span.VALUES) {
+			int i = span.ordinal();
+			if (counts[i] == 0) {
+				continue;
+			}
+			if (sb.length() > 0) {
+				sb.append(", ");
+			}
+			long micros = totals[i] / 1000;
+			long fraction = micros % 1000;
+			sb.append(span.getPath())
+				.append(";dur=")
+				.append(micros / 1000)
+				.append('.');
+			if (fraction < 100) {
+				sb.append('0');
+			}
+			if (fraction < 10) {
+				sb.append('0');
+			}
+			sb.append(fraction);
+		}
+		return sb.toString();
+	}
+}
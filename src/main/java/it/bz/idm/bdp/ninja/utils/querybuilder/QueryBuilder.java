@@ -6,6 +6,7 @@ package it.bz.idm.bdp.ninja.utils.querybuilder;
 
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -13,6 +14,8 @@ import java.util.StringJoiner;
 
 import it.bz.idm.bdp.ninja.utils.conditionals.ConditionalMap;
 import it.bz.idm.bdp.ninja.utils.conditionals.ConditionalStringBuilder;
+import it.bz.idm.bdp.ninja.utils.metrics.RequestTrace;
+import it.bz.idm.bdp.ninja.utils.metrics.RequestTrace.Span;
 
 /**
  * Create a SQL string, depending on given conditions, a select list, an optional where-clause and
@@ -39,7 +42,10 @@ public class QueryBuilder {
 	public QueryBuilder reset(final String select, final String where, final boolean isDistinct, String... selectDefNames) {
 		se.setWhereClause(where);
 		se.setDistinct(isDistinct);
+		RequestTrace trace = RequestTrace.current();
+		trace.start(Span.EXPAND);
 		se.expand(select, selectDefNames);
+		trace.stop(Span.EXPAND);
 		groupByExpanded = false;
 		return this;
 	}
@@ -78,6 +84,29 @@ public class QueryBuilder {
 													&& condition);
 	}
 
+	/**
+	 * Set a non-empty collection as a single SQL array parameter with
+	 * <code>name</code> and add <code>sqlPart</code> to the end of the SQL
+	 * string, if the <code>condition</code> holds.
+	 *
+	 * Use it with <code>= any(:name)</code> or <code>&lt;&gt; all(:name)</code>
+	 * inside <code>sqlPart</code>. Contrary to <code>in (:name)</code>, the
+	 * SQL text does not depend on the number of elements, hence prepared
+	 * statements can be reused.
+	 *
+	 * @param name of the parameter
+	 * @param value collection of the parameter
+	 * @param sqlPart SQL string
+	 * @param condition that must hold
+	 * @return {@link QueryBuilder}
+	 */
+	public QueryBuilder setArrayParameterIfNotEmptyAnd(String name, Collection<?> value, String sqlPart, boolean condition) {
+		if (value == null || value.isEmpty() || !condition) {
+			return this;
+		}
+		return setParameterIf(name, toSqlArray(value), sqlPart, true);
+	}
+
 	/**
 	 * Set a parameter with <code>name</code> and <code>value</code> and add
 	 * <code>sqlPart</code> to the end of the SQL string, if the
@@ -229,6 +258,54 @@ public class QueryBuilder {
 		return resultSet;
 	}
 
+	/**
+	 * Convert a collection into a typed Java array, which the JDBC driver binds
+	 * as one single SQL array parameter (text[], int4[] or float8[]), instead of
+	 * expanding it into a placeholder per element.
+	 *
+	 * Null elements are kept, they do not influence the array type. Collections
+	 * with mixed strings and numbers cannot be typed and are returned as they are.
+	 *
+	 * @param values collection of strings or numbers
+	 * @return String[], Integer[], Double[] or the input collection
+	 */
+	public static Object toSqlArray(final Collection<?> values) {
+		boolean hasString = false;
+		boolean hasInteger = false;
+		boolean hasDouble = false;
+		for (Object value : values) {
+			if (value instanceof String) {
+				hasString = true;
+			} else if (value instanceof Integer) {
+				hasInteger = true;
+			} else if (value instanceof Number) {
+				hasDouble = true;
+			} else if (value != null) {
+				return values;
+			}
+		}
+
+		if (hasString && (hasInteger || hasDouble)) {
+			return values;
+		}
+
+		if (hasDouble) {
+			Double[] result = new Double[values.size()];
+			Iterator<?> it = values.iterator();
+			for (int i = 0; i < result.length; i++) {
+				Number value = (Number) it.next();
+				result[i] = value == null ? null : value.doubleValue();
+			}
+			return result;
+		}
+
+		if (hasInteger) {
+			return values.toArray(new Integer[0]);
+		}
+
+		return values.toArray(new String[0]);
+	}
+
 	public String getSql() {
 		return sql.toString().trim();
 	}
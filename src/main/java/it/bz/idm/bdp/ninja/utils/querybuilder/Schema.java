@@ -10,7 +10,9 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 
+import it.bz.idm.bdp.ninja.utils.resultbuilder.HierarchyPlan;
 import it.bz.idm.bdp.ninja.utils.resultbuilder.LookUp;
 import it.bz.idm.bdp.ninja.utils.resultbuilder.LookUpType;
 
@@ -21,14 +23,16 @@ public class Schema {
 	public static record ExitPoint(String exitPoint, boolean includeExitPoint) {
 	};
 
+	private static record PlanKey(String entryPoint, Map<String, ExitPoint> exitPoints) {
+	};
+
 	private boolean dirty = true;
 
 	/* We use a tree map here, because we want to have elements naturally sorted */
 	private Map<String, TargetDefList> schema = new TreeMap<>();
 	private Map<String, String> targetDefNameToAliasMap = new TreeMap<>();
 	private Map<String, List<TargetDef>> aliasOrNameToTargetDefMap = new TreeMap<>();
-	private List<List<String>> hierarchy = new ArrayList<>();
-	private List<String> hierarchyTriggerKeys = new ArrayList<>();
+	private Map<PlanKey, HierarchyPlan> hierarchyPlans = new ConcurrentHashMap<>();
 
 	public Schema add(final TargetDefList targetDefList) {
 		if (targetDefList == null) {
@@ -38,6 +42,7 @@ public class Schema {
 			throw new RuntimeException(String.format("TargetDefList '%s' already exists", targetDefList.getName()));
 		}
 		schema.put(targetDefList.getName(), targetDefList);
+		hierarchyPlans.clear();
 		dirty = true;
 		return this;
 	}
@@ -149,24 +154,38 @@ public class Schema {
 		return this;
 	}
 
-	// XXX Cache results
+	/**
+	 * Levels of TargetDefLists below the entry point, and their lookups. Plans
+	 * are immutable and get created only once per entry and exit points.
+	 *
+	 * @param exitPoints or null, if there are none
+	 */
+	public HierarchyPlan getHierarchyPlan(String entryPoint, Map<String, ExitPoint> exitPoints) {
+		if (exitPoints == null) {
+			exitPoints = Map.of();
+		}
+		HierarchyPlan plan = hierarchyPlans.get(new PlanKey(entryPoint, exitPoints));
+		if (plan == null) {
+			List<List<String>> hierarchy = new ArrayList<>();
+			List<String> hierarchyTriggerKeys = new ArrayList<>();
+			buildLevelRec(get(entryPoint), exitPoints, 0, hierarchy, hierarchyTriggerKeys);
+			plan = new HierarchyPlan(this, hierarchy, hierarchyTriggerKeys);
+			/* The caller may change its exit points later on */
+			hierarchyPlans.putIfAbsent(new PlanKey(entryPoint, Map.copyOf(exitPoints)), plan);
+		}
+		return plan;
+	}
+
 	public List<List<String>> getHierarchy(String entryPoint, Map<String, ExitPoint> exitPoints) {
-		hierarchy.clear();
-		hierarchyTriggerKeys.clear();
-		buildLevelRec(get(entryPoint), exitPoints, 0);
-		return hierarchy;
+		return getHierarchyPlan(entryPoint, exitPoints).getLevels();
 	}
 
 	public List<List<String>> getHierarchy(String entryPoint) {
 		return getHierarchy(entryPoint, null);
 	}
 
-	// XXX Cache results
 	public List<String> getHierarchyTriggerKeys(String entryPoint, Map<String, ExitPoint> exitPoints) {
-		hierarchy.clear();
-		hierarchyTriggerKeys.clear();
-		buildLevelRec(get(entryPoint), exitPoints, 0);
-		return hierarchyTriggerKeys;
+		return getHierarchyPlan(entryPoint, exitPoints).getTriggerKeys();
 	}
 
 	public List<String> getHierarchyTriggerKeys(String entryPoint) {
@@ -184,7 +203,8 @@ public class Schema {
 		}
 	}
 
-	private void buildLevelRec(TargetDefList entryPoint, Map<String, ExitPoint> exitPoints, int curLevel) {
+	private static void buildLevelRec(TargetDefList entryPoint, Map<String, ExitPoint> exitPoints, int curLevel,
+			List<List<String>> hierarchy, List<String> hierarchyTriggerKeys) {
 		List<String> level = hierarchy.size() > curLevel ? hierarchy.get(curLevel) : new ArrayList<>();
 		level.add(entryPoint.getName());
 
@@ -209,7 +229,7 @@ public class Schema {
 						// return point for non-inclusive exit points. The subtree is completely ignored
 						continue;
 					}
-					buildLevelRec(tdl, exitPoints, curLevel);
+					buildLevelRec(tdl, exitPoints, curLevel, hierarchy, hierarchyTriggerKeys);
 				}
 				curLevel--;
 			}
@@ -7,6 +7,7 @@ package it.bz.idm.bdp.ninja.utils.querybuilder;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Deque;
 import java.util.HashSet;
@@ -22,6 +23,8 @@ import org.apache.logging.log4j.util.Strings;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import it.bz.idm.bdp.ninja.utils.metrics.RequestTrace;
+import it.bz.idm.bdp.ninja.utils.metrics.RequestTrace.Span;
 import it.bz.idm.bdp.ninja.utils.miniparser.Consumer;
 import it.bz.idm.bdp.ninja.utils.miniparser.ConsumerExtended;
 import it.bz.idm.bdp.ninja.utils.miniparser.Token;
@@ -120,6 +123,7 @@ public class SelectExpansion {
 	private List<String> groupByCandidates = new ArrayList<>();
 	private Set<String> usedTargetDefListNames = new TreeSet<>();
 	private Map<String, List<WhereClauseTarget>> usedJSONAliasesInWhere = new TreeMap<>();
+	private List<WhereClauseTarget> requiredWhereTargets = new ArrayList<>();
 	private Map<String, WhereClauseOperator> whereClauseOperatorMap = new TreeMap<>();
 
 	private Map<String, Object> whereParameters = null;
@@ -169,10 +173,14 @@ public class SelectExpansion {
 
 	}
 
-	private void _addAliasesInWhere(final String alias, WhereClauseOperator whereClauseOperator, List<Token> clauseValueTokens, Token jsonSel) {
+	private void _addAliasesInWhere(final String alias, WhereClauseOperator whereClauseOperator, List<Token> clauseValueTokens, Token jsonSel, boolean required) {
 		List<WhereClauseTarget> tokens = usedJSONAliasesInWhere.getOrDefault(alias, new ArrayList<>());
-		tokens.add(new WhereClauseTarget(alias, whereClauseOperator, jsonSel, clauseValueTokens));
+		WhereClauseTarget target = new WhereClauseTarget(alias, whereClauseOperator, jsonSel, clauseValueTokens);
+		tokens.add(target);
 		usedJSONAliasesInWhere.put(alias, tokens);
+		if (required) {
+			requiredWhereTargets.add(target);
+		}
 	}
 
 	private void _expandWhere(String where, Set<String> allowedTargetDefs) {
@@ -228,7 +236,9 @@ public class SelectExpansion {
 					usedTargetDefListNames.add(schema.find(alias, allowedTargetDefs).getName());
 					Token jsonSel = t.getChild("JSONSEL");
 					Token clauseOrValueToken = t.getChild(t.getChildCount() - 1);
-					sbFull.append(whereClauseItem(column, alias, operator, clauseOrValueToken, jsonSel));
+					/* Clauses outside of any or(...) must hold for every result row */
+					boolean required = context.stream().allMatch(c -> c.logicalOp.equals("AND"));
+					sbFull.append(whereClauseItem(column, alias, operator, clauseOrValueToken, jsonSel, required));
 					ctx = context.getFirst();
 					ctx.clauseCnt--;
 					if (ctx.clauseCnt > 0)
@@ -261,7 +271,7 @@ public class SelectExpansion {
 
 	private Pattern slicePattern = Pattern.compile("(\\d*)(:?)(\\d*)");
 
-	private String whereClauseItem(String column, String alias, String operator, Token clauseValueToken, Token jsonSel) {
+	private String whereClauseItem(String column, String alias, String operator, Token clauseValueToken, Token jsonSel, boolean required) {
 		operator = operator.toUpperCase();
 
 		/* Search for a definition of this operator for a the given value input type (list, null or values) */
@@ -315,7 +325,7 @@ public class SelectExpansion {
 			throw new SimpleException(ErrorCode.WHERE_ALIAS_VALUE_ERROR, operator, clauseValueToken.getName(), value);
 		}
 
-		_addAliasesInWhere(alias, whereClauseOperator, clauseValueTokens, jsonSel);
+		_addAliasesInWhere(alias, whereClauseOperator, clauseValueTokens, jsonSel, required);
 		
 		String sqlSnippet = whereClauseOperator.getSqlSnippet();
 		StringBuilder result = new StringBuilder();
@@ -339,6 +349,11 @@ public class SelectExpansion {
 							result.append(registerWhereParameter(value));
 						}
 						break;
+					case 'a':
+						// The whole list as a single SQL array parameter, see QueryBuilder.toSqlArray
+						i++;
+						result.append(registerWhereParameter(toSqlArray(value)));
+						break;
 					case 'c':
 						result.append(column);
 						i++;
@@ -394,6 +409,13 @@ public class SelectExpansion {
 		return slice;
 	}
 	
+	private Object toSqlArray(Object value) {
+		if (value instanceof Collection) {
+			return QueryBuilder.toSqlArray((Collection<?>) value);
+		}
+		return value;
+	}
+
 	private String registerWhereParameter(Object value) {
 		if (value != null) {
 			String paramName = "pwhere_" + whereParameters.size();
@@ -446,6 +468,7 @@ public class SelectExpansion {
 		usedTargetDefListNames.clear();
 		expandedSelects.clear();
 		usedJSONAliasesInWhere.clear();
+		requiredWhereTargets.clear();
 		groupByCandidates.clear();
 
 		boolean hasJSONSelectors = false;
@@ -560,7 +583,10 @@ public class SelectExpansion {
 			usedTargetDefNames.add(td.getFinalName());
 		}
 
+		RequestTrace trace = RequestTrace.current();
+		trace.start(Span.WHERE);
 		_expandWhere(whereClause, targetListNames);
+		trace.stop(Span.WHERE);
 	}
 
 	public List<String> getUsedTargetNames() {
@@ -584,6 +610,18 @@ public class SelectExpansion {
 		return usedJSONAliasesInWhere;
 	}
 
+	/**
+	 * Where clause targets, that every result row satisfies, because they
+	 * are not nested inside an or(...). Ex., with "a.eq.1,or(b.eq.2,c.eq.3)"
+	 * only "a" is required.
+	 */
+	public List<WhereClauseTarget> getRequiredWhereTargets() {
+		if (dirty) {
+			throw new SimpleException(ErrorCode.DIRTY_STATE);
+		}
+		return requiredWhereTargets;
+	}
+
 	public List<String> getUsedDefNames() {
 		if (dirty) {
 			throw new SimpleException(ErrorCode.DIRTY_STATE);
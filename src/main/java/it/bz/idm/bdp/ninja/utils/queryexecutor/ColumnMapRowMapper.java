@@ -4,14 +4,13 @@
 
 package it.bz.idm.bdp.ninja.utils.queryexecutor;
 
+import java.nio.charset.StandardCharsets;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Timestamp;
-import java.time.DateTimeException;
-import java.time.ZoneId;
+import java.sql.Types;
 import java.time.ZoneOffset;
-import java.time.format.DateTimeFormatter;
 import java.util.Map;
 
 import org.postgis.PGgeometry;
@@ -21,33 +20,49 @@ import org.springframework.jdbc.support.JdbcUtils;
 import org.springframework.lang.Nullable;
 import org.springframework.util.LinkedCaseInsensitiveMap;
 
-import com.jsoniter.JsonIterator;
+import it.bz.idm.bdp.ninja.utils.jsonserializer.RawJson;
 
 public class ColumnMapRowMapper implements RowMapper<Map<String, Object>> {
 
 	private boolean ignoreNull = false;
-	private ZoneId zoneId = ZoneOffset.UTC;
+	private TimestampFormatter timestampFormatter = new TimestampFormatter(ZoneOffset.UTC);
 	private static Map<String, String> targetDefNameToAliasMap = null;
 
-	private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSSZ");
+	/* PostgreSQL type names of Types.OTHER columns of the last result set, null for other columns */
+	private ResultSet typedResultSet;
+	private String[] pgTypes;
 
 	public void setIgnoreNull(boolean ignoreNull) {
 		this.ignoreNull = ignoreNull;
 	}
 
 	public void setTimeZone(String zone) {
-		try {
-			this.zoneId = ZoneId.of(zone);
-		} catch (DateTimeException e) {
-			zone = zone.replace(" ", "+");
-			this.zoneId = ZoneId.of(zone);
-		}
+		this.timestampFormatter = TimestampFormatter.of(zone);
+	}
+
+	boolean isIgnoreNull() {
+		return ignoreNull;
+	}
+
+	TimestampFormatter getTimestampFormatter() {
+		return timestampFormatter;
 	}
 
 	public static synchronized void setTargetDefNameToAliasMap(Map<String, String> map) {
 		ColumnMapRowMapper.targetDefNameToAliasMap = map;
 	}
 
+	static synchronized Map<String, String> getTargetDefNameToAliasMap() {
+		return targetDefNameToAliasMap;
+	}
+
+	/**
+	 * Microseconds since the epoch, sub-microsecond precision gets truncated
+	 */
+	static long toEpochMicros(Timestamp timestamp) {
+		return Math.floorDiv(timestamp.getTime(), 1000L) * 1_000_000L + timestamp.getNanos() / 1000;
+	}
+
 	// FIXME Create a mapRow for tree building, otherwise we build a map first and then a tree
 	@Override
 	public Map<String, Object> mapRow(ResultSet rs, int rowNum) throws SQLException {
@@ -110,6 +125,23 @@ public class ColumnMapRowMapper implements RowMapper<Map<String, Object>> {
 	 */
 	@Nullable
 	protected Object getColumnValue(ResultSet rs, int index) throws SQLException {
+		String pgType = pgTypeOf(rs, index);
+		if (pgType != null) {
+			/*
+			 * Raw bytes of the value, without creating a PGobject and a String
+			 * first. That is text with text transfer and the binary
+			 * representation with binary transfer (see binaryTransferEnable).
+			 */
+			switch (pgType) {
+				case "geometry":
+					return EwkbDecoder.decode(rs.getBytes(index));
+				case "jsonb":
+					return jsonOf(rs.getBytes(index));
+				default:
+					break;
+			}
+		}
+
 		Object obj = rs.getObject(index);
 		if (obj instanceof PGobject) {
 			PGobject pgObj = (PGobject) obj;
@@ -119,12 +151,12 @@ public class ColumnMapRowMapper implements RowMapper<Map<String, Object>> {
 				case "geometry":
 					return PGgeometry.geomFromString(pgObj.getValue());
 				case "jsonb":
-					// FIXME Return a proper map
 					/* This is a proper JSON null value, since a string would be ""null"" instead. */
 					if (pgObj.getValue().equalsIgnoreCase("null")) {
 						return null;
 					}
-					return JsonIterator.deserialize(pgObj.getValue());
+					/* Written verbatim, we never need to parse it here */
+					return RawJson.of(pgObj.getValue());
 				case "tsrange":
 					String value = pgObj.getValue();
 					return value;
@@ -133,10 +165,41 @@ public class ColumnMapRowMapper implements RowMapper<Map<String, Object>> {
 			}
 		} else if (obj instanceof Timestamp) {
 			Timestamp timestampObj = (Timestamp) obj;
-			return DATE_FORMAT.format(timestampObj.toInstant().atZone(zoneId));
+			return timestampFormatter.format(toEpochMicros(timestampObj));
 		}
 
 		return JdbcUtils.getResultSetValue(rs, index);
 	}
 
+	@Nullable
+	private String pgTypeOf(ResultSet rs, int index) throws SQLException {
+		if (rs != typedResultSet) {
+			ResultSetMetaData rsmd = rs.getMetaData();
+			pgTypes = new String[rsmd.getColumnCount() + 1];
+			for (int i = 1; i < pgTypes.length; i++) {
+				if (rsmd.getColumnType(i) == Types.OTHER) {
+					pgTypes[i] = cleanPostgresType(rsmd.getColumnTypeName(i));
+				}
+			}
+			typedResultSet = rs;
+		}
+		return pgTypes[index];
+	}
+
+	@Nullable
+	private static RawJson jsonOf(byte[] bytes) {
+		if (bytes == null) {
+			return null;
+		}
+		/* The binary jsonb format is a version byte (1) followed by the text */
+		int offset = bytes.length > 0 && bytes[0] == 1 ? 1 : 0;
+		int length = bytes.length - offset;
+		/* This is a proper JSON null value, since a string would be ""null"" instead. */
+		if (length == 4 && (bytes[offset] | 0x20) == 'n' && (bytes[offset + 1] | 0x20) == 'u'
+				&& (bytes[offset + 2] | 0x20) == 'l' && (bytes[offset + 3] | 0x20) == 'l') {
+			return null;
+		}
+		return RawJson.of(new String(bytes, offset, length, StandardCharsets.UTF_8));
+	}
+
 }
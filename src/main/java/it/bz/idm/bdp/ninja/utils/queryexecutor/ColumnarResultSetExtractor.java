@@ -0,0 +1,61 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja.utils.queryexecutor;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.util.Assert;
+
+/**
+ * Extracts all rows into a {@link ColumnarRowBatch}, with the same timings as
+ * {@link RowMapperResultSetExtractor}
+ */
+public class ColumnarResultSetExtractor implements ResultSetExtractor<ColumnarRowBatch> {
+
+	private final ColumnMapRowMapper mapper;
+
+	private long extractionNanos;
+
+	private long firstRowTime;
+
+	/**
+	 * @param mapper defines null handling, time zone and value conversions
+	 */
+	public ColumnarResultSetExtractor(ColumnMapRowMapper mapper) {
+		Assert.notNull(mapper, "ColumnMapRowMapper is required");
+		this.mapper = mapper;
+	}
+
+	@Override
+	public ColumnarRowBatch extractData(ResultSet rs) throws SQLException {
+		long start = System.nanoTime();
+		firstRowTime = 0;
+		ColumnarRowBatch batch = new ColumnarRowBatch(rs.getMetaData(), mapper);
+		while (rs.next()) {
+			if (firstRowTime == 0) {
+				firstRowTime = System.nanoTime();
+			}
+			batch.append(rs);
+		}
+		extractionNanos = System.nanoTime() - start;
+		return batch;
+	}
+
+	/**
+	 * @return nanoseconds spent within the last {@link #extractData} call
+	 */
+	public long getExtractionNanos() {
+		return extractionNanos;
+	}
+
+	/**
+	 * @return {@link System#nanoTime} when the first row was available, or 0 without rows
+	 */
+	public long getFirstRowTime() {
+		return firstRowTime;
+	}
+}
@@ -0,0 +1,488 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja.utils.queryexecutor;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.util.LinkedCaseInsensitiveMap;
+
+import it.bz.idm.bdp.ninja.utils.queryexecutor.RowCursor.ColumnKind;
+
+/**
+ * Columnar, read-only query result for large flat responses, ex. measurement
+ * histories with millions of rows.
+ *
+ * Instead of a map per row with boxed values, each result set column is
+ * stored in a primitive array: doubles in a double[], integers and timestamps
+ * (as microseconds since the epoch) in a long[], and strings dictionary-encoded
+ * as int[] codes, since station codes, types and data type names repeat a lot.
+ * Timestamps get formatted only when written. Arrays of columns that are
+ * always null, ex. mvalue_json within a double history, never get allocated.
+ *
+ * Writers should read it through {@link #cursor()}. It still is a
+ * {@code List<Map<String, Object>>}, whose rows are views with the same keys
+ * and values as {@link ColumnMapRowMapper} would return, so existing code
+ * keeps working.
+ */
+public class ColumnarRowBatch extends AbstractList<Map<String, Object>> {
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	/* Result set columns */
+	private final Column[] columns;
+
+	/* Row keys, each one with the result set columns it gets merged from (aliases) */
+	private final String[] names;
+	private final int[][] sources;
+	private final LinkedCaseInsensitiveMap<Integer> nameToIndex;
+	private final Map<String, Integer> exactNameToIndex;
+
+	private final ColumnMapRowMapper mapper;
+	private final boolean ignoreNull;
+	private final TimestampFormatter timestampFormatter;
+	private int size;
+
+	ColumnarRowBatch(ResultSetMetaData rsmd, ColumnMapRowMapper mapper) throws SQLException {
+		this.mapper = mapper;
+		this.ignoreNull = mapper.isIgnoreNull();
+		this.timestampFormatter = mapper.getTimestampFormatter();
+		Map<String, String> aliases = ColumnMapRowMapper.getTargetDefNameToAliasMap();
+
+		int columnCount = rsmd.getColumnCount();
+		columns = new Column[columnCount];
+		nameToIndex = new LinkedCaseInsensitiveMap<>(columnCount);
+		List<String> keys = new ArrayList<>(columnCount);
+		List<int[]> keySources = new ArrayList<>(columnCount);
+		for (int i = 0; i < columnCount; i++) {
+			columns[i] = new Column(kindOf(rsmd.getColumnType(i + 1)));
+			String column = JdbcUtils.lookupColumnName(rsmd, i + 1);
+			String alias = aliases == null ? null : aliases.get(column);
+			String key = alias == null ? column : alias;
+			Integer index = nameToIndex.get(key);
+			if (index == null) {
+				nameToIndex.put(key, keys.size());
+				keys.add(key);
+				keySources.add(new int[] {i});
+			} else if (alias == null) {
+				/* Same as a map put: the last column wins */
+				keySources.set(index, new int[] {i});
+			} else {
+				/* Merged aliases: the first non-null column wins */
+				int[] previous = keySources.get(index);
+				int[] merged = Arrays.copyOf(previous, previous.length + 1);
+				merged[previous.length] = i;
+				keySources.set(index, merged);
+			}
+		}
+		names = keys.toArray(new String[0]);
+		sources = keySources.toArray(new int[0][]);
+		exactNameToIndex = new HashMap<>(nameToIndex);
+	}
+
+	private static ColumnKind kindOf(int sqlType) {
+		switch (sqlType) {
+			case Types.DOUBLE:
+			case Types.FLOAT:
+				return ColumnKind.DOUBLE;
+			case Types.INTEGER:
+			case Types.SMALLINT:
+				return ColumnKind.INT;
+			case Types.BIGINT:
+				return ColumnKind.LONG;
+			case Types.TIMESTAMP:
+			case Types.TIMESTAMP_WITH_TIMEZONE:
+				return ColumnKind.TIMESTAMP;
+			case Types.VARCHAR:
+			case Types.CHAR:
+			case Types.LONGVARCHAR:
+			case Types.NVARCHAR:
+			case Types.NCHAR:
+				return ColumnKind.STRING;
+			default:
+				return ColumnKind.OBJECT;
+		}
+	}
+
+	/**
+	 * Append the current row of the result set
+	 *
+	 * @return false, if the row was dropped, because all its values are null
+	 *         and null values should be ignored (like {@link ColumnMapRowMapper})
+	 */
+	boolean append(ResultSet rs) throws SQLException {
+		int row = size;
+		boolean hasValues = false;
+		for (int i = 0; i < columns.length; i++) {
+			Column column = columns[i];
+			switch (column.kind) {
+				case DOUBLE:
+					double d = rs.getDouble(i + 1);
+					if (rs.wasNull()) {
+						column.setNull(row);
+					} else {
+						column.setDouble(row, d);
+						hasValues = true;
+					}
+					break;
+				case INT:
+				case LONG:
+					long l = rs.getLong(i + 1);
+					if (rs.wasNull()) {
+						column.setNull(row);
+					} else {
+						column.setLong(row, l);
+						hasValues = true;
+					}
+					break;
+				case TIMESTAMP:
+					Timestamp timestamp = rs.getTimestamp(i + 1);
+					if (timestamp == null) {
+						column.setNull(row);
+					} else {
+						column.setLong(row, ColumnMapRowMapper.toEpochMicros(timestamp));
+						hasValues = true;
+					}
+					break;
+				case STRING:
+					String s = rs.getString(i + 1);
+					if (s == null) {
+						column.setNull(row);
+					} else {
+						column.setString(row, s);
+						hasValues = true;
+					}
+					break;
+				default:
+					Object value = mapper.getColumnValue(rs, i + 1);
+					if (value == null) {
+						column.setNull(row);
+					} else {
+						column.setObject(row, value);
+						hasValues = true;
+					}
+					break;
+			}
+		}
+		if (!hasValues && (ignoreNull || columns.length == 0)) {
+			return false;
+		}
+		size++;
+		return true;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return a read-only view of a single row
+	 */
+	@Override
+	public Map<String, Object> get(int row) {
+		if (row < 0 || row >= size) {
+			throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+		}
+		return new RowView(row);
+	}
+
+	public RowCursor cursor() {
+		return new Cursor();
+	}
+
+	/**
+	 * @return index of the row key, or -1 if it does not exist. Exact matches
+	 *         avoid the lower-casing of {@link LinkedCaseInsensitiveMap}.
+	 */
+	private int keyIndexOf(Object name) {
+		if (!(name instanceof String)) {
+			return -1;
+		}
+		Integer index = exactNameToIndex.get(name);
+		if (index == null) {
+			index = nameToIndex.get(name);
+		}
+		return index == null ? -1 : index;
+	}
+
+	/**
+	 * @return result set column, where the value of a row key comes from, or the
+	 *         first one if the value is null
+	 */
+	private int sourceOf(int key, int row) {
+		int[] candidates = sources[key];
+		for (int candidate : candidates) {
+			if (!columns[candidate].isNull(row)) {
+				return candidate;
+			}
+		}
+		return candidates[0];
+	}
+
+	private Object valueOf(int column, int row) {
+		Column c = columns[column];
+		if (c.isNull(row)) {
+			return null;
+		}
+		switch (c.kind) {
+			case DOUBLE:
+				return c.doubles[row];
+			case INT:
+				return (int) c.longs[row];
+			case LONG:
+				return c.longs[row];
+			case TIMESTAMP:
+				return timestampFormatter.format(c.longs[row]);
+			case STRING:
+				return c.dictionary.get(c.codes[row]);
+			default:
+				return c.objects[row];
+		}
+	}
+
+	/**
+	 * A single result set column. Its arrays get allocated on the first non-null value.
+	 */
+	private static final class Column {
+		private final ColumnKind kind;
+		private final BitSet nulls = new BitSet();
+		private long[] longs;
+		private double[] doubles;
+		private int[] codes;
+		private Object[] objects;
+		private List<String> dictionary;
+		private Map<String, Integer> dictionaryCodes;
+		private int capacity;
+
+		Column(ColumnKind kind) {
+			this.kind = kind;
+		}
+
+		boolean isNull(int row) {
+			return row >= capacity || nulls.get(row);
+		}
+
+		void setNull(int row) {
+			if (row < capacity) {
+				nulls.set(row);
+			}
+		}
+
+		void setDouble(int row, double value) {
+			ensureCapacity(row);
+			doubles[row] = value;
+			nulls.clear(row);
+		}
+
+		void setLong(int row, long value) {
+			ensureCapacity(row);
+			longs[row] = value;
+			nulls.clear(row);
+		}
+
+		void setString(int row, String value) {
+			ensureCapacity(row);
+			Integer code = dictionaryCodes.get(value);
+			if (code == null) {
+				code = dictionary.size();
+				dictionary.add(value);
+				dictionaryCodes.put(value, code);
+			}
+			codes[row] = code;
+			nulls.clear(row);
+		}
+
+		void setObject(int row, Object value) {
+			ensureCapacity(row);
+			objects[row] = value;
+			nulls.clear(row);
+		}
+
+		private void ensureCapacity(int row) {
+			if (row < capacity) {
+				return;
+			}
+			int newCapacity = Math.max(row + 1, capacity == 0 ? INITIAL_CAPACITY : capacity * 2);
+			if (capacity == 0) {
+				/* All rows before were null */
+				nulls.set(0, row);
+			}
+			switch (kind) {
+				case DOUBLE:
+					doubles = doubles == null ? new double[newCapacity] : Arrays.copyOf(doubles, newCapacity);
+					break;
+				case INT:
+				case LONG:
+				case TIMESTAMP:
+					longs = longs == null ? new long[newCapacity] : Arrays.copyOf(longs, newCapacity);
+					break;
+				case STRING:
+					if (codes == null) {
+						dictionary = new ArrayList<>();
+						dictionaryCodes = new HashMap<>();
+					}
+					codes = codes == null ? new int[newCapacity] : Arrays.copyOf(codes, newCapacity);
+					break;
+				default:
+					objects = objects == null ? new Object[newCapacity] : Arrays.copyOf(objects, newCapacity);
+					break;
+			}
+			if (capacity > 0) {
+				/* Rows between the old capacity and this one were null */
+				nulls.set(capacity, row);
+			}
+			capacity = newCapacity;
+		}
+	}
+
+	private final class Cursor implements RowCursor {
+		private int row = -1;
+
+		@Override
+		public boolean next() {
+			if (row + 1 >= size) {
+				row = size;
+				return false;
+			}
+			row++;
+			return true;
+		}
+
+		@Override
+		public int getColumnCount() {
+			return names.length;
+		}
+
+		@Override
+		public String getColumnName(int column) {
+			return names[column];
+		}
+
+		@Override
+		public int getColumnIndex(String name) {
+			return keyIndexOf(name);
+		}
+
+		@Override
+		public ColumnKind getKind(int column) {
+			return columns[sourceOf(column, row)].kind;
+		}
+
+		@Override
+		public boolean isNull(int column) {
+			return columns[sourceOf(column, row)].isNull(row);
+		}
+
+		@Override
+		public boolean isAbsent(int column) {
+			return ignoreNull && isNull(column);
+		}
+
+		@Override
+		public double getDouble(int column) {
+			Column c = columns[sourceOf(column, row)];
+			return c.kind == ColumnKind.DOUBLE ? c.doubles[row] : c.longs[row];
+		}
+
+		@Override
+		public long getLong(int column) {
+			Column c = columns[sourceOf(column, row)];
+			return c.kind == ColumnKind.DOUBLE ? (long) c.doubles[row] : c.longs[row];
+		}
+
+		@Override
+		public int formatTimestamp(int column, byte[] dest) {
+			return timestampFormatter.format(columns[sourceOf(column, row)].longs[row], dest, 0);
+		}
+
+		@Override
+		public Object getValue(int column) {
+			return valueOf(sourceOf(column, row), row);
+		}
+	}
+
+	private final class RowView extends AbstractMap<String, Object> {
+		private final int row;
+
+		RowView(int row) {
+			this.row = row;
+		}
+
+		@Override
+		public Object get(Object key) {
+			int index = keyIndexOf(key);
+			return index < 0 ? null : valueOf(sourceOf(index, row), row);
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			int index = keyIndexOf(key);
+			return index >= 0 && !(ignoreNull && columns[sourceOf(index, row)].isNull(row));
+		}
+
+		@Override
+		public Set<Entry<String, Object>> entrySet() {
+			return new AbstractSet<Entry<String, Object>>() {
+				@Override
+				public Iterator<Entry<String, Object>> iterator() {
+					return new Iterator<Entry<String, Object>>() {
+						private int next = advance(0);
+
+						private int advance(int from) {
+							int key = from;
+							while (key < names.length && ignoreNull && columns[sourceOf(key, row)].isNull(row)) {
+								key++;
+							}
+							return key;
+						}
+
+						@Override
+						public boolean hasNext() {
+							return next < names.length;
+						}
+
+						@Override
+						public Entry<String, Object> next() {
+							if (next >= names.length) {
+								throw new NoSuchElementException();
+							}
+							int key = next;
+							next = advance(key + 1);
+							return new SimpleImmutableEntry<>(names[key], valueOf(sourceOf(key, row), row));
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					int result = 0;
+					for (int key = 0; key < names.length; key++) {
+						if (!ignoreNull || !columns[sourceOf(key, row)].isNull(row)) {
+							result++;
+						}
+					}
+					return result;
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,141 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja.utils.queryexecutor;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+
+import org.postgis.Geometry;
+import org.postgis.PGgeometry;
+import org.postgis.Point;
+import org.postgis.binary.BinaryParser;
+
+/**
+ * Decodes PostGIS geometries in EWKB format, as PostgreSQL sends them for a
+ * geometry column: hex encoded ASCII with text transfer, raw bytes with
+ * binary transfer.
+ *
+ * Almost all our geometries are points (station coordinates), so we read
+ * their x, y and srid straight from the bytes. Any other geometry type goes
+ * through the PostGIS {@link BinaryParser}, which is much slower.
+ */
+public final class EwkbDecoder {
+
+	private static final int WKB_POINT = 1;
+	private static final int FLAG_Z = 0x80000000;
+	private static final int FLAG_M = 0x40000000;
+	private static final int FLAG_SRID = 0x20000000;
+	private static final int TYPE_MASK = 0x1FFFFFFF;
+
+	private final byte[] data;
+	private final boolean hex;
+	private boolean littleEndian;
+	private boolean invalid;
+	private int pos;
+
+	private EwkbDecoder(byte[] data, boolean hex) {
+		this.data = data;
+		this.hex = hex;
+	}
+
+	/**
+	 * @param ewkb as returned by ResultSet.getBytes, either hex encoded or binary
+	 */
+	public static Geometry decode(byte[] ewkb) throws SQLException {
+		if (ewkb == null) {
+			return null;
+		}
+		/* Binary EWKB starts with the byte order 0 or 1, hex EWKB with the character '0' */
+		boolean hex = ewkb.length > 0 && ewkb[0] > 1;
+		Point point = new EwkbDecoder(ewkb, hex).readPoint();
+		if (point != null) {
+			return point;
+		}
+		if (hex) {
+			return PGgeometry.geomFromString(new String(ewkb, StandardCharsets.ISO_8859_1));
+		}
+		return new BinaryParser().parse(ewkb);
+	}
+
+	/**
+	 * @return the point, or null if this is not a well-formed point, ex. a
+	 *         polygon or WKT text, which the fallback parsers handle
+	 */
+	private Point readPoint() {
+		if (data.length < (hex ? 10 : 5)) {
+			return null;
+		}
+		int byteOrder = readByte();
+		if (byteOrder != 0 && byteOrder != 1) {
+			return null;
+		}
+		littleEndian = byteOrder == 1;
+		int type = readInt();
+		if ((type & TYPE_MASK) != WKB_POINT) {
+			return null;
+		}
+		boolean hasZ = (type & FLAG_Z) != 0;
+		boolean hasM = (type & FLAG_M) != 0;
+		boolean hasSrid = (type & FLAG_SRID) != 0;
+		int length = 5 + (hasSrid ? 4 : 0) + 8 * (2 + (hasZ ? 1 : 0) + (hasM ? 1 : 0));
+		if (data.length != (hex ? 2 * length : length)) {
+			return null;
+		}
+
+		int srid = hasSrid ? readInt() : Geometry.UNKNOWN_SRID;
+		double x = readDouble();
+		double y = readDouble();
+		Point point = hasZ ? new Point(x, y, readDouble()) : new Point(x, y);
+		if (hasM) {
+			point.haveMeasure = true;
+			point.m = readDouble();
+		}
+		point.setSrid(srid);
+		return invalid ? null : point;
+	}
+
+	private int readByte() {
+		if (hex) {
+			int high = nibble(data[pos]);
+			int low = nibble(data[pos + 1]);
+			pos += 2;
+			if (high < 0 || low < 0) {
+				invalid = true;
+				return 0xFF;
+			}
+			return high << 4 | low;
+		}
+		return data[pos++] & 0xFF;
+	}
+
+	private int readInt() {
+		int b0 = readByte();
+		int b1 = readByte();
+		int b2 = readByte();
+		int b3 = readByte();
+		return littleEndian
+			? b3 << 24 | b2 << 16 | b1 << 8 | b0
+			: b0 << 24 | b1 << 16 | b2 << 8 | b3;
+	}
+
+	private double readDouble() {
+		long first = readInt() & 0xFFFFFFFFL;
+		long second = readInt() & 0xFFFFFFFFL;
+		return Double.longBitsToDouble(littleEndian ? second << 32 | first : first << 32 | second);
+	}
+
+	private static int nibble(byte c) {
+		if (c >= '0' && c <= '9') {
+			return c - '0';
+		}
+		if (c >= 'A' && c <= 'F') {
+			return c - 'A' + 10;
+		}
+		if (c >= 'a' && c <= 'f') {
+			return c - 'a' + 10;
+		}
+		return -1;
+	}
+}
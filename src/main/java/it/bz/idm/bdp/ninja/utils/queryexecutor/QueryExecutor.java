@@ -10,8 +10,12 @@ import java.util.Map;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 
+import it.bz.idm.bdp.ninja.utils.metrics.RequestTrace;
+import it.bz.idm.bdp.ninja.utils.metrics.RequestTrace.Span;
+
 public class QueryExecutor {
 	private static NamedParameterJdbcTemplate npjt;
+	private static SlowQueryLog slowQueryLog;
 	private MapSqlParameterSource parameters = new MapSqlParameterSource();
 
 	/**
@@ -31,6 +35,15 @@ public class QueryExecutor {
 		QueryExecutor.npjt = namedParameterJdbcTemplate;
 	}
 
+	/**
+	 * Record slow queries of {@link #build(String, boolean, String)} into the given log
+	 *
+	 * @param slowQueryLog {@link SlowQueryLog} or null to disable it
+	 */
+	public static void setSlowQueryLog(SlowQueryLog slowQueryLog) {
+		QueryExecutor.slowQueryLog = slowQueryLog;
+	}
+
 	public static QueryExecutor init() {
 		if (QueryExecutor.npjt == null) {
 			throw new RuntimeException("Missing JDBC Template. Run QueryExecutor.setup before initialization.");
@@ -52,13 +65,54 @@ public class QueryExecutor {
 	/**
 	 * Build the current query and execute it via {@link NamedParameterJdbcTemplate#query}
 	 *
+	 * The database roundtrip, the latency until the first row, and the row
+	 * mapping get recorded in the {@link RequestTrace} of the current request,
+	 * and in the {@link SlowQueryLog}, if the query was slow.
+	 *
 	 * @return A list of (key, value) pairs
 	 */
 	public List<Map<String, Object>> build(final String sql, boolean ignoreNull, String timeZone) {
+		RowMapperResultSetExtractor<Map<String, Object>> extractor = new RowMapperResultSetExtractor<>(
+			createMapper(ignoreNull, timeZone)
+		);
+		long start = System.nanoTime();
+		List<Map<String, Object>> result = npjt.query(sql, parameters, extractor);
+		record(sql, start, extractor.getExtractionNanos(), extractor.getFirstRowTime(), result.size());
+		return result;
+	}
+
+	/**
+	 * Like {@link #build(String, boolean, String)}, but returns a
+	 * {@link ColumnarRowBatch}, which needs a fraction of the heap for large
+	 * flat results. Its rows are read-only.
+	 */
+	public ColumnarRowBatch buildBatch(final String sql, boolean ignoreNull, String timeZone) {
+		ColumnarResultSetExtractor extractor = new ColumnarResultSetExtractor(createMapper(ignoreNull, timeZone));
+		long start = System.nanoTime();
+		ColumnarRowBatch result = npjt.query(sql, parameters, extractor);
+		record(sql, start, extractor.getExtractionNanos(), extractor.getFirstRowTime(), result.size());
+		return result;
+	}
+
+	private static ColumnMapRowMapper createMapper(boolean ignoreNull, String timeZone) {
 		ColumnMapRowMapper mapper = new ColumnMapRowMapper();
 		mapper.setIgnoreNull(ignoreNull);
 		mapper.setTimeZone(timeZone);
-		return npjt.query(sql, parameters, new RowMapperResultSetExtractor<>(mapper));
+		return mapper;
+	}
+
+	private void record(String sql, long start, long mappingNanos, long firstRowTime, long rows) {
+		long executionNanos = System.nanoTime() - start - mappingNanos;
+		long firstRowNanos = firstRowTime == 0 ? 0 : firstRowTime - start;
+		RequestTrace trace = RequestTrace.current();
+		trace.add(Span.EXECUTE, executionNanos);
+		trace.add(Span.MAP, mappingNanos);
+		if (firstRowNanos > 0) {
+			trace.add(Span.FIRST_ROW, firstRowNanos);
+		}
+		if (slowQueryLog != null) {
+			slowQueryLog.record(sql, parameters, executionNanos, firstRowNanos, mappingNanos, rows);
+		}
 	}
 
 	public <T> List<T> build(final String sql, Class<T> resultClass) {
@@ -0,0 +1,228 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja.utils.queryexecutor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+
+/**
+ * Forward-only cursor over query results, positioned before the first row.
+ *
+ * Columns are the keys of a row returned by {@link ColumnMapRowMapper}, that
+ * is, aliases are already merged. Typed getters let writers read primitive
+ * values without boxing them; {@link #getValue(int)} returns exactly what the
+ * row map would contain.
+ */
+public interface RowCursor {
+
+	enum ColumnKind {
+		DOUBLE,
+		INT,
+		LONG,
+		TIMESTAMP,
+		STRING,
+		OBJECT
+	}
+
+	/**
+	 * Move to the next row
+	 *
+	 * @return false, if there are no more rows
+	 */
+	boolean next();
+
+	int getColumnCount();
+
+	String getColumnName(int column);
+
+	/**
+	 * @return index of the column, or -1 if it does not exist (case-insensitive)
+	 */
+	int getColumnIndex(String name);
+
+	/**
+	 * @return how the value of the column within the current row is stored
+	 */
+	ColumnKind getKind(int column);
+
+	boolean isNull(int column);
+
+	/**
+	 * @return true, if the column of the current row must be skipped, ex.
+	 *         because it is null and null values should not be shown
+	 */
+	boolean isAbsent(int column);
+
+	double getDouble(int column);
+
+	long getLong(int column);
+
+	/**
+	 * @return boxed value, ex. a formatted String for timestamps
+	 */
+	Object getValue(int column);
+
+	/**
+	 * Write a {@link ColumnKind#TIMESTAMP} value as formatted ASCII bytes,
+	 * without creating a String
+	 *
+	 * @param dest with at least {@link TimestampFormatter#MAX_LENGTH} bytes
+	 * @return number of written bytes
+	 */
+	default int formatTimestamp(int column, byte[] dest) {
+		byte[] bytes = String.valueOf(getValue(column)).getBytes(StandardCharsets.ISO_8859_1);
+		System.arraycopy(bytes, 0, dest, 0, bytes.length);
+		return bytes.length;
+	}
+
+	/**
+	 * @return value of the column with the given name, or null if it does not exist
+	 */
+	default Object get(String name) {
+		int column = getColumnIndex(name);
+		return column < 0 ? null : getValue(column);
+	}
+
+	/**
+	 * Cursor over a list of row maps, ex. the result of {@link ColumnMapRowMapper}
+	 */
+	static RowCursor of(List<Map<String, Object>> rows) {
+		if (rows instanceof ColumnarRowBatch) {
+			return ((ColumnarRowBatch) rows).cursor();
+		}
+		return new MapRowCursor(rows.iterator());
+	}
+
+	/**
+	 * Like {@link #of(List)}, but removes each row map from the list as soon as
+	 * the cursor moves to it, so rows already written can be garbage collected.
+	 * The list keeps its size, but contains only nulls afterwards.
+	 */
+	static RowCursor consuming(List<Map<String, Object>> rows) {
+		if (!(rows instanceof ArrayList)) {
+			return of(rows);
+		}
+		ListIterator<Map<String, Object>> iterator = rows.listIterator();
+		return new MapRowCursor(new Iterator<Map<String, Object>>() {
+			@Override
+			public boolean hasNext() {
+				return iterator.hasNext();
+			}
+
+			@Override
+			public Map<String, Object> next() {
+				Map<String, Object> row = iterator.next();
+				iterator.set(null);
+				return row;
+			}
+		});
+	}
+
+	/**
+	 * Adapter for row maps, column names may differ between rows
+	 */
+	final class MapRowCursor implements RowCursor {
+		private final Iterator<Map<String, Object>> rows;
+		private Map<String, Object> row;
+		private String[] names = new String[0];
+		private Object[] values = new Object[0];
+
+		MapRowCursor(Iterator<Map<String, Object>> rows) {
+			this.rows = rows;
+		}
+
+		@Override
+		public boolean next() {
+			if (!rows.hasNext()) {
+				row = null;
+				return false;
+			}
+			row = rows.next();
+			if (names.length != row.size()) {
+				names = new String[row.size()];
+				values = new Object[row.size()];
+			}
+			int i = 0;
+			for (Map.Entry<String, Object> entry : row.entrySet()) {
+				names[i] = entry.getKey();
+				values[i] = entry.getValue();
+				i++;
+			}
+			return true;
+		}
+
+		@Override
+		public int getColumnCount() {
+			return names.length;
+		}
+
+		@Override
+		public String getColumnName(int column) {
+			return names[column];
+		}
+
+		@Override
+		public int getColumnIndex(String name) {
+			for (int i = 0; i < names.length; i++) {
+				if (names[i].equalsIgnoreCase(name)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		@Override
+		public ColumnKind getKind(int column) {
+			Object value = values[column];
+			if (value instanceof Double) {
+				return ColumnKind.DOUBLE;
+			}
+			if (value instanceof Integer) {
+				return ColumnKind.INT;
+			}
+			if (value instanceof Long) {
+				return ColumnKind.LONG;
+			}
+			if (value instanceof String) {
+				return ColumnKind.STRING;
+			}
+			return ColumnKind.OBJECT;
+		}
+
+		@Override
+		public boolean isNull(int column) {
+			return values[column] == null;
+		}
+
+		@Override
+		public boolean isAbsent(int column) {
+			return false;
+		}
+
+		@Override
+		public double getDouble(int column) {
+			return ((Number) values[column]).doubleValue();
+		}
+
+		@Override
+		public long getLong(int column) {
+			return ((Number) values[column]).longValue();
+		}
+
+		@Override
+		public Object getValue(int column) {
+			return values[column];
+		}
+
+		@Override
+		public Object get(String name) {
+			return row == null ? null : row.get(name);
+		}
+	}
+}
@@ -19,6 +19,10 @@ public class RowMapperResultSetExtractor<T> implements ResultSetExtractor<List<T
 
 	private final int rowsExpected;
 
+	private long extractionNanos;
+
+	private long firstRowTime;
+
 
 	/**
 	 * Create a new RowMapperResultSetExtractor.
@@ -43,14 +47,34 @@ public class RowMapperResultSetExtractor<T> implements ResultSetExtractor<List<T
 
 	@Override
 	public List<T> extractData(ResultSet rs) throws SQLException {
+		long start = System.nanoTime();
+		firstRowTime = 0;
 		List<T> results = (this.rowsExpected > 0 ? new ArrayList<>(this.rowsExpected) : new ArrayList<>());
 		int rowNum = 0;
 		while (rs.next()) {
+			if (rowNum == 0) {
+				firstRowTime = System.nanoTime();
+			}
 			T mapRow = this.rowMapper.mapRow(rs, rowNum++);
 			if (mapRow != null)
 				results.add(mapRow);
 		}
+		extractionNanos = System.nanoTime() - start;
 		return results;
 	}
 
+	/**
+	 * @return nanoseconds spent within the last {@link #extractData} call
+	 */
+	public long getExtractionNanos() {
+		return extractionNanos;
+	}
+
+	/**
+	 * @return {@link System#nanoTime} when the first row was available, or 0 without rows
+	 */
+	public long getFirstRowTime() {
+		return firstRowTime;
+	}
+
 }
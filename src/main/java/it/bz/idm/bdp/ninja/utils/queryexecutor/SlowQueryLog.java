@@ -0,0 +1,235 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja.utils.queryexecutor;
+
+import java.lang.reflect.Array;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+/**
+ * Bounded ring buffer of queries, that took longer than a threshold.
+ *
+ * We keep the SQL text, the shapes of its parameters (types and array
+ * lengths, never values), timings and the row count. A sample of them gets
+ * analyzed asynchronously with EXPLAIN (ANALYZE, BUFFERS), on a single
+ * background thread. If it is busy, further samples are dropped, so slow
+ * queries never pile up additional load on the database. Parameter values
+ * are only held by pending samples, until their plan got captured.
+ */
+public class SlowQueryLog {
+
+	private static final Logger LOG = LoggerFactory.getLogger(SlowQueryLog.class);
+
+	private final long thresholdNanos;
+	private final double explainSampleRate;
+	private final BiFunction<String, MapSqlParameterSource, String> explainer;
+	private final Executor executor;
+	private final SlowQuery[] buffer;
+	private long recorded;
+
+	/**
+	 * A single slow query. Serialized as-is by the actuator endpoint.
+	 */
+	public static final class SlowQuery {
+		private final Instant time;
+		private final String sql;
+		private final Map<String, String> parameterShapes;
+		private final long executionMillis;
+		private final long firstRowMillis;
+		private final long mappingMillis;
+		private final long rows;
+		private volatile String plan;
+
+		SlowQuery(String sql, MapSqlParameterSource parameters, long executionNanos, long firstRowNanos,
+				long mappingNanos, long rows) {
+			this.time = Instant.now();
+			this.sql = sql;
+			this.parameterShapes = shapesOf(parameters);
+			this.executionMillis = TimeUnit.NANOSECONDS.toMillis(executionNanos);
+			this.firstRowMillis = TimeUnit.NANOSECONDS.toMillis(firstRowNanos);
+			this.mappingMillis = TimeUnit.NANOSECONDS.toMillis(mappingNanos);
+			this.rows = rows;
+		}
+
+		public Instant getTime() {
+			return time;
+		}
+
+		public String getSql() {
+			return sql;
+		}
+
+		public Map<String, String> getParameterShapes() {
+			return parameterShapes;
+		}
+
+		public long getExecutionMillis() {
+			return executionMillis;
+		}
+
+		public long getFirstRowMillis() {
+			return firstRowMillis;
+		}
+
+		public long getMappingMillis() {
+			return mappingMillis;
+		}
+
+		public long getRows() {
+			return rows;
+		}
+
+		/**
+		 * @return output of EXPLAIN (ANALYZE, BUFFERS), or null if not sampled (yet)
+		 */
+		public String getPlan() {
+			return plan;
+		}
+	}
+
+	/**
+	 * @param thresholdMillis record queries slower than this (execution and mapping)
+	 * @param capacity maximum number of recorded queries, older ones get overwritten
+	 * @param explainSampleRate fraction of slow queries to analyze, between 0 (never) and 1 (always)
+	 */
+	public SlowQueryLog(long thresholdMillis, int capacity, double explainSampleRate, NamedParameterJdbcTemplate npjt) {
+		this(thresholdMillis, capacity, explainSampleRate, (sql, parameters) -> explain(npjt, sql, parameters), explainExecutor());
+	}
+
+	/**
+	 * @param explainer returns the plan of a query, given its SQL and parameters
+	 * @param executor runs the explainer, tests can use a synchronous one
+	 */
+	public SlowQueryLog(long thresholdMillis, int capacity, double explainSampleRate,
+			BiFunction<String, MapSqlParameterSource, String> explainer, Executor executor) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("The slow query log capacity must be at least 1");
+		}
+		this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+		this.explainSampleRate = explainSampleRate;
+		this.explainer = explainer;
+		this.executor = executor;
+		this.buffer = new SlowQuery[capacity];
+	}
+
+	/**
+	 * Record the query, if it exceeded the threshold. Cheap otherwise.
+	 */
+	public void record(String sql, MapSqlParameterSource parameters, long executionNanos, long firstRowNanos,
+			long mappingNanos, long rows) {
+		if (executionNanos + mappingNanos < thresholdNanos) {
+			return;
+		}
+		SlowQuery query = new SlowQuery(sql, parameters, executionNanos, firstRowNanos, mappingNanos, rows);
+		synchronized (buffer) {
+			buffer[(int) (recorded % buffer.length)] = query;
+			recorded++;
+		}
+		if (explainSampleRate > 0 && ThreadLocalRandom.current().nextDouble() < explainSampleRate) {
+			/* Only this task holds the parameters, until it ran or got discarded */
+			executor.execute(() -> {
+				try {
+					query.plan = explainer.apply(sql, parameters);
+				} catch (RuntimeException e) {
+					LOG.warn("Unable to explain slow query: {}", e.getMessage());
+				}
+			});
+		}
+	}
+
+	/**
+	 * @return recorded queries, the most recent first
+	 */
+	public List<SlowQuery> getQueries() {
+		synchronized (buffer) {
+			int size = (int) Math.min(recorded, buffer.length);
+			List<SlowQuery> result = new ArrayList<>(size);
+			for (int i = 1; i <= size; i++) {
+				result.add(buffer[(int) ((recorded - i) % buffer.length)]);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * @return how many slow queries were recorded since startup, including overwritten ones
+	 */
+	public long getRecorded() {
+		synchronized (buffer) {
+			return recorded;
+		}
+	}
+
+	public void clear() {
+		synchronized (buffer) {
+			for (int i = 0; i < buffer.length; i++) {
+				buffer[i] = null;
+			}
+			recorded = 0;
+		}
+	}
+
+	private static String explain(NamedParameterJdbcTemplate npjt, String sql, MapSqlParameterSource parameters) {
+		List<String> lines = npjt.queryForList(
+			"EXPLAIN (ANALYZE, BUFFERS) " + sql,
+			parameters,
+			String.class
+		);
+		return String.join("\n", lines);
+	}
+
+	private static Executor explainExecutor() {
+		return new ThreadPoolExecutor(
+			1, 1, 0, TimeUnit.MILLISECONDS,
+			new ArrayBlockingQueue<>(4),
+			runnable -> {
+				Thread thread = new Thread(runnable, "slow-query-explain");
+				thread.setDaemon(true);
+				return thread;
+			},
+			new ThreadPoolExecutor.DiscardPolicy()
+		);
+	}
+
+	private static Map<String, String> shapesOf(MapSqlParameterSource parameters) {
+		if (parameters == null) {
+			return Collections.emptyMap();
+		}
+		Map<String, String> result = new TreeMap<>();
+		for (Map.Entry<String, Object> entry : parameters.getValues().entrySet()) {
+			result.put(entry.getKey(), shapeOf(entry.getValue()));
+		}
+		return result;
+	}
+
+	private static String shapeOf(Object value) {
+		if (value == null) {
+			return "null";
+		}
+		if (value.getClass().isArray()) {
+			return value.getClass().getComponentType().getSimpleName() + "[" + Array.getLength(value) + "]";
+		}
+		if (value instanceof Collection) {
+			return value.getClass().getSimpleName() + "(" + ((Collection<?>) value).size() + ")";
+		}
+		return value.getClass().getSimpleName();
+	}
+}
@@ -0,0 +1,195 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja.utils.queryexecutor;
+
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Formats timestamps like {@link DateTimeFormatter} with the pattern
+ * yyyy-MM-dd HH:mm:ss.SSSZ, ex. 2020-09-13 14:26:40.123+0200, but without
+ * creating a ZonedDateTime per value.
+ *
+ * Results of a query are mostly sorted by time, so we cache the date part of
+ * the last day, and the zone offset of the last transition window (ex. from
+ * the last switch to summer time until the next one). Both get written into
+ * a byte buffer only when they change; per timestamp we write just the time
+ * of day. Years outside 1-9999 and offsets with seconds fall back to
+ * {@link DateTimeFormatter}.
+ *
+ * Instances are not thread-safe. Create one per query.
+ */
+public final class TimestampFormatter {
+
+	/**
+	 * Enough for all outputs, including the fallback
+	 */
+	public static final int MAX_LENGTH = 40;
+
+	private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSSZ");
+	private static final int LENGTH = 28;
+	private static final int MAX_CACHED_ZONES = 512;
+	private static final Map<String, ZoneId> ZONES = new ConcurrentHashMap<>();
+
+	private final ZoneId zoneId;
+	private final ZoneRules rules;
+	private final byte[] buffer = {
+		'0', '0', '0', '0', '-', '0', '0', '-', '0', '0', ' ',
+		'0', '0', ':', '0', '0', ':', '0', '0', '.', '0', '0', '0',
+		'+', '0', '0', '0', '0'
+	};
+
+	/* Local day, whose date is in the buffer */
+	private long day = Long.MIN_VALUE;
+
+	/* Epoch seconds [windowStart, windowEnd) with the same offset, which is in the buffer */
+	private long windowStart = Long.MAX_VALUE;
+	private long windowEnd = Long.MIN_VALUE;
+	private int offsetSeconds;
+
+	public TimestampFormatter(ZoneId zoneId) {
+		this.zoneId = zoneId;
+		this.rules = zoneId.getRules();
+	}
+
+	/**
+	 * Formatter for a time zone given by the user, see {@link #zoneOf(String)}
+	 */
+	public static TimestampFormatter of(String zone) {
+		return new TimestampFormatter(zoneOf(zone));
+	}
+
+	/**
+	 * Parse a time zone given by the user, ex. Europe/Rome or UTC+01:00. A plus
+	 * sign might arrive as space, if it was not URL encoded. Parsed zones get
+	 * cached, invalid ones throw a {@link DateTimeException}.
+	 */
+	public static ZoneId zoneOf(String zone) {
+		ZoneId result = ZONES.get(zone);
+		if (result != null) {
+			return result;
+		}
+		try {
+			result = ZoneId.of(zone);
+		} catch (DateTimeException e) {
+			result = ZoneId.of(zone.replace(" ", "+"));
+		}
+		/* The zone comes from a request parameter, so the cache must not grow indefinitely */
+		if (ZONES.size() < MAX_CACHED_ZONES) {
+			ZONES.putIfAbsent(zone, result);
+		}
+		return result;
+	}
+
+	public ZoneId getZoneId() {
+		return zoneId;
+	}
+
+	/**
+	 * @param epochMicros microseconds since the epoch
+	 */
+	public String format(long epochMicros) {
+		if (formatIntoBuffer(epochMicros)) {
+			return new String(buffer, 0, LENGTH, StandardCharsets.ISO_8859_1);
+		}
+		return fallback(epochMicros);
+	}
+
+	/**
+	 * Write the formatted timestamp as ASCII bytes
+	 *
+	 * @param dest with at least {@link #MAX_LENGTH} bytes from pos on
+	 * @return number of written bytes
+	 */
+	public int format(long epochMicros, byte[] dest, int pos) {
+		if (formatIntoBuffer(epochMicros)) {
+			System.arraycopy(buffer, 0, dest, pos, LENGTH);
+			return LENGTH;
+		}
+		byte[] bytes = fallback(epochMicros).getBytes(StandardCharsets.ISO_8859_1);
+		System.arraycopy(bytes, 0, dest, pos, bytes.length);
+		return bytes.length;
+	}
+
+	/**
+	 * @return false, if the timestamp needs the fallback. The buffer is then unchanged.
+	 */
+	private boolean formatIntoBuffer(long epochMicros) {
+		long second = Math.floorDiv(epochMicros, 1_000_000L);
+		int millis = (int) (Math.floorMod(epochMicros, 1_000_000L) / 1000);
+
+		if (second < windowStart || second >= windowEnd) {
+			updateOffset(second);
+		}
+		if (offsetSeconds % 60 != 0) {
+			return false;
+		}
+
+		long local = second + offsetSeconds;
+		long localDay = Math.floorDiv(local, 86400L);
+		if (localDay != day) {
+			LocalDate date = LocalDate.ofEpochDay(localDay);
+			if (date.getYear() < 1 || date.getYear() > 9999) {
+				return false;
+			}
+			writeDigits(0, date.getYear(), 4);
+			writeDigits(5, date.getMonthValue(), 2);
+			writeDigits(8, date.getDayOfMonth(), 2);
+			day = localDay;
+		}
+
+		int secondOfDay = (int) (local - localDay * 86400L);
+		writeDigits(11, secondOfDay / 3600, 2);
+		writeDigits(14, secondOfDay / 60 % 60, 2);
+		writeDigits(17, secondOfDay % 60, 2);
+		writeDigits(20, millis, 3);
+		return true;
+	}
+
+	private void updateOffset(long second) {
+		if (rules.isFixedOffset()) {
+			offsetSeconds = rules.getOffset(Instant.EPOCH).getTotalSeconds();
+			windowStart = Long.MIN_VALUE;
+			windowEnd = Long.MAX_VALUE;
+		} else {
+			Instant instant = Instant.ofEpochSecond(second);
+			offsetSeconds = rules.getOffset(instant).getTotalSeconds();
+			ZoneOffsetTransition previous = rules.previousTransition(instant);
+			ZoneOffsetTransition next = rules.nextTransition(instant);
+			/* At a transition itself, the previous one has another offset */
+			windowStart = previous != null && previous.getOffsetAfter().getTotalSeconds() == offsetSeconds
+				? previous.toEpochSecond()
+				: second;
+			windowEnd = next == null ? Long.MAX_VALUE : next.toEpochSecond();
+		}
+		int abs = Math.abs(offsetSeconds);
+		buffer[23] = (byte) (offsetSeconds < 0 ? '-' : '+');
+		writeDigits(24, abs / 3600, 2);
+		writeDigits(26, abs / 60 % 60, 2);
+	}
+
+	private void writeDigits(int pos, int value, int digits) {
+		for (int i = pos + digits - 1; i >= pos; i--) {
+			buffer[i] = (byte) ('0' + value % 10);
+			value /= 10;
+		}
+	}
+
+	private String fallback(long epochMicros) {
+		Instant instant = Instant.ofEpochSecond(
+			Math.floorDiv(epochMicros, 1_000_000L),
+			Math.floorMod(epochMicros, 1_000_000L) * 1000L
+		);
+		return DATE_FORMAT.format(instant.atZone(zoneId));
+	}
+}
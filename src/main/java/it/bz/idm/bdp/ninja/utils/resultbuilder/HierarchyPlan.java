@@ -0,0 +1,153 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja.utils.resultbuilder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import it.bz.idm.bdp.ninja.utils.querybuilder.Schema;
+import it.bz.idm.bdp.ninja.utils.querybuilder.TargetDefList;
+
+/**
+ * Levels of TargetDefLists of a tree representation, from an entry point down
+ * to its exit points, together with their lookups and parents.
+ *
+ * Plans are immutable, so {@link Schema#getHierarchyPlan} creates them only
+ * once per entry and exit points. Each TargetDefList gets an index, which the
+ * ResultBuilder uses for its arrays of current objects and layouts.
+ */
+public final class HierarchyPlan {
+
+	/**
+	 * A TargetDefList within the hierarchy
+	 */
+	public static final class Step {
+		private final int index;
+		private final int level;
+		private final TargetDefList targetDefList;
+		private final LookUp lookUp;
+		private int parent = -1;
+
+		private Step(int index, int level, TargetDefList targetDefList) {
+			this.index = index;
+			this.level = level;
+			this.targetDefList = targetDefList;
+			this.lookUp = targetDefList.getLookUp();
+		}
+
+		public int getIndex() {
+			return index;
+		}
+
+		public int getLevel() {
+			return level;
+		}
+
+		public String getName() {
+			return targetDefList.getName();
+		}
+
+		public TargetDefList getTargetDefList() {
+			return targetDefList;
+		}
+
+		public LookUp getLookUp() {
+			return lookUp;
+		}
+
+		/**
+		 * @return index of the step of the parent, or -1 if it is not part of
+		 *         this hierarchy, ex. for the entry point
+		 */
+		public int getParent() {
+			return parent;
+		}
+	}
+
+	private final List<List<String>> levels;
+	private final List<String> triggerKeys;
+	private final Step[][] stepsPerLevel;
+	private final Step[] steps;
+
+	/**
+	 * @param levels names of the TargetDefLists per level, see Schema#getHierarchy
+	 * @param triggerKeys see Schema#getHierarchyTriggerKeys
+	 */
+	public HierarchyPlan(Schema schema, List<List<String>> levels, List<String> triggerKeys) {
+		List<List<String>> levelsCopy = new ArrayList<>();
+		List<Step> allSteps = new ArrayList<>();
+		Map<String, Step> byName = new HashMap<>();
+		this.stepsPerLevel = new Step[levels.size()][];
+		for (int level = 0; level < levels.size(); level++) {
+			List<String> names = levels.get(level);
+			levelsCopy.add(Collections.unmodifiableList(new ArrayList<>(names)));
+			stepsPerLevel[level] = new Step[names.size()];
+			for (int i = 0; i < names.size(); i++) {
+				Step step = new Step(allSteps.size(), level, schema.get(names.get(i)));
+				allSteps.add(step);
+				byName.put(step.getName(), step);
+				stepsPerLevel[level][i] = step;
+			}
+		}
+		for (Step step : allSteps) {
+			Step parent = byName.get(step.lookUp.getParentDefListName());
+			if (parent != null) {
+				step.parent = parent.index;
+			}
+		}
+		this.steps = allSteps.toArray(new Step[0]);
+		this.levels = Collections.unmodifiableList(levelsCopy);
+		this.triggerKeys = Collections.unmodifiableList(new ArrayList<>(triggerKeys));
+	}
+
+	public List<List<String>> getLevels() {
+		return levels;
+	}
+
+	public List<String> getTriggerKeys() {
+		return triggerKeys;
+	}
+
+	public int getLevelCount() {
+		return stepsPerLevel.length;
+	}
+
+	/**
+	 * @return true, if the top level is a map without fields, ex. station
+	 *         types, and the second level a single map inside of it, ex.
+	 *         stations. Then each second level object is a subtree of its own.
+	 */
+	public boolean hasSingleTopMap() {
+		if (stepsPerLevel.length < 2 || stepsPerLevel[0].length != 1 || stepsPerLevel[1].length != 1) {
+			return false;
+		}
+		Step top = stepsPerLevel[0][0];
+		Step sub = stepsPerLevel[1][0];
+		return top.lookUp.getType() == LookUpType.MAP
+			&& top.lookUp.getParentTargetName() == null
+			&& sub.lookUp.getType() == LookUpType.MAP
+			&& sub.parent == top.index
+			&& sub.lookUp.getParentTargetName() != null
+			&& top.targetDefList.getFinalNames().equals(Set.of(sub.lookUp.getParentTargetName()));
+	}
+
+	/**
+	 * @return all steps of a level. Do not modify the array.
+	 */
+	public Step[] getSteps(int level) {
+		return stepsPerLevel[level];
+	}
+
+	/**
+	 * @return all steps ordered by their index. Do not modify the array.
+	 */
+	public Step[] getSteps() {
+		return steps;
+	}
+}
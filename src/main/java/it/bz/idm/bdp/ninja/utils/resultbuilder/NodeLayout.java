@@ -0,0 +1,66 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja.utils.resultbuilder;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import it.bz.idm.bdp.ninja.utils.querybuilder.Target;
+
+/**
+ * Targets of a TargetDefList within a response, and the slots of their
+ * values inside a {@link TreeNode}. The same for all rows of a response.
+ */
+final class NodeLayout {
+
+	final List<Target> targets;
+	final TreeNode.Shape shape;
+
+	/* Per target: its slot, or the slot of its JSON sub object */
+	final int[] slots;
+
+	/* Per JSON target: the shape of its sub object, and its slot in there */
+	final TreeNode.Shape[] jsonShapes;
+	final int[] jsonSlots;
+
+	/**
+	 * @param childNames keys of children, ex. sdatatypes within a station
+	 */
+	NodeLayout(List<Target> targets, Collection<String> childNames) {
+		this.targets = targets;
+
+		Set<String> keys = new TreeSet<>(childNames);
+		Map<String, Set<String>> jsonKeys = new HashMap<>();
+		for (Target target : targets) {
+			keys.add(target.hasJson() ? target.getName() : target.getFullName());
+			if (target.hasJson()) {
+				jsonKeys.computeIfAbsent(target.getName(), k -> new TreeSet<>()).add(target.getJson());
+			}
+		}
+		this.shape = new TreeNode.Shape(keys);
+
+		Map<String, TreeNode.Shape> jsonShapeByName = new HashMap<>();
+		jsonKeys.forEach((name, json) -> jsonShapeByName.put(name, new TreeNode.Shape(json)));
+
+		this.slots = new int[targets.size()];
+		this.jsonShapes = new TreeNode.Shape[targets.size()];
+		this.jsonSlots = new int[targets.size()];
+		for (int i = 0; i < targets.size(); i++) {
+			Target target = targets.get(i);
+			if (target.hasJson()) {
+				slots[i] = shape.slotOf(target.getName());
+				jsonShapes[i] = jsonShapeByName.get(target.getName());
+				jsonSlots[i] = jsonShapes[i].slotOf(target.getJson());
+			} else {
+				slots[i] = shape.slotOf(target.getFullName());
+				jsonSlots[i] = -1;
+			}
+		}
+	}
+}
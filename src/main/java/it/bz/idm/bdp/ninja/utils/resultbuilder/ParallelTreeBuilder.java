@@ -0,0 +1,133 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja.utils.resultbuilder;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import it.bz.idm.bdp.ninja.utils.queryexecutor.RowCursor;
+
+/**
+ * Builds a tree representation in partitions on a ForkJoinPool, for
+ * {@link StreamedTree}, which writes the partial trees in order.
+ *
+ * Tree queries are ordered by the hierarchy keys, so we split the rows where
+ * the station type changes, or the station for hierarchies with a single top
+ * level map (see {@link HierarchyPlan#hasSingleTopMap}). Each partition gets
+ * built like a result of its own, into a separate map.
+ *
+ * We run on the pool of the calling task, if any, otherwise on the common
+ * pool. Pools with a single thread build serially.
+ */
+final class ParallelTreeBuilder {
+
+	/* Smaller partitions cost more in tasks and merging than they save */
+	static final int MIN_PARTITION_ROWS = 1000;
+
+	/* More partitions than threads, so that a few large stations do not keep one thread busy alone */
+	private static final int PARTITIONS_PER_THREAD = 4;
+
+	private ParallelTreeBuilder() {
+	}
+
+	static ForkJoinPool pool() {
+		return ForkJoinTask.inForkJoinPool() ? ForkJoinTask.getPool() : ForkJoinPool.commonPool();
+	}
+
+	/**
+	 * Split the rows where a trigger key of the top level changes, or of the
+	 * second level for hierarchies with a single top level map
+	 *
+	 * @return start (inclusive) and end (exclusive) per partition
+	 */
+	static List<int[]> split(HierarchyPlan plan, List<Map<String, Object>> rows, int parallelism) {
+		int splitLevel = plan.hasSingleTopMap() ? 1 : 0;
+		List<String> keys = plan.getTriggerKeys().subList(0, Math.min(splitLevel + 1, plan.getTriggerKeys().size()));
+		int targetSize = Math.max(MIN_PARTITION_ROWS, rows.size() / (parallelism * PARTITIONS_PER_THREAD));
+
+		List<int[]> partitions = new ArrayList<>();
+		int start = 0;
+		for (int i = start + targetSize; i < rows.size(); i++) {
+			if (i - start >= targetSize && changes(keys, rows.get(i - 1), rows.get(i))) {
+				partitions.add(new int[] { start, i });
+				start = i;
+				i = start + targetSize - 1;
+			}
+		}
+		partitions.add(new int[] { start, rows.size() });
+		return partitions;
+	}
+
+	private static boolean changes(List<String> keys, Map<String, Object> prev, Map<String, Object> curr) {
+		for (String key : keys) {
+			if (!Objects.equals(prev.get(key), curr.get(key))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Check the first record, and create the catalog shared by all partitions
+	 */
+	static NodeLayout[] catalog(HierarchyPlan plan, List<Map<String, Object>> rows) {
+		RowCursor first = RowCursor.of(rows);
+		first.next();
+		ResultBuilder.checkTriggerKeys(first, plan.getTriggerKeys());
+		return ResultBuilder.createCatalog(plan, first);
+	}
+
+	/**
+	 * Build each partition as a task of the pool
+	 *
+	 * @param size shared size estimate, so that the response size limit holds for the whole tree
+	 * @return the partial tree per partition, in the same order
+	 */
+	static List<Map<String, Object>> buildAll(ForkJoinPool pool, ResultBuilderConfig config, HierarchyPlan plan,
+			NodeLayout[] catalog, List<Map<String, Object>> rows, List<int[]> partitions, AtomicLong size) {
+		long maxAllowedSize = ResultBuilder.maxAllowedSize(config);
+		List<Map<String, Object>> partials = new ArrayList<>(partitions.size());
+		List<ForkJoinTask<?>> tasks = new ArrayList<>(partitions.size());
+
+		/* ForkJoinTask rethrows copies of exceptions, so we keep the original */
+		AtomicReference<RuntimeException> failure = new AtomicReference<>();
+		for (int i = 0; i < partitions.size(); i++) {
+			int index = i;
+			int[] partition = partitions.get(i);
+			partials.add(null);
+			tasks.add(ForkJoinTask.adapt(() -> {
+				if (failure.get() != null) {
+					return;
+				}
+				try {
+					RowCursor cursor = RowCursor.of(rows.subList(partition[0], partition[1]));
+					cursor.next();
+					Map<String, Object> partial = new HashMap<>();
+					ResultBuilder.addRecords(config, plan, catalog, cursor, partial, size, maxAllowedSize);
+					partials.set(index, partial);
+				} catch (RuntimeException e) {
+					failure.compareAndSet(null, e);
+				}
+			}));
+		}
+
+		if (ForkJoinTask.inForkJoinPool() && ForkJoinTask.getPool() == pool) {
+			ForkJoinTask.invokeAll(tasks);
+		} else {
+			pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+		}
+		if (failure.get() != null) {
+			throw failure.get();
+		}
+		return partials;
+	}
+}
@@ -5,6 +5,7 @@
 package it.bz.idm.bdp.ninja.utils.resultbuilder;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -15,6 +16,8 @@ import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 import it.bz.idm.bdp.ninja.utils.querybuilder.Target;
+import it.bz.idm.bdp.ninja.utils.resultbuilder.HierarchyPlan.Step;
+import it.bz.idm.bdp.ninja.utils.queryexecutor.RowCursor;
 import it.bz.idm.bdp.ninja.utils.simpleexception.ErrorCodeInterface;
 import it.bz.idm.bdp.ninja.utils.simpleexception.SimpleException;
 
@@ -37,7 +40,7 @@ public class ResultBuilder {
 		}
 	}
 
-	public static int calculateLevel(Map<String, Object> rec, List<String> hierarchy, List<String> prevValues,
+	public static int calculateLevel(RowCursor rec, List<String> hierarchy, List<String> prevValues,
 			List<String> currValues) {
 
 		if (prevValues.isEmpty()) {
@@ -66,7 +69,8 @@ public class ResultBuilder {
 	}
 
 	/**
-	 * Build a tree representation
+	 * Build a tree representation serially. Responses get written with
+	 * {@link StreamedTree}, which builds large results in parallel.
 	 *
 	 * @param entryPoint
 	 * @param exitPoint
@@ -76,56 +80,60 @@ public class ResultBuilder {
 	 * @param maxAllowedSizeInMB
 	 * @return
 	 */
-	@SuppressWarnings("unchecked")
 	public static Map<String, Object> build(ResultBuilderConfig config, List<Map<String, Object>> queryResult) {
-		AtomicLong size = new AtomicLong(0);
-		long maxAllowedSize = config.maxAllowedSizeInMB > 0 ? config.maxAllowedSizeInMB * 1000000 : 0;
-
 		if (queryResult == null || queryResult.isEmpty()) {
 			return new HashMap<>();
 		}
+		return build(config, RowCursor.of(queryResult));
+	}
 
-		List<String> currValues = new ArrayList<>();
-		List<String> prevValues = new ArrayList<>();
-		Map<String, List<Target>> catalog = new HashMap<>();
+	/**
+	 * Build a tree representation, reading records through a cursor
+	 *
+	 * @param config
+	 * @param cursor positioned before the first record
+	 * @return
+	 */
+	public static Map<String, Object> build(ResultBuilderConfig config, RowCursor cursor) {
+		if (!cursor.next()) {
+			return new HashMap<>();
+		}
+		return buildFromCurrent(config, cursor);
+	}
+
+	/**
+	 * @param cursor positioned on the first record
+	 */
+	static Map<String, Object> buildFromCurrent(ResultBuilderConfig config, RowCursor cursor) {
 		Map<String, Object> result = new HashMap<>();
 
 		// Should be present inside the definition, just entrypoint needed
-		List<List<String>> hierarchy = new ArrayList<>(config.schema.getHierarchy(config.entryPoint, config.exitPoints));
-		List<String> hierarchyTriggerKeys = new ArrayList<>(config.schema.getHierarchyTriggerKeys(config.entryPoint, config.exitPoints));
-		int maxLevel = hierarchy.size() - 1;
-
-		Map<String, Map<String, Object>> cache = new HashMap<>();
-		Map<String, Object> firstResultRecord = queryResult.get(0);
+		HierarchyPlan plan = config.schema.getHierarchyPlan(config.entryPoint, config.exitPoints);
 
 		// remove hierarchy triggers that are not contained in the Result set
 		// hierarchyTriggerKeys = hierarchyTriggerKeys.stream()
 		// 		.filter(x -> firstResultRecord.containsKey(x))
 		// 		.collect(Collectors.toList());
 
-		for (String key : hierarchyTriggerKeys) {
-			if (firstResultRecord.get(key) instanceof String)
-				continue;
+		checkTriggerKeys(cursor, plan.getTriggerKeys());
+		NodeLayout[] catalog = createCatalog(plan, cursor);
 
-			throw new SimpleException(ErrorCode.WRONG_TREE_BUILDING_KEY_TYPE, key);
-		}
+		addRecords(config, plan, catalog, cursor, result, new AtomicLong(0), maxAllowedSize(config));
+		return result;
+	}
 
-		// create catalog of Targets, since each record in this result set contains
-		// exactly the same names
-		for (List<String> targetDefListNames : hierarchy) {
-			for (String targetDefListName : targetDefListNames) {
-				Set<String> targetDefNames = config.schema.getOrNull(targetDefListName).getFinalNames();
-				List<Target> currentTargetList = new ArrayList<>();
-				for (String targetName : firstResultRecord.keySet()) {
-					Target target = new Target(targetName);
-					if (targetDefNames.contains(target.getName())) {
-						currentTargetList.add(target);
-						catalog.putIfAbsent(targetDefListName, currentTargetList);
-						cache.putIfAbsent(targetDefListName, new HashMap<>());
-					}
-				}
-			}
-		}
+	/**
+	 * Add all remaining records of the cursor to result
+	 *
+	 * @param cursor positioned on the first record to add
+	 * @param size size estimate, that might be shared with other builds of the same response
+	 */
+	static void addRecords(ResultBuilderConfig config, HierarchyPlan plan, NodeLayout[] catalog, RowCursor cursor,
+			Map<String, Object> result, AtomicLong size, long maxAllowedSize) {
+		List<String> hierarchyTriggerKeys = plan.getTriggerKeys();
+		List<String> currValues = new ArrayList<>();
+		List<String> prevValues = new ArrayList<>();
+		Map<String, Object>[] objects = newObjects(plan);
 
 		// We should check for all these prerequisites before starting the record loop
 		// to generate the result set
@@ -134,111 +142,207 @@ public class ResultBuilder {
 		// and that the first two levels are mandatory, so it must never be lower than
 		// those
 
-		for (Map<String, Object> rec : queryResult) {
-
+		do {
+			RowCursor rec = cursor;
 			int renewLevel = calculateLevel(rec, hierarchyTriggerKeys, prevValues, currValues);
+			addRecord(config, plan, rec, catalog, objects, result, renewLevel, size);
+
+			prevValues.clear();
+			prevValues.addAll(currValues);
+
+			checkSize(config, maxAllowedSize, size);
+		} while (cursor.next());
+	}
 
+	static long maxAllowedSize(ResultBuilderConfig config) {
+		return config.maxAllowedSizeInMB > 0 ? config.maxAllowedSizeInMB * 1000000L : 0;
+	}
+
+	static void checkSize(ResultBuilderConfig config, long maxAllowedSize, AtomicLong size) {
+		if (maxAllowedSize > 0 && maxAllowedSize < size.get()) {
+			throw new SimpleException(ErrorCode.RESPONSE_SIZE, config.maxAllowedSizeInMB);
+		}
+	}
+
+	/**
+	 * Check the size estimate of the whole tree, without building it. It is
+	 * the same estimate as the one of a build, so a streamed response can fail
+	 * before its first byte gets written.
+	 *
+	 * @param cursor positioned on the first record, moved to the last one checked
+	 */
+	static void checkSize(ResultBuilderConfig config, HierarchyPlan plan, NodeLayout[] catalog, RowCursor cursor,
+			long maxAllowedSize) {
+		List<String> hierarchyTriggerKeys = plan.getTriggerKeys();
+		List<String> currValues = new ArrayList<>();
+		List<String> prevValues = new ArrayList<>();
+		int maxLevel = plan.getLevelCount() - 1;
+		AtomicLong size = new AtomicLong(0);
+
+		do {
+			int renewLevel = calculateLevel(cursor, hierarchyTriggerKeys, prevValues, currValues);
 			for (int level = renewLevel; level <= maxLevel; level++) {
-				for (String targetDefListName : hierarchy.get(level)) {
-					Map<String, Object> curObject = makeObj(catalog.get(targetDefListName), rec, config.showNull, size);
-					cache.put(targetDefListName, curObject);
+				for (Step step : plan.getSteps(level)) {
+					size.getAndAdd(sizeOf(catalog[step.getIndex()], cursor, config.showNull));
 				}
 			}
 
-			for (int level = maxLevel; level >= renewLevel; level--) {
-				for (String targetDefListName : hierarchy.get(level)) {
-					LookUp lookup = config.schema.get(targetDefListName).getLookUp();
-					Map<String, Object> parent = cache.get(lookup.getParentDefListName());
-					if (parent == null) {
-						parent = result;
-					}
-					Map<String, Object> curObject = cache.get(targetDefListName);
-					String mapTypeValue = (String) rec.get(lookup.getMapTypeKey());
-					switch (lookup.getType()) {
-						case INLINE:
-							if (curObject.isEmpty() && !config.showNull) {
-								parent.remove(lookup.getParentTargetName());
-							} else {
-								parent.put(lookup.getParentTargetName(), curObject);
-							}
-							break;
-						case MERGE:
-							Object value = curObject.get(lookup.getParentTargetName());
-							if (value != null || config.showNull) {
-								parent.put(lookup.getParentTargetName(), value);
-							}
-							break;
-						case MAP:
-							if (mapTypeValue == null){
-								// can't have maps without keys. e.g. when the map table has not even been joined
-								break;
-							}
-
-							if (lookup.getParentTargetName() == null) {
-								parent.put(mapTypeValue, curObject);
-								break;
-							}
-
-							Map<String, Object> parentSub = (Map<String, Object>) parent
-									.getOrDefault(lookup.getParentTargetName(), new TreeMap<>());
-							if (parentSub.isEmpty()) {
-								parent.put(lookup.getParentTargetName(), parentSub);
-								parentSub.put(mapTypeValue, curObject);
-							} else {
-								parentSub.putIfAbsent(mapTypeValue, curObject);
-							}
+			prevValues.clear();
+			prevValues.addAll(currValues);
 
-							break;
-						case LIST:
-							List<Object> newList = (List<Object>) parent.getOrDefault(lookup.getParentTargetName(),
-									new ArrayList<>());
-							if (newList.isEmpty()) {
-								parent.put(lookup.getParentTargetName(), newList);
-							}
-							newList.add(curObject);
-							break;
-					}
+			checkSize(config, maxAllowedSize, size);
+		} while (cursor.next());
+	}
+
+	static void checkTriggerKeys(RowCursor cursor, List<String> hierarchyTriggerKeys) {
+		for (String key : hierarchyTriggerKeys) {
+			if (cursor.get(key) instanceof String)
+				continue;
+
+			throw new SimpleException(ErrorCode.WRONG_TREE_BUILDING_KEY_TYPE, key);
+		}
+	}
+
+	/**
+	 * Create a catalog of Targets, since each record in this result set contains
+	 * exactly the same names, together with the layout of their objects
+	 *
+	 * @return layout per step of the plan
+	 */
+	static NodeLayout[] createCatalog(HierarchyPlan plan, RowCursor cursor) {
+		Step[] steps = plan.getSteps();
+		List<List<String>> childNames = new ArrayList<>();
+		for (int i = 0; i < steps.length; i++) {
+			childNames.add(new ArrayList<>());
+		}
+		for (Step step : steps) {
+			String parentTargetName = step.getLookUp().getParentTargetName();
+			if (step.getParent() >= 0 && parentTargetName != null) {
+				childNames.get(step.getParent()).add(parentTargetName);
+			}
+		}
+
+		NodeLayout[] catalog = new NodeLayout[steps.length];
+		for (Step step : steps) {
+			Set<String> targetDefNames = step.getTargetDefList().getFinalNames();
+			List<Target> currentTargetList = new ArrayList<>();
+			for (int column = 0; column < cursor.getColumnCount(); column++) {
+				Target target = new Target(cursor.getColumnName(column));
+				if (targetDefNames.contains(target.getName())) {
+					currentTargetList.add(target);
 				}
 			}
+			catalog[step.getIndex()] = new NodeLayout(currentTargetList, childNames.get(step.getIndex()));
+		}
+		return catalog;
+	}
 
-			prevValues.clear();
-			prevValues.addAll(currValues);
+	/**
+	 * @return current object per step of the plan
+	 */
+	@SuppressWarnings("unchecked")
+	static Map<String, Object>[] newObjects(HierarchyPlan plan) {
+		return new Map[plan.getSteps().length];
+	}
+
+	/**
+	 * Create the objects of all levels from renewLevel on, and attach them to
+	 * their parents. Objects without a parent in the plan go into result.
+	 */
+	@SuppressWarnings("unchecked")
+	static void addRecord(ResultBuilderConfig config, HierarchyPlan plan, RowCursor rec, NodeLayout[] catalog,
+			Map<String, Object>[] objects, Map<String, Object> result, int renewLevel, AtomicLong size) {
+		int maxLevel = plan.getLevelCount() - 1;
 
-			if (maxAllowedSize > 0 && maxAllowedSize < size.get()) {
-				throw new SimpleException(ErrorCode.RESPONSE_SIZE, config.maxAllowedSizeInMB);
+		for (int level = renewLevel; level <= maxLevel; level++) {
+			for (Step step : plan.getSteps(level)) {
+				objects[step.getIndex()] = makeObj(catalog[step.getIndex()], rec, config.showNull, size);
+			}
+		}
+
+		for (int level = maxLevel; level >= renewLevel; level--) {
+			for (Step step : plan.getSteps(level)) {
+				LookUp lookup = step.getLookUp();
+				Map<String, Object> parent = step.getParent() < 0 ? result : objects[step.getParent()];
+				Map<String, Object> curObject = objects[step.getIndex()];
+				switch (lookup.getType()) {
+					case INLINE:
+						if (curObject.isEmpty() && !config.showNull) {
+							parent.remove(lookup.getParentTargetName());
+						} else {
+							parent.put(lookup.getParentTargetName(), curObject);
+						}
+						break;
+					case MERGE:
+						Object value = curObject.get(lookup.getParentTargetName());
+						if (value != null || config.showNull) {
+							parent.put(lookup.getParentTargetName(), value);
+						}
+						break;
+					case MAP:
+						String mapTypeValue = (String) rec.get(lookup.getMapTypeKey());
+						if (mapTypeValue == null){
+							// can't have maps without keys. e.g. when the map table has not even been joined
+							break;
+						}
+
+						if (lookup.getParentTargetName() == null) {
+							parent.put(mapTypeValue, curObject);
+							break;
+						}
+
+						// Keys are station codes, data type names etc., so this stays a TreeMap
+						Map<String, Object> parentSub = (Map<String, Object>) parent.get(lookup.getParentTargetName());
+						if (parentSub == null) {
+							parentSub = new TreeMap<>();
+							parent.put(lookup.getParentTargetName(), parentSub);
+							parentSub.put(mapTypeValue, curObject);
+						} else {
+							parentSub.putIfAbsent(mapTypeValue, curObject);
+						}
+
+						break;
+					case LIST:
+						List<Object> newList = (List<Object>) parent.get(lookup.getParentTargetName());
+						if (newList == null) {
+							newList = new ArrayList<>();
+							parent.put(lookup.getParentTargetName(), newList);
+						}
+						newList.add(curObject);
+						break;
+				}
 			}
 		}
-		return result;
 	}
 
-	private static Map<String, Object> makeObj(List<Target> targetCatalog, Map<String, Object> record, boolean showNull,
+	private static TreeNode makeObj(NodeLayout layout, RowCursor record, boolean showNull,
 			AtomicLong sizeEstimate) {
 
-		if (targetCatalog == null || targetCatalog.isEmpty() || record == null || record.isEmpty()) {
-			return new TreeMap<>();
+		TreeNode result = new TreeNode(layout.shape);
+		if (layout.targets.isEmpty() || record == null || record.getColumnCount() == 0) {
+			return result;
 		}
 
-		Map<String, Object> result = new TreeMap<>();
 		int size = 0;
 
-		for (Target target : targetCatalog) {
+		for (int i = 0; i < layout.slots.length; i++) {
+			Target target = layout.targets.get(i);
 			Object cellData = record.get(target.getFullName());
 
 			if (!showNull && cellData == null)
 				continue;
 
 			if (target.hasJson()) {
-				@SuppressWarnings("unchecked")
-				Map<String, Object> jsonObj = (Map<String, Object>) result.getOrDefault(target.getName(),
-						new TreeMap<>());
-				jsonObj.put(target.getJson(), cellData);
-				size += target.getJson().length();
-				if (jsonObj.size() == 1) {
-					result.put(target.getName(), jsonObj);
+				TreeNode jsonObj = (TreeNode) result.getAt(layout.slots[i]);
+				if (jsonObj == null) {
+					jsonObj = new TreeNode(layout.jsonShapes[i]);
+					result.setAt(layout.slots[i], jsonObj);
 					size += target.getName().length();
 				}
+				jsonObj.setAt(layout.jsonSlots[i], cellData);
+				size += target.getJson().length();
 			} else {
-				result.put(target.getFullName(), cellData);
+				result.setAt(layout.slots[i], cellData);
 				size += target.getFullName().length();
 			}
 			size += cellData == null ? 0 : cellData.toString().length();
@@ -247,4 +351,39 @@ public class ResultBuilder {
 		sizeEstimate.getAndAdd(size);
 		return result;
 	}
+
+	/**
+	 * The size, that {@link #makeObj} adds to the estimate
+	 */
+	private static int sizeOf(NodeLayout layout, RowCursor record, boolean showNull) {
+		if (layout.targets.isEmpty() || record == null || record.getColumnCount() == 0) {
+			return 0;
+		}
+
+		int size = 0;
+		BitSet jsonObjs = null;
+
+		for (int i = 0; i < layout.slots.length; i++) {
+			Target target = layout.targets.get(i);
+			Object cellData = record.get(target.getFullName());
+
+			if (!showNull && cellData == null)
+				continue;
+
+			if (target.hasJson()) {
+				if (jsonObjs == null) {
+					jsonObjs = new BitSet();
+				}
+				if (!jsonObjs.get(layout.slots[i])) {
+					jsonObjs.set(layout.slots[i]);
+					size += target.getName().length();
+				}
+				size += target.getJson().length();
+			} else {
+				size += target.getFullName().length();
+			}
+			size += cellData == null ? 0 : cellData.toString().length();
+		}
+		return size;
+	}
 }
@@ -17,6 +17,7 @@ public class ResultBuilderConfig {
     boolean showNull = false;
     Schema schema = null;
     int maxAllowedSizeInMB = 0;
+    int parallelThreshold = 0;
 
     Map<String, ExitPoint> exitPoints = new HashMap<>();
 
@@ -60,4 +61,15 @@ public class ResultBuilderConfig {
     public ResultBuilderConfig setMaxAllowedSizeInMB(int maxAllowedSizeInMB) {
         return fluid(() -> this.maxAllowedSizeInMB = maxAllowedSizeInMB);
     }
+
+    /**
+     * Build trees of at least this many records in parallel, 0 disables it
+     */
+    public ResultBuilderConfig setParallelThreshold(int parallelThreshold) {
+        return fluid(() -> this.parallelThreshold = parallelThreshold);
+    }
+
+    boolean isParallel(int recordCount) {
+        return parallelThreshold > 0 && recordCount >= parallelThreshold;
+    }
 }
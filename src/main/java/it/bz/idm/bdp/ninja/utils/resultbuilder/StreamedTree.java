@@ -0,0 +1,350 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja.utils.resultbuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.jsoniter.output.JsonStream;
+
+import it.bz.idm.bdp.ninja.utils.jsonserializer.NodeEncoder;
+import it.bz.idm.bdp.ninja.utils.metrics.RequestTrace;
+import it.bz.idm.bdp.ninja.utils.metrics.RequestTrace.Span;
+import it.bz.idm.bdp.ninja.utils.queryexecutor.RowCursor;
+import it.bz.idm.bdp.ninja.utils.simpleexception.SimpleException;
+
+/**
+ * Tree representation of query results, that gets built while it is written.
+ *
+ * Tree queries are ordered by the hierarchy keys, ex. by _stationtype,
+ * _stationcode, _datatypename. So whenever {@link ResultBuilder#calculateLevel}
+ * reports a change on the first two levels, the subtree of the previous
+ * station (or edge, or event series) is complete. We write it right away,
+ * and drop it together with its rows. The rows themselves get fetched as a
+ * whole before, so this does not bound the memory of a response. The
+ * controller writes the JSON to the response while it gets built, holding
+ * back its first bytes only, see
+ * {@link it.bz.idm.bdp.ninja.utils.jsonserializer.HoldBackOutputStream}.
+ *
+ * The response size limit of the config gets checked on an estimate of the
+ * whole tree, before anything gets written. So, exceeding it is an error
+ * response, and never a truncated one. This costs an additional pass over
+ * the rows, if there is a limit.
+ *
+ * The output is the same as for {@link ResultBuilder#build}, except for the
+ * order of the keys on the first two levels, which is the order of the
+ * query. Keys repeated out of order keep their first occurrence. Hierarchies,
+ * that do not have a single map on each of the first two levels, get built
+ * as a whole and then written.
+ *
+ * Results above the parallel threshold of the config get built in
+ * partitions on the ForkJoinPool, a few at a time, see {@link #writeParallel}.
+ *
+ * The time spent to build subtrees gets recorded as {@link Span#TREE}, it is
+ * part of the serialization time. The rows can be written only once.
+ */
+public class StreamedTree {
+
+	private final ResultBuilderConfig config;
+	private final List<Map<String, Object>> queryResult;
+
+	public StreamedTree(ResultBuilderConfig config, List<Map<String, Object>> queryResult) {
+		this.config = config;
+		this.queryResult = queryResult;
+	}
+
+	public void write(JsonStream stream) throws IOException {
+		checkSize();
+		if (config.isParallel(queryResult.size()) && writeParallel(stream)) {
+			return;
+		}
+		write(config, RowCursor.consuming(queryResult), stream);
+	}
+
+	/**
+	 * @throws SimpleException if the estimated size of the tree exceeds the limit of the config
+	 */
+	public void checkSize() {
+		long maxAllowedSize = ResultBuilder.maxAllowedSize(config);
+		RowCursor cursor = RowCursor.of(queryResult);
+		if (maxAllowedSize <= 0 || !cursor.next()) {
+			return;
+		}
+		HierarchyPlan plan = config.schema.getHierarchyPlan(config.entryPoint, config.exitPoints);
+		ResultBuilder.checkTriggerKeys(cursor, plan.getTriggerKeys());
+		ResultBuilder.checkSize(config, plan, ResultBuilder.createCatalog(plan, cursor), cursor, maxAllowedSize);
+	}
+
+	/**
+	 * Build the partitions of {@link ParallelTreeBuilder} in waves of one
+	 * partition per thread, and write each wave in order, before building the
+	 * next. So, only a few subtrees are in memory at a time, like for the
+	 * serial write.
+	 *
+	 * @return false, if the tree should be written serially
+	 */
+	private boolean writeParallel(JsonStream stream) throws IOException {
+		ForkJoinPool pool = ParallelTreeBuilder.pool();
+		HierarchyPlan plan = config.schema.getHierarchyPlan(config.entryPoint, config.exitPoints);
+		if (pool.getParallelism() <= 1 || !plan.hasSingleTopMap()) {
+			return false;
+		}
+		List<int[]> partitions = ParallelTreeBuilder.split(plan, queryResult, pool.getParallelism());
+		if (partitions.size() < 2) {
+			return false;
+		}
+
+		boolean indented = stream.currentConfig().indentionStep() > 0;
+		NodeLayout[] catalog = ParallelTreeBuilder.catalog(plan, queryResult);
+		Writer writer = new Writer(config, stream, indented, plan, catalog);
+		AtomicLong size = new AtomicLong(0);
+		long treeNanos = 0;
+		try {
+			for (int from = 0; from < partitions.size(); from += pool.getParallelism()) {
+				List<int[]> wave = partitions.subList(from, Math.min(from + pool.getParallelism(), partitions.size()));
+				long start = System.nanoTime();
+				List<Map<String, Object>> partials = ParallelTreeBuilder.buildAll(pool, config, plan, catalog,
+						queryResult, wave, size);
+				treeNanos += System.nanoTime() - start;
+				for (int i = 0; i < wave.size(); i++) {
+					writer.writePartition(queryResult, wave.get(i)[0], wave.get(i)[1], partials.get(i));
+					release(wave.get(i));
+				}
+			}
+		} finally {
+			RequestTrace.current().add(Span.TREE, treeNanos);
+		}
+		writer.finish();
+		return true;
+	}
+
+	/**
+	 * Drop written rows, like {@link RowCursor#consuming} does
+	 */
+	private void release(int[] partition) {
+		if (queryResult instanceof ArrayList) {
+			for (int i = partition[0]; i < partition[1]; i++) {
+				queryResult.set(i, null);
+			}
+		}
+	}
+
+	/**
+	 * Build the whole tree, ex. for callers that need a map
+	 */
+	public Map<String, Object> build() {
+		return ResultBuilder.build(config, RowCursor.consuming(queryResult));
+	}
+
+	/**
+	 * @param cursor positioned before the first record
+	 */
+	public static void write(ResultBuilderConfig config, RowCursor cursor, JsonStream stream) throws IOException {
+		boolean indented = stream.currentConfig().indentionStep() > 0;
+		if (!cursor.next()) {
+			stream.write((byte) '{', (byte) '}');
+			return;
+		}
+
+		HierarchyPlan plan = config.schema.getHierarchyPlan(config.entryPoint, config.exitPoints);
+		if (!plan.hasSingleTopMap()) {
+			NodeEncoder.writeValue(ResultBuilder.buildFromCurrent(config, cursor), stream, indented);
+			return;
+		}
+
+		ResultBuilder.checkTriggerKeys(cursor, plan.getTriggerKeys());
+		NodeLayout[] catalog = ResultBuilder.createCatalog(plan, cursor);
+
+		new Writer(config, stream, indented, plan, catalog).write(cursor);
+	}
+
+	private static class Writer {
+		private final ResultBuilderConfig config;
+		private final JsonStream stream;
+		private final boolean indented;
+		private final HierarchyPlan plan;
+		private final NodeLayout[] catalog;
+		private final Map<String, Object>[] objects;
+
+		/* Stands in for the current top level object, and holds the subtree of the second level */
+		private final Map<String, Object> top = new TreeMap<>();
+		private final String subName;
+
+		private final Set<String> writtenTopKeys = new HashSet<>();
+		private final Set<String> writtenSubKeys = new HashSet<>();
+		private String topKey;
+		private boolean skipTop;
+		private boolean rootOpen;
+		private boolean topOpen;
+
+		Writer(ResultBuilderConfig config, JsonStream stream, boolean indented, HierarchyPlan plan,
+				NodeLayout[] catalog) {
+			this.config = config;
+			this.stream = stream;
+			this.indented = indented;
+			this.plan = plan;
+			this.catalog = catalog;
+			this.objects = ResultBuilder.newObjects(plan);
+			this.subName = plan.getSteps(1)[0].getLookUp().getParentTargetName();
+			objects[plan.getSteps(0)[0].getIndex()] = top;
+		}
+
+		void write(RowCursor cursor) throws IOException {
+			AtomicLong size = new AtomicLong(0);
+			long maxAllowedSize = ResultBuilder.maxAllowedSize(config);
+			List<String> currValues = new ArrayList<>();
+			List<String> prevValues = new ArrayList<>();
+			long treeNanos = 0;
+
+			do {
+				long start = System.nanoTime();
+				int renewLevel = ResultBuilder.calculateLevel(cursor, plan.getTriggerKeys(), prevValues, currValues);
+				if (renewLevel <= 1) {
+					flushSub();
+				}
+				if (renewLevel == 0) {
+					closeTop();
+					topKey = currValues.get(0);
+					skipTop = !writtenTopKeys.add(topKey);
+				}
+				if (!skipTop) {
+					ResultBuilder.addRecord(config, plan, cursor, catalog, objects, top, Math.max(renewLevel, 1), size);
+				}
+
+				prevValues.clear();
+				prevValues.addAll(currValues);
+				treeNanos += System.nanoTime() - start;
+
+				ResultBuilder.checkSize(config, maxAllowedSize, size);
+			} while (cursor.next());
+			RequestTrace.current().add(Span.TREE, treeNanos);
+
+			flushSub();
+			finish();
+		}
+
+		/**
+		 * Write the subtrees of a partition, in the order of its rows
+		 *
+		 * @param partial tree of the rows from start (inclusive) to end (exclusive)
+		 */
+		@SuppressWarnings("unchecked")
+		void writePartition(List<Map<String, Object>> rows, int start, int end, Map<String, Object> partial)
+				throws IOException {
+			String topMapKey = plan.getSteps(0)[0].getLookUp().getMapTypeKey();
+			String subMapKey = plan.getSteps(1)[0].getLookUp().getMapTypeKey();
+			Map<String, Object> subs = null;
+			for (int i = start; i < end; i++) {
+				Map<String, Object> row = rows.get(i);
+				String topValue = (String) row.get(topMapKey);
+				if (topValue == null) {
+					continue;
+				}
+				if (!topValue.equals(topKey)) {
+					closeTop();
+					topKey = topValue;
+					skipTop = !writtenTopKeys.add(topKey);
+					subs = null;
+				}
+				String subValue = (String) row.get(subMapKey);
+				if (skipTop || subValue == null || writtenSubKeys.contains(subValue)) {
+					continue;
+				}
+				if (subs == null) {
+					Map<String, Object> topObject = (Map<String, Object>) partial.get(topKey);
+					subs = topObject == null ? null : (Map<String, Object>) topObject.get(subName);
+				}
+				Object sub = subs == null ? null : subs.get(subValue);
+				if (sub != null) {
+					writeSub(subValue, sub);
+				}
+			}
+		}
+
+		void finish() throws IOException {
+			closeTop();
+			if (rootOpen) {
+				stream.writeObjectEnd();
+			} else {
+				stream.write((byte) '{', (byte) '}');
+			}
+		}
+
+		/**
+		 * Write the completed second level objects of the current top level object
+		 */
+		@SuppressWarnings("unchecked")
+		private void flushSub() throws IOException {
+			Map<String, Object> sub = (Map<String, Object>) top.get(subName);
+			if (sub == null) {
+				return;
+			}
+			for (Map.Entry<String, Object> entry : sub.entrySet()) {
+				writeSub(entry.getKey(), entry.getValue());
+			}
+			top.clear();
+		}
+
+		/**
+		 * Write a second level object, unless its key has been written already
+		 */
+		private void writeSub(String key, Object value) throws IOException {
+			if (!writtenSubKeys.add(key)) {
+				return;
+			}
+			if (topOpen) {
+				stream.writeMore();
+			} else {
+				openTop();
+				NodeEncoder.writeKey(subName, stream, indented);
+				stream.writeObjectStart();
+				stream.writeIndention();
+				topOpen = true;
+			}
+			NodeEncoder.writeKey(key, stream, indented);
+			NodeEncoder.writeValue(value, stream, indented);
+		}
+
+		private void openTop() throws IOException {
+			if (rootOpen) {
+				stream.writeMore();
+			} else {
+				stream.writeObjectStart();
+				stream.writeIndention();
+				rootOpen = true;
+			}
+			NodeEncoder.writeKey(topKey, stream, indented);
+			stream.writeObjectStart();
+			stream.writeIndention();
+		}
+
+		private void closeTop() throws IOException {
+			if (topOpen) {
+				stream.writeObjectEnd();
+				stream.writeObjectEnd();
+			} else if (topKey != null && !skipTop) {
+				/* A top level object without any second level objects */
+				if (rootOpen) {
+					stream.writeMore();
+				} else {
+					stream.writeObjectStart();
+					stream.writeIndention();
+					rootOpen = true;
+				}
+				NodeEncoder.writeKey(topKey, stream, indented);
+				stream.write((byte) '{', (byte) '}');
+			}
+			topOpen = false;
+			writtenSubKeys.clear();
+		}
+	}
+}
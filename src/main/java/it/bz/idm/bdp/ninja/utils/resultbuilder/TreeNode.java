@@ -0,0 +1,190 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja.utils.resultbuilder;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Object of the tree representation, ex. a station or a measurement.
+ *
+ * All objects of the same kind within a response have the same possible
+ * keys: the targets of its TargetDefList and the names of its children.
+ * They share these keys sorted in a {@link Shape}, and store their values
+ * in a flat array with one slot per key. So, they iterate in the same order
+ * as a TreeMap, but without an entry object per field.
+ *
+ * Putting a key, that is not part of the shape, throws an
+ * IllegalArgumentException.
+ */
+public final class TreeNode extends AbstractMap<String, Object> {
+
+	/* Stands for a null value, since null within values means absent */
+	private static final Object NULL = new Object();
+
+	private final Shape shape;
+	private final Object[] values;
+	private int size;
+
+	public TreeNode(Shape shape) {
+		this.shape = shape;
+		this.values = new Object[shape.keys.length];
+	}
+
+	public Shape getShape() {
+		return shape;
+	}
+
+	/**
+	 * @return true, if the slot has a value, which might be null
+	 */
+	public boolean isSet(int slot) {
+		return values[slot] != null;
+	}
+
+	/**
+	 * @return value of the slot, or null if it is not set
+	 */
+	public Object getAt(int slot) {
+		Object value = values[slot];
+		return value == NULL ? null : value;
+	}
+
+	/**
+	 * @return the previous value of the slot
+	 */
+	public Object setAt(int slot, Object value) {
+		Object previous = values[slot];
+		if (previous == null) {
+			size++;
+		}
+		values[slot] = value == null ? NULL : value;
+		return previous == NULL ? null : previous;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		int slot = shape.slotOf(key);
+		return slot >= 0 && values[slot] != null;
+	}
+
+	@Override
+	public Object get(Object key) {
+		int slot = shape.slotOf(key);
+		return slot < 0 ? null : getAt(slot);
+	}
+
+	@Override
+	public Object put(String key, Object value) {
+		int slot = shape.slotOf(key);
+		if (slot < 0) {
+			throw new IllegalArgumentException("Key '" + key + "' is not part of " + shape);
+		}
+		return setAt(slot, value);
+	}
+
+	@Override
+	public Object remove(Object key) {
+		int slot = shape.slotOf(key);
+		if (slot < 0 || values[slot] == null) {
+			return null;
+		}
+		Object previous = getAt(slot);
+		values[slot] = null;
+		size--;
+		return previous;
+	}
+
+	@Override
+	public void clear() {
+		Arrays.fill(values, null);
+		size = 0;
+	}
+
+	@Override
+	public Set<Entry<String, Object>> entrySet() {
+		return new AbstractSet<Entry<String, Object>>() {
+			@Override
+			public Iterator<Entry<String, Object>> iterator() {
+				return new Iterator<Entry<String, Object>>() {
+					private int next = advance(0);
+
+					private int advance(int slot) {
+						while (slot < values.length && values[slot] == null) {
+							slot++;
+						}
+						return slot;
+					}
+
+					@Override
+					public boolean hasNext() {
+						return next < values.length;
+					}
+
+					@Override
+					public Entry<String, Object> next() {
+						if (next >= values.length) {
+							throw new NoSuchElementException();
+						}
+						Entry<String, Object> entry = new SimpleImmutableEntry<>(shape.keys[next], getAt(next));
+						next = advance(next + 1);
+						return entry;
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	/**
+	 * Sorted, distinct keys of a kind of objects
+	 */
+	public static final class Shape {
+		private final String[] keys;
+
+		public Shape(Collection<String> keys) {
+			this.keys = new TreeSet<>(keys).toArray(new String[0]);
+		}
+
+		public int size() {
+			return keys.length;
+		}
+
+		public String getKey(int slot) {
+			return keys[slot];
+		}
+
+		/**
+		 * @return slot of the key, or a negative number if it is not part of this shape
+		 */
+		public int slotOf(Object key) {
+			if (!(key instanceof String)) {
+				return -1;
+			}
+			return Arrays.binarySearch(keys, key);
+		}
+
+		@Override
+		public String toString() {
+			return "shape " + Arrays.toString(keys);
+		}
+	}
+}
@@ -0,0 +1,135 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja.utils.spatial;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import it.bz.idm.bdp.ninja.utils.jsonserializer.RawJson;
+
+/**
+ * GeoJSON of edge geometries, with simplified variants for lower zoom
+ * levels, bounded by their total size in bytes.
+ *
+ * Queries select the id of the edge and a hash of its geometry (see
+ * {@link #KEY_COLUMN_FORMAT}) instead of its GeoJSON, and {@link #fill}
+ * replaces them with the cached variant. The hash is the version of the
+ * geometry, so changed geometries get new keys and the old ones age out.
+ * Missing keys get loaded by the ids of their edges.
+ */
+public class EdgeGeometryCache {
+
+	/* Tolerances in degrees of the precomputed variants, the first is the original geometry */
+	public static final double[] TOLERANCES = {0, 0.00001, 0.0001, 0.001, 0.01};
+
+	/* Decimal digits of the coordinates per variant, more would not add precision */
+	public static final int[] DIGITS = {9, 6, 5, 4, 3};
+
+	/* For queries on "edge e", ex. 42:3a5e... */
+	public static final String KEY_COLUMN_FORMAT = "e.id || ':' || md5(st_asewkb(%s))";
+
+	/* Tile size of slippy maps in pixels, see toleranceOfZoom */
+	private static final int TILE_SIZE = 256;
+
+	/* Keys and entries of Caffeine */
+	private static final int ENTRY_OVERHEAD_BYTES = 256;
+
+	@FunctionalInterface
+	public interface Loader {
+
+		/**
+		 * @param keys see {@link #idOf}
+		 * @return variants per key in the order of {@link #TOLERANCES}, keys
+		 *         without a geometry can be missing
+		 */
+		Map<String, RawJson[]> load(Set<String> keys);
+	}
+
+	private final Cache<String, RawJson[]> geometries;
+	private final Loader loader;
+
+	public EdgeGeometryCache(long maxSizeBytes, Loader loader) {
+		this.geometries = Caffeine
+			.newBuilder()
+			.maximumWeight(maxSizeBytes)
+			.recordStats()
+			.<String, RawJson[]>weigher((key, variants) -> {
+				int weight = ENTRY_OVERHEAD_BYTES;
+				for (RawJson variant : variants) {
+					weight += variant == null ? 0 : variant.getJson().length() * 2;
+				}
+				return weight;
+			})
+			.build();
+		this.loader = loader;
+	}
+
+	/**
+	 * @return the variant with the largest tolerance, that does not exceed the given one
+	 */
+	public static int variantOf(double tolerance) {
+		int variant = 0;
+		while (variant + 1 < TOLERANCES.length && TOLERANCES[variant + 1] <= tolerance) {
+			variant++;
+		}
+		return variant;
+	}
+
+	/**
+	 * @return the id of the edge of a key
+	 */
+	public static long idOf(String key) {
+		return Long.parseLong(key.substring(0, key.indexOf(':')));
+	}
+
+	/**
+	 * @return the width of a pixel at the equator in degrees, on a tile of the given zoom level
+	 */
+	public static double toleranceOfZoom(int zoom) {
+		return 360.0 / Math.scalb((double) TILE_SIZE, zoom);
+	}
+
+	/**
+	 * Replace the geometry keys in the given column of all rows with their
+	 * GeoJSON. Missing keys get loaded with a single query.
+	 *
+	 * @param tolerance in degrees, 0 for the original geometries
+	 */
+	public void fill(List<Map<String, Object>> rows, String column, double tolerance) {
+		Set<String> keys = new HashSet<>();
+		for (Map<String, Object> row : rows) {
+			Object key = row.get(column);
+			if (key instanceof String) {
+				keys.add((String) key);
+			}
+		}
+		if (keys.isEmpty()) {
+			return;
+		}
+
+		Map<String, RawJson[]> found = geometries.getAll(keys, missing -> {
+			Set<String> load = new HashSet<>();
+			missing.forEach(load::add);
+			return loader.load(load);
+		});
+		int variant = variantOf(tolerance);
+		for (Map<String, Object> row : rows) {
+			Object key = row.get(column);
+			if (key instanceof String) {
+				RawJson[] variants = found.get(key);
+				row.put(column, variants == null ? null : variants[variant]);
+			}
+		}
+	}
+
+	public Cache<String, RawJson[]> getCache() {
+		return geometries;
+	}
+}
@@ -0,0 +1,92 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja.utils.spatial;
+
+import java.math.BigDecimal;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+
+import org.postgis.Geometry;
+
+/**
+ * Output formats of edge and event location geometries, see ?geometry=
+ *
+ * GeoJSON and TWKB get built by PostGIS. Encoded polylines get built from
+ * the geometry objects, because ST_AsEncodedPolyline only supports line
+ * strings. TWKB is binary, so it gets written as a base64 string.
+ */
+public enum GeometryFormat {
+	GEOJSON(9, 0, 15),
+	POLYLINE(5, 0, 9),
+	TWKB(6, -7, 7);
+
+	private final int defaultPrecision;
+	private final int minPrecision;
+	private final int maxPrecision;
+
+	GeometryFormat(int defaultPrecision, int minPrecision, int maxPrecision) {
+		this.defaultPrecision = defaultPrecision;
+		this.minPrecision = minPrecision;
+		this.maxPrecision = maxPrecision;
+	}
+
+	/**
+	 * @return the format with the given name, ignoring case, or null if there is none
+	 */
+	public static GeometryFormat of(String name) {
+		for (GeometryFormat format : values()) {
+			if (format.name().equalsIgnoreCase(name)) {
+				return format;
+			}
+		}
+		return null;
+	}
+
+	public int getDefaultPrecision() {
+		return defaultPrecision;
+	}
+
+	public boolean isValidPrecision(int precision) {
+		return precision >= minPrecision && precision <= maxPrecision;
+	}
+
+	/**
+	 * @param precision decimal digits of the coordinates
+	 * @param tolerance in degrees to simplify the geometry, 0 for none
+	 * @return a column format for {@link it.bz.idm.bdp.ninja.utils.querybuilder.TargetDef#setColumnFormat}
+	 */
+	public String getColumnFormat(int precision, double tolerance) {
+		String geometry = tolerance > 0
+			? "st_simplifypreservetopology(%s, " + BigDecimal.valueOf(tolerance).stripTrailingZeros().toPlainString() + ")"
+			: "%s";
+		switch (this) {
+			case POLYLINE:
+				return geometry;
+			case TWKB:
+				return "st_astwkb(" + geometry + ", " + precision + ")";
+			default:
+				// We use option #3 (= 1:bounding box + 2:short CRS), see https://postgis.net/docs/ST_AsGeoJSON.html
+				return "st_asgeojson(" + geometry + ", " + precision + ", 3)::jsonb";
+		}
+	}
+
+	/**
+	 * Replace the query results of the given column with their encoding
+	 */
+	public void encode(List<Map<String, Object>> rows, String column, int precision) {
+		if (this == GEOJSON) {
+			return;
+		}
+		for (Map<String, Object> row : rows) {
+			Object value = row.get(column);
+			if (value instanceof Geometry) {
+				row.put(column, Polyline.encode((Geometry) value, precision));
+			} else if (value instanceof byte[]) {
+				row.put(column, Base64.getEncoder().encodeToString((byte[]) value));
+			}
+		}
+	}
+}
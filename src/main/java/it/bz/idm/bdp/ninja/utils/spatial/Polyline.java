@@ -0,0 +1,66 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja.utils.spatial;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.postgis.ComposedGeom;
+import org.postgis.Geometry;
+import org.postgis.Point;
+import org.postgis.PointComposedGeom;
+
+/**
+ * Encoded Polyline Algorithm Format, see
+ * https://developers.google.com/maps/documentation/utilities/polylinealgorithm
+ *
+ * Each point is written as latitude and longitude, that is y and x, rounded
+ * to the given decimal digits, as difference to the previous point. PostGIS
+ * ST_AsEncodedPolyline does the same, but only for line strings.
+ */
+public final class Polyline {
+
+	private Polyline() {
+	}
+
+	/**
+	 * @return the encoded points of points, line strings and rings, and a
+	 *         list of encoded parts for polygons and other multi-part geometries
+	 */
+	public static Object encode(Geometry geometry, int precision) {
+		if (geometry instanceof ComposedGeom && !(geometry instanceof PointComposedGeom)) {
+			ComposedGeom composed = (ComposedGeom) geometry;
+			List<Object> parts = new ArrayList<>(composed.numGeoms());
+			for (int i = 0; i < composed.numGeoms(); i++) {
+				parts.add(encode(composed.getSubGeometry(i), precision));
+			}
+			return parts;
+		}
+
+		double factor = Math.pow(10, precision);
+		StringBuilder sb = new StringBuilder(geometry.numPoints() * 8);
+		long lastY = 0;
+		long lastX = 0;
+		for (int i = 0; i < geometry.numPoints(); i++) {
+			Point point = geometry.getPoint(i);
+			long y = Math.round(point.y * factor);
+			long x = Math.round(point.x * factor);
+			encode(y - lastY, sb);
+			encode(x - lastX, sb);
+			lastY = y;
+			lastX = x;
+		}
+		return sb.toString();
+	}
+
+	private static void encode(long value, StringBuilder sb) {
+		value = value < 0 ? ~(value << 1) : value << 1;
+		while (value >= 0x20) {
+			sb.append((char) ((0x20 | (value & 0x1f)) + 63));
+			value >>= 5;
+		}
+		sb.append((char) (value + 63));
+	}
+}
@@ -0,0 +1,134 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja.utils.spatial;
+
+import java.util.List;
+
+import it.bz.idm.bdp.ninja.utils.miniparser.Token;
+import it.bz.idm.bdp.ninja.utils.querybuilder.WhereClauseTarget;
+
+/**
+ * The bbi, bbc and dlt where clause operators on station coordinates, see
+ * SelectExpansionConfig, evaluated on WGS84 longitudes and latitudes.
+ *
+ * It matches a superset of what PostGIS matches, ex. distances get a small
+ * tolerance, so it can narrow down the stations, but the SQL predicates
+ * must stay in the query.
+ */
+public final class SpatialFilter {
+
+	public static final String ALIAS = "scoordinate";
+
+	/* Mean radius of WGS84, what PostGIS uses for spherical geography distances */
+	static final double EARTH_RADIUS_METERS = 6371008.7714;
+	private static final double DISTANCE_TOLERANCE_METERS = 1.0;
+	private static final int SRID_WGS84 = 4326;
+
+	private final double x0;
+	private final double y0;
+	private final double x1;
+	private final double y1;
+
+	/* Center and radius of dlt, NaN for bounding boxes */
+	private final double x;
+	private final double y;
+	private final double distance;
+
+	private SpatialFilter(double x0, double y0, double x1, double y1, double x, double y, double distance) {
+		this.x0 = x0;
+		this.y0 = y0;
+		this.x1 = x1;
+		this.y1 = y1;
+		this.x = x;
+		this.y = y;
+		this.distance = distance;
+	}
+
+	/**
+	 * Points, that intersect or are contained in the given box. Both are
+	 * the same for points, borders included.
+	 */
+	public static SpatialFilter envelope(double x0, double y0, double x1, double y1) {
+		return new SpatialFilter(Math.min(x0, x1), Math.min(y0, y1), Math.max(x0, x1), Math.max(y0, y1),
+				Double.NaN, Double.NaN, Double.NaN);
+	}
+
+	/**
+	 * Points within the given distance in meters from (x, y) on a sphere
+	 */
+	public static SpatialFilter distance(double distance, double x, double y) {
+		double radians = (distance + DISTANCE_TOLERANCE_METERS) / EARTH_RADIUS_METERS;
+		double dy = Math.toDegrees(radians);
+		double x0 = -180;
+		double x1 = 180;
+		double latitude = Math.toRadians(y);
+		/* Around the poles and the antimeridian we only limit the latitudes */
+		if (Math.abs(y) + dy < 90 && Math.sin(radians) < Math.cos(latitude)) {
+			double dx = Math.toDegrees(Math.asin(Math.sin(radians) / Math.cos(latitude)));
+			if (x - dx >= -180 && x + dx <= 180) {
+				x0 = x - dx;
+				x1 = x + dx;
+			}
+		}
+		return new SpatialFilter(x0, y - dy, x1, y + dy, x, y, distance);
+	}
+
+	/**
+	 * @return the filter of a where clause target, or null if it is not a
+	 *         spatial operator on {@link #ALIAS} in WGS84
+	 */
+	public static SpatialFilter of(WhereClauseTarget target) {
+		if (!ALIAS.equals(target.getName()) || target.hasJson() || target.getOp() == null) {
+			return null;
+		}
+		String operator = target.getOp().getName();
+		List<Token> values = target.getValues();
+		if ((operator.equals("LIST/NUMBER/BBI") || operator.equals("LIST/NUMBER/BBC"))
+				&& (values.size() == 4 || values.size() == 5 && number(values, 4) == SRID_WGS84)) {
+			return envelope(number(values, 0), number(values, 1), number(values, 2), number(values, 3));
+		}
+		if (operator.equals("LIST/NUMBER/DLT")
+				&& (values.size() == 3 || values.size() == 4 && number(values, 3) == SRID_WGS84)) {
+			return distance(number(values, 0), number(values, 1), number(values, 2));
+		}
+		return null;
+	}
+
+	private static double number(List<Token> values, int index) {
+		return ((Number) values.get(index).getPayload("typedvalue")).doubleValue();
+	}
+
+	public boolean test(double px, double py) {
+		if (px < x0 || px > x1 || py < y0 || py > y1) {
+			return false;
+		}
+		return Double.isNaN(distance) || haversine(x, y, px, py) <= distance + DISTANCE_TOLERANCE_METERS;
+	}
+
+	/**
+	 * Visit all points of the tree, that pass this filter and all others
+	 */
+	public void search(StrTree tree, List<SpatialFilter> others, StrTree.Visitor visitor) {
+		tree.search(x0, y0, x1, y1, (id, px, py) -> {
+			if (!test(px, py)) {
+				return;
+			}
+			for (SpatialFilter other : others) {
+				if (!other.test(px, py)) {
+					return;
+				}
+			}
+			visitor.visit(id, px, py);
+		});
+	}
+
+	static double haversine(double lon1, double lat1, double lon2, double lat2) {
+		double dLat = Math.toRadians(lat2 - lat1);
+		double dLon = Math.toRadians(lon2 - lon1);
+		double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+				+ Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+		return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1, Math.sqrt(a)));
+	}
+}
@@ -0,0 +1,186 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja.utils.spatial;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.benmanes.caffeine.cache.Ticker;
+
+/**
+ * {@link StrTree} of the available stations per station type, to find the
+ * stations within the spatial filters of a where clause, before PostGIS
+ * evaluates them row by row.
+ *
+ * Each search first queries a fingerprint of the requested station types,
+ * ex. a count and a hash of ids and coordinates, and answers only if the
+ * trees have been built for the same fingerprints. So stations added or
+ * moved since never go missing. Changed station types get rebuilt, but at
+ * most once per refresh interval, and left to PostGIS in between. Station
+ * types with coordinates in other reference systems than WGS84 get no tree,
+ * so the index cannot answer for them.
+ */
+public class StationIndex {
+
+	private static final Logger LOG = LoggerFactory.getLogger(StationIndex.class);
+
+	public interface Loader {
+
+		/**
+		 * @param stationTypes to get the fingerprints of, "*" for all
+		 * @return fingerprint per station type with available stations, null
+		 *         for station types, that cannot be indexed
+		 */
+		Map<String, String> fingerprints(Set<String> stationTypes);
+
+		/**
+		 * @return rows with id, x and y of the stations of this station type
+		 */
+		List<Map<String, Object>> points(String stationType);
+	}
+
+	private static final class Entry {
+		private final String fingerprint;
+		private final StrTree tree;
+		private final long builtAt;
+
+		private Entry(String fingerprint, StrTree tree, long builtAt) {
+			this.fingerprint = fingerprint;
+			this.tree = tree;
+			this.builtAt = builtAt;
+		}
+	}
+
+	private final Loader loader;
+	private final Ticker ticker;
+	private final long refreshNanos;
+	private final int maxIds;
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private volatile Map<String, Entry> entries = Collections.emptyMap();
+
+	/**
+	 * @param refresh the minimum time between two builds of the same station type
+	 * @param maxIds the maximum number of station ids to return, more would
+	 *               not narrow down the stations enough to be worth the parameter
+	 * @param ticker time source of the refresh interval, tests can use a fake one
+	 */
+	public StationIndex(Loader loader, Duration refresh, int maxIds, Ticker ticker) {
+		this.loader = loader;
+		this.refreshNanos = refresh.toNanos();
+		this.maxIds = maxIds;
+		this.ticker = ticker;
+	}
+
+	/**
+	 * @param stationTypes to search in, "*" for all
+	 * @param filters that all stations must pass, at least one
+	 * @return ids of the stations within all filters, or null if the index
+	 *         cannot answer, is not up to date for one of the station types,
+	 *         or there are more than maxIds of them
+	 */
+	public List<Long> search(Set<String> stationTypes, List<SpatialFilter> filters) {
+		Map<String, String> fingerprints;
+		try {
+			fingerprints = loader.fingerprints(stationTypes);
+		} catch (RuntimeException e) {
+			LOG.warn("Station index fingerprints not available, leaving spatial filters to PostGIS: {}", e.toString());
+			return null;
+		}
+
+		/* Station types without a fingerprint might have stations, we did not see */
+		for (String stationType : stationTypes) {
+			if (!stationType.equals("*") && !fingerprints.containsKey(stationType)) {
+				return null;
+			}
+		}
+
+		Map<String, Entry> current = update(fingerprints);
+		List<StrTree> trees = new ArrayList<>();
+		for (Map.Entry<String, String> fingerprint : fingerprints.entrySet()) {
+			Entry entry = current.get(fingerprint.getKey());
+			if (!isCurrent(entry, fingerprint.getValue()) || entry.tree == null) {
+				return null;
+			}
+			trees.add(entry.tree);
+		}
+
+		/* Search the first filter in the tree, and test the others on its points */
+		SpatialFilter first = filters.get(0);
+		List<SpatialFilter> others = filters.subList(1, filters.size());
+		List<Long> ids = new ArrayList<>();
+		for (StrTree tree : trees) {
+			first.search(tree, others, (id, x, y) -> ids.add(id));
+			if (ids.size() > maxIds) {
+				return null;
+			}
+		}
+		return ids;
+	}
+
+	private static boolean isCurrent(Entry entry, String fingerprint) {
+		return entry != null && Objects.equals(entry.fingerprint, fingerprint);
+	}
+
+	/**
+	 * Build the trees of new station types, and rebuild changed ones, if they
+	 * have not been built within the refresh interval. Others go on with the
+	 * current trees meanwhile, and leave outdated station types to PostGIS.
+	 *
+	 * @return the trees, some of them might still be outdated
+	 */
+	private Map<String, Entry> update(Map<String, String> fingerprints) {
+		Map<String, Entry> current = entries;
+		List<String> outdated = new ArrayList<>();
+		long now = ticker.read();
+		for (Map.Entry<String, String> fingerprint : fingerprints.entrySet()) {
+			Entry entry = current.get(fingerprint.getKey());
+			if (!isCurrent(entry, fingerprint.getValue()) && (entry == null || now - entry.builtAt >= refreshNanos)) {
+				outdated.add(fingerprint.getKey());
+			}
+		}
+		if (outdated.isEmpty() || !lock.tryLock()) {
+			return current;
+		}
+		try {
+			Map<String, Entry> result = new HashMap<>(entries);
+			for (String stationType : outdated) {
+				String fingerprint = fingerprints.get(stationType);
+				Entry entry = new Entry(fingerprint, fingerprint == null ? null : build(loader.points(stationType)), now);
+				result.put(stationType, entry);
+				LOG.debug("Station index of {} rebuilt with {} stations", stationType,
+						entry.tree == null ? 0 : entry.tree.size());
+			}
+			entries = Collections.unmodifiableMap(result);
+		} catch (RuntimeException e) {
+			LOG.warn("Station index build failed, leaving spatial filters to PostGIS", e);
+		} finally {
+			lock.unlock();
+		}
+		return entries;
+	}
+	private static StrTree build(List<Map<String, Object>> points) {
+		long[] ids = new long[points.size()];
+		double[] xs = new double[points.size()];
+		double[] ys = new double[points.size()];
+		for (int i = 0; i < ids.length; i++) {
+			Map<String, Object> point = points.get(i);
+			ids[i] = ((Number) point.get("id")).longValue();
+			xs[i] = ((Number) point.get("x")).doubleValue();
+			ys[i] = ((Number) point.get("y")).doubleValue();
+		}
+		return new StrTree(ids, xs, ys);
+	}
+}
@@ -0,0 +1,135 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja.utils.spatial;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.IntStream;
+
+/**
+ * Immutable R-tree of points with ids, packed with the Sort-Tile-Recursive
+ * algorithm: points get sorted by x into vertical slices, and each slice by
+ * y into leaves of {@link #NODE_CAPACITY} points. Upper levels group
+ * consecutive nodes of the level below.
+ *
+ * All nodes are full, except the last of each level, so children are found
+ * by position and the tree is stored in a few flat arrays.
+ */
+public final class StrTree {
+
+	public static final int NODE_CAPACITY = 16;
+
+	@FunctionalInterface
+	public interface Visitor {
+		void visit(long id, double x, double y);
+	}
+
+	/* Points in leaf order */
+	private final long[] ids;
+	private final double[] xs;
+	private final double[] ys;
+
+	/* Bounds of the nodes per level, level 0 holds the leaves, the last level the root */
+	private final double[][] minX;
+	private final double[][] minY;
+	private final double[][] maxX;
+	private final double[][] maxY;
+
+	public StrTree(long[] ids, double[] xs, double[] ys) {
+		if (ids.length != xs.length || ids.length != ys.length) {
+			throw new IllegalArgumentException("ids, xs and ys must have the same length");
+		}
+		int size = ids.length;
+		Integer[] order = IntStream.range(0, size).boxed().toArray(Integer[]::new);
+		Arrays.sort(order, Comparator.comparingDouble(i -> xs[i]));
+		int leaves = ceilDiv(size, NODE_CAPACITY);
+		int sliceSize = (int) Math.ceil(Math.sqrt(leaves)) * NODE_CAPACITY;
+		for (int start = 0; start < size; start += sliceSize) {
+			Arrays.sort(order, start, Math.min(start + sliceSize, size), Comparator.comparingDouble(i -> ys[i]));
+		}
+
+		this.ids = new long[size];
+		this.xs = new double[size];
+		this.ys = new double[size];
+		for (int i = 0; i < size; i++) {
+			this.ids[i] = ids[order[i]];
+			this.xs[i] = xs[order[i]];
+			this.ys[i] = ys[order[i]];
+		}
+
+		int levels = 1;
+		for (int nodes = leaves; nodes > 1; nodes = ceilDiv(nodes, NODE_CAPACITY)) {
+			levels++;
+		}
+		minX = new double[levels][];
+		minY = new double[levels][];
+		maxX = new double[levels][];
+		maxY = new double[levels][];
+		for (int level = 0; level < levels; level++) {
+			int count = level == 0 ? leaves : ceilDiv(minX[level - 1].length, NODE_CAPACITY);
+			minX[level] = new double[count];
+			minY[level] = new double[count];
+			maxX[level] = new double[count];
+			maxY[level] = new double[count];
+			for (int node = 0; node < count; node++) {
+				double x0 = Double.POSITIVE_INFINITY;
+				double y0 = Double.POSITIVE_INFINITY;
+				double x1 = Double.NEGATIVE_INFINITY;
+				double y1 = Double.NEGATIVE_INFINITY;
+				int end = Math.min((node + 1) * NODE_CAPACITY, level == 0 ? size : minX[level - 1].length);
+				for (int child = node * NODE_CAPACITY; child < end; child++) {
+					if (level == 0) {
+						x0 = Math.min(x0, this.xs[child]);
+						y0 = Math.min(y0, this.ys[child]);
+						x1 = Math.max(x1, this.xs[child]);
+						y1 = Math.max(y1, this.ys[child]);
+					} else {
+						x0 = Math.min(x0, minX[level - 1][child]);
+						y0 = Math.min(y0, minY[level - 1][child]);
+						x1 = Math.max(x1, maxX[level - 1][child]);
+						y1 = Math.max(y1, maxY[level - 1][child]);
+					}
+				}
+				minX[level][node] = x0;
+				minY[level][node] = y0;
+				maxX[level][node] = x1;
+				maxY[level][node] = y1;
+			}
+		}
+	}
+
+	/**
+	 * Visit all points within the given envelope, borders included
+	 */
+	public void search(double x0, double y0, double x1, double y1, Visitor visitor) {
+		int top = minX.length - 1;
+		if (minX[top].length == 0) {
+			return;
+		}
+		search(top, 0, x0, y0, x1, y1, visitor);
+	}
+
+	private void search(int level, int node, double x0, double y0, double x1, double y1, Visitor visitor) {
+		if (minX[level][node] > x1 || maxX[level][node] < x0 || minY[level][node] > y1 || maxY[level][node] < y0) {
+			return;
+		}
+		int end = Math.min((node + 1) * NODE_CAPACITY, level == 0 ? ids.length : minX[level - 1].length);
+		for (int child = node * NODE_CAPACITY; child < end; child++) {
+			if (level > 0) {
+				search(level - 1, child, x0, y0, x1, y1, visitor);
+			} else if (xs[child] >= x0 && xs[child] <= x1 && ys[child] >= y0 && ys[child] <= y1) {
+				visitor.visit(ids[child], xs[child], ys[child]);
+			}
+		}
+	}
+
+	public int size() {
+		return ids.length;
+	}
+
+	private static int ceilDiv(int x, int y) {
+		return (x + y - 1) / y;
+	}
+}
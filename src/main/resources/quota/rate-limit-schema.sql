@@ -0,0 +1,20 @@
+-- SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+--
+-- SPDX-License-Identifier: AGPL-3.0-or-later
+
+-- Shared rate limit buckets of all replicas (ninja.quota.store=jdbc)
+-- bucket_key: policy and hash of the caller identity
+-- time_window: index of the refill window, i.e., epoch time divided by the refill period
+-- consumed: tokens reserved within that window
+-- expires_at: end of the window in epoch milliseconds, rows get purged afterwards
+create table if not exists ninja_rate_limit (
+    bucket_key varchar(64) primary key,
+    time_window bigint not null,
+    consumed bigint not null,
+    expires_at bigint not null
+);
+
+-- Tables created before expires_at existed: their rows get purged at once
+alter table ninja_rate_limit add column if not exists expires_at bigint not null default 0;
+
+create index if not exists ninja_rate_limit_expires_at on ninja_rate_limit (expires_at);
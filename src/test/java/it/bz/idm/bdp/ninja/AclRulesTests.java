@@ -0,0 +1,75 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import it.bz.idm.bdp.ninja.acl.AclRules;
+import it.bz.idm.bdp.ninja.acl.AclRules.AclType;
+
+public class AclRulesTests {
+
+	@TempDir
+	Path rulesDir;
+
+	@Test
+	public void testClasspathRules() {
+		AclRules rules = AclRules.loadFromClasspath();
+
+		assertFalse(rules.getRules(AclType.stations).containsKey("ADMIN"));
+		assertTrue(rules.getRules(AclType.stations).containsKey("GUEST"));
+		assertTrue(rules.getRules(AclType.events).containsKey("GUEST"));
+		assertFalse(rules.getRules(AclType.stations).get("GUEST").contains("--"));
+
+		assertNull(rules.getWhereClause(AclType.stations, Arrays.asList("ADMIN")));
+
+		String guestBlc = rules.getWhereClause(AclType.stations, Arrays.asList("GUEST", "BLC"));
+		assertSame(guestBlc, rules.getWhereClause(AclType.stations, Arrays.asList("BLC", "GUEST")));
+		assertTrue(guestBlc.startsWith("((\n    s.origin in ('A22'"));
+		assertTrue(guestBlc.contains(") or ("));
+
+		assertEquals("(false)", rules.getWhereClause(AclType.events, Arrays.asList("UNKNOWN")));
+	}
+
+	@Test
+	public void testDirectoryRulesValidation() throws IOException {
+		writeRules("(s.origin = 'A22'", "(ev.origin = 'A22')");
+		RuntimeException e = assertThrows(RuntimeException.class, () -> AclRules.loadFromDirectory(rulesDir));
+		assertEquals("ACL rule stations/GUEST.sql is invalid: unbalanced parentheses", e.getMessage());
+
+		writeRules("(s.origin = 'A22'); drop table station", "(ev.origin = 'A22')");
+		e = assertThrows(RuntimeException.class, () -> AclRules.loadFromDirectory(rulesDir));
+		assertEquals("ACL rule stations/GUEST.sql is invalid: statement separators are not allowed", e.getMessage());
+
+		writeRules("-- only a comment", "(ev.origin = 'A22')");
+		e = assertThrows(RuntimeException.class, () -> AclRules.loadFromDirectory(rulesDir));
+		assertEquals("ACL rule stations/GUEST.sql is invalid: empty predicate", e.getMessage());
+
+		writeRules("(s.origin = 'it''s ;)')", "(ev.origin = 'A22')");
+		AclRules rules = AclRules.loadFromDirectory(rulesDir);
+		assertEquals("((s.origin = 'it''s ;)'))", rules.getWhereClause(AclType.stations, Arrays.asList("GUEST")));
+	}
+
+	private void writeRules(String stationRule, String eventRule) throws IOException {
+		for (AclType aclType : AclType.values()) {
+			Path folder = Files.createDirectories(rulesDir.resolve(aclType.name()));
+			Files.writeString(folder.resolve("rules.txt"), "ADMIN.sql\nGUEST.sql\n");
+			Files.writeString(folder.resolve("GUEST.sql"), aclType == AclType.stations ? stationRule : eventRule);
+		}
+	}
+}
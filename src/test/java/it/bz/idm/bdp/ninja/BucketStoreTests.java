@@ -0,0 +1,192 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import io.github.bucket4j.Bandwidth;
+import io.github.bucket4j.ConsumptionProbe;
+import io.github.bucket4j.Refill;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.bz.idm.bdp.ninja.quota.BucketStore.Key;
+import it.bz.idm.bdp.ninja.quota.InMemoryTokenLedger;
+import it.bz.idm.bdp.ninja.quota.LocalBucketStore;
+import it.bz.idm.bdp.ninja.quota.PricingPlan;
+import it.bz.idm.bdp.ninja.quota.PricingPlan.Policy;
+import it.bz.idm.bdp.ninja.quota.RateLimitInterceptor;
+import it.bz.idm.bdp.ninja.quota.SharedBucketStore;
+
+public class BucketStoreTests {
+
+	private static final Bandwidth BANDWIDTH = Bandwidth.classic(2, Refill.intervally(2, Duration.ofSeconds(1)));
+
+	@Test
+	public void testKeys() {
+		assertEquals(Key.of(Policy.ANONYMOUS, "1.2.3.4", "/v2"), Key.of(Policy.ANONYMOUS, "1.2.3.4", "/v2"));
+		assertNotEquals(Key.of(Policy.ANONYMOUS, "1.2.3.4", "/v2"), Key.of(Policy.REFERER, "1.2.3.4", "/v2"));
+		assertNotEquals(Key.of(Policy.ANONYMOUS, "1.2.3.4", "/v2"), Key.of(Policy.ANONYMOUS, "1.2.3.4/", "v2"));
+		assertNotEquals(Key.of(Policy.ANONYMOUS, "1.2.3.4", "/v2"), Key.of(Policy.ANONYMOUS, "1.2.3.4", "/v2/flat"));
+	}
+
+	@Test
+	public void testLocalExpiry() {
+		AtomicLong nanos = new AtomicLong();
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		LocalBucketStore store = new LocalBucketStore(Duration.ofSeconds(60), registry, nanos::get, Runnable::run);
+
+		Key key = Key.of(Policy.ANONYMOUS, "ip", "/a");
+		assertTrue(store.tryConsume(key, BANDWIDTH).isConsumed());
+		assertTrue(store.tryConsume(key, BANDWIDTH).isConsumed());
+		assertFalse(store.tryConsume(key, BANDWIDTH).isConsumed());
+		assertEquals(1, store.size());
+
+		nanos.addAndGet(TimeUnit.SECONDS.toNanos(61));
+		assertEquals(0, store.size());
+		assertEquals(1.0, registry.get("ninja.quota.buckets.evictions").tag("cause", "expired").counter().count());
+
+		/* Many other buckets do not evict an active one, which would reset its quota */
+		assertTrue(store.tryConsume(key, BANDWIDTH).isConsumed());
+		assertTrue(store.tryConsume(key, BANDWIDTH).isConsumed());
+		for (int i = 0; i < 1000; i++) {
+			store.tryConsume(Key.of(Policy.ANONYMOUS, "ip", "/crawl/" + i), BANDWIDTH);
+		}
+		assertFalse(store.tryConsume(key, BANDWIDTH).isConsumed());
+		assertEquals(1001, store.size());
+		assertEquals(1001.0, registry.get("ninja.quota.buckets").gauge().value());
+	}
+
+	@Test
+	public void testSharedAmongReplicas() {
+		AtomicLong millis = new AtomicLong(1_000_000);
+		InMemoryTokenLedger ledger = new InMemoryTokenLedger();
+		SharedBucketStore replica1 = new SharedBucketStore(ledger, 10, 1000, new SimpleMeterRegistry(), millis::get);
+		SharedBucketStore replica2 = new SharedBucketStore(ledger, 10, 1000, new SimpleMeterRegistry(), millis::get);
+		Bandwidth bandwidth = Bandwidth.classic(25, Refill.intervally(25, Duration.ofSeconds(1)));
+		Key key = Key.of(Policy.AUTHENTICATED_BASIC, "user", null, "ip", "/a");
+
+		/* Both replicas together hand out the capacity only once per window */
+		int consumed = 0;
+		for (int i = 0; i < 40; i++) {
+			consumed += replica1.tryConsume(key, bandwidth).isConsumed() ? 1 : 0;
+			consumed += replica2.tryConsume(key, bandwidth).isConsumed() ? 1 : 0;
+		}
+		assertEquals(25, consumed);
+
+		/* Tokens are leased in batches, and an exhausted ledger is not asked again */
+		assertEquals(5, ledger.getReservations());
+
+		ConsumptionProbe rejected = replica1.tryConsume(key, bandwidth);
+		assertFalse(rejected.isConsumed());
+		assertEquals(TimeUnit.SECONDS.toNanos(1), rejected.getNanosToWaitForRefill());
+
+		millis.addAndGet(1000);
+		ConsumptionProbe probe = replica1.tryConsume(key, bandwidth);
+		assertTrue(probe.isConsumed());
+		assertEquals(9, probe.getRemainingTokens());
+		assertEquals(6, ledger.getReservations());
+	}
+
+	@Test
+	public void testSameQuotaOnAllReplicas() {
+		AtomicLong millis = new AtomicLong(1_000_000);
+		InMemoryTokenLedger ledger = new InMemoryTokenLedger();
+		SharedBucketStore replica1 = new SharedBucketStore(ledger, 10, 1000, new SimpleMeterRegistry(), millis::get);
+		SharedBucketStore replica2 = new SharedBucketStore(ledger, 10, 1000, new SimpleMeterRegistry(), millis::get);
+		PricingPlan plan = PricingPlan.of(Policy.REFERER);
+		Bandwidth bandwidth = Bandwidth.classic(10, Refill.intervally(10, Duration.ofSeconds(1)));
+
+		/* The same client reaches both replicas, each with its own local address */
+		MockHttpServletRequest request1 = new MockHttpServletRequest("GET", "/v2/flat");
+		request1.setRemoteAddr("203.0.113.7");
+		request1.setLocalAddr("10.0.0.1");
+		request1.addHeader("Referer", "client");
+		MockHttpServletRequest request2 = new MockHttpServletRequest("GET", "/v2/flat");
+		request2.setRemoteAddr("203.0.113.7");
+		request2.setLocalAddr("10.0.0.2");
+		request2.addHeader("Referer", "client");
+		assertEquals(RateLimitInterceptor.resolveBucketKey(plan, request1), RateLimitInterceptor.resolveBucketKey(plan, request2));
+
+		int consumed = 0;
+		for (int i = 0; i < 10; i++) {
+			consumed += replica1.tryConsume(RateLimitInterceptor.resolveBucketKey(plan, request1), bandwidth).isConsumed() ? 1 : 0;
+			consumed += replica2.tryConsume(RateLimitInterceptor.resolveBucketKey(plan, request2), bandwidth).isConsumed() ? 1 : 0;
+		}
+		assertEquals(10, consumed);
+	}
+
+	@Test
+	public void testLowCapacityStaysLocal() {
+		AtomicLong millis = new AtomicLong(1_000_000);
+		InMemoryTokenLedger ledger = new InMemoryTokenLedger();
+		SharedBucketStore replica1 = new SharedBucketStore(ledger, 10, 1000, new SimpleMeterRegistry(), millis::get);
+		SharedBucketStore replica2 = new SharedBucketStore(ledger, 10, 1000, new SimpleMeterRegistry(), millis::get);
+		Key key = Key.of(Policy.ANONYMOUS, "ip", "/a");
+
+		/* A lease of the full capacity would not save anything, so each replica limits on its own */
+		assertTrue(replica1.tryConsume(key, BANDWIDTH).isConsumed());
+		assertTrue(replica1.tryConsume(key, BANDWIDTH).isConsumed());
+		assertFalse(replica1.tryConsume(key, BANDWIDTH).isConsumed());
+		assertTrue(replica2.tryConsume(key, BANDWIDTH).isConsumed());
+		assertEquals(0, ledger.getReservations());
+	}
+
+	@Test
+	public void testLedgerExpiry() {
+		AtomicLong millis = new AtomicLong(1_000_000);
+		InMemoryTokenLedger ledger = new InMemoryTokenLedger();
+		SharedBucketStore store = new SharedBucketStore(ledger, 2, 1000, new SimpleMeterRegistry(), millis::get);
+
+		/* A crawler gets a bucket per path, which must not outlive its window */
+		for (int i = 0; i < 100; i++) {
+			store.tryConsume(Key.of(Policy.ANONYMOUS, "ip", "/crawl/" + i), BANDWIDTH);
+		}
+		assertEquals(100, ledger.size());
+		assertEquals(0, ledger.purge(millis.get()));
+
+		millis.addAndGet(1000);
+		store.tryConsume(Key.of(Policy.ANONYMOUS, "ip", "/crawl/0"), BANDWIDTH);
+		assertEquals(99, ledger.purge(millis.get()));
+		assertEquals(1, ledger.size());
+	}
+
+	@Test
+	public void testLedgerOutage() {
+		AtomicLong millis = new AtomicLong(1_000_000);
+		InMemoryTokenLedger ledger = new InMemoryTokenLedger();
+		SharedBucketStore store = new SharedBucketStore(ledger, 2, 1000, new SimpleMeterRegistry(), millis::get);
+		ledger.setAvailable(false);
+
+		/* Only one reservation per window, all buckets get limited locally */
+		for (int i = 0; i < 5; i++) {
+			Key key = Key.of(Policy.ANONYMOUS, "ip", "/a/" + i);
+			assertTrue(store.tryConsume(key, BANDWIDTH).isConsumed());
+			assertTrue(store.tryConsume(key, BANDWIDTH).isConsumed());
+			assertFalse(store.tryConsume(key, BANDWIDTH).isConsumed());
+		}
+		assertEquals(1, ledger.getReservations());
+
+		millis.addAndGet(1000);
+		assertTrue(store.tryConsume(Key.of(Policy.ANONYMOUS, "ip", "/a/0"), BANDWIDTH).isConsumed());
+		assertTrue(store.tryConsume(Key.of(Policy.ANONYMOUS, "ip", "/a/1"), BANDWIDTH).isConsumed());
+		assertEquals(2, ledger.getReservations());
+
+		/* Back to the shared ledger, once it is available in a later window */
+		ledger.setAvailable(true);
+		millis.addAndGet(1000);
+		assertTrue(store.tryConsume(Key.of(Policy.ANONYMOUS, "ip", "/a/0"), BANDWIDTH).isConsumed());
+		assertEquals(3, ledger.getReservations());
+		assertEquals(1, ledger.size());
+	}
+}
@@ -0,0 +1,192 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.jsoniter.output.JsonStream;
+import com.jsoniter.spi.JsoniterSpi;
+
+import it.bz.idm.bdp.ninja.config.SelectExpansionConfig;
+import it.bz.idm.bdp.ninja.utils.jsonserializer.RowCursorEncoder;
+import it.bz.idm.bdp.ninja.utils.queryexecutor.ColumnMapRowMapper;
+import it.bz.idm.bdp.ninja.utils.queryexecutor.ColumnarResultSetExtractor;
+import it.bz.idm.bdp.ninja.utils.queryexecutor.ColumnarRowBatch;
+import it.bz.idm.bdp.ninja.utils.queryexecutor.RowCursor;
+import it.bz.idm.bdp.ninja.utils.queryexecutor.RowMapperResultSetExtractor;
+
+public class ColumnarRowBatchTests {
+
+	private static final String[] COLUMNS = {
+		"_timestamp", "sname", "tname", "mperiod", "mvalidtime", "mvalue_double", "mvalue_string", "mvalue_json"
+	};
+	private static final int[] TYPES = {
+		Types.TIMESTAMP, Types.VARCHAR, Types.VARCHAR, Types.INTEGER, Types.TIMESTAMP, Types.DOUBLE, Types.VARCHAR,
+		Types.OTHER
+	};
+	private static final Object[][] ROWS = {
+		{ts(1_600_000_000_123L), "Station A", "temperature", 600, ts(1_600_000_000_123L), 12.5, null, null},
+		{ts(1_600_000_600_000L), "Station A", "status", 600, ts(1_600_000_600_000L), null, "free", null},
+		{ts(1_600_001_200_999L), "Station B", "temperature", null, ts(1_600_001_200_999L), -0.001, null, null},
+		{null, null, null, null, null, null, null, null},
+		{ts(-1_000L), "Station B", "temperature", 3600, ts(-1_000L), 1.0E21, null, null}
+	};
+
+	@BeforeAll
+	public static void setup() {
+		ColumnMapRowMapper.setTargetDefNameToAliasMap(
+			new SelectExpansionConfig().getSelectExpansion().getSchema().getTargetDefNameToAliasMap());
+		JsoniterSpi.registerTypeEncoder(ColumnarRowBatch.class, new RowCursorEncoder());
+	}
+
+	@AfterEach
+	public void resetIndention() {
+		JsonStream.setIndentionStep(0);
+	}
+
+	@Test
+	public void testSameRowsAsColumnMaps() throws SQLException {
+		for (boolean ignoreNull : new boolean[] {true, false}) {
+			List<Map<String, Object>> maps = new RowMapperResultSetExtractor<>(mapper(ignoreNull))
+				.extractData(resultSet());
+			ColumnarRowBatch batch = new ColumnarResultSetExtractor(mapper(ignoreNull)).extractData(resultSet());
+
+			assertEquals(maps.size(), batch.size());
+			assertEquals(ignoreNull ? 4 : 5, batch.size());
+			for (int i = 0; i < maps.size(); i++) {
+				assertEquals(maps.get(i), batch.get(i));
+				assertEquals(maps.get(i).keySet().toString(), batch.get(i).keySet().toString());
+			}
+		}
+	}
+
+	@Test
+	public void testMergedAliasesAndTypes() throws SQLException {
+		ColumnarRowBatch batch = new ColumnarResultSetExtractor(mapper(true)).extractData(resultSet());
+		assertEquals(12.5, batch.get(0).get("mvalue"));
+		assertEquals("free", batch.get(1).get("mvalue"));
+		assertEquals("2020-09-13 14:26:40.123+0200", batch.get(0).get("mvalidtime"));
+		assertEquals(600, batch.get(0).get("MPERIOD"));
+		assertFalse(batch.get(2).containsKey("mperiod"));
+
+		RowCursor cursor = batch.cursor();
+		assertTrue(cursor.next());
+		int mvalue = cursor.getColumnIndex("mvalue");
+		assertEquals(RowCursor.ColumnKind.DOUBLE, cursor.getKind(mvalue));
+		assertEquals(12.5, cursor.getDouble(mvalue));
+		assertTrue(cursor.next());
+		assertEquals(RowCursor.ColumnKind.STRING, cursor.getKind(mvalue));
+		assertTrue(cursor.next());
+		assertTrue(cursor.isAbsent(cursor.getColumnIndex("mperiod")));
+		assertTrue(cursor.next());
+		assertEquals("1970-01-01 00:59:59.000+0100", cursor.get("mvalidtime"));
+		assertFalse(cursor.next());
+		assertNull(cursor.get("mvalue_json"));
+	}
+
+	@Test
+	public void testSameJson() throws SQLException {
+		for (int indention : new int[] {0, 4}) {
+			JsonStream.setIndentionStep(indention);
+			for (boolean ignoreNull : new boolean[] {true, false}) {
+				List<Map<String, Object>> maps = new RowMapperResultSetExtractor<>(mapper(ignoreNull))
+					.extractData(resultSet());
+				ColumnarRowBatch batch = new ColumnarResultSetExtractor(mapper(ignoreNull)).extractData(resultSet());
+				assertEquals(JsonStream.serialize(Map.of("data", maps)), JsonStream.serialize(Map.of("data", batch)));
+			}
+		}
+		JsonStream.setIndentionStep(0);
+		ColumnarRowBatch empty = new ColumnarResultSetExtractor(mapper(true)).extractData(resultSet(new Object[0][]));
+		assertEquals("[]", JsonStream.serialize(empty));
+	}
+
+	private static ColumnMapRowMapper mapper(boolean ignoreNull) {
+		ColumnMapRowMapper mapper = new ColumnMapRowMapper();
+		mapper.setIgnoreNull(ignoreNull);
+		mapper.setTimeZone("Europe/Rome");
+		return mapper;
+	}
+
+	private static Timestamp ts(long millis) {
+		return new Timestamp(millis);
+	}
+
+	private static ResultSet resultSet() {
+		return resultSet(ROWS);
+	}
+
+	/**
+	 * Minimal forward-only result set over fixed rows
+	 */
+	private static ResultSet resultSet(Object[][] rows) {
+		ResultSetMetaData metaData = (ResultSetMetaData) Proxy.newProxyInstance(
+			ColumnarRowBatchTests.class.getClassLoader(),
+			new Class<?>[] {ResultSetMetaData.class},
+			(proxy, method, args) -> {
+				switch (method.getName()) {
+					case "getColumnCount":
+						return COLUMNS.length;
+					case "getColumnLabel":
+					case "getColumnName":
+						return COLUMNS[(int) args[0] - 1];
+					case "getColumnType":
+						return TYPES[(int) args[0] - 1];
+					case "getColumnTypeName":
+						return TYPES[(int) args[0] - 1] == Types.OTHER ? "jsonb" : "varchar";
+					default:
+						throw new UnsupportedOperationException(method.getName());
+				}
+			});
+		int[] row = {-1};
+		Object[] last = {null};
+		return (ResultSet) Proxy.newProxyInstance(
+			ColumnarRowBatchTests.class.getClassLoader(),
+			new Class<?>[] {ResultSet.class},
+			(proxy, method, args) -> {
+				if (method.getName().equals("next")) {
+					return ++row[0] < rows.length;
+				}
+				if (method.getName().equals("getMetaData")) {
+					return metaData;
+				}
+				if (method.getName().equals("wasNull")) {
+					return last[0] == null;
+				}
+				Object value = rows[row[0]][(int) args[0] - 1];
+				last[0] = value;
+				switch (method.getName()) {
+					case "getObject":
+					case "getTimestamp":
+					case "getString":
+						return value;
+					case "getDouble":
+						return value == null ? 0.0 : ((Number) value).doubleValue();
+					case "getLong":
+						return value == null ? 0L : ((Number) value).longValue();
+					case "getBytes":
+						return value == null ? null : value.toString().getBytes(StandardCharsets.UTF_8);
+					default:
+						throw new UnsupportedOperationException(method.getName());
+				}
+			});
+	}
+}
@@ -0,0 +1,96 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import it.bz.idm.bdp.ninja.config.SelectExpansionConfig;
+import it.bz.idm.bdp.ninja.utils.jsonserializer.RawJson;
+import it.bz.idm.bdp.ninja.utils.querybuilder.SelectExpansion;
+import it.bz.idm.bdp.ninja.utils.spatial.EdgeGeometryCache;
+
+public class EdgeGeometryCacheTests {
+
+	@Test
+	public void testVariants() {
+		assertEquals(0, EdgeGeometryCache.variantOf(0));
+		assertEquals(0, EdgeGeometryCache.variantOf(0.000009));
+		assertEquals(1, EdgeGeometryCache.variantOf(0.00001));
+		assertEquals(3, EdgeGeometryCache.variantOf(0.005));
+		assertEquals(4, EdgeGeometryCache.variantOf(1));
+
+		/* One pixel is about 0.0055 degrees at zoom 8, and 0.000021 at zoom 16 */
+		assertEquals(3, EdgeGeometryCache.variantOf(EdgeGeometryCache.toleranceOfZoom(8)));
+		assertEquals(1, EdgeGeometryCache.variantOf(EdgeGeometryCache.toleranceOfZoom(16)));
+		assertEquals(0, EdgeGeometryCache.variantOf(EdgeGeometryCache.toleranceOfZoom(24)));
+
+		assertEquals(42L, EdgeGeometryCache.idOf("42:3a5e4b0c61d2e5f1a7b9c8d0e6f4a2b1"));
+	}
+
+	@Test
+	public void testFillLoadsMissingKeysOnly() {
+		List<Set<String>> loads = new ArrayList<>();
+		EdgeGeometryCache cache = new EdgeGeometryCache(1 << 20, keys -> {
+			loads.add(keys);
+			Map<String, RawJson[]> result = new HashMap<>();
+			for (String key : keys) {
+				if (!key.equals("deleted")) {
+					RawJson[] variants = new RawJson[EdgeGeometryCache.TOLERANCES.length];
+					for (int i = 0; i < variants.length; i++) {
+						variants[i] = RawJson.of("{\"key\": \"" + key + "\", \"variant\": " + i + "}");
+					}
+					result.put(key, variants);
+				}
+			}
+			return result;
+		});
+
+		List<Map<String, Object>> rows = rows("a", "b", "a", null);
+		cache.fill(rows, "egeometry", 0);
+		assertEquals(List.of(Set.of("a", "b")), loads);
+		assertEquals("{\"key\": \"a\", \"variant\": 0}", rows.get(0).get("egeometry").toString());
+		assertEquals("{\"key\": \"b\", \"variant\": 0}", rows.get(1).get("egeometry").toString());
+		assertEquals(rows.get(0).get("egeometry"), rows.get(2).get("egeometry"));
+		assertNull(rows.get(3).get("egeometry"));
+
+		rows = rows("a", "c", "deleted");
+		cache.fill(rows, "egeometry", 0.001);
+		assertEquals(List.of(Set.of("a", "b"), Set.of("c", "deleted")), loads);
+		assertEquals("{\"key\": \"a\", \"variant\": 3}", rows.get(0).get("egeometry").toString());
+		assertEquals("{\"key\": \"c\", \"variant\": 3}", rows.get(1).get("egeometry").toString());
+		assertNull(rows.get(2).get("egeometry"));
+	}
+
+	@Test
+	public void testSelectsTheKey() {
+		SelectExpansion se = new SelectExpansionConfig().getSelectExpansion();
+		se.getSchema().get("edge").get("egeometry").setColumnFormat(EdgeGeometryCache.KEY_COLUMN_FORMAT);
+		se.setWhereClause("egeometry.bbi.(11,46,12,47,4326)");
+		se.expand("egeometry", "edge");
+		assertTrue(se.getExpansion("edge").contains("e.id || ':' || md5(st_asewkb(st_transform(e.linegeometry, 4326))) as egeometry"));
+		assertTrue(se.getWhereSql().startsWith("(st_transform(e.linegeometry, 4326) && "));
+	}
+
+	private static List<Map<String, Object>> rows(String... keys) {
+		List<Map<String, Object>> rows = new ArrayList<>();
+		for (String key : keys) {
+			Map<String, Object> row = new HashMap<>();
+			row.put("ecode", "code");
+			row.put("egeometry", key);
+			rows.add(row);
+		}
+		return rows;
+	}
+}
@@ -0,0 +1,93 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.postgis.Geometry;
+import org.postgis.LineString;
+import org.postgis.PGgeometry;
+import org.postgis.Point;
+import org.postgis.binary.BinaryWriter;
+
+import com.jsoniter.output.JsonStream;
+import com.jsoniter.spi.JsoniterSpi;
+
+import it.bz.idm.bdp.ninja.utils.jsonserializer.PointEncoder;
+import it.bz.idm.bdp.ninja.utils.queryexecutor.EwkbDecoder;
+
+public class EwkbDecoderTests {
+
+	@AfterEach
+	public void resetIndention() {
+		JsonStream.setIndentionStep(0);
+	}
+
+	@Test
+	public void testPointsLikePostgis() throws SQLException {
+		Point measured = new Point(11.3548, 46.4983);
+		measured.haveMeasure = true;
+		measured.m = 7.5;
+		Geometry[] geometries = {
+			new Point(11.3548, 46.4983),
+			new Point(-0.000001, 1.0E21, 262.5),
+			measured,
+			new Point(Double.NaN, Double.NaN),
+			new LineString(new Point[] {new Point(11.1, 46.1), new Point(11.2, 46.2)})
+		};
+		BinaryWriter writer = new BinaryWriter();
+		for (Geometry geometry : geometries) {
+			for (int srid : new int[] {Geometry.UNKNOWN_SRID, 4326, 25832}) {
+				geometry.setSrid(srid);
+				for (byte endian : new byte[] {0, 1}) {
+					String hex = writer.writeHexed(geometry, endian);
+					Geometry expected = PGgeometry.geomFromString(hex);
+					assertSame(expected, EwkbDecoder.decode(hex.getBytes(StandardCharsets.US_ASCII)));
+					assertSame(expected, EwkbDecoder.decode(hex.toLowerCase().getBytes(StandardCharsets.US_ASCII)));
+					assertSame(expected, EwkbDecoder.decode(writer.writeBinary(geometry, endian)));
+				}
+			}
+		}
+		assertNull(EwkbDecoder.decode(null));
+	}
+
+	@Test
+	public void testFallbackForWkt() throws SQLException {
+		String wkt = "SRID=4326;POINT(11.3548 46.4983)";
+		assertSame(PGgeometry.geomFromString(wkt), EwkbDecoder.decode(wkt.getBytes(StandardCharsets.US_ASCII)));
+	}
+
+	@Test
+	public void testPointEncoder() {
+		Point point = new Point(11.3548, 46.4983);
+		point.setSrid(4326);
+		Map<String, Object> map = new HashMap<>();
+		map.put("srid", point.getSrid());
+		map.put("x", point.getX());
+		map.put("y", point.getY());
+		for (int indention : new int[] {0, 4}) {
+			JsonStream.setIndentionStep(indention);
+			/* Encoders are cached per config, so register it for this indentation */
+			JsoniterSpi.registerTypeEncoder(Point.class, new PointEncoder());
+			assertEquals(JsonStream.serialize(Map.of("coordinate", map)), JsonStream.serialize(Map.of("coordinate", point)));
+		}
+	}
+
+	private static void assertSame(Geometry expected, Geometry actual) {
+		assertEquals(expected.getClass(), actual.getClass());
+		assertEquals(expected.toString(), actual.toString());
+		assertEquals(expected.getSrid(), actual.getSrid());
+		assertEquals(expected.getDimension(), actual.getDimension());
+		assertEquals(expected.isMeasured(), actual.isMeasured());
+	}
+}
@@ -0,0 +1,69 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.postgis.LineString;
+import org.postgis.MultiLineString;
+import org.postgis.Point;
+
+import it.bz.idm.bdp.ninja.utils.spatial.GeometryFormat;
+import it.bz.idm.bdp.ninja.utils.spatial.Polyline;
+
+public class GeometryFormatTests {
+
+	/* The example of the Encoded Polyline Algorithm Format */
+	private static final LineString LINE = new LineString(new Point[] {
+		new Point(-120.2, 38.5),
+		new Point(-120.95, 40.7),
+		new Point(-126.453, 43.252)
+	});
+
+	@Test
+	public void testPolyline() {
+		assertEquals("_p~iF~ps|U_ulLnnqC_mqNvxq`@", Polyline.encode(LINE, 5));
+		assertEquals("_p~iF~ps|U", Polyline.encode(new Point(-120.2, 38.5), 5));
+		assertEquals(List.of("_p~iF~ps|U_ulLnnqC_mqNvxq`@", "_p~iF~ps|U"),
+				Polyline.encode(new MultiLineString(new LineString[] {
+					LINE, new LineString(new Point[] {new Point(-120.2, 38.5)})
+				}), 5));
+	}
+
+	@Test
+	public void testColumnFormats() {
+		assertEquals("st_asgeojson(%s, 9, 3)::jsonb", GeometryFormat.GEOJSON.getColumnFormat(9, 0));
+		assertEquals("st_astwkb(st_simplifypreservetopology(%s, 0.0001), 6)", GeometryFormat.TWKB.getColumnFormat(6, 0.0001));
+		assertEquals("%s", GeometryFormat.POLYLINE.getColumnFormat(5, 0));
+
+		assertEquals(GeometryFormat.TWKB, GeometryFormat.of("TwKb"));
+		assertNull(GeometryFormat.of("wkt"));
+		assertTrue(GeometryFormat.TWKB.isValidPrecision(-7));
+		assertFalse(GeometryFormat.POLYLINE.isValidPrecision(10));
+	}
+
+	@Test
+	public void testEncode() {
+		List<Map<String, Object>> rows = new ArrayList<>();
+		rows.add(new HashMap<>(Map.of("ecode", "a", "egeometry", LINE)));
+		rows.add(new HashMap<>(Map.of("ecode", "b", "egeometry", new byte[] {(byte) 0xa2, 0, 1, 2})));
+		rows.add(new HashMap<>(Map.of("ecode", "c")));
+
+		GeometryFormat.POLYLINE.encode(rows, "egeometry", 5);
+		GeometryFormat.TWKB.encode(rows, "egeometry", 6);
+		assertEquals("_p~iF~ps|U_ulLnnqC_mqNvxq`@", rows.get(0).get("egeometry"));
+		assertEquals("ogABAg==", rows.get(1).get("egeometry"));
+		assertFalse(rows.get(2).containsKey("egeometry"));
+	}
+}
@@ -0,0 +1,63 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import it.bz.idm.bdp.ninja.utils.jsonserializer.HoldBackOutputStream;
+
+public class HoldBackOutputStreamTests {
+
+	@Test
+	public void testHoldBack() throws IOException {
+		ByteArrayOutputStream response = new ByteArrayOutputStream();
+		AtomicInteger commits = new AtomicInteger();
+		HoldBackOutputStream out = new HoldBackOutputStream(response, 1000, commits::incrementAndGet);
+
+		out.write("{\"data\":".getBytes(StandardCharsets.UTF_8));
+		out.write('[');
+		out.flush();
+		assertFalse(out.isCommitted());
+		assertEquals(0, response.size());
+		assertEquals(0, commits.get());
+
+		out.write(new byte[995], 0, 991);
+		assertEquals(1000, out.getCount());
+		assertFalse(out.isCommitted());
+
+		out.write(']');
+		assertTrue(out.isCommitted());
+		assertEquals(1, commits.get());
+		assertEquals(1001, response.size());
+		assertTrue(response.toString(StandardCharsets.UTF_8).startsWith("{\"data\":["));
+
+		out.write('}');
+		out.close();
+		assertEquals(1, commits.get());
+		assertEquals(1002, response.size());
+		assertEquals(1002, out.getCount());
+	}
+
+	@Test
+	public void testSmallResponse() throws IOException {
+		ByteArrayOutputStream response = new ByteArrayOutputStream();
+		AtomicInteger commits = new AtomicInteger();
+		HoldBackOutputStream out = new HoldBackOutputStream(response, 1 << 20, commits::incrementAndGet);
+		out.write("{}".getBytes(StandardCharsets.UTF_8));
+		assertEquals(0, response.size());
+		out.close();
+		assertEquals("{}", response.toString(StandardCharsets.UTF_8));
+		assertEquals(1, commits.get());
+	}
+}
@@ -0,0 +1,82 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.postgis.Point;
+
+import com.jsoniter.output.JsonStream;
+
+import it.bz.idm.bdp.ninja.utils.jsonserializer.JsonFormat;
+import it.bz.idm.bdp.ninja.utils.jsonserializer.JsonIterPostgresSupport;
+
+public class JsonFormatTests {
+
+	@BeforeAll
+	public static void setup() {
+		JsonIterPostgresSupport.enable();
+	}
+
+	@Test
+	public void testFormatsDoNotChangeTheGlobalConfig() {
+		Map<String, Object> result = result();
+		String compact = "{\"data\":[{\"scoordinate\":{\"x\":11.5,\"y\":46.5,\"srid\":4326},\"sname\":\"A\"}],\"offset\":0}";
+		String pretty = "{\n"
+			+ "    \"data\": [\n"
+			+ "        {\n"
+			+ "            \"scoordinate\": {\n"
+			+ "                \"x\": 11.5,\n"
+			+ "                \"y\": 46.5,\n"
+			+ "                \"srid\": 4326\n"
+			+ "            },\n"
+			+ "            \"sname\": \"A\"\n"
+			+ "        }\n"
+			+ "    ],\n"
+			+ "    \"offset\": 0\n"
+			+ "}";
+
+		assertEquals(pretty, JsonFormat.PRETTY.serialize(result));
+		assertEquals(compact, JsonFormat.COMPACT.serialize(result));
+		assertEquals(compact, JsonStream.serialize(result));
+		assertEquals(pretty, JsonFormat.PRETTY.serialize(result));
+		assertEquals(compact, JsonStream.serialize(result));
+	}
+
+	@Test
+	public void testDefault() {
+		assertEquals(JsonFormat.PRETTY, JsonFormat.of(true));
+		assertEquals(JsonFormat.COMPACT, JsonFormat.of(false));
+		assertEquals(JsonFormat.COMPACT, JsonFormat.of(null));
+		JsonFormat.setDefault(JsonFormat.PRETTY);
+		try {
+			assertEquals(JsonFormat.PRETTY, JsonFormat.of(null));
+			assertEquals(JsonFormat.COMPACT, JsonFormat.of(false));
+		} finally {
+			JsonFormat.setDefault(JsonFormat.COMPACT);
+		}
+	}
+
+	private static Map<String, Object> result() {
+		Point coordinate = new Point(11.5, 46.5);
+		coordinate.setSrid(4326);
+		Map<String, Object> station = new TreeMap<>();
+		station.put("sname", "A");
+		station.put("scoordinate", coordinate);
+		List<Object> data = new ArrayList<>();
+		data.add(station);
+		Map<String, Object> result = new TreeMap<>();
+		result.put("offset", 0L);
+		result.put("data", data);
+		return result;
+	}
+}
@@ -0,0 +1,116 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.postgis.Point;
+import org.springframework.util.LinkedCaseInsensitiveMap;
+
+import com.jsoniter.JsonIterator;
+import com.jsoniter.output.JsonStream;
+import com.jsoniter.spi.JsoniterSpi;
+
+import it.bz.idm.bdp.ninja.utils.jsonserializer.NodeEncoder;
+import it.bz.idm.bdp.ninja.utils.jsonserializer.RawJson;
+
+public class NodeEncoderTests {
+
+	@AfterEach
+	public void resetIndention() {
+		JsonStream.setIndentionStep(0);
+	}
+
+	/**
+	 * jsoniter writes the reference with its reflection encoders, with points
+	 * and raw JSON replaced by their equivalents
+	 */
+	@Test
+	public void testSameJsonAsReflection() throws IOException {
+		for (int indention : new int[] {0, 4}) {
+			JsonStream.setIndentionStep(indention);
+			assertEquals(JsonStream.serialize(tree(false)), encode(tree(true)));
+			assertEquals(JsonStream.serialize(row(false)), encode(row(true)));
+			assertEquals(JsonStream.serialize(new HashMap<>()), encode(new TreeMap<>()));
+			assertEquals(JsonStream.serialize(new ArrayList<>()), encode(new ArrayList<>()));
+		}
+	}
+
+	private static String encode(Object obj) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JsonStream stream = new JsonStream(out, 64);
+		new NodeEncoder().encode(obj, stream);
+		stream.flush();
+		return out.toString(StandardCharsets.UTF_8);
+	}
+
+	private static Map<String, Object> tree(boolean custom) {
+		Map<String, Object> station = new TreeMap<>();
+		station.put("sname", "Straße \"1\"\n");
+		station.put("Straße", 1.0E21);
+		station.put("a\"b\\c", -0.001);
+		station.put("sdatatypes", new HashMap<>());
+		station.put("rows", new ArrayList<>(Arrays.asList(row(custom), row(custom))));
+		station.put("empty", new ArrayList<>());
+		station.put("linked", new LinkedList<>(Arrays.asList(1, "two", null)));
+
+		Map<Object, Object> numbers = new LinkedHashMap<>();
+		numbers.put(1, "one");
+		numbers.put(2L, List.of(3.5));
+
+		Map<String, Object> tree = new HashMap<>();
+		tree.put("offset", 0L);
+		Map<String, Object> stations = new HashMap<>();
+		stations.put("stations", station);
+		tree.put("data", new TreeMap<>(Map.of("ParkingStation", stations)));
+		tree.put("numbers", numbers);
+		return tree;
+	}
+
+	private static Map<String, Object> row(boolean custom) {
+		String metadata = "{\"municipality\": \"Bolzano - Bozen\", \"capacity\": [1, 2.5], \"tags\": []}";
+		Map<String, Object> point = new HashMap<>();
+		point.put("srid", 4326);
+		point.put("x", 11.3548);
+		point.put("y", 46.4983);
+
+		Map<String, Object> row = new LinkedCaseInsensitiveMap<>();
+		row.put("mvalidtime", "2020-09-13 14:26:40.123+0200");
+		row.put("mvalue", 12.5);
+		row.put("mperiod", 600);
+		if (custom) {
+			Point coordinate = new Point(11.3548, 46.4983);
+			coordinate.setSrid(4326);
+			row.put("scoordinate", coordinate);
+			row.put("smetadata", RawJson.of(metadata));
+		} else {
+			row.put("scoordinate", point);
+			/* Raw JSON is written verbatim, or re-indented like maps and lists */
+			Map<String, Object> parsed = new LinkedHashMap<>();
+			parsed.put("municipality", "Bolzano - Bozen");
+			parsed.put("capacity", Arrays.asList(1, 2.5));
+			parsed.put("tags", new ArrayList<>());
+			row.put("smetadata", JsoniterSpi.getCurrentConfig().indentionStep() > 0 ? parsed : JsonIterator.deserialize(metadata));
+		}
+		row.put("sactive", true);
+		row.put("mid", 1L << 40);
+		row.put("snull", null);
+		return row;
+	}
+}
@@ -0,0 +1,165 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jsoniter.output.JsonStream;
+
+import it.bz.idm.bdp.ninja.config.SelectExpansionConfig;
+import it.bz.idm.bdp.ninja.utils.conditionals.ConditionalMap;
+import it.bz.idm.bdp.ninja.utils.jsonserializer.NodeEncoder;
+import it.bz.idm.bdp.ninja.utils.resultbuilder.ResultBuilder;
+import it.bz.idm.bdp.ninja.utils.resultbuilder.ResultBuilderConfig;
+import it.bz.idm.bdp.ninja.utils.resultbuilder.StreamedTree;
+import it.bz.idm.bdp.ninja.utils.simpleexception.SimpleException;
+
+public class ParallelTreeTests {
+
+	private ForkJoinPool pool;
+	private ResultBuilderConfig serial;
+	private ResultBuilderConfig parallel;
+
+	@BeforeEach
+	public void setUp() {
+		pool = new ForkJoinPool(4);
+		serial = config();
+		parallel = config().setParallelThreshold(1);
+	}
+
+	@AfterEach
+	public void tearDown() {
+		pool.shutdown();
+	}
+
+	@Test
+	public void testSameTreeAsSerial() throws Exception {
+		/* Stations span several partitions of at least 1000 rows each */
+		List<Map<String, Object>> rows = new ArrayList<>();
+		for (String stationType : new String[] {"EChargingStation", "ParkingStation"}) {
+			for (int station = 0; station < 30; station++) {
+				for (String dataType : new String[] {"free", "occupied"}) {
+					for (int validTime = 0; validTime < 30; validTime++) {
+						rows.add(measurement(stationType, "s" + station, dataType, validTime));
+					}
+				}
+			}
+		}
+		assertEquals(stream(serial, rows), inPool(() -> stream(parallel, rows)));
+		/* Same tree as the serial build, except for the order of keys */
+		ObjectMapper mapper = new ObjectMapper();
+		assertEquals(mapper.readTree(build(serial, rows)), mapper.readTree(inPool(() -> stream(parallel, rows))));
+	}
+
+	@Test
+	public void testRepeatedKeys() throws Exception {
+		/* Station types and stations that appear again later, which ordered queries do not return */
+		List<Map<String, Object>> rows = new ArrayList<>();
+		for (int i = 0; i < 3000; i++) {
+			rows.add(measurement(i % 2000 < 1000 ? "ParkingStation" : "EChargingStation", "s" + (i / 10 % 150), "free", i));
+		}
+		assertEquals(stream(serial, rows), inPool(() -> stream(parallel, rows)));
+	}
+
+	@Test
+	public void testRowsReleased() throws Exception {
+		List<Map<String, Object>> rows = new ArrayList<>();
+		for (int i = 0; i < 3000; i++) {
+			rows.add(measurement("ParkingStation", "s" + (i / 100), "free", i));
+		}
+		inPool(() -> encode(new StreamedTree(parallel, rows)));
+		assertEquals(3000, rows.size());
+		assertNull(rows.get(0));
+		assertNull(rows.get(2999));
+	}
+
+	@Test
+	public void testResponseSize() {
+		List<Map<String, Object>> rows = new ArrayList<>();
+		for (int i = 0; i < 3000; i++) {
+			rows.add(measurement("ParkingStation", "s" + i, "x".repeat(1000), i));
+		}
+		parallel.setMaxAllowedSizeInMB(1);
+		assertThrows(SimpleException.class, () -> inPool(() -> stream(parallel, rows)));
+	}
+
+	private ResultBuilderConfig config() {
+		return new ResultBuilderConfig()
+				.setShowNull(false)
+				.setEntryPoint("stationtype")
+				.addExitPoint("metadatahistory", false)
+				.setSchema(new SelectExpansionConfig().getSelectExpansion().getSchema())
+				.setMaxAllowedSizeInMB(1000);
+	}
+
+	private interface Action {
+		String run() throws IOException;
+	}
+
+	private String inPool(Action action) throws Exception {
+		try {
+			return pool.submit(() -> {
+				try {
+					return action.run();
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}).get();
+		} catch (ExecutionException e) {
+			throw (Exception) e.getCause();
+		}
+	}
+
+	private static String build(ResultBuilderConfig config, List<Map<String, Object>> rows) throws IOException {
+		return encode(ResultBuilder.build(config, new ArrayList<>(rows)));
+	}
+
+	private static String stream(ResultBuilderConfig config, List<Map<String, Object>> rows) throws IOException {
+		return encode(new StreamedTree(config, new ArrayList<>(rows)));
+	}
+
+	private static String encode(Object obj) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JsonStream stream = new JsonStream(out, 64);
+		if (obj instanceof StreamedTree) {
+			((StreamedTree) obj).write(stream);
+		} else {
+			new NodeEncoder().encode(obj, stream);
+		}
+		stream.flush();
+		return out.toString(StandardCharsets.UTF_8);
+	}
+
+	private static Map<String, Object> measurement(String stationType, String stationCode, String dataType,
+			int validTime) {
+		return ConditionalMap.mapOf(
+			"_stationtype", stationType,
+			"_stationcode", stationCode,
+			"_datatypename", dataType,
+			"sname", "Station " + stationCode,
+			"scode", stationCode,
+			"tname", dataType,
+			"mperiod", 300,
+			"mvalidtime", validTime,
+			"mvalue", validTime * 1.5).get();
+	}
+}
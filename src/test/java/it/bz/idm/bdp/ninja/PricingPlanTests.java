@@ -0,0 +1,110 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.keycloak.adapters.RefreshableKeycloakSecurityContext;
+import org.keycloak.adapters.springsecurity.account.SimpleKeycloakAccount;
+import org.keycloak.adapters.springsecurity.token.KeycloakAuthenticationToken;
+import org.keycloak.representations.AccessToken;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import it.bz.idm.bdp.ninja.quota.PricingPlan;
+import it.bz.idm.bdp.ninja.quota.PricingPlan.Policy;
+import it.bz.idm.bdp.ninja.utils.SecurityUtils;
+import it.bz.idm.bdp.ninja.utils.SecurityUtils.RoleType;
+
+public class PricingPlanTests {
+
+	@AfterEach
+	public void clearContext() {
+		SecurityContextHolder.clearContext();
+	}
+
+	private static KeycloakAuthenticationToken token(String tokenId, long expiresInSeconds, String... roles) {
+		AccessToken accessToken = new AccessToken();
+		accessToken.id(tokenId);
+		accessToken.exp(System.currentTimeMillis() / 1000 + expiresInSeconds);
+		RefreshableKeycloakSecurityContext context = new RefreshableKeycloakSecurityContext(
+			null, null, "header.payload-of-" + tokenId + ".signature", accessToken, null, null, null
+		);
+		SimpleKeycloakAccount account = new SimpleKeycloakAccount(() -> "user", Set.of(roles), context);
+		KeycloakAuthenticationToken auth = new KeycloakAuthenticationToken(account, false);
+		auth.setDetails(account);
+		return auth;
+	}
+
+	@Test
+	public void testSingletonPlans() {
+		List<String> guest = Arrays.asList(SecurityUtils.ROLE_QUOTA_GUEST);
+		assertSame(PricingPlan.of(Policy.ANONYMOUS), PricingPlan.resolvePlan(guest, null, null));
+		assertSame(PricingPlan.of(Policy.REFERER), PricingPlan.resolvePlan(guest, null, "my-app"));
+		assertSame(PricingPlan.of(Policy.AUTHENTICATED_BASIC), PricingPlan.resolvePlan(guest, "user", null));
+		assertSame(
+			PricingPlan.of(Policy.NO_RESTRICTION),
+			PricingPlan.resolvePlan(Arrays.asList(SecurityUtils.ROLE_QUOTA_ADMIN), "user", null)
+		);
+
+		assertEquals(5, PricingPlan.of(Policy.REFERER).getLimit(Map.of(Policy.REFERER, 5L)));
+		assertThrows(IllegalArgumentException.class, () -> PricingPlan.of(Policy.REFERER).getLimit(Map.of()));
+	}
+
+	@Test
+	public void testPlanResolvedOncePerRequest() {
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.addHeader("Referer", "my-app");
+		PricingPlan plan = PricingPlan.resolvePlan(request);
+		assertSame(PricingPlan.of(Policy.REFERER), plan);
+		assertSame(plan, request.getAttribute(PricingPlan.REQUEST_ATTRIBUTE));
+
+		/* Later changes do not matter anymore within the same request */
+		request.setAttribute(PricingPlan.REQUEST_ATTRIBUTE, PricingPlan.of(Policy.ANONYMOUS));
+		assertSame(PricingPlan.of(Policy.ANONYMOUS), PricingPlan.resolvePlan(request));
+	}
+
+	@Test
+	public void testRolesCachedPerToken() {
+		KeycloakAuthenticationToken auth = token("token-1", 300, "ODH_ROLE_PREMIUM", "BDP_BLC", "other");
+		List<String> quotaRoles = SecurityUtils.getRolesFromAuthentication(auth, RoleType.QUOTA);
+		assertEquals(Arrays.asList("PREMIUM", "GUEST"), quotaRoles);
+		assertSame(quotaRoles, SecurityUtils.getRolesFromAuthentication(auth, RoleType.QUOTA));
+		assertEquals(Arrays.asList("BLC", "GUEST"), SecurityUtils.getRolesFromAuthentication(auth, RoleType.OPENDATA));
+
+		/* The token id is the key, not the token string */
+		KeycloakAuthenticationToken same = token("token-1", 300, "ODH_ROLE_PREMIUM");
+		assertSame(quotaRoles, SecurityUtils.getRolesFromAuthentication(same, RoleType.QUOTA));
+
+		/* Tokens without an id do not get cached */
+		KeycloakAuthenticationToken anonymous = token(null, 300, "ODH_ROLE_BASIC");
+		List<String> basicRoles = SecurityUtils.getRolesFromAuthentication(anonymous, RoleType.QUOTA);
+		assertEquals(Arrays.asList("BASIC", "GUEST"), basicRoles);
+		assertNotSame(basicRoles, SecurityUtils.getRolesFromAuthentication(anonymous, RoleType.QUOTA));
+
+		/* Expired tokens do not stay in the cache */
+		KeycloakAuthenticationToken expired = token("token-2", -1, "ODH_ROLE_ADMIN");
+		List<String> adminRoles = SecurityUtils.getRolesFromAuthentication(expired, RoleType.QUOTA);
+		assertEquals(Arrays.asList("ADMIN"), adminRoles);
+		assertNotSame(adminRoles, SecurityUtils.getRolesFromAuthentication(expired, RoleType.QUOTA));
+
+		SecurityContextHolder.getContext().setAuthentication(auth);
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		assertSame(PricingPlan.of(Policy.AUTHENTICATED_PREMIUM), PricingPlan.resolvePlan(request));
+
+		assertEquals(Arrays.asList("GUEST"), SecurityUtils.getRolesFromAuthentication(null, RoleType.QUOTA));
+		assertThrows(UnsupportedOperationException.class, () -> quotaRoles.add("X"));
+	}
+}
@@ -4,7 +4,12 @@
 
 package it.bz.idm.bdp.ninja;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -90,6 +95,23 @@ public class QueryBuilderTests {
 		assertEquals("SELECT me.double_value as mvalue, null::character varying as mvalue_string, null::jsonb as mvalue_json , null::double precision as mvalue_double, me.string_value as mvalue, null::jsonb as mvalue_json", res);
 	}
 
+	@Test
+	public void testArrayParameter() {
+		QueryBuilder query = QueryBuilder
+			.init(se, "a", null, true, "A")
+			.setArrayParameterIfNotEmptyAnd("codes", QueryBuilder.csvToSet("x,y"), "and A.a = any(:codes)", true)
+			.setArrayParameterIfNotEmptyAnd("empty", new HashSet<>(), "and A.c = any(:empty)", true)
+			.setArrayParameterIfNotEmptyAnd("skipped", QueryBuilder.csvToSet("*"), "and A.c = any(:skipped)", false);
+
+		assertEquals("and A.a = any(:codes)", query.getSql());
+		assertEquals(1, query.getParameters().size());
+		assertTrue(query.getParameters().get("codes") instanceof String[]);
+
+		assertArrayEquals(new Integer[] {1, null, 3}, (Integer[]) QueryBuilder.toSqlArray(Arrays.asList(1, null, 3)));
+		assertArrayEquals(new Double[] {1.0, 2.5}, (Double[]) QueryBuilder.toSqlArray(Arrays.asList(1, 2.5)));
+		assertEquals(Arrays.asList("a", 1), QueryBuilder.toSqlArray(Arrays.asList("a", 1)));
+	}
+
 
 
 }
@@ -0,0 +1,92 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jsoniter.JsonIterator;
+import com.jsoniter.output.JsonStream;
+import com.jsoniter.spi.JsoniterSpi;
+
+import it.bz.idm.bdp.ninja.utils.jsonserializer.JsonFormat;
+import it.bz.idm.bdp.ninja.utils.jsonserializer.RawJson;
+import it.bz.idm.bdp.ninja.utils.jsonserializer.RawJsonEncoder;
+
+public class RawJsonTests {
+
+	private static final String[] DOCUMENTS = {
+		"{\"a\": 1, \"b\": [1, 2.50, null], \"c\": {\"d\": \"x\\\"y\"}}",
+		"{\"municipality\": \"Bolzano - Bozen\", \"name\": \"Straße € ✓ 🚗\"}",
+		"\"just a string\"",
+		"12.50",
+		"[]"
+	};
+
+	@BeforeAll
+	public static void setup() {
+		JsoniterSpi.registerTypeEncoder(RawJson.class, new RawJsonEncoder());
+	}
+
+	@Test
+	public void testVerbatimLikeLazyAny() {
+		for (String json : DOCUMENTS) {
+			Map<String, Object> raw = new LinkedHashMap<>();
+			raw.put("smetadata", RawJson.of(json));
+			raw.put("sname", "Station");
+			Map<String, Object> parsed = new LinkedHashMap<>();
+			parsed.put("smetadata", JsonIterator.deserialize(json.getBytes(StandardCharsets.UTF_8)));
+			parsed.put("sname", "Station");
+			assertEquals(JsonStream.serialize(parsed), JsonStream.serialize(raw));
+		}
+	}
+
+	@Test
+	public void testReindentedIfPretty() throws IOException {
+		ObjectMapper mapper = new ObjectMapper();
+		for (String json : DOCUMENTS) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			JsonFormat.PRETTY.serialize(Map.of("smetadata", RawJson.of(json)), out);
+			String pretty = out.toString(StandardCharsets.UTF_8);
+			assertEquals(mapper.readTree("{\"smetadata\": " + json + "}"), mapper.readTree(pretty));
+		}
+		assertEquals(
+			"{\n"
+				+ "    \"smetadata\": {\n"
+				+ "        \"a\": 1,\n"
+				+ "        \"b\": [\n"
+				+ "            1,\n"
+				+ "            2.50,\n"
+				+ "            null\n"
+				+ "        ],\n"
+				+ "        \"c\": {\n"
+				+ "            \"d\": \"x\\\"y\"\n"
+				+ "        },\n"
+				+ "        \"e\": {},\n"
+				+ "        \"f\": []\n"
+				+ "    }\n"
+				+ "}",
+			JsonFormat.PRETTY.serialize(Map.of("smetadata",
+				RawJson.of("{\"a\": 1, \"b\": [1, 2.50, null], \"c\": {\"d\": \"x\\\"y\"}, \"e\": { }, \"f\": []}"))));
+	}
+
+	@Test
+	public void testParseOnDemand() {
+		RawJson json = RawJson.of(DOCUMENTS[0]);
+		assertEquals("x\"y", json.parse().get("c", "d").toString());
+		assertEquals(3, json.parse().get("b").size());
+		assertEquals(DOCUMENTS[0], json.toString());
+		assertEquals(RawJson.of(DOCUMENTS[0]), json);
+	}
+}
@@ -0,0 +1,58 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.bz.idm.bdp.ninja.utils.Representation;
+import it.bz.idm.bdp.ninja.utils.metrics.RequestMetrics;
+import it.bz.idm.bdp.ninja.utils.metrics.RequestTrace.Span;
+
+public class RequestMetricsTests {
+
+	@AfterEach
+	public void resetRegistry() {
+		RequestMetrics.setRegistry(null);
+	}
+
+	@Test
+	public void testPhasesAndSizes() {
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		RequestMetrics.setRegistry(registry);
+
+		RequestMetrics.recordPhase(Span.EXECUTE, "fetchStations", Representation.TREE_NODE, 3_500_000);
+		RequestMetrics.recordPhase(Span.EXECUTE, "fetchStations", Representation.TREE_NODE, 1_500_000);
+		RequestMetrics.recordPhase(Span.SERIALIZE, "fetchStations", Representation.TREE_NODE, 250_000);
+		RequestMetrics.recordRows("fetchStations", Representation.TREE_NODE, 42);
+		RequestMetrics.recordBytes("fetchStations", Representation.TREE_NODE, "{\"a\":\"ä€😀\"}");
+
+		io.micrometer.core.instrument.Timer execute = registry
+			.get("ninja.request.phase")
+			.tags("phase", "execute", "command", "fetchStations", "representation", "tree,node")
+			.timer();
+		assertEquals(2, execute.count());
+		assertEquals(5_000_000, execute.totalTime(TimeUnit.NANOSECONDS));
+		assertEquals(250, registry.get("ninja.request.phase").tag("phase", "serialize").timer().totalTime(TimeUnit.MICROSECONDS));
+		assertEquals(42, registry.get("ninja.query.rows").summary().totalAmount());
+		assertEquals(
+			"{\"a\":\"ä€😀\"}".getBytes(StandardCharsets.UTF_8).length,
+			registry.get("ninja.response.bytes").summary().totalAmount()
+		);
+	}
+
+	@Test
+	public void testUtf8Length() {
+		for (String s : new String[] {"", "abc", "Südtirol", "€", "😀"}) {
+			assertEquals(s.getBytes(StandardCharsets.UTF_8).length, RequestMetrics.utf8Length(s), s);
+		}
+	}
+}
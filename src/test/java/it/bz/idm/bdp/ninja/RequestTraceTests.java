@@ -0,0 +1,66 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import it.bz.idm.bdp.ninja.utils.Representation;
+import it.bz.idm.bdp.ninja.utils.metrics.RequestTrace;
+import it.bz.idm.bdp.ninja.utils.metrics.RequestTrace.Span;
+
+public class RequestTraceTests {
+
+	@Test
+	public void testNestedSpans() {
+		RequestTrace trace = RequestTrace.begin();
+		assertSame(trace, RequestTrace.current());
+
+		trace.start(Span.BUILD);
+		trace.start(Span.EXPAND);
+		trace.start(Span.WHERE);
+		long where = trace.stop(Span.WHERE);
+		long expand = trace.stop(Span.EXPAND);
+		long build = trace.stop(Span.BUILD);
+
+		assertTrue(where <= expand && expand <= build);
+		assertEquals(build, trace.getNanos(Span.BUILD));
+		assertEquals(1, trace.getCount(Span.WHERE));
+		assertEquals("build.expand.where", Span.WHERE.getPath());
+
+		/* Durations of spans entered more than once add up */
+		trace.add(Span.MAP, 10);
+		trace.add(Span.MAP, 5);
+		assertEquals(15, trace.getNanos(Span.MAP));
+		assertEquals(2, trace.getCount(Span.MAP));
+	}
+
+	@Test
+	public void testReports() {
+		RequestTrace trace = RequestTrace.begin();
+		assertEquals("", trace.toServerTiming());
+		assertTrue(trace.toMap().isEmpty());
+
+		trace.add(Span.EXPAND, 315_000);
+		trace.add(Span.EXECUTE, 12_045_678);
+		trace.add(Span.SERIALIZE, 999);
+
+		assertEquals("build.expand;dur=0.315, execute;dur=12.045, serialize;dur=0.000", trace.toServerTiming());
+		Map<String, Long> map = trace.toMap();
+		assertEquals(3, map.size());
+		assertEquals(12_045_678L, map.get("execute"));
+
+		trace.setCommand("fetchStations", Representation.FLAT_NODE);
+		RequestTrace.begin();
+		assertEquals(0, trace.getNanos(Span.EXECUTE));
+		assertNull(trace.getCommand());
+	}
+}
@@ -5,6 +5,8 @@
 package it.bz.idm.bdp.ninja;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.util.ArrayList;
@@ -23,6 +25,9 @@ import it.bz.idm.bdp.ninja.utils.conditionals.ConditionalMap;
 import it.bz.idm.bdp.ninja.utils.querybuilder.Schema;
 import it.bz.idm.bdp.ninja.utils.querybuilder.SelectExpansion;
 import it.bz.idm.bdp.ninja.utils.querybuilder.TargetDef;
+import it.bz.idm.bdp.ninja.utils.querybuilder.Schema.ExitPoint;
+import it.bz.idm.bdp.ninja.utils.resultbuilder.HierarchyPlan;
+import it.bz.idm.bdp.ninja.utils.resultbuilder.HierarchyPlan.Step;
 import it.bz.idm.bdp.ninja.utils.resultbuilder.ResultBuilder;
 import it.bz.idm.bdp.ninja.utils.resultbuilder.ResultBuilderConfig;
 
@@ -271,4 +276,32 @@ public class ResultBuilderTests {
 				result);
 	}
 
+	@Test
+	public void testHierarchyPlan() {
+		Schema schema = seOpenDataHub.getSchema();
+		Map<String, ExitPoint> exitPoints = new HashMap<>();
+		exitPoints.put("metadatahistory", new ExitPoint("metadatahistory", false));
+		exitPoints.put("datatype", new ExitPoint("datatype", true));
+
+		HierarchyPlan plan = schema.getHierarchyPlan("stationtype", exitPoints);
+		assertSame(plan, schema.getHierarchyPlan("stationtype", new HashMap<>(exitPoints)));
+		assertEquals("[[stationtype], [station], [datatype, parent]]", plan.getLevels().toString());
+		assertEquals("[_stationtype, _stationcode, _datatypename]", plan.getTriggerKeys().toString());
+		assertEquals(plan.getLevels(), schema.getHierarchy("stationtype", exitPoints));
+		assertThrows(UnsupportedOperationException.class, () -> plan.getTriggerKeys().clear());
+
+		Step station = plan.getSteps(1)[0];
+		assertEquals(-1, plan.getSteps(0)[0].getParent());
+		assertEquals(plan.getSteps(0)[0].getIndex(), station.getParent());
+		for (Step step : plan.getSteps(2)) {
+			assertEquals(station.getIndex(), step.getParent());
+			assertEquals(2, step.getLevel());
+		}
+
+		/* Changing the exit points of the caller must not change the cached plan */
+		exitPoints.remove("datatype");
+		HierarchyPlan deeper = schema.getHierarchyPlan("stationtype", exitPoints);
+		assertTrue(deeper.getLevelCount() > plan.getLevelCount());
+		assertEquals(3, plan.getLevelCount());
+	}
 }
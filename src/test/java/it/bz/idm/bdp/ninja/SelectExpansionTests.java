@@ -4,6 +4,7 @@
 
 package it.bz.idm.bdp.ninja;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -181,6 +182,42 @@ public class SelectExpansionTests {
 		}
 	}
 
+	@Test
+	public void testOpenDataHubConfigListAsArray() {
+		seOpenDataHub.setWhereClause("scode.in.(a,b,c)");
+		seOpenDataHub.expand("scode", "station");
+		assertEquals("(s.stationcode = any(:pwhere_0))", seOpenDataHub.getWhereSql());
+		assertArrayEquals(new String[] {"a", "b", "c"}, (String[]) seOpenDataHub.getWhereParameters().get("pwhere_0"));
+
+		seOpenDataHub.setWhereClause("mperiod.nin.(1,2.5)");
+		seOpenDataHub.expand("mperiod", "measurement");
+		assertEquals("(me.period <> all(:pwhere_0))", seOpenDataHub.getWhereSql());
+		assertArrayEquals(new Double[] {1.0, 2.5}, (Double[]) seOpenDataHub.getWhereParameters().get("pwhere_0"));
+
+		seOpenDataHub.setWhereClause("smetadata.aa.in.(1,2,3)");
+		seOpenDataHub.expand("smetadata", "station");
+		assertEquals("((m.json#>'{aa}')::double precision = any(:pwhere_0))", seOpenDataHub.getWhereSql());
+		assertArrayEquals(new Integer[] {1, 2, 3}, (Integer[]) seOpenDataHub.getWhereParameters().get("pwhere_0"));
+
+		seOpenDataHub.setWhereClause("scode.in.(null,null)");
+		seOpenDataHub.expand("scode", "station");
+		assertEquals("(s.stationcode in (:pwhere_0))", seOpenDataHub.getWhereSql());
+	}
+
+	@Test
+	public void testRequiredWhereTargets() {
+		seOpenDataHub.setWhereClause("scode.eq.a,or(sname.eq.b,and(stype.eq.c,sactive.eq.true)),and(sorigin.eq.d)");
+		seOpenDataHub.expand("scode", "station");
+		List<WhereClauseTarget> required = seOpenDataHub.getRequiredWhereTargets();
+		assertEquals(2, required.size());
+		assertEquals("scode", required.get(0).getName());
+		assertEquals("sorigin", required.get(1).getName());
+
+		seOpenDataHub.setWhereClause("or(scode.eq.a)");
+		seOpenDataHub.expand("scode", "station");
+		assertTrue(seOpenDataHub.getRequiredWhereTargets().isEmpty());
+	}
+
 	@Test
 	public void testOpenDataHubConfigJSON() {
 		try {
@@ -0,0 +1,69 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+
+import it.bz.idm.bdp.ninja.utils.queryexecutor.SlowQueryLog;
+import it.bz.idm.bdp.ninja.utils.queryexecutor.SlowQueryLog.SlowQuery;
+
+public class SlowQueryLogTests {
+
+	private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	@Test
+	public void testRingBuffer() {
+		SlowQueryLog log = new SlowQueryLog(100, 3, 0, (sql, parameters) -> "never", Runnable::run);
+
+		log.record("select fast", null, 60 * MS, 1 * MS, 39 * MS, 10);
+		assertEquals(0, log.getRecorded());
+
+		for (int i = 0; i < 5; i++) {
+			log.record("select " + i, null, 100 * MS, 50 * MS, 0, i);
+		}
+		List<SlowQuery> queries = log.getQueries();
+		assertEquals(5, log.getRecorded());
+		assertEquals(3, queries.size());
+		assertEquals("select 4", queries.get(0).getSql());
+		assertEquals("select 2", queries.get(2).getSql());
+		assertEquals(100, queries.get(0).getExecutionMillis());
+		assertEquals(50, queries.get(0).getFirstRowMillis());
+		assertNull(queries.get(0).getPlan());
+
+		log.clear();
+		assertTrue(log.getQueries().isEmpty());
+		assertThrows(IllegalArgumentException.class, () -> new SlowQueryLog(1, 0, 0, (sql, parameters) -> "", Runnable::run));
+	}
+
+	@Test
+	public void testShapesAndPlans() {
+		MapSqlParameterSource parameters = new MapSqlParameterSource()
+			.addValue("stationtypes", new String[] {"ParkingStation", "EChargingStation"})
+			.addValue("from", "2024-01-01")
+			.addValue("limit", null);
+		SlowQueryLog log = new SlowQueryLog(0, 10, 1, (sql, values) -> {
+			assertSame(parameters, values);
+			return "Seq Scan on station s";
+		}, Runnable::run);
+
+		log.record("select * from station s where s.stationtype = any(:stationtypes)", parameters, MS, MS, MS, 2);
+
+		SlowQuery query = log.getQueries().get(0);
+		assertEquals("String[2]", query.getParameterShapes().get("stationtypes"));
+		assertEquals("String", query.getParameterShapes().get("from"));
+		assertEquals("null", query.getParameterShapes().get("limit"));
+		assertEquals("Seq Scan on station s", query.getPlan());
+	}
+}
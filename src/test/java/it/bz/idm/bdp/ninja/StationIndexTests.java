@@ -0,0 +1,154 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import it.bz.idm.bdp.ninja.config.SelectExpansionConfig;
+import it.bz.idm.bdp.ninja.utils.querybuilder.SelectExpansion;
+import it.bz.idm.bdp.ninja.utils.spatial.SpatialFilter;
+import it.bz.idm.bdp.ninja.utils.spatial.StationIndex;
+import it.bz.idm.bdp.ninja.utils.spatial.StrTree;
+
+public class StationIndexTests {
+
+	@Test
+	public void testTreeFindsTheSamePointsAsAScan() {
+		Random random = new Random(42);
+		for (int size : new int[] {0, 1, 15, 16, 17, 1000, 5000}) {
+			long[] ids = new long[size];
+			double[] xs = new double[size];
+			double[] ys = new double[size];
+			for (int i = 0; i < size; i++) {
+				ids[i] = i;
+				xs[i] = 10 + random.nextDouble() * 3;
+				ys[i] = 46 + random.nextDouble() * 1.5;
+			}
+			StrTree tree = new StrTree(ids, xs, ys);
+			assertEquals(size, tree.size());
+
+			for (int query = 0; query < 50; query++) {
+				SpatialFilter filter = query % 2 == 0
+						? SpatialFilter.envelope(10 + random.nextDouble() * 3, 46 + random.nextDouble() * 1.5,
+								10 + random.nextDouble() * 3, 46 + random.nextDouble() * 1.5)
+						: SpatialFilter.distance(random.nextDouble() * 50_000, 10 + random.nextDouble() * 3,
+								46 + random.nextDouble() * 1.5);
+				Set<Long> expected = new TreeSet<>();
+				for (int i = 0; i < size; i++) {
+					if (filter.test(xs[i], ys[i])) {
+						expected.add(ids[i]);
+					}
+				}
+				Set<Long> found = new TreeSet<>();
+				filter.search(tree, List.of(), (id, x, y) -> found.add(id));
+				assertEquals(expected, found);
+			}
+		}
+	}
+
+	@Test
+	public void testFilters() {
+		/* Bolzano to Merano is about 24.5 km */
+		SpatialFilter distance = SpatialFilter.distance(25_000, 11.3548, 46.4983);
+		assertTrue(distance.test(11.1627, 46.6713));
+		assertTrue(!SpatialFilter.distance(24_000, 11.3548, 46.4983).test(11.1627, 46.6713));
+
+		SpatialFilter envelope = SpatialFilter.envelope(12, 47, 11, 46);
+		assertTrue(envelope.test(11, 46));
+		assertTrue(envelope.test(11.5, 46.5));
+		assertTrue(!envelope.test(12.1, 46.5));
+
+		SelectExpansion se = new SelectExpansionConfig().getSelectExpansion();
+		se.setWhereClause("scoordinate.dlt.(25000,11.3548,46.4983),or(scoordinate.bbi.(0,0,1,1))");
+		se.expand("scode", "station");
+		assertEquals(1, se.getRequiredWhereTargets().size());
+		assertNotNull(SpatialFilter.of(se.getRequiredWhereTargets().get(0)));
+
+		se.setWhereClause("scoordinate.bbi.(11,46,12,47,4326),scoordinate.bbc.(600000,5100000,700000,5200000,25832)");
+		se.expand("scode", "station");
+		assertNotNull(SpatialFilter.of(se.getRequiredWhereTargets().get(0)));
+		assertNull(SpatialFilter.of(se.getRequiredWhereTargets().get(1)));
+	}
+
+	@Test
+	public void testRebuildsChangedStationTypesOnly() {
+		AtomicLong nanos = new AtomicLong();
+		Map<String, String> fingerprints = new HashMap<>();
+		Map<String, List<Map<String, Object>>> points = new HashMap<>();
+		AtomicInteger loads = new AtomicInteger();
+		fingerprints.put("ParkingStation", "1");
+		points.put("ParkingStation", List.of(point(1, 11.35, 46.5), point(2, 11.16, 46.67)));
+		fingerprints.put("EChargingStation", "1");
+		points.put("EChargingStation", List.of(point(3, 11.36, 46.49)));
+
+		StationIndex.Loader loader = new StationIndex.Loader() {
+			@Override
+			public Map<String, String> fingerprints(Set<String> stationTypes) {
+				Map<String, String> result = new HashMap<>(fingerprints);
+				if (!stationTypes.contains("*")) {
+					result.keySet().retainAll(stationTypes);
+				}
+				return result;
+			}
+
+			@Override
+			public List<Map<String, Object>> points(String stationType) {
+				loads.incrementAndGet();
+				return points.get(stationType);
+			}
+		};
+		StationIndex index = new StationIndex(loader, Duration.ofSeconds(30), 100, nanos::get);
+
+		List<SpatialFilter> bolzano = List.of(SpatialFilter.envelope(11.3, 46.45, 11.4, 46.55));
+		assertEquals(List.of(1L), index.search(Set.of("ParkingStation"), bolzano));
+		assertEquals(1, loads.get());
+		assertEquals(Set.of(1L, 3L), new TreeSet<>(index.search(Set.of("*"), bolzano)));
+		assertEquals(2, loads.get());
+
+		/* A changed station type is rebuilt at most once per refresh interval, and left to PostGIS meanwhile */
+		points.put("ParkingStation", List.of(point(1, 11.35, 46.5), point(4, 11.37, 46.51)));
+		fingerprints.put("ParkingStation", "2");
+		assertNull(index.search(Set.of("ParkingStation"), bolzano));
+		assertNull(index.search(Set.of("*"), bolzano));
+		assertEquals(List.of(3L), index.search(Set.of("EChargingStation"), bolzano));
+		nanos.addAndGet(TimeUnit.SECONDS.toNanos(31));
+		assertEquals(List.of(1L, 4L), new ArrayList<>(new TreeSet<>(index.search(Set.of("ParkingStation"), bolzano))));
+		assertEquals(3, loads.get());
+
+		/* New station types get built right away, also within "*" */
+		fingerprints.put("BikeSharing", "1");
+		points.put("BikeSharing", List.of(point(5, 11.35, 46.5)));
+		assertEquals(Set.of(1L, 3L, 4L, 5L), new TreeSet<>(index.search(Set.of("*"), bolzano)));
+		assertEquals(4, loads.get());
+
+		/* Station types without stations, that cannot be indexed, or too many matches disable it */
+		assertNull(index.search(Set.of("ParkingStation", "CarSharing"), bolzano));
+		fingerprints.put("BikeCounter", null);
+		assertNull(index.search(Set.of("*"), bolzano));
+		assertNotNull(index.search(Set.of("ParkingStation"), bolzano));
+		assertNull(new StationIndex(loader, Duration.ofSeconds(30), 1, nanos::get).search(Set.of("ParkingStation"), bolzano));
+	}
+
+	private static Map<String, Object> point(long id, double x, double y) {
+		return Map.of("id", id, "x", x, "y", y);
+	}
+}
@@ -0,0 +1,205 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jsoniter.output.JsonStream;
+
+import it.bz.idm.bdp.ninja.config.SelectExpansionConfig;
+import it.bz.idm.bdp.ninja.utils.conditionals.ConditionalMap;
+import it.bz.idm.bdp.ninja.utils.jsonserializer.HoldBackOutputStream;
+import it.bz.idm.bdp.ninja.utils.jsonserializer.JsonFormat;
+import it.bz.idm.bdp.ninja.utils.jsonserializer.NodeEncoder;
+import it.bz.idm.bdp.ninja.utils.resultbuilder.ResultBuilder;
+import it.bz.idm.bdp.ninja.utils.resultbuilder.ResultBuilderConfig;
+import it.bz.idm.bdp.ninja.utils.resultbuilder.StreamedTree;
+import it.bz.idm.bdp.ninja.utils.simpleexception.SimpleException;
+
+public class StreamedTreeTests {
+
+	private ResultBuilderConfig rbConfig;
+
+	@BeforeEach
+	public void setUp() {
+		rbConfig = new ResultBuilderConfig()
+				.setShowNull(false)
+				.addExitPoint("metadatahistory", false)
+				.setSchema(new SelectExpansionConfig().getSelectExpansion().getSchema())
+				.setMaxAllowedSizeInMB(1000);
+	}
+
+	@AfterEach
+	public void resetIndention() {
+		JsonStream.setIndentionStep(0);
+	}
+
+	@Test
+	public void testSameJsonAsBuild() throws IOException {
+		List<Map<String, Object>> rows = new ArrayList<>();
+		for (String stationType : new String[] {"EChargingStation", "ParkingStation"}) {
+			for (int station = 1; station <= 3; station++) {
+				for (String dataType : new String[] {"free", "occupied"}) {
+					for (int validTime = 0; validTime < 2; validTime++) {
+						rows.add(ConditionalMap.mapOf(
+							"_stationtype", stationType,
+							"_stationcode", "s" + station,
+							"_datatypename", dataType,
+							"sname", "Station " + station,
+							"scode", "s" + station,
+							"tname", dataType,
+							"mperiod", 300,
+							"mvalidtime", "2020-09-13 14:26:4" + validTime + ".000+0000",
+							"mvalue", station * 1.5).get());
+					}
+				}
+			}
+		}
+		rbConfig.setEntryPoint("stationtype");
+		ObjectMapper mapper = new ObjectMapper();
+		for (int indention : new int[] {0, 4}) {
+			JsonStream.setIndentionStep(indention);
+			/* The top level of the built tree is a HashMap, streamed keys keep the order of the rows */
+			assertEquals(mapper.readTree(build(rows)), mapper.readTree(stream(rows)));
+			List<Map<String, Object>> parking = rows.subList(rows.size() / 2, rows.size());
+			assertEquals(build(parking), stream(parking));
+		}
+	}
+
+	@Test
+	public void testEvents() throws IOException {
+		List<Map<String, Object>> rows = new ArrayList<>();
+		rows.add(event("A22", "series1", "ev1", "first"));
+		rows.add(event("A22", "series1", "ev2", "second"));
+		rows.add(event("A22", "series2", "ev3", "third"));
+		rows.add(event("PROVINCE", "series3", "ev4", "fourth"));
+		rbConfig.setEntryPoint("eventorigin");
+		assertEquals(build(rows), stream(rows));
+	}
+
+	@Test
+	public void testRepeatedKeysKeepFirst() throws IOException {
+		List<Map<String, Object>> rows = new ArrayList<>();
+		rows.add(station("ParkingStation", "s1", "first"));
+		rows.add(station("ParkingStation", "s2", "second"));
+		rows.add(station("ParkingStation", "s1", "third"));
+		rbConfig.setEntryPoint("stationtype");
+		assertEquals(build(rows), stream(rows));
+		assertEquals(
+			"{\"ParkingStation\":{\"stations\":{"
+				+ "\"s1\":{\"sdatatypes\":{\"free\":{\"tmeasurements\":[{}]}},\"sname\":\"first\"},"
+				+ "\"s2\":{\"sdatatypes\":{\"free\":{\"tmeasurements\":[{}]}},\"sname\":\"second\"}}}}",
+			stream(rows));
+	}
+
+	@Test
+	public void testEmpty() throws IOException {
+		rbConfig.setEntryPoint("stationtype");
+		assertEquals("{}", stream(new ArrayList<>()));
+	}
+
+	@Test
+	public void testRowsReleased() throws IOException {
+		List<Map<String, Object>> rows = new ArrayList<>();
+		rows.add(station("ParkingStation", "s1", "first"));
+		rows.add(station("ParkingStation", "s2", "second"));
+		rbConfig.setEntryPoint("stationtype");
+		encode(new StreamedTree(rbConfig, rows));
+		assertEquals(2, rows.size());
+		assertNull(rows.get(0));
+		assertNull(rows.get(1));
+	}
+
+	@Test
+	public void testResponseSize() {
+		List<Map<String, Object>> rows = new ArrayList<>();
+		String name = "x".repeat(1000);
+		for (int i = 0; i < 2000; i++) {
+			rows.add(station("ParkingStation", "s" + i, name));
+		}
+		rbConfig.setEntryPoint("stationtype").setMaxAllowedSizeInMB(1);
+		assertThrows(SimpleException.class, () -> stream(rows));
+	}
+
+	@Test
+	public void testResponseSizeBeforeCommit() throws IOException {
+		NodeEncoder.register();
+		List<Map<String, Object>> rows = new ArrayList<>();
+		String name = "x".repeat(1000);
+		for (int i = 0; i < 2000; i++) {
+			rows.add(station("ParkingStation", "s" + i, name));
+		}
+		rbConfig.setEntryPoint("stationtype").setMaxAllowedSizeInMB(1);
+
+		/* Checked before the first byte, also for responses larger than the held back bytes */
+		ByteArrayOutputStream response = new ByteArrayOutputStream();
+		HoldBackOutputStream streamed = new HoldBackOutputStream(response, 4096, () -> {});
+		assertThrows(SimpleException.class,
+			() -> JsonFormat.COMPACT.serialize(new StreamedTree(rbConfig, new ArrayList<>(rows)), streamed));
+		assertFalse(streamed.isCommitted());
+		assertEquals(0, response.size());
+
+		/* The estimate is the one of a build */
+		assertThrows(SimpleException.class, () -> new StreamedTree(rbConfig, rows).checkSize());
+		assertThrows(SimpleException.class, () -> build(rows));
+		rbConfig.setMaxAllowedSizeInMB(3);
+		new StreamedTree(rbConfig, rows).checkSize();
+		build(rows);
+	}
+
+	private String build(List<Map<String, Object>> rows) throws IOException {
+		return encode(ResultBuilder.build(rbConfig, new ArrayList<>(rows)));
+	}
+
+	private String stream(List<Map<String, Object>> rows) throws IOException {
+		return encode(new StreamedTree(rbConfig, new ArrayList<>(rows)));
+	}
+
+	private static String encode(Object obj) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JsonStream stream = new JsonStream(out, 64);
+		if (obj instanceof StreamedTree) {
+			((StreamedTree) obj).write(stream);
+		} else {
+			new NodeEncoder().encode(obj, stream);
+		}
+		stream.flush();
+		return out.toString(StandardCharsets.UTF_8);
+	}
+
+	private static Map<String, Object> station(String stationType, String stationCode, String name) {
+		return ConditionalMap.mapOf(
+			"_stationtype", stationType,
+			"_stationcode", stationCode,
+			"_datatypename", "free",
+			"sname", name).get();
+	}
+
+	private static Map<String, Object> event(String origin, String series, String uuid, String name) {
+		return ConditionalMap.mapOf(
+			"_eventorigin", origin,
+			"_eventseriesuuid", series,
+			"_eventuuid", uuid,
+			"evuuid", uuid,
+			"evseriesuuid", series,
+			"evname", name).get();
+	}
+}
@@ -0,0 +1,76 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import it.bz.idm.bdp.ninja.tiles.TileCache;
+import it.bz.idm.bdp.ninja.tiles.TileCache.Key;
+
+public class TileCacheTests {
+
+	@Test
+	public void testKeys() {
+		Key key = key(Set.of("ParkingStation", "EChargingStation"), Set.of("GUEST", "BLC"), "1");
+		assertEquals(key, key(Set.of("EChargingStation", "ParkingStation"), Set.of("BLC", "GUEST"), "1"));
+		assertEquals(key.hashCode(), key(Set.of("EChargingStation", "ParkingStation"), Set.of("BLC", "GUEST"), "1").hashCode());
+		assertNotEquals(key, key(Set.of("ParkingStation"), Set.of("GUEST", "BLC"), "1"));
+		assertNotEquals(key, key(Set.of("ParkingStation", "EChargingStation"), Set.of("GUEST"), "1"));
+		assertNotEquals(key, key(Set.of("ParkingStation", "EChargingStation"), Set.of("GUEST", "BLC"), "2"));
+	}
+
+	@Test
+	public void testCachedUntilWatermarkChanges() {
+		AtomicLong nanos = new AtomicLong();
+		TileCache cache = new TileCache(1 << 20, Duration.ofHours(1), Duration.ofSeconds(30), nanos::get, Runnable::run);
+		AtomicInteger queries = new AtomicInteger();
+		AtomicInteger builds = new AtomicInteger();
+		AtomicInteger data = new AtomicInteger(1);
+
+		for (int i = 0; i < 3; i++) {
+			String watermark = cache.getWatermark("node", () -> queries.incrementAndGet() + ":" + data.get());
+			cache.get(key(Set.of("*"), Set.of("GUEST"), watermark), k -> new byte[builds.incrementAndGet()]);
+		}
+		assertEquals(1, queries.get());
+		assertEquals(1, builds.get());
+
+		/* New data is visible after the next refresh of the watermark */
+		data.incrementAndGet();
+		nanos.addAndGet(TimeUnit.SECONDS.toNanos(31));
+		String watermark = cache.getWatermark("node", () -> queries.incrementAndGet() + ":" + data.get());
+		cache.get(key(Set.of("*"), Set.of("GUEST"), watermark), k -> new byte[builds.incrementAndGet()]);
+		assertEquals(2, queries.get());
+		assertEquals(2, builds.get());
+
+		/* Other data sets have their own watermark */
+		cache.getWatermark("edge", () -> "edges");
+		assertEquals(watermark, cache.getWatermark("node", () -> "unused"));
+	}
+
+	@Test
+	public void testBoundedBySize() {
+		TileCache cache = new TileCache(100_000, Duration.ofHours(1), Duration.ofSeconds(30), System::nanoTime,
+				Runnable::run);
+		for (int i = 0; i < 100; i++) {
+			cache.get(key(Set.of("t" + i), Set.of("GUEST"), "1"), k -> new byte[10_000]);
+		}
+		cache.getCache().cleanUp();
+		assertTrue(cache.getCache().estimatedSize() <= 10, "size " + cache.getCache().estimatedSize());
+	}
+
+	private static Key key(Set<String> types, Set<String> roles, String watermark) {
+		return new Key("node", types, roles, "scode,sname", null, true, 12, 2176, 1456, watermark);
+	}
+}
@@ -0,0 +1,87 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import it.bz.idm.bdp.ninja.utils.queryexecutor.TimestampFormatter;
+
+public class TimestampFormatterTests {
+
+	private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSSZ");
+
+	private static final String[] ZONES = {
+		"UTC", "Europe/Rome", "America/St_Johns", "Asia/Kathmandu", "Australia/Lord_Howe", "+01:00", "UTC-05:30"
+	};
+
+	@Test
+	public void testSameAsDateTimeFormatter() {
+		Random random = new Random(42);
+		for (String zone : ZONES) {
+			TimestampFormatter formatter = TimestampFormatter.of(zone);
+
+			/* Ascending, as within a history, across a few years of transitions */
+			long micros = LocalDateTime.of(2019, 1, 1, 0, 0).toEpochSecond(ZoneOffset.UTC) * 1_000_000L;
+			for (int i = 0; i < 20_000; i++) {
+				micros += random.nextInt(3_600_000) * 1000L + random.nextInt(1000);
+				assertFormat(formatter, zone, micros);
+			}
+
+			/* Random order, including LMT offsets with seconds and years outside 1-9999 */
+			for (int i = 0; i < 20_000; i++) {
+				assertFormat(formatter, zone, (random.nextLong() % 400_000_000_000L) * 1_000_000L + random.nextInt(1_000_000));
+			}
+			assertFormat(formatter, zone, LocalDateTime.of(0, 6, 1, 0, 0).toEpochSecond(ZoneOffset.UTC) * 1_000_000L);
+			assertFormat(formatter, zone, LocalDateTime.of(10000, 6, 1, 0, 0).toEpochSecond(ZoneOffset.UTC) * 1_000_000L);
+			assertFormat(formatter, zone, -1);
+			assertFormat(formatter, zone, 0);
+		}
+	}
+
+	@Test
+	public void testTransitions() {
+		ZoneId rome = ZoneId.of("Europe/Rome");
+		TimestampFormatter formatter = new TimestampFormatter(rome);
+		long transition = rome.getRules().nextTransition(Instant.parse("2023-01-01T00:00:00Z")).toEpochSecond();
+		for (long second = transition - 2; second <= transition + 2; second++) {
+			assertFormat(formatter, "Europe/Rome", second * 1_000_000L);
+		}
+		for (long second = transition + 2; second >= transition - 2; second--) {
+			assertFormat(formatter, "Europe/Rome", second * 1_000_000L);
+		}
+		assertEquals("2023-03-26 01:59:59.999+0100", formatter.format(transition * 1_000_000L - 1));
+		assertEquals("2023-03-26 03:00:00.000+0200", formatter.format(transition * 1_000_000L));
+	}
+
+	@Test
+	public void testZones() {
+		assertSame(TimestampFormatter.zoneOf("Europe/Rome"), TimestampFormatter.zoneOf("Europe/Rome"));
+		assertEquals(ZoneId.of("UTC+01:00"), TimestampFormatter.zoneOf("UTC 01:00"));
+		assertThrows(DateTimeException.class, () -> TimestampFormatter.zoneOf("Mars/Olympus_Mons"));
+	}
+
+	private static void assertFormat(TimestampFormatter formatter, String zone, long micros) {
+		Instant instant = Instant.ofEpochSecond(Math.floorDiv(micros, 1_000_000L), Math.floorMod(micros, 1_000_000L) * 1000L);
+		String expected = DATE_FORMAT.format(instant.atZone(TimestampFormatter.zoneOf(zone)));
+		assertEquals(expected, formatter.format(micros), zone + " " + instant);
+
+		byte[] bytes = new byte[TimestampFormatter.MAX_LENGTH + 2];
+		int length = formatter.format(micros, bytes, 2);
+		assertEquals(expected, new String(bytes, 2, length, StandardCharsets.ISO_8859_1));
+	}
+}
@@ -0,0 +1,98 @@
+// SPDX-FileCopyrightText: NOI Techpark <digital@noi.bz.it>
+//
+// SPDX-License-Identifier: AGPL-3.0-or-later
+
+package it.bz.idm.bdp.ninja;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.jsoniter.output.JsonStream;
+
+import it.bz.idm.bdp.ninja.utils.jsonserializer.NodeEncoder;
+import it.bz.idm.bdp.ninja.utils.resultbuilder.TreeNode;
+
+public class TreeNodeTests {
+
+	private static final TreeNode.Shape STATION = new TreeNode.Shape(
+		Arrays.asList("sname", "scode", "sdatatypes", "smetadata", "sactive", "scode"));
+
+	@AfterEach
+	public void resetIndention() {
+		JsonStream.setIndentionStep(0);
+	}
+
+	@Test
+	public void testSameAsTreeMap() {
+		TreeNode node = new TreeNode(STATION);
+		Map<String, Object> expected = new TreeMap<>();
+		assertEquals(expected, node);
+		assertTrue(node.isEmpty());
+
+		for (Map<String, Object> map : List.of(node, expected)) {
+			map.put("sname", "Walther");
+			map.put("sactive", true);
+			map.put("smetadata", null);
+			map.put("scode", "a");
+			map.put("scode", "walther");
+		}
+		assertEquals(expected, node);
+		assertEquals(expected.toString(), node.toString());
+		assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(node.keySet()));
+		assertEquals(4, node.size());
+		assertTrue(node.containsKey("smetadata"));
+		assertNull(node.get("smetadata"));
+		assertFalse(node.containsKey("sdatatypes"));
+		assertFalse(node.containsKey("unknown"));
+
+		assertNull(node.remove("smetadata"));
+		assertEquals("walther", node.remove("scode"));
+		assertNull(node.remove("unknown"));
+		assertEquals("{sactive=true, sname=Walther}", node.toString());
+	}
+
+	@Test
+	public void testUnknownKey() {
+		TreeNode node = new TreeNode(STATION);
+		assertThrows(IllegalArgumentException.class, () -> node.put("tname", "occupied"));
+	}
+
+	@Test
+	public void testSameJsonAsTreeMap() throws IOException {
+		TreeNode node = new TreeNode(STATION);
+		Map<String, Object> expected = new TreeMap<>();
+		for (Map<String, Object> map : List.of(node, expected)) {
+			map.put("scode", "walther");
+			map.put("sdatatypes", new TreeMap<>(Map.of("free", 12L)));
+			map.put("smetadata", null);
+		}
+		for (int indention : new int[] {0, 4}) {
+			JsonStream.setIndentionStep(indention);
+			assertEquals(encode(expected), encode(node));
+			assertEquals(encode(new TreeMap<>()), encode(new TreeNode(STATION)));
+		}
+	}
+
+	private static String encode(Object obj) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JsonStream stream = new JsonStream(out, 64);
+		new NodeEncoder().encode(obj, stream);
+		stream.flush();
+		return out.toString(StandardCharsets.UTF_8);
+	}
+}